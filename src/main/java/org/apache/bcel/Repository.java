@@ -21,6 +21,7 @@ package org.apache.bcel;
 import java.io.IOException;
 
 import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.util.ClassHierarchy;
 import org.apache.bcel.util.ClassPath;
 import org.apache.bcel.util.SyntheticRepository;
 
@@ -35,6 +36,8 @@ public abstract class Repository {
 
     private static org.apache.bcel.util.Repository repository = SyntheticRepository.getInstance();
 
+    private static ClassHierarchy classHierarchy = new ClassHierarchy(repository);
+
     /**
      * Adds clazz to repository if there isn't an equally named class already in there.
      *
@@ -44,6 +47,9 @@ public abstract class Repository {
     public static JavaClass addClass(final JavaClass clazz) {
         final JavaClass old = repository.findClass(clazz.getClassName());
         repository.storeClass(clazz);
+        if (old != null) {
+            classHierarchy.clear();
+        }
         return old;
     }
 
@@ -52,6 +58,19 @@ public abstract class Repository {
      */
     public static void clearCache() {
         repository.clear();
+        classHierarchy.clear();
+    }
+
+    /**
+     * Gets the index of the class hierarchy of the repository instance. It is cleared whenever classes are replaced or
+     * removed, through this class or the repository itself. The subtype queries of this class and of {@link JavaClass}
+     * use it.
+     *
+     * @return the index.
+     * @since 6.13.0
+     */
+    public static ClassHierarchy getClassHierarchy() {
+        return classHierarchy;
     }
 
     /**
@@ -155,7 +174,7 @@ public abstract class Repository {
      * @throws ClassNotFoundException if clazz, inter, or any superclasses or superinterfaces of clazz can't be found.
      */
     public static boolean implementationOf(final String clazz, final String inter) throws ClassNotFoundException {
-        return implementationOf(lookupClass(clazz), lookupClass(inter));
+        return classHierarchy.implementationOf(clazz, inter);
     }
 
     /**
@@ -203,7 +222,7 @@ public abstract class Repository {
      * @throws ClassNotFoundException if either clazz or superclass can't be found.
      */
     public static boolean instanceOf(final String clazz, final String superclass) throws ClassNotFoundException {
-        return instanceOf(lookupClass(clazz), lookupClass(superclass));
+        return classHierarchy.instanceOf(clazz, superclass);
     }
 
     /**
@@ -251,6 +270,7 @@ public abstract class Repository {
      */
     public static void removeClass(final JavaClass clazz) {
         repository.removeClass(clazz);
+        classHierarchy.clear();
     }
 
     /**
@@ -260,6 +280,7 @@ public abstract class Repository {
      */
     public static void removeClass(final String clazz) {
         repository.removeClass(repository.findClass(clazz));
+        classHierarchy.clear();
     }
 
     /**
@@ -269,6 +290,7 @@ public abstract class Repository {
      */
     public static void setRepository(final org.apache.bcel.util.Repository rep) {
         repository = rep;
+        classHierarchy = new ClassHierarchy(rep);
     }
 
     /**
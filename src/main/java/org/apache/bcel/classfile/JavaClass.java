@@ -26,8 +26,10 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.StringTokenizer;
@@ -36,6 +38,7 @@ import java.util.TreeSet;
 import org.apache.bcel.Const;
 import org.apache.bcel.generic.Type;
 import org.apache.bcel.util.BCELComparator;
+import org.apache.bcel.util.ClassHierarchy;
 import org.apache.bcel.util.ClassQueue;
 import org.apache.bcel.util.SyntheticRepository;
 import org.apache.commons.lang3.ArrayUtils;
@@ -50,6 +53,46 @@ import org.apache.commons.lang3.ArrayUtils;
  */
 public class JavaClass extends AccessFlags implements Cloneable, Node, Comparable<JavaClass> {
 
+    /**
+     * The members of an array by name and signature, the first member wins as in a linear search. Immutable once built,
+     * so it can be shared by threads.
+     */
+    private static final class MemberTable<T extends FieldOrMethod> {
+
+        /**
+         * Finds a member by a linear search, for members renamed in place to a name the table does not know.
+         */
+        static <T extends FieldOrMethod> T find(final T[] members, final String name, final String signature) {
+            for (final T member : members) {
+                if (member.getName().equals(name) && member.getSignature().equals(signature)) {
+                    return member;
+                }
+            }
+            return null;
+        }
+
+        static String key(final String name, final String signature) {
+            return name + ';' + signature;
+        }
+
+        final T[] members;
+        final Map<String, T> map = new HashMap<>();
+
+        MemberTable(final T[] members) {
+            this.members = members;
+            for (final T member : members) {
+                map.putIfAbsent(key(member.getName(), member.getSignature()), member);
+            }
+        }
+
+        /**
+         * Tests whether the table is still valid for a lookup result, a member may have been renamed in place.
+         */
+        boolean isCurrent(final T[] current, final T member, final String name, final String signature) {
+            return members == current && (member == null || member.getName().equals(name) && member.getSignature().equals(signature));
+        }
+    }
+
     private static final String CLASS_NAME_OBJECT = "java.lang.Object";
 
     /**
@@ -77,7 +120,7 @@ public class JavaClass extends AccessFlags implements Cloneable, Node, Comparabl
 
     private static final boolean debug = Boolean.getBoolean("JavaClass.debug"); // Debugging on/off
 
-    private static BCELComparator<JavaClass> bcelComparator = new BCELComparator<JavaClass>() {
+    private static final BCELComparator<JavaClass> DEFAULT_COMPARATOR = new BCELComparator<JavaClass>() {
 
         @Override
         public boolean equals(final JavaClass a, final JavaClass b) {
@@ -90,6 +133,8 @@ public class JavaClass extends AccessFlags implements Cloneable, Node, Comparabl
         }
     };
 
+    private static BCELComparator<JavaClass> bcelComparator = DEFAULT_COMPARATOR;
+
     /*
      * Print debug information depending on 'JavaClass.debug'
      */
@@ -140,6 +185,8 @@ public class JavaClass extends AccessFlags implements Cloneable, Node, Comparabl
     private String[] interfaceNames;
     private Field[] fields; // Fields, that is, variables of class
     private Method[] methods; // methods defined in the class
+    private transient MemberTable<Field> fieldTable; // Built on demand for fields
+    private transient MemberTable<Method> methodTable; // Built on demand for methods
     private Attribute[] attributes; // attributes defined in the class
 
     private AnnotationEntry[] annotations; // annotations defined on the class
@@ -439,14 +486,10 @@ public class JavaClass extends AccessFlags implements Cloneable, Node, Comparabl
             throw new ClassFormatException(getClassName());
         }
         try {
-            for (final Field field : fields) {
-                if (field.getName().equals(fieldName)) {
-                    final Type fType = Type.getType(field.getSignature());
-                    // TODO: Check if assignment compatibility is sufficient. What does Sun do?
-                    if (fType.equals(fieldType)) {
-                        return field;
-                    }
-                }
+            // TODO: Check if assignment compatibility is sufficient. What does Sun do?
+            final Field field = getField(fieldName, fieldType.getSignature());
+            if (field != null) {
+                return field;
             }
             final JavaClass superclass = getSuperClass();
             if (superclass != null && !CLASS_NAME_OBJECT.equals(superclass.getClassName())) {
@@ -557,6 +600,20 @@ public class JavaClass extends AccessFlags implements Cloneable, Node, Comparabl
         return baos.toByteArray();
     }
 
+    /**
+     * Gets the index of {@link org.apache.bcel.Repository#getClassHierarchy()} to answer subtype queries about this and
+     * another class, if both are the classes of its repository and compared by name.
+     *
+     * @return the index, or null to walk the supertypes.
+     */
+    private ClassHierarchy getClassHierarchy(final JavaClass other) {
+        if (bcelComparator != DEFAULT_COMPARATOR || repository != org.apache.bcel.Repository.getRepository()
+            || repository.findClass(className) != this || repository.findClass(other.getClassName()) != other) {
+            return null;
+        }
+        return org.apache.bcel.Repository.getClassHierarchy();
+    }
+
     /**
      * Gets the class name.
      *
@@ -594,6 +651,31 @@ public class JavaClass extends AccessFlags implements Cloneable, Node, Comparabl
         return fields;
     }
 
+    /**
+     * Gets the field declared by this class with the given name and signature, found through a table built on demand.
+     *
+     * @param name the field name.
+     * @param signature the field signature, for example {@code Ljava/lang/String;}.
+     * @return the field, or null if there is none.
+     * @since 6.13.0
+     */
+    public Field getField(final String name, final String signature) {
+        final String key = MemberTable.key(name, signature);
+        MemberTable<Field> table = fieldTable;
+        Field field = table != null ? table.map.get(key) : null;
+        if (table == null || !table.isCurrent(fields, field, name, signature)) {
+            fieldTable = table = new MemberTable<>(fields);
+            field = table.map.get(key);
+        }
+        if (field == null) {
+            field = MemberTable.find(fields, name, signature);
+            if (field != null) {
+                fieldTable = new MemberTable<>(fields);
+            }
+        }
+        return field;
+    }
+
     /**
      * Gets the file name of class.
      *
@@ -652,6 +734,11 @@ public class JavaClass extends AccessFlags implements Cloneable, Node, Comparabl
      * @return A {@link Method} corresponding to java.lang.reflect.Method if any.
      */
     public Method getMethod(final java.lang.reflect.Method m) {
+        final Method found = getMethod(m.getName(), Type.getSignature(m));
+        if (found == null || m.getModifiers() == found.getModifiers()) {
+            return found;
+        }
+        // Only invalid classes declare a method twice
         for (final Method method : methods) {
             if (m.getName().equals(method.getName()) && m.getModifiers() == method.getModifiers() && Type.getSignature(m).equals(method.getSignature())) {
                 return method;
@@ -660,6 +747,31 @@ public class JavaClass extends AccessFlags implements Cloneable, Node, Comparabl
         return null;
     }
 
+    /**
+     * Gets the method declared by this class with the given name and signature, found through a table built on demand.
+     *
+     * @param name the method name.
+     * @param signature the method signature, for example {@code (I)V}.
+     * @return the method, or null if there is none.
+     * @since 6.13.0
+     */
+    public Method getMethod(final String name, final String signature) {
+        final String key = MemberTable.key(name, signature);
+        MemberTable<Method> table = methodTable;
+        Method method = table != null ? table.map.get(key) : null;
+        if (table == null || !table.isCurrent(methods, method, name, signature)) {
+            methodTable = table = new MemberTable<>(methods);
+            method = table.map.get(key);
+        }
+        if (method == null) {
+            method = MemberTable.find(methods, name, signature);
+            if (method != null) {
+                methodTable = new MemberTable<>(methods);
+            }
+        }
+        return method;
+    }
+
     /**
      * Gets the methods of the class.
      *
@@ -807,6 +919,10 @@ public class JavaClass extends AccessFlags implements Cloneable, Node, Comparabl
         if (equals(inter)) {
             return true;
         }
+        final ClassHierarchy hierarchy = getClassHierarchy(inter);
+        if (hierarchy != null) {
+            return hierarchy.implementationOf(getClassName(), inter.getClassName());
+        }
         final JavaClass[] superInterfaces = getAllInterfaces();
         for (final JavaClass superInterface : superInterfaces) {
             if (superInterface.equals(inter)) {
@@ -827,6 +943,10 @@ public class JavaClass extends AccessFlags implements Cloneable, Node, Comparabl
         if (equals(superclass)) {
             return true;
         }
+        final ClassHierarchy hierarchy = getClassHierarchy(superclass);
+        if (hierarchy != null) {
+            return hierarchy.instanceOf(getClassName(), superclass.getClassName());
+        }
         for (final JavaClass clazz : getSuperClasses()) {
             if (clazz.equals(superclass)) {
                 return true;
@@ -60,6 +60,16 @@ public class ParameterAnnotationEntry implements Node {
 
     private final AnnotationEntry[] annotationTable;
 
+    /**
+     * Constructs an entry from its annotations.
+     *
+     * @param annotationTable The annotations of the parameter.
+     * @since 6.13.0
+     */
+    public ParameterAnnotationEntry(final AnnotationEntry[] annotationTable) {
+        this.annotationTable = annotationTable != null ? annotationTable : AnnotationEntry.EMPTY_ARRAY;
+    }
+
     /**
      * Constructs object from input stream.
      *
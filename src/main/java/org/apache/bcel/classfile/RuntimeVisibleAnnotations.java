@@ -31,6 +31,19 @@ import org.apache.bcel.Const;
  */
 public class RuntimeVisibleAnnotations extends Annotations {
 
+    /**
+     * Constructs a new instance.
+     *
+     * @param nameIndex Index pointing to the name <em>Code</em>.
+     * @param length Content length in bytes.
+     * @param annotationTable The actual annotations.
+     * @param constantPool Array of constants.
+     * @since 6.13.0
+     */
+    public RuntimeVisibleAnnotations(final int nameIndex, final int length, final AnnotationEntry[] annotationTable, final ConstantPool constantPool) {
+        super(Const.ATTR_RUNTIME_VISIBLE_ANNOTATIONS, nameIndex, length, annotationTable, constantPool, true);
+    }
+
     /**
      * Constructs a new instance.
      *
@@ -30,6 +30,19 @@ import org.apache.bcel.Const;
  */
 public class RuntimeVisibleParameterAnnotations extends ParameterAnnotations {
 
+    /**
+     * Constructs a new instance.
+     *
+     * @param nameIndex Index pointing to the name <em>Code</em>.
+     * @param length Content length in bytes.
+     * @param parameterAnnotationTable The actual parameter annotations.
+     * @param constantPool Array of constants.
+     * @since 6.13.0
+     */
+    public RuntimeVisibleParameterAnnotations(final int nameIndex, final int length, final ParameterAnnotationEntry[] parameterAnnotationTable, final ConstantPool constantPool) {
+        super(Const.ATTR_RUNTIME_VISIBLE_PARAMETER_ANNOTATIONS, nameIndex, length, parameterAnnotationTable, constantPool);
+    }
+
     /**
      * Constructs a new instance.
      *
@@ -0,0 +1,446 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantCP;
+import org.apache.bcel.classfile.ConstantMethodHandle;
+import org.apache.bcel.classfile.ConstantNameAndType;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.EnclosingMethod;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.InnerClass;
+import org.apache.bcel.classfile.InnerClasses;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.classfile.NestHost;
+import org.apache.bcel.classfile.NestMembers;
+import org.apache.bcel.classfile.Utility;
+import org.apache.bcel.util.Repository;
+
+/**
+ * Turns the outer and inner classes of class files compiled for Java 10 and before into nests, which may access each
+ * other's private members, and replaces the synthetic {@code access$NNN} methods the compiler generated for that by
+ * direct member access.
+ * <p>
+ * A nest is formed by a top-level class and all classes nested in it, found through the {@code InnerClasses} and
+ * {@code EnclosingMethod} attributes. An accessor is a static synthetic method named {@code access$...} without branches
+ * or exception handlers that only reads its parameters, works on the operand stack and with members declared by
+ * classes of the nest, and returns the single value left. Its calls in the nest are replaced by its code, calling
+ * private methods with {@code INVOKEVIRTUAL} instead of {@code INVOKESPECIAL}. The arguments stay on the operand stack
+ * if the accessor loads its parameters in order first, and are stored into new locals otherwise. The accessor is
+ * removed unless a method handle refers to it. The host gets a {@code NestMembers} attribute, the other classes a
+ * {@code NestHost} attribute, and all of them class file version 55. Stack map frames are computed for the changed
+ * methods and for all methods of classes before version 50, resolving types through the
+ * {@link org.apache.bcel.Repository} like {@link MethodGen#setStackMap()}.
+ * </p>
+ * <p>
+ * Nests are left unchanged if they have no accessors, a nested class that is not given, nest attributes already, or
+ * code that cannot get stack map frames, such as code using {@code JSR}/{@code RET}. Accessors calling a superclass
+ * method with {@code INVOKESPECIAL} and private constructors called through synthetic constructors are kept.
+ * </p>
+ *
+ * @since 6.13.0
+ */
+public class AccessorEliminator {
+
+    /**
+     * The code of an accessor up to its return.
+     */
+    private static final class Accessor {
+
+        final ConstantPoolGen cp;
+        final Type[] argumentTypes;
+        final Instruction[] code;
+        final boolean direct; // Whether the code loads the parameters in order first, and only then
+
+        Accessor(final ConstantPoolGen cp, final Type[] argumentTypes, final Instruction[] code, final boolean direct) {
+            this.cp = cp;
+            this.argumentTypes = argumentTypes;
+            this.code = code;
+            this.direct = direct;
+        }
+    }
+
+    private static final String ACCESSOR_PREFIX = "access$";
+
+    /**
+     * The first class file version with nests.
+     */
+    private static final int NEST_MAJOR = Const.MAJOR_11;
+
+    private static String className(final ConstantPool cp, final int index) {
+        return Utility.compactClassName(cp.getConstantString(index, Const.CONSTANT_Class), false);
+    }
+
+    private static String key(final String className, final String name, final String signature) {
+        return className + '.' + name + signature;
+    }
+
+    /**
+     * Gets the class a class is nested in, or null for a top-level class.
+     */
+    private static String outerClassName(final JavaClass clazz) {
+        final ConstantPool cp = clazz.getConstantPool();
+        final InnerClasses innerClasses = clazz.getAttribute(Const.ATTR_INNER_CLASSES);
+        if (innerClasses != null) {
+            for (final InnerClass inner : innerClasses.getInnerClasses()) {
+                if (inner.getOuterClassIndex() != 0 && className(cp, inner.getInnerClassIndex()).equals(clazz.getClassName())) {
+                    return className(cp, inner.getOuterClassIndex());
+                }
+            }
+        }
+        final EnclosingMethod enclosingMethod = clazz.getAttribute(Const.ATTR_ENCLOSING_METHOD);
+        return enclosingMethod == null ? null : className(cp, enclosingMethod.getEnclosingClassIndex());
+    }
+
+    /**
+     * Gets the top-level class a class is nested in, or null if one of the classes in between is not given.
+     */
+    private static String hostName(final JavaClass clazz, final Map<String, JavaClass> classes) {
+        JavaClass current = clazz;
+        // Bounded in case of invalid cycles
+        for (int i = 0; i < classes.size(); i++) {
+            final String outer = outerClassName(current);
+            if (outer == null) {
+                return current.getClassName();
+            }
+            current = classes.get(outer);
+            if (current == null) {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Tests whether the given classes of a nest are all of its classes, none of which is in a nest already.
+     */
+    private static boolean isComplete(final String hostName, final List<JavaClass> nest) {
+        final Set<String> names = new HashSet<>();
+        nest.forEach(clazz -> names.add(clazz.getClassName()));
+        for (final JavaClass clazz : nest) {
+            if (clazz.getAttribute(Const.ATTR_NEST_HOST) != null || clazz.getAttribute(Const.ATTR_NEST_MEMBERS) != null) {
+                return false;
+            }
+            final InnerClasses innerClasses = clazz.getAttribute(Const.ATTR_INNER_CLASSES);
+            if (innerClasses != null) {
+                final ConstantPool cp = clazz.getConstantPool();
+                for (final InnerClass inner : innerClasses.getInnerClasses()) {
+                    final String innerName = className(cp, inner.getInnerClassIndex());
+                    // Local and anonymous classes have no outer class here, but the name of their top-level class
+                    final boolean nested = inner.getOuterClassIndex() != 0 ? names.contains(className(cp, inner.getOuterClassIndex()))
+                        : innerName.startsWith(hostName + '$');
+                    if (nested && !names.contains(innerName)) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Gets the methods the method handles of a class refer to.
+     */
+    private static void addMethodHandleTargets(final JavaClass clazz, final Set<String> targets) {
+        final ConstantPool cp = clazz.getConstantPool();
+        for (final Constant constant : cp) {
+            if (constant instanceof ConstantMethodHandle) {
+                final ConstantCP ref = cp.getConstant(((ConstantMethodHandle) constant).getReferenceIndex(), ConstantCP.class);
+                final ConstantNameAndType nameAndType = cp.getConstant(ref.getNameAndTypeIndex(), Const.CONSTANT_NameAndType, ConstantNameAndType.class);
+                targets.add(key(className(cp, ref.getClassIndex()), nameAndType.getName(cp), nameAndType.getSignature(cp)));
+            }
+        }
+    }
+
+    /**
+     * Gets the accessor a method is, or null.
+     */
+    private static Accessor accessor(final ClassGen cg, final Method method, final Map<String, ClassGen> nest) {
+        if (!method.isStatic() || !method.isSynthetic() || !method.getName().startsWith(ACCESSOR_PREFIX) || method.getCode() == null) {
+            return null;
+        }
+        final ConstantPoolGen cp = cg.getConstantPool();
+        final MethodGen mg = new MethodGen(method, cg.getClassName(), cp);
+        final Instruction[] instructions = mg.getInstructionList().getInstructions();
+        final Type[] argumentTypes = mg.getArgumentTypes();
+        final int last = instructions.length - 1;
+        if (mg.getExceptionHandlers().length > 0 || !(instructions[last] instanceof ReturnInstruction)) {
+            return null;
+        }
+        boolean direct = last >= argumentTypes.length;
+        int slots = 0;
+        for (int i = 0; i < argumentTypes.length; i++) {
+            direct &= instructions[i] instanceof LoadInstruction && ((LoadInstruction) instructions[i]).getIndex() == slots;
+            slots += argumentTypes[i].getSize();
+        }
+        int depth = 0;
+        final Instruction[] code = new Instruction[last];
+        for (int i = 0; i < last; i++) {
+            Instruction instruction = instructions[i];
+            if (instruction instanceof LocalVariableInstruction) {
+                // Parameters are only read
+                if (!(instruction instanceof LoadInstruction) || ((LoadInstruction) instruction).getIndex() >= slots) {
+                    return null;
+                }
+                direct &= i < argumentTypes.length;
+            } else if (instruction instanceof FieldOrMethod && !(instruction instanceof INVOKEDYNAMIC)) {
+                final FieldOrMethod member = (FieldOrMethod) instruction;
+                final ReferenceType referenceType = member.getReferenceType(cp);
+                final ClassGen owner = referenceType instanceof ObjectType ? nest.get(((ObjectType) referenceType).getClassName()) : null;
+                if (owner == null) {
+                    return null;
+                }
+                final String name = member.getName(cp);
+                final String signature = member.getSignature(cp);
+                if (instruction instanceof FieldInstruction) {
+                    final Field field = owner.containsField(name);
+                    if (field == null || !field.getSignature().equals(signature)) {
+                        return null;
+                    }
+                } else {
+                    final Method target = owner.containsMethod(name, signature);
+                    if (target == null) {
+                        return null;
+                    }
+                    if (instruction instanceof INVOKESPECIAL) {
+                        // Calls of superclass methods and constructors cannot be made from other classes
+                        if (!target.isPrivate() || name.equals(Const.CONSTRUCTOR_NAME) || owner.isInterface()) {
+                            return null;
+                        }
+                        instruction = new INVOKEVIRTUAL(((INVOKESPECIAL) instruction).getIndex());
+                    }
+                }
+            } else if (!(instruction instanceof StackInstruction || instruction instanceof ConstantPushInstruction
+                || instruction instanceof ArithmeticInstruction || instruction instanceof ConversionInstruction)) {
+                return null;
+            }
+            depth += instruction.produceStack(cp) - instruction.consumeStack(cp);
+            code[i] = instruction;
+        }
+        // The returned value must be all that is left
+        return depth == mg.getReturnType().getSize() ? new Accessor(cp, argumentTypes, code, direct) : null;
+    }
+
+    /**
+     * Replaces the calls of accessors in a method by their code.
+     */
+    private static boolean inline(final MethodGen mg, final Map<String, Accessor> accessors) {
+        final ConstantPoolGen cp = mg.getConstantPool();
+        final InstructionList il = mg.getInstructionList();
+        final int base = mg.getMaxLocals();
+        boolean changed = false;
+        for (final InstructionHandle ih : il.getInstructionHandles()) {
+            if (!(ih.getInstruction() instanceof INVOKESTATIC)) {
+                continue;
+            }
+            final INVOKESTATIC invoke = (INVOKESTATIC) ih.getInstruction();
+            final Accessor accessor = accessors.get(key(invoke.getReferenceType(cp).toString(), invoke.getMethodName(cp), invoke.getSignature(cp)));
+            if (accessor == null) {
+                continue;
+            }
+            final List<Instruction> replacement = new ArrayList<>();
+            if (!accessor.direct) {
+                // The arguments go to locals above those of the method, shared by all calls
+                final int[] slots = new int[accessor.argumentTypes.length];
+                for (int i = 1; i < slots.length; i++) {
+                    slots[i] = slots[i - 1] + accessor.argumentTypes[i - 1].getSize();
+                }
+                for (int i = slots.length - 1; i >= 0; i--) {
+                    replacement.add(InstructionFactory.createStore(accessor.argumentTypes[i], base + slots[i]));
+                }
+            }
+            for (int i = accessor.direct ? accessor.argumentTypes.length : 0; i < accessor.code.length; i++) {
+                final Instruction instruction = accessor.code[i];
+                if (instruction instanceof LoadInstruction) {
+                    final LoadInstruction load = (LoadInstruction) instruction;
+                    replacement.add(InstructionFactory.createLoad(load.getType(accessor.cp), base + load.getIndex()));
+                } else if (instruction instanceof CPInstruction) {
+                    final CPInstruction ci = (CPInstruction) instruction.copy();
+                    ci.setIndex(cp.addConstant(accessor.cp.getConstant(ci.getIndex()), accessor.cp));
+                    replacement.add(ci);
+                } else {
+                    replacement.add(instruction.copy());
+                }
+            }
+            InstructionHandle last = ih;
+            ih.setInstruction(replacement.isEmpty() ? InstructionConst.NOP : replacement.get(0));
+            for (int i = 1; i < replacement.size(); i++) {
+                last = il.append(last, replacement.get(i));
+            }
+            // Ranges ending at the call cover all of its replacement
+            for (final CodeExceptionGen handler : mg.getExceptionHandlers()) {
+                if (handler.getEndPC() == ih) {
+                    handler.setEndPC(last);
+                }
+            }
+            for (final LocalVariableGen lv : mg.getLocalVariables()) {
+                if (lv.getEnd() == ih) {
+                    lv.setEnd(last);
+                }
+            }
+            changed = true;
+        }
+        if (changed) {
+            // Calls were replaced in place, see MethodGen.getMethod()
+            mg.update();
+        }
+        return changed;
+    }
+
+    /**
+     * Loads classes from a repository, transforms them and stores the changed classes back.
+     *
+     * @param repository the repository.
+     * @param classNames the names of the classes to transform, such as all classes of a jar.
+     * @throws ClassNotFoundException if a class cannot be found in the repository.
+     * @see #transform(JavaClass...)
+     */
+    public void transform(final Repository repository, final String... classNames) throws ClassNotFoundException {
+        final JavaClass[] classes = new JavaClass[classNames.length];
+        for (int i = 0; i < classNames.length; i++) {
+            classes[i] = repository.loadClass(classNames[i]);
+        }
+        final JavaClass[] transformed = transform(classes);
+        for (int i = 0; i < classes.length; i++) {
+            if (transformed[i] != classes[i]) {
+                repository.storeClass(transformed[i]);
+            }
+        }
+    }
+
+    /**
+     * Transforms the nests formed by the given classes.
+     *
+     * @param classes the classes to transform, such as all classes of a jar.
+     * @return the classes in the same order, replaced by new ones where they changed.
+     */
+    public JavaClass[] transform(final JavaClass... classes) {
+        final Map<String, JavaClass> byName = new HashMap<>();
+        for (final JavaClass clazz : classes) {
+            byName.put(clazz.getClassName(), clazz);
+        }
+        final Map<String, List<JavaClass>> nests = new LinkedHashMap<>();
+        for (final JavaClass clazz : classes) {
+            final String hostName = hostName(clazz, byName);
+            if (hostName != null) {
+                final List<JavaClass> nest = nests.computeIfAbsent(hostName, k -> new ArrayList<>());
+                // The host first
+                nest.add(hostName.equals(clazz.getClassName()) ? 0 : nest.size(), clazz);
+            }
+        }
+        final Map<String, JavaClass> transformed = new HashMap<>();
+        nests.forEach((hostName, nest) -> {
+            if (nest.size() > 1 && isComplete(hostName, nest)) {
+                final List<JavaClass> result = transform(nest);
+                if (result != null) {
+                    result.forEach(clazz -> transformed.put(clazz.getClassName(), clazz));
+                }
+            }
+        });
+        final JavaClass[] result = new JavaClass[classes.length];
+        for (int i = 0; i < classes.length; i++) {
+            result[i] = transformed.getOrDefault(classes[i].getClassName(), classes[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Transforms a complete nest, the host being first.
+     *
+     * @return the transformed classes, or null if the nest is left unchanged.
+     */
+    private List<JavaClass> transform(final List<JavaClass> nest) {
+        final Map<String, ClassGen> classGens = new LinkedHashMap<>();
+        final Set<String> handleTargets = new HashSet<>();
+        for (final JavaClass clazz : nest) {
+            classGens.put(clazz.getClassName(), new ClassGen(clazz));
+            addMethodHandleTargets(clazz, handleTargets);
+        }
+        final Map<String, Accessor> accessors = new HashMap<>();
+        for (final ClassGen cg : classGens.values()) {
+            for (final Method method : cg.getMethods()) {
+                final Accessor accessor = accessor(cg, method, classGens);
+                if (accessor != null) {
+                    accessors.put(key(cg.getClassName(), method.getName(), method.getSignature()), accessor);
+                }
+            }
+        }
+        if (accessors.isEmpty()) {
+            return null;
+        }
+        final ClassGen host = classGens.values().iterator().next();
+        final List<JavaClass> result = new ArrayList<>(nest.size());
+        try {
+            for (final ClassGen cg : classGens.values()) {
+                final boolean hasStackMaps = cg.getMajor() >= Const.MAJOR_1_6;
+                final Method[] methods = cg.getMethods();
+                for (int i = 0; i < methods.length; i++) {
+                    if (methods[i].getCode() != null) {
+                        final MethodGen mg = new MethodGen(methods[i], cg.getClassName(), cg.getConstantPool());
+                        if (inline(mg, accessors)) {
+                            mg.setMaxStack();
+                            mg.setMaxLocals();
+                            if (hasStackMaps) {
+                                mg.setStackMap(cg.getSuperclassName());
+                            }
+                            cg.setMethodAt(mg.getMethod(), i);
+                        }
+                    }
+                }
+                for (final Method method : methods) {
+                    final String key = key(cg.getClassName(), method.getName(), method.getSignature());
+                    if (accessors.containsKey(key) && !handleTargets.contains(key)) {
+                        cg.removeMethod(method);
+                    }
+                }
+                final ConstantPoolGen cp = cg.getConstantPool();
+                if (cg == host) {
+                    final int[] members = classGens.keySet().stream().skip(1).mapToInt(cp::addClass).toArray();
+                    cg.addAttribute(new NestMembers(cp.addUtf8(Const.getAttributeName(Const.ATTR_NEST_MEMBERS)), 2 + 2 * members.length, members,
+                        cp.getConstantPool()));
+                } else {
+                    cg.addAttribute(new NestHost(cp.addUtf8(Const.getAttributeName(Const.ATTR_NEST_HOST)), 2, cp.addClass(host.getClassName()),
+                        cp.getConstantPool()));
+                }
+                if (cg.getMajor() < NEST_MAJOR) {
+                    cg.setMajor(NEST_MAJOR);
+                    cg.setMinor(0);
+                }
+                if (!hasStackMaps) {
+                    cg.setStackMaps();
+                }
+                result.add(cg.getJavaClass());
+            }
+        } catch (final ClassGenException e) {
+            return null;
+        }
+        return result;
+    }
+}
@@ -18,10 +18,7 @@
  */
 package org.apache.bcel.generic;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.DataInput;
-import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -30,12 +27,15 @@ import java.util.stream.Collectors;
 
 import org.apache.bcel.classfile.AnnotationEntry;
 import org.apache.bcel.classfile.Attribute;
+import org.apache.bcel.classfile.ConstantPool;
 import org.apache.bcel.classfile.ConstantUtf8;
 import org.apache.bcel.classfile.ElementValuePair;
+import org.apache.bcel.classfile.ParameterAnnotationEntry;
 import org.apache.bcel.classfile.RuntimeInvisibleAnnotations;
 import org.apache.bcel.classfile.RuntimeInvisibleParameterAnnotations;
 import org.apache.bcel.classfile.RuntimeVisibleAnnotations;
 import org.apache.bcel.classfile.RuntimeVisibleParameterAnnotations;
+import org.apache.commons.io.output.NullOutputStream;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.stream.Streams;
 
@@ -50,6 +50,9 @@ public class AnnotationEntryGen {
 
     /**
      * Converts a list of AnnotationGen objects into a set of attributes that can be attached to the class file.
+     * <p>
+     * The attributes are built from the annotations directly, their lengths are measured on the entries written.
+     * </p>
      *
      * @param cp The constant pool gen where we can create the necessary name refs.
      * @param annotationEntryGens An array of AnnotationGen objects.
@@ -58,66 +61,31 @@ public class AnnotationEntryGen {
         if (ArrayUtils.isEmpty(annotationEntryGens)) {
             return Attribute.EMPTY_ARRAY;
         }
-
-        try {
-            int countVisible = 0;
-            int countInvisible = 0;
-
-            // put the annotations in the right output stream
-            for (final AnnotationEntryGen a : annotationEntryGens) {
-                if (a.isRuntimeVisible()) {
-                    countVisible++;
-                } else {
-                    countInvisible++;
-                }
-            }
-
-            final ByteArrayOutputStream rvaBytes = new ByteArrayOutputStream();
-            final ByteArrayOutputStream riaBytes = new ByteArrayOutputStream();
-            try (DataOutputStream rvaDos = new DataOutputStream(rvaBytes); DataOutputStream riaDos = new DataOutputStream(riaBytes)) {
-
-                rvaDos.writeShort(countVisible);
-                riaDos.writeShort(countInvisible);
-
-                // put the annotations in the right output stream
-                for (final AnnotationEntryGen a : annotationEntryGens) {
-                    if (a.isRuntimeVisible()) {
-                        a.dump(rvaDos);
-                    } else {
-                        a.dump(riaDos);
-                    }
-                }
+        final List<AnnotationEntry> visible = new ArrayList<>();
+        final List<AnnotationEntry> invisible = new ArrayList<>();
+        int visibleLength = 2; // u2 num_annotations
+        int invisibleLength = 2;
+        for (final AnnotationEntryGen a : annotationEntryGens) {
+            final AnnotationEntry entry = a.getAnnotation();
+            if (a.isRuntimeVisible()) {
+                visible.add(entry);
+                visibleLength += length(entry);
+            } else {
+                invisible.add(entry);
+                invisibleLength += length(entry);
             }
-
-            final byte[] rvaData = rvaBytes.toByteArray();
-            final byte[] riaData = riaBytes.toByteArray();
-
-            int rvaIndex = -1;
-            int riaIndex = -1;
-
-            if (rvaData.length > 2) {
-                rvaIndex = cp.addUtf8("RuntimeVisibleAnnotations");
-            }
-            if (riaData.length > 2) {
-                riaIndex = cp.addUtf8("RuntimeInvisibleAnnotations");
-            }
-
-            final List<Attribute> newAttributes = new ArrayList<>();
-            if (rvaData.length > 2) {
-                newAttributes
-                    .add(new RuntimeVisibleAnnotations(rvaIndex, rvaData.length, new DataInputStream(new ByteArrayInputStream(rvaData)), cp.getConstantPool()));
-            }
-            if (riaData.length > 2) {
-                newAttributes.add(
-                    new RuntimeInvisibleAnnotations(riaIndex, riaData.length, new DataInputStream(new ByteArrayInputStream(riaData)), cp.getConstantPool()));
-            }
-
-            return newAttributes.toArray(Attribute.EMPTY_ARRAY);
-        } catch (final IOException e) {
-            System.err.println("IOException whilst processing annotations");
-            e.printStackTrace();
         }
-        return null;
+        final int rvaIndex = visible.isEmpty() ? -1 : cp.addUtf8("RuntimeVisibleAnnotations");
+        final int riaIndex = invisible.isEmpty() ? -1 : cp.addUtf8("RuntimeInvisibleAnnotations");
+        final ConstantPool constantPool = cp.getConstantPool();
+        final List<Attribute> newAttributes = new ArrayList<>(2);
+        if (!visible.isEmpty()) {
+            newAttributes.add(new RuntimeVisibleAnnotations(rvaIndex, visibleLength, visible.toArray(AnnotationEntry.EMPTY_ARRAY), constantPool));
+        }
+        if (!invisible.isEmpty()) {
+            newAttributes.add(new RuntimeInvisibleAnnotations(riaIndex, invisibleLength, invisible.toArray(AnnotationEntry.EMPTY_ARRAY), constantPool));
+        }
+        return newAttributes.toArray(Attribute.EMPTY_ARRAY);
     }
 
     /**
@@ -126,79 +94,57 @@ public class AnnotationEntryGen {
      */
     static Attribute[] getParameterAnnotationAttributes(final ConstantPoolGen cp,
         final List<AnnotationEntryGen>[] /* Array of lists, array size depends on #params */ vec) {
-        final int[] visCount = new int[vec.length];
-        int totalVisCount = 0;
-        final int[] invisCount = new int[vec.length];
-        int totalInvisCount = 0;
-        try {
-            for (int i = 0; i < vec.length; i++) {
-                if (vec[i] != null) {
-                    for (final AnnotationEntryGen element : vec[i]) {
-                        if (element.isRuntimeVisible()) {
-                            visCount[i]++;
-                            totalVisCount++;
-                        } else {
-                            invisCount[i]++;
-                            totalInvisCount++;
-                        }
-                    }
-                }
-            }
-            // Lets do the visible ones
-            final ByteArrayOutputStream rvaBytes = new ByteArrayOutputStream();
-            try (DataOutputStream rvaDos = new DataOutputStream(rvaBytes)) {
-                rvaDos.writeByte(vec.length); // First goes number of parameters
-                for (int i = 0; i < vec.length; i++) {
-                    rvaDos.writeShort(visCount[i]);
-                    if (visCount[i] > 0) {
-                        for (final AnnotationEntryGen element : vec[i]) {
-                            if (element.isRuntimeVisible()) {
-                                element.dump(rvaDos);
-                            }
-                        }
-                    }
-                }
-            }
-            // Lets do the invisible ones
-            final ByteArrayOutputStream riaBytes = new ByteArrayOutputStream();
-            try (DataOutputStream riaDos = new DataOutputStream(riaBytes)) {
-                riaDos.writeByte(vec.length); // First goes number of parameters
-                for (int i = 0; i < vec.length; i++) {
-                    riaDos.writeShort(invisCount[i]);
-                    if (invisCount[i] > 0) {
-                        for (final AnnotationEntryGen element : vec[i]) {
-                            if (!element.isRuntimeVisible()) {
-                                element.dump(riaDos);
-                            }
-                        }
+        final ParameterAnnotationEntry[] visible = new ParameterAnnotationEntry[vec.length];
+        final ParameterAnnotationEntry[] invisible = new ParameterAnnotationEntry[vec.length];
+        int visibleLength = 1; // u1 num_parameters
+        int invisibleLength = 1;
+        boolean hasVisible = false;
+        boolean hasInvisible = false;
+        for (int i = 0; i < vec.length; i++) {
+            final List<AnnotationEntry> visibleEntries = new ArrayList<>();
+            final List<AnnotationEntry> invisibleEntries = new ArrayList<>();
+            visibleLength += 2; // u2 num_annotations
+            invisibleLength += 2;
+            if (vec[i] != null) {
+                for (final AnnotationEntryGen element : vec[i]) {
+                    final AnnotationEntry entry = element.getAnnotation();
+                    if (element.isRuntimeVisible()) {
+                        visibleEntries.add(entry);
+                        visibleLength += length(entry);
+                    } else {
+                        invisibleEntries.add(entry);
+                        invisibleLength += length(entry);
                     }
                 }
             }
-            final byte[] rvaData = rvaBytes.toByteArray();
-            final byte[] riaData = riaBytes.toByteArray();
-            int rvaIndex = -1;
-            int riaIndex = -1;
-            if (totalVisCount > 0) {
-                rvaIndex = cp.addUtf8("RuntimeVisibleParameterAnnotations");
-            }
-            if (totalInvisCount > 0) {
-                riaIndex = cp.addUtf8("RuntimeInvisibleParameterAnnotations");
-            }
-            final List<Attribute> newAttributes = new ArrayList<>();
-            if (totalVisCount > 0) {
-                newAttributes.add(new RuntimeVisibleParameterAnnotations(rvaIndex, rvaData.length, new DataInputStream(new ByteArrayInputStream(rvaData)),
-                    cp.getConstantPool()));
-            }
-            if (totalInvisCount > 0) {
-                newAttributes.add(new RuntimeInvisibleParameterAnnotations(riaIndex, riaData.length, new DataInputStream(new ByteArrayInputStream(riaData)),
-                    cp.getConstantPool()));
-            }
-            return newAttributes.toArray(Attribute.EMPTY_ARRAY);
+            hasVisible |= !visibleEntries.isEmpty();
+            hasInvisible |= !invisibleEntries.isEmpty();
+            visible[i] = new ParameterAnnotationEntry(visibleEntries.toArray(AnnotationEntry.EMPTY_ARRAY));
+            invisible[i] = new ParameterAnnotationEntry(invisibleEntries.toArray(AnnotationEntry.EMPTY_ARRAY));
+        }
+        final int rvaIndex = hasVisible ? cp.addUtf8("RuntimeVisibleParameterAnnotations") : -1;
+        final int riaIndex = hasInvisible ? cp.addUtf8("RuntimeInvisibleParameterAnnotations") : -1;
+        final ConstantPool constantPool = cp.getConstantPool();
+        final List<Attribute> newAttributes = new ArrayList<>(2);
+        if (hasVisible) {
+            newAttributes.add(new RuntimeVisibleParameterAnnotations(rvaIndex, visibleLength, visible, constantPool));
+        }
+        if (hasInvisible) {
+            newAttributes.add(new RuntimeInvisibleParameterAnnotations(riaIndex, invisibleLength, invisible, constantPool));
+        }
+        return newAttributes.toArray(Attribute.EMPTY_ARRAY);
+    }
+
+    /**
+     * Measures the encoded length of an annotation entry.
+     */
+    private static int length(final AnnotationEntry entry) {
+        try (DataOutputStream dos = new DataOutputStream(NullOutputStream.INSTANCE)) {
+            entry.dump(dos);
+            return dos.size();
         } catch (final IOException e) {
-            System.err.println("IOException whilst processing parameter annotations");
-            e.printStackTrace();
+            throw new ClassGenException("Cannot encode " + entry, e);
         }
-        return null;
     }
 
     /**
@@ -25,6 +25,28 @@ import org.apache.bcel.Const;
  */
 public final class ArrayType extends ReferenceType {
 
+    private static final TypeInterner<ArrayType> TYPES = new TypeInterner<>();
+
+    /**
+     * Gets the canonical instance of an array type, equal array types obtained here are the same instance.
+     *
+     * @param type type of array (may be an array itself).
+     * @param dimensions array dimensions.
+     * @return the shared instance.
+     * @since 6.13.0
+     */
+    public static ArrayType getInstance(final Type type, final int dimensions) {
+        if (dimensions < 1 || dimensions > Const.MAX_BYTE) {
+            throw new ClassGenException("Invalid number of dimensions: " + dimensions);
+        }
+        final StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < dimensions; i++) {
+            buf.append('[');
+        }
+        buf.append(type.getSignature());
+        return TYPES.intern(buf.toString(), () -> new ArrayType(type, dimensions));
+    }
+
     private final int dimensions;
     private final Type basicType;
 
@@ -85,6 +107,9 @@ public final class ArrayType extends ReferenceType {
      */
     @Override
     public boolean equals(final Object type) {
+        if (type == this) {
+            return true;
+        }
         if (type instanceof ArrayType) {
             final ArrayType array = (ArrayType) type;
             return array.dimensions == dimensions && array.basicType.equals(basicType);
@@ -130,7 +155,7 @@ public final class ArrayType extends ReferenceType {
         if (dimensions == 1) {
             return basicType;
         }
-        return new ArrayType(basicType, dimensions - 1);
+        return getInstance(basicType, dimensions - 1);
     }
 
     /**
@@ -0,0 +1,183 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+/**
+ * A maximal sequence of instructions entered only at its first instruction and left only after its last one, a node of
+ * a {@link BasicBlockGraph}.
+ * <p>
+ * A block lies either entirely inside or entirely outside the protected range of every exception handler, so each of
+ * its instructions may transfer control to the blocks returned by {@link #getExceptionSuccessors()}.
+ * </p>
+ *
+ * @see BasicBlockGraph
+ * @since 6.13.0
+ */
+public final class BasicBlock {
+
+    static final BasicBlock[] EMPTY_ARRAY = {};
+
+    private final int index;
+    final InstructionHandle[] instructions;
+    BasicBlock[] successors = EMPTY_ARRAY;
+    BasicBlock[] predecessors = EMPTY_ARRAY;
+    BasicBlock[] exceptionSuccessors = EMPTY_ARRAY;
+    BasicBlock[] exceptionPredecessors = EMPTY_ARRAY;
+    int reversePostOrderIndex = -1;
+    BasicBlock immediateDominator;
+    BasicBlock immediatePostDominator;
+    int loopDepth;
+
+    // Pre and post order numbers in the dominator trees, for constant time dominance queries
+    int dominatorPre = -1;
+    int dominatorPost = -1;
+    int postDominatorPre = -1;
+    int postDominatorPost = -1;
+
+    BasicBlock(final int index, final InstructionHandle[] instructions) {
+        this.index = index;
+        this.instructions = instructions;
+    }
+
+    /**
+     * Gets the last instruction of this block.
+     *
+     * @return the last instruction.
+     */
+    public InstructionHandle getEnd() {
+        return instructions[instructions.length - 1];
+    }
+
+    /**
+     * Gets the blocks with an exception edge to this block, that is, this block starts an exception handler.
+     *
+     * @return the blocks protected by a handler starting here, in block order.
+     */
+    public BasicBlock[] getExceptionPredecessors() {
+        return exceptionPredecessors.clone();
+    }
+
+    /**
+     * Gets the starts of the exception handlers protecting this block.
+     *
+     * @return the handler blocks, in the order of the exception table.
+     */
+    public BasicBlock[] getExceptionSuccessors() {
+        return exceptionSuccessors.clone();
+    }
+
+    /**
+     * Gets the immediate dominator of this block, the closest block on every path from the entry to this block.
+     *
+     * @return the immediate dominator, or null for the entry and for unreachable blocks.
+     */
+    public BasicBlock getImmediateDominator() {
+        return immediateDominator;
+    }
+
+    /**
+     * Gets the immediate post dominator of this block, the closest block on every path from this block to a method exit.
+     *
+     * @return the immediate post dominator, or null if there is none or the block cannot reach an exit.
+     */
+    public BasicBlock getImmediatePostDominator() {
+        return immediatePostDominator;
+    }
+
+    /**
+     * Gets the position of this block in the instruction list, the index into {@link BasicBlockGraph#getBlocks()}.
+     *
+     * @return the index of this block.
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * Gets the instructions of this block.
+     *
+     * @return the instructions in list order.
+     */
+    public InstructionHandle[] getInstructions() {
+        return instructions.clone();
+    }
+
+    /**
+     * Gets the number of natural loops containing this block.
+     *
+     * @return the loop nesting depth, 0 outside of loops.
+     */
+    public int getLoopDepth() {
+        return loopDepth;
+    }
+
+    /**
+     * Gets the blocks that may transfer control to this block without throwing.
+     *
+     * @return the normal predecessors, in block order.
+     */
+    public BasicBlock[] getPredecessors() {
+        return predecessors.clone();
+    }
+
+    /**
+     * Gets the position of this block in the reverse post order of the graph.
+     *
+     * @return the index into {@link BasicBlockGraph#getReversePostOrder()}, or -1 if this block is unreachable.
+     */
+    public int getReversePostOrderIndex() {
+        return reversePostOrderIndex;
+    }
+
+    /**
+     * Gets the first instruction of this block.
+     *
+     * @return the first instruction.
+     */
+    public InstructionHandle getStart() {
+        return instructions[0];
+    }
+
+    /**
+     * Gets the blocks this block may transfer control to without throwing. A {@code JSR} leads to its subroutine, a
+     * {@code RET} to the instructions following every {@code JSR} of the method.
+     *
+     * @return the normal successors, branch targets first and the fall through block last.
+     */
+    public BasicBlock[] getSuccessors() {
+        return successors.clone();
+    }
+
+    /**
+     * Tests whether this block can be reached from the entry of the method.
+     *
+     * @return whether this block is reachable.
+     */
+    public boolean isReachable() {
+        return reversePostOrderIndex >= 0;
+    }
+
+    /**
+     * @return a String such as "B2[7-12]" with the block index and the positions of its first and last instructions.
+     */
+    @Override
+    public String toString() {
+        return "B" + index + "[" + getStart().getPosition() + "-" + getEnd().getPosition() + "]";
+    }
+}
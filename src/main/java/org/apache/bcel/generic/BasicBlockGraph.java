@@ -0,0 +1,511 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The basic block control flow graph of an instruction list and its exception handlers, with dominator and post
+ * dominator trees, natural loops and a reverse post order of the blocks.
+ * <p>
+ * Unlike the verifier's {@link org.apache.bcel.verifier.structurals.ControlFlowGraph} the graph does not simulate
+ * execution: it is built in a single pass over the instructions and is a snapshot, to be rebuilt after the instruction
+ * list or the exception handlers change. Dominators, post dominators and loops consider exception edges as well as
+ * normal ones. The post dominator tree is rooted at a virtual exit which all blocks without normal successors lead to,
+ * and loops are the natural loops of back edges, irreducible cycles are not reported.
+ * </p>
+ *
+ * @see BasicBlock
+ * @since 6.13.0
+ */
+public class BasicBlockGraph {
+
+    private static void add(final List<List<BasicBlock>> edges, final int from, final BasicBlock to) {
+        if (!edges.get(from).contains(to)) {
+            edges.get(from).add(to);
+        }
+    }
+
+    private static int[] concat(final BasicBlock[] first, final BasicBlock[] second, final int extra) {
+        final int[] result = new int[first.length + second.length + (extra >= 0 ? 1 : 0)];
+        int i = 0;
+        for (final BasicBlock block : first) {
+            result[i++] = block.getIndex();
+        }
+        for (final BasicBlock block : second) {
+            result[i++] = block.getIndex();
+        }
+        if (extra >= 0) {
+            result[i] = extra;
+        }
+        return result;
+    }
+
+    /**
+     * Computes the immediate dominators with the iterative algorithm of Cooper, Harvey and Kennedy.
+     *
+     * @return the immediate dominator of every node, the root for the root and -1 for nodes not in the order.
+     */
+    private static int[] immediateDominators(final int[] order, final int[][] predecessors) {
+        final int n = predecessors.length;
+        final int[] number = new int[n];
+        Arrays.fill(number, -1);
+        for (int i = 0; i < order.length; i++) {
+            number[order[i]] = i;
+        }
+        final int[] idom = new int[n];
+        Arrays.fill(idom, -1);
+        idom[order[0]] = order[0];
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 1; i < order.length; i++) {
+                final int node = order[i];
+                int newIdom = -1;
+                for (final int pred : predecessors[node]) {
+                    if (idom[pred] >= 0) {
+                        newIdom = newIdom < 0 ? pred : intersect(pred, newIdom, idom, number);
+                    }
+                }
+                if (idom[node] != newIdom) {
+                    idom[node] = newIdom;
+                    changed = true;
+                }
+            }
+        }
+        return idom;
+    }
+
+    private static int indexOf(final Map<InstructionHandle, Integer> indexOf, final InstructionHandle ih) {
+        final Integer index = indexOf.get(ih);
+        if (index == null) {
+            throw new ClassGenException("Instruction " + ih + " is not in the instruction list");
+        }
+        return index;
+    }
+
+    private static int intersect(int a, int b, final int[] idom, final int[] number) {
+        while (a != b) {
+            while (number[a] > number[b]) {
+                a = idom[a];
+            }
+            while (number[b] > number[a]) {
+                b = idom[b];
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Numbers the nodes of a dominator tree in pre and post order, so that a node dominates another if and only if its
+     * interval encloses the other's.
+     */
+    private static void numberTree(final int[] order, final int[] idom, final int[] pre, final int[] post) {
+        final int n = idom.length;
+        final int[] childCount = new int[n + 1];
+        for (int i = 1; i < order.length; i++) {
+            childCount[idom[order[i]] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            childCount[i + 1] += childCount[i];
+        }
+        // Children of node k are children[firstChild[k]..firstChild[k + 1])
+        final int[] firstChild = childCount.clone();
+        final int[] children = new int[order.length];
+        for (int i = 1; i < order.length; i++) {
+            children[childCount[idom[order[i]]]++] = order[i];
+        }
+        final int[] stack = new int[order.length];
+        final int[] next = new int[n];
+        int sp = 0;
+        int counter = 0;
+        stack[sp++] = order[0];
+        pre[order[0]] = counter++;
+        next[order[0]] = firstChild[order[0]];
+        while (sp > 0) {
+            final int node = stack[sp - 1];
+            if (next[node] < firstChild[node + 1]) {
+                final int child = children[next[node]++];
+                pre[child] = counter++;
+                next[child] = firstChild[child];
+                stack[sp++] = child;
+            } else {
+                post[node] = counter++;
+                sp--;
+            }
+        }
+    }
+
+    /**
+     * Computes the reverse post order of the nodes reachable from the root by a depth first search.
+     */
+    private static int[] reversePostOrder(final int root, final int[][] successors) {
+        final int n = successors.length;
+        final int[] order = new int[n];
+        int count = n;
+        final boolean[] visited = new boolean[n];
+        final int[] stack = new int[n];
+        final int[] next = new int[n];
+        int sp = 0;
+        stack[sp++] = root;
+        visited[root] = true;
+        while (sp > 0) {
+            final int node = stack[sp - 1];
+            if (next[node] < successors[node].length) {
+                final int succ = successors[node][next[node]++];
+                if (!visited[succ]) {
+                    visited[succ] = true;
+                    stack[sp++] = succ;
+                }
+            } else {
+                order[--count] = node;
+                sp--;
+            }
+        }
+        return Arrays.copyOfRange(order, count, n);
+    }
+
+    private final BasicBlock[] blocks;
+    private final BasicBlock[] reversePostOrder;
+    private final Map<InstructionHandle, BasicBlock> blockOf;
+    private final BitSet[] loops; // Indexed by header block, null if not a header
+
+    /**
+     * Builds the graph of the given instructions and exception handlers.
+     *
+     * @param il the instruction list.
+     * @param handlers the exception handlers protecting instructions of the list.
+     */
+    @SuppressWarnings("unchecked") // generic array
+    public BasicBlockGraph(final InstructionList il, final CodeExceptionGen[] handlers) {
+        final InstructionHandle[] handles = il.getInstructionHandles();
+        final int length = handles.length;
+        final Map<InstructionHandle, Integer> indexOf = new HashMap<>();
+        for (int k = 0; k < length; k++) {
+            indexOf.put(handles[k], k);
+        }
+        /*
+         * Leaders: the first instruction, branch targets, instructions following a transfer of control and the bounds of
+         * protected ranges.
+         */
+        final boolean[] leader = new boolean[length + 1];
+        leader[0] = true;
+        final List<Integer> returnSites = new ArrayList<>();
+        for (int k = 0; k < length; k++) {
+            final Instruction i = handles[k].getInstruction();
+            if (i instanceof BranchInstruction) {
+                leader[indexOf(indexOf, ((BranchInstruction) i).getTarget())] = true;
+                if (i instanceof Select) {
+                    for (final InstructionHandle target : ((Select) i).getTargets()) {
+                        leader[indexOf(indexOf, target)] = true;
+                    }
+                }
+                leader[k + 1] = true;
+                if (i instanceof JsrInstruction && k + 1 < length) {
+                    returnSites.add(k + 1);
+                }
+            } else if (i instanceof ReturnInstruction || i instanceof ATHROW || i instanceof RET) {
+                leader[k + 1] = true;
+            }
+        }
+        for (final CodeExceptionGen handler : handlers) {
+            leader[indexOf(indexOf, handler.getStartPC())] = true;
+            leader[indexOf(indexOf, handler.getEndPC()) + 1] = true;
+            leader[indexOf(indexOf, handler.getHandlerPC())] = true;
+        }
+        /*
+         * Blocks.
+         */
+        final List<BasicBlock> list = new ArrayList<>();
+        final int[] blockIndex = new int[length];
+        blockOf = new HashMap<>();
+        for (int k = 0; k < length;) {
+            int end = k + 1;
+            while (!leader[end]) {
+                end++;
+            }
+            final BasicBlock block = new BasicBlock(list.size(), Arrays.copyOfRange(handles, k, end));
+            for (int j = k; j < end; j++) {
+                blockIndex[j] = block.getIndex();
+                blockOf.put(handles[j], block);
+            }
+            list.add(block);
+            k = end;
+        }
+        blocks = list.toArray(BasicBlock.EMPTY_ARRAY);
+        final int n = blocks.length;
+        /*
+         * Edges.
+         */
+        final List<List<BasicBlock>> succ = new ArrayList<>(n);
+        final List<List<BasicBlock>> pred = new ArrayList<>(n);
+        final List<List<BasicBlock>> excSucc = new ArrayList<>(n);
+        final List<List<BasicBlock>> excPred = new ArrayList<>(n);
+        for (int b = 0; b < n; b++) {
+            succ.add(new ArrayList<>());
+            pred.add(new ArrayList<>());
+            excSucc.add(new ArrayList<>());
+            excPred.add(new ArrayList<>());
+        }
+        for (final BasicBlock block : blocks) {
+            final int b = block.getIndex();
+            final Instruction last = block.getEnd().getInstruction();
+            final int next = indexOf.get(block.getEnd()) + 1;
+            if (last instanceof BranchInstruction) {
+                if (last instanceof Select) {
+                    for (final InstructionHandle target : ((Select) last).getTargets()) {
+                        add(succ, b, blockOf.get(target));
+                    }
+                }
+                add(succ, b, blockOf.get(((BranchInstruction) last).getTarget()));
+                if (last instanceof IfInstruction && next < length) {
+                    add(succ, b, blocks[blockIndex[next]]);
+                }
+            } else if (last instanceof RET) {
+                for (final int site : returnSites) {
+                    add(succ, b, blocks[blockIndex[site]]);
+                }
+            } else if (!(last instanceof ReturnInstruction || last instanceof ATHROW) && next < length) {
+                add(succ, b, blocks[blockIndex[next]]);
+            }
+            for (final BasicBlock target : succ.get(b)) {
+                pred.get(target.getIndex()).add(block);
+            }
+        }
+        for (final CodeExceptionGen handler : handlers) {
+            final BasicBlock target = blockOf.get(handler.getHandlerPC());
+            final int last = blockIndex[indexOf(indexOf, handler.getEndPC())];
+            for (int b = blockIndex[indexOf(indexOf, handler.getStartPC())]; b <= last; b++) {
+                if (!excSucc.get(b).contains(target)) {
+                    excSucc.get(b).add(target);
+                    add(excPred, target.getIndex(), blocks[b]);
+                }
+            }
+        }
+        for (final BasicBlock block : blocks) {
+            final int b = block.getIndex();
+            block.successors = succ.get(b).toArray(BasicBlock.EMPTY_ARRAY);
+            block.exceptionSuccessors = excSucc.get(b).toArray(BasicBlock.EMPTY_ARRAY);
+            block.predecessors = pred.get(b).toArray(BasicBlock.EMPTY_ARRAY);
+            excPred.get(b).sort((x, y) -> x.getIndex() - y.getIndex());
+            block.exceptionPredecessors = excPred.get(b).toArray(BasicBlock.EMPTY_ARRAY);
+        }
+        if (n == 0) {
+            reversePostOrder = BasicBlock.EMPTY_ARRAY;
+            loops = new BitSet[0];
+            return;
+        }
+        /*
+         * Dominators, over the blocks reachable from the entry.
+         */
+        final int[][] forward = new int[n][];
+        for (final BasicBlock block : blocks) {
+            forward[block.getIndex()] = concat(block.successors, block.exceptionSuccessors, -1);
+        }
+        final int[] order = reversePostOrder(0, forward);
+        reversePostOrder = new BasicBlock[order.length];
+        for (int i = 0; i < order.length; i++) {
+            reversePostOrder[i] = blocks[order[i]];
+            blocks[order[i]].reversePostOrderIndex = i;
+        }
+        final int[][] predecessors = new int[n][];
+        for (final BasicBlock block : blocks) {
+            predecessors[block.getIndex()] = concat(block.predecessors, block.exceptionPredecessors, -1);
+        }
+        final int[] idom = immediateDominators(order, predecessors);
+        final int[] pre = new int[n];
+        final int[] post = new int[n];
+        numberTree(order, idom, pre, post);
+        for (final int b : order) {
+            blocks[b].immediateDominator = b == 0 ? null : blocks[idom[b]];
+            blocks[b].dominatorPre = pre[b];
+            blocks[b].dominatorPost = post[b];
+        }
+        /*
+         * Post dominators, the dominators of the reversed graph rooted at the virtual exit.
+         */
+        final int[][] reversed = new int[n + 1][];
+        final int[][] reversedPredecessors = new int[n + 1][];
+        final List<Integer> exits = new ArrayList<>();
+        for (final BasicBlock block : blocks) {
+            final int b = block.getIndex();
+            reversed[b] = predecessors[b];
+            // Blocks without normal successors lead to the virtual exit n
+            reversedPredecessors[b] = concat(block.successors, block.exceptionSuccessors, block.successors.length == 0 ? n : -1);
+            if (block.successors.length == 0) {
+                exits.add(b);
+            }
+        }
+        reversed[n] = exits.stream().mapToInt(Integer::intValue).toArray();
+        reversedPredecessors[n] = new int[0];
+        final int[] reverseOrder = reversePostOrder(n, reversed);
+        final int[] ipdom = immediateDominators(reverseOrder, reversedPredecessors);
+        final int[] postPre = new int[n + 1];
+        final int[] postPost = new int[n + 1];
+        numberTree(reverseOrder, ipdom, postPre, postPost);
+        for (final int b : reverseOrder) {
+            if (b < n) {
+                blocks[b].immediatePostDominator = ipdom[b] == n ? null : blocks[ipdom[b]];
+                blocks[b].postDominatorPre = postPre[b];
+                blocks[b].postDominatorPost = postPost[b];
+            }
+        }
+        /*
+         * Natural loops: a back edge leads to a block dominating its source, its loop are the blocks reaching the source
+         * without passing the header.
+         */
+        loops = new BitSet[n];
+        final int[] worklist = new int[n];
+        for (final BasicBlock source : reversePostOrder) {
+            for (final int h : forward[source.getIndex()]) {
+                final BasicBlock header = blocks[h];
+                if (!dominates(header, source)) {
+                    continue;
+                }
+                if (loops[h] == null) {
+                    loops[h] = new BitSet(n);
+                    loops[h].set(h);
+                }
+                final BitSet body = loops[h];
+                int size = 0;
+                if (!body.get(source.getIndex())) {
+                    body.set(source.getIndex());
+                    worklist[size++] = source.getIndex();
+                }
+                while (size > 0) {
+                    for (final int p : predecessors[worklist[--size]]) {
+                        if (blocks[p].isReachable() && !body.get(p)) {
+                            body.set(p);
+                            worklist[size++] = p;
+                        }
+                    }
+                }
+            }
+        }
+        for (final BitSet body : loops) {
+            if (body != null) {
+                body.stream().forEach(b -> blocks[b].loopDepth++);
+            }
+        }
+    }
+
+    /**
+     * Builds the graph of the code of the given method.
+     *
+     * @param mg the method, its instruction list is not null.
+     */
+    public BasicBlockGraph(final MethodGen mg) {
+        this(mg.getInstructionList(), mg.getExceptionHandlers());
+    }
+
+    /**
+     * Tests whether every path from the entry to {@code b} passes {@code a}. A block dominates itself, unreachable blocks
+     * neither dominate nor are dominated.
+     *
+     * @param a the dominating block.
+     * @param b the dominated block.
+     * @return whether {@code a} dominates {@code b}.
+     */
+    public boolean dominates(final BasicBlock a, final BasicBlock b) {
+        return a.dominatorPre >= 0 && b.dominatorPre >= 0 && a.dominatorPre <= b.dominatorPre && b.dominatorPost <= a.dominatorPost;
+    }
+
+    /**
+     * Gets the block containing the given instruction.
+     *
+     * @param ih an instruction of the list.
+     * @return the block, or null if the instruction is not part of the graph.
+     */
+    public BasicBlock getBlock(final InstructionHandle ih) {
+        return blockOf.get(ih);
+    }
+
+    /**
+     * Gets all blocks, reachable or not.
+     *
+     * @return the blocks in instruction list order.
+     */
+    public BasicBlock[] getBlocks() {
+        return blocks.clone();
+    }
+
+    /**
+     * Gets the block the method starts with.
+     *
+     * @return the entry block, or null if the instruction list is empty.
+     */
+    public BasicBlock getEntry() {
+        return blocks.length == 0 ? null : blocks[0];
+    }
+
+    /**
+     * Gets the blocks of the natural loop with the given header, merging the loops of all back edges to the header.
+     *
+     * @param header a loop header.
+     * @return the blocks of the loop in block order including the header, or an empty array if {@code header} is not a
+     *         loop header.
+     */
+    public BasicBlock[] getLoop(final BasicBlock header) {
+        final BitSet body = loops[header.getIndex()];
+        return body == null ? BasicBlock.EMPTY_ARRAY : body.stream().mapToObj(b -> blocks[b]).toArray(BasicBlock[]::new);
+    }
+
+    /**
+     * Gets the targets of back edges, each heading a natural loop.
+     *
+     * @return the loop headers in block order.
+     */
+    public BasicBlock[] getLoopHeaders() {
+        final List<BasicBlock> headers = new ArrayList<>();
+        for (int b = 0; b < loops.length; b++) {
+            if (loops[b] != null) {
+                headers.add(blocks[b]);
+            }
+        }
+        return headers.toArray(BasicBlock.EMPTY_ARRAY);
+    }
+
+    /**
+     * Gets the reachable blocks in reverse post order, where every block precedes its successors except along back
+     * edges. This is the usual visiting order of forward dataflow analyses.
+     *
+     * @return the reachable blocks, starting with the entry.
+     */
+    public BasicBlock[] getReversePostOrder() {
+        return reversePostOrder.clone();
+    }
+
+    /**
+     * Tests whether every path from {@code b} to a method exit passes {@code a}. A block post dominates itself, blocks
+     * that cannot reach an exit neither post dominate nor are post dominated.
+     *
+     * @param a the post dominating block.
+     * @param b the post dominated block.
+     * @return whether {@code a} post dominates {@code b}.
+     */
+    public boolean postDominates(final BasicBlock a, final BasicBlock b) {
+        return a.postDominatorPre >= 0 && b.postDominatorPre >= 0 && a.postDominatorPre <= b.postDominatorPre
+            && b.postDominatorPost <= a.postDominatorPost;
+    }
+}
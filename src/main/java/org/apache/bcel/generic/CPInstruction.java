@@ -108,13 +108,16 @@ public abstract class CPInstruction extends Instruction implements TypedInstruct
      * Sets the index to constant pool.
      *
      * @param index in constant pool.
-     * @throws ClassGenException if index is out of bounds.
+     * @throws ClassGenException if index is out of bounds or this is a shared instruction, see {@link Instruction#readInstruction(ByteSequence, boolean)}.
      */
     @Override
     public void setIndex(final int index) { // TODO could be package-protected?
         if (!isNonNegativeUShort(index)) {
             throw new ClassGenException("Illegal index: " + index);
         }
+        if (InstructionDecoder.isShared(this, this.index)) {
+            throw new ClassGenException("Cannot change the index of shared instruction " + this + ", use copy() first");
+        }
         this.index = index;
     }
 
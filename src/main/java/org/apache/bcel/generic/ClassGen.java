@@ -21,20 +21,34 @@ package org.apache.bcel.generic;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntUnaryOperator;
 
 import org.apache.bcel.Const;
 import org.apache.bcel.classfile.AccessFlags;
 import org.apache.bcel.classfile.Annotations;
 import org.apache.bcel.classfile.Attribute;
+import org.apache.bcel.classfile.BootstrapMethod;
+import org.apache.bcel.classfile.BootstrapMethods;
 import org.apache.bcel.classfile.ConstantPool;
 import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.FieldOrMethod;
 import org.apache.bcel.classfile.JavaClass;
 import org.apache.bcel.classfile.Method;
 import org.apache.bcel.classfile.RuntimeInvisibleAnnotations;
 import org.apache.bcel.classfile.RuntimeVisibleAnnotations;
 import org.apache.bcel.classfile.SourceFile;
+import org.apache.bcel.classfile.StackMap;
+import org.apache.bcel.classfile.StackMapEntry;
+import org.apache.bcel.classfile.StackMapType;
 import org.apache.bcel.classfile.Utility;
 import org.apache.bcel.util.BCELComparator;
 import org.apache.commons.lang3.ArrayUtils;
@@ -46,6 +60,75 @@ import org.apache.commons.lang3.ArrayUtils;
  */
 public class ClassGen extends AccessFlags implements Cloneable {
 
+    /**
+     * Finds the members of a list by key, the first member with a key wins as in a linear search. The map is built on
+     * the first lookup and then kept up to date with the changes made through the class.
+     */
+    private static final class MemberIndex<T extends FieldOrMethod> {
+
+        private final List<T> members;
+        private final Function<T, String> key;
+        private Map<String, T> map;
+
+        MemberIndex(final List<T> members, final Function<T, String> key) {
+            this.members = members;
+            this.key = key;
+        }
+
+        void added(final T member) {
+            if (map != null) {
+                map.putIfAbsent(key.apply(member), member);
+            }
+        }
+
+        private void build() {
+            map = new HashMap<>();
+            members.forEach(this::added);
+        }
+
+        /**
+         * Updates the entry of a member that was removed, replaced or is a replacement.
+         */
+        void changed(final T member) {
+            if (map != null) {
+                final String k = key.apply(member);
+                map.remove(k);
+                for (final T m : members) {
+                    if (key.apply(m).equals(k)) {
+                        map.put(k, m);
+                        break;
+                    }
+                }
+            }
+        }
+
+        T get(final String k) {
+            if (map == null) {
+                build();
+            }
+            T member = map.get(k);
+            if (member != null && !key.apply(member).equals(k)) {
+                // Renamed in place
+                build();
+                member = map.get(k);
+            }
+            if (member == null) {
+                // Maybe another member was renamed in place to the key
+                for (final T m : members) {
+                    if (key.apply(m).equals(k)) {
+                        build();
+                        return m;
+                    }
+                }
+            }
+            return member;
+        }
+
+        void reset() {
+            map = null;
+        }
+    }
+
     private static BCELComparator<ClassGen> bcelComparator = new BCELComparator<ClassGen>() {
 
         @Override
@@ -59,6 +142,10 @@ public class ClassGen extends AccessFlags implements Cloneable {
         }
     };
 
+    private static String bootstrapMethodKey(final int bootstrapMethodRef, final int[] bootstrapArguments) {
+        return bootstrapMethodRef + Arrays.toString(bootstrapArguments);
+    }
+
     /**
      * Gets the comparison strategy object.
      *
@@ -91,6 +178,9 @@ public class ClassGen extends AccessFlags implements Cloneable {
     // ArrayLists instead of arrays to gather fields, methods, etc.
     private final List<Field> fieldList = new ArrayList<>();
     private final List<Method> methodList = new ArrayList<>();
+    // Shared by clones like the lists
+    private final MemberIndex<Field> fieldIndex = new MemberIndex<>(fieldList, Field::getName);
+    private final MemberIndex<Method> methodIndex = new MemberIndex<>(methodList, m -> m.getName() + ';' + m.getSignature());
 
     private final List<Attribute> attributeList = new ArrayList<>();
 
@@ -98,6 +188,10 @@ public class ClassGen extends AccessFlags implements Cloneable {
 
     private final List<AnnotationEntryGen> annotationList = new ArrayList<>();
 
+    // Finds the entries of the bootstrap methods array it was built for, see addBootstrapMethod()
+    private BootstrapMethod[] indexedBootstrapMethods;
+    private Map<String, Integer> bootstrapMethodIndex;
+
     private List<ClassObserver> observers;
 
     /**
@@ -199,6 +293,64 @@ public class ClassGen extends AccessFlags implements Cloneable {
         attributeList.add(a);
     }
 
+    /**
+     * Adds an entry to the BootstrapMethods attribute of this class, creating the attribute if needed. An equal entry is
+     * reused, so call sites that share a bootstrap method and its arguments share one entry.
+     *
+     * @param bootstrapMethodRef index of the MethodHandle constant of the bootstrap method.
+     * @param bootstrapArguments indices of the constants passed as static arguments to the bootstrap method.
+     * @return index of the entry, to be used in InvokeDynamic constants.
+     * @see ConstantPoolGen#addInvokeDynamic(int, String, String)
+     * @since 6.13.0
+     */
+    public int addBootstrapMethod(final int bootstrapMethodRef, final int... bootstrapArguments) {
+        int pos = -1;
+        BootstrapMethod[] methods = {};
+        for (int i = 0; i < attributeList.size(); i++) {
+            if (attributeList.get(i) instanceof BootstrapMethods) {
+                pos = i;
+                methods = ((BootstrapMethods) attributeList.get(i)).getBootstrapMethods();
+                break;
+            }
+        }
+        if (methods != indexedBootstrapMethods || bootstrapMethodIndex == null) {
+            // Not built yet, or the attribute was replaced or changed by someone else
+            bootstrapMethodIndex = new HashMap<>();
+            for (int i = 0; i < methods.length; i++) {
+                bootstrapMethodIndex.putIfAbsent(bootstrapMethodKey(methods[i].getBootstrapMethodRef(), methods[i].getBootstrapArguments()), i);
+            }
+            indexedBootstrapMethods = methods;
+        }
+        final String key = bootstrapMethodKey(bootstrapMethodRef, bootstrapArguments);
+        final Integer existing = bootstrapMethodIndex.get(key);
+        if (existing != null) {
+            final BootstrapMethod method = methods[existing];
+            if (method.getBootstrapMethodRef() == bootstrapMethodRef && Arrays.equals(method.getBootstrapArguments(), bootstrapArguments)) {
+                return existing;
+            }
+            // Changed in place
+            indexedBootstrapMethods = null;
+            return addBootstrapMethod(bootstrapMethodRef, bootstrapArguments);
+        }
+        // The attribute may be shared with the class this was built from, so it is replaced rather than changed
+        methods = Arrays.copyOf(methods, methods.length + 1);
+        methods[methods.length - 1] = new BootstrapMethod(bootstrapMethodRef, bootstrapArguments.clone());
+        int length = 2;
+        for (final BootstrapMethod method : methods) {
+            length += 4 + 2 * method.getNumBootstrapArguments();
+        }
+        final BootstrapMethods attribute = new BootstrapMethods(cp.addUtf8(Const.getAttributeName(Const.ATTR_BOOTSTRAP_METHODS)), length, methods,
+            cp.getConstantPool());
+        if (pos < 0) {
+            attributeList.add(attribute);
+        } else {
+            attributeList.set(pos, attribute);
+        }
+        bootstrapMethodIndex.put(key, methods.length - 1);
+        indexedBootstrapMethods = methods;
+        return methods.length - 1;
+    }
+
     /**
      * Convenience method.
      *
@@ -223,6 +375,7 @@ public class ClassGen extends AccessFlags implements Cloneable {
      */
     public void addField(final Field f) {
         fieldList.add(f);
+        fieldIndex.added(f);
     }
 
     /**
@@ -241,6 +394,7 @@ public class ClassGen extends AccessFlags implements Cloneable {
      */
     public void addMethod(final Method m) {
         methodList.add(m);
+        methodIndex.added(m);
     }
 
     /**
@@ -281,12 +435,7 @@ public class ClassGen extends AccessFlags implements Cloneable {
      * @return field object with given name, or null.
      */
     public Field containsField(final String name) {
-        for (final Field f : fieldList) {
-            if (f.getName().equals(name)) {
-                return f;
-            }
-        }
-        return null;
+        return fieldIndex.get(name);
     }
 
     /**
@@ -297,12 +446,7 @@ public class ClassGen extends AccessFlags implements Cloneable {
      * @return method object with given name and signature, or null.
      */
     public Method containsMethod(final String name, final String signature) {
-        for (final Method m : methodList) {
-            if (m.getName().equals(name) && m.getSignature().equals(signature)) {
-                return m;
-            }
-        }
-        return null;
+        return methodIndex.get(name + ';' + signature);
     }
 
     /**
@@ -491,6 +635,58 @@ public class ClassGen extends AccessFlags implements Cloneable {
         return bcelComparator.hashCode(this);
     }
 
+    /**
+     * Moves the constants a transformed method added to its staging pool into the class pool. Constants below
+     * {@code baseSize} are those of the class pool and keep their indices, the others are added to the class pool in the
+     * order they are first referenced.
+     */
+    private void mergeConstantPool(final MethodGen mg, final ConstantPoolGen staging, final int baseSize) {
+        final int[] map = new int[staging.getSize()];
+        final IntUnaryOperator remap = index -> {
+            if (index < baseSize) {
+                return index;
+            }
+            if (map[index] == 0) {
+                map[index] = cp.addConstant(staging.getConstant(index), staging);
+            }
+            return map[index];
+        };
+        final InstructionList il = mg.getInstructionList();
+        if (il != null) {
+            for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+                if (ih.getInstruction() instanceof CPInstruction) {
+                    final CPInstruction ci = (CPInstruction) ih.getInstruction();
+                    final int index = remap.applyAsInt(ci.getIndex());
+                    if (index != ci.getIndex()) {
+                        ci.setIndex(index);
+                    }
+                }
+            }
+        }
+        final ConstantPool constantPool = cp.getConstantPool();
+        for (final Attribute[] attributes : new Attribute[][] {mg.getAttributes(), mg.getCodeAttributes()}) {
+            for (final Attribute a : attributes) {
+                a.setNameIndex(remap.applyAsInt(a.getNameIndex()));
+                a.setConstantPool(constantPool);
+                if (a instanceof StackMap) {
+                    for (final StackMapEntry entry : ((StackMap) a).getStackMap()) {
+                        entry.setConstantPool(constantPool);
+                        for (final StackMapType[] types : new StackMapType[][] {entry.getTypesOfLocals(), entry.getTypesOfStackItems()}) {
+                            for (final StackMapType type : types) {
+                                if (type.hasIndex()) {
+                                    type.setIndex(remap.applyAsInt(type.getIndex()));
+                                }
+                                type.setConstantPool(constantPool);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        mg.setConstantPool(cp);
+        mg.update();
+    }
+
     /**
      * Remove an attribute from this class.
      *
@@ -506,7 +702,10 @@ public class ClassGen extends AccessFlags implements Cloneable {
      * @param f field to remove.
      */
     public void removeField(final Field f) {
-        fieldList.remove(f);
+        final int i = fieldList.indexOf(f);
+        if (i >= 0) {
+            fieldIndex.changed(fieldList.remove(i));
+        }
     }
 
     /**
@@ -524,7 +723,10 @@ public class ClassGen extends AccessFlags implements Cloneable {
      * @param m method to remove.
      */
     public void removeMethod(final Method m) {
-        methodList.remove(m);
+        final int i = methodList.indexOf(m);
+        if (i >= 0) {
+            methodIndex.changed(methodList.remove(i));
+        }
     }
 
     /**
@@ -550,9 +752,10 @@ public class ClassGen extends AccessFlags implements Cloneable {
         }
         final int i = fieldList.indexOf(old);
         if (i < 0) {
-            fieldList.add(newField);
+            addField(newField);
         } else {
-            fieldList.set(i, newField);
+            fieldIndex.changed(fieldList.set(i, newField));
+            fieldIndex.changed(newField);
         }
     }
 
@@ -568,9 +771,9 @@ public class ClassGen extends AccessFlags implements Cloneable {
         }
         final int i = methodList.indexOf(old);
         if (i < 0) {
-            methodList.add(newMethod);
+            addMethod(newMethod);
         } else {
-            methodList.set(i, newMethod);
+            setMethodAt(newMethod, i);
         }
     }
 
@@ -619,7 +822,8 @@ public class ClassGen extends AccessFlags implements Cloneable {
      * @param pos The position.
      */
     public void setMethodAt(final Method method, final int pos) {
-        methodList.set(pos, method);
+        methodIndex.changed(methodList.set(pos, method));
+        methodIndex.changed(method);
     }
 
     /**
@@ -629,6 +833,7 @@ public class ClassGen extends AccessFlags implements Cloneable {
      */
     public void setMethods(final Method[] methods) {
         methodList.clear();
+        methodIndex.reset();
         if (methods != null) {
             Collections.addAll(methodList, methods);
         }
@@ -643,6 +848,27 @@ public class ClassGen extends AccessFlags implements Cloneable {
         this.minor = minor;
     }
 
+    /**
+     * Computes StackMapTable frames for all methods with code, replacing stale ones, so that the class can be loaded
+     * with the type checking verifier. Only class files of version 50 and above use these frames, see
+     * {@link #setMajor(int)}.
+     *
+     * @throws ClassGenException if a method is not type correct, uses JSR/RET, or a class cannot be found in the
+     *         repository.
+     * @see MethodGen#setStackMap()
+     * @since 6.13.0
+     */
+    public void setStackMaps() {
+        for (int i = 0; i < methodList.size(); i++) {
+            final Method method = methodList.get(i);
+            if (method.getCode() != null) {
+                final MethodGen mg = new MethodGen(method, className, cp);
+                mg.setStackMap(superClassName);
+                setMethodAt(mg.getMethod(), i);
+            }
+        }
+    }
+
     /**
      * Sets the superclass name.
      *
@@ -663,6 +889,64 @@ public class ClassGen extends AccessFlags implements Cloneable {
         superClassName = Utility.pathToPackage(cp.getConstantPool().getConstantString(superclassNameIndex, Const.CONSTANT_Class));
     }
 
+    /**
+     * Transforms all methods in parallel. Each method is handed to the transformer as a {@link MethodGen} on its own
+     * staging pool, which holds the constants the transformer adds and finds the others in the constant pool of this
+     * class, so the transformer may add constants and run on any thread of the executor. When all transformations have
+     * completed, the constants added to the staging pools are merged into the constant pool of this class one method
+     * after the other, in method order, so the resulting class file does not depend on the executor or the scheduling
+     * of its threads.
+     * <p>
+     * Besides the instructions, the merge updates the attribute names and the class references of stack maps. Other
+     * attributes, such as annotations or local variable type tables, must only refer to constants the class pool had
+     * before the transformation. The transformer must not change this class.
+     * </p>
+     * <p>
+     * If a transformer fails, the methods of this class are left unchanged.
+     * </p>
+     *
+     * @param transformer changes a method in place, called once for each method.
+     * @param executor runs the transformations, for example {@code ForkJoinPool.commonPool()}, or {@code Runnable::run}
+     *        to transform the methods on the calling thread.
+     * @throws ClassGenException if a transformer throws a checked exception, runtime exceptions are rethrown as they are.
+     * @since 6.13.0
+     */
+    public void transformMethods(final Consumer<? super MethodGen> transformer, final Executor executor) {
+        Objects.requireNonNull(transformer, "transformer");
+        Objects.requireNonNull(executor, "executor");
+        final int baseSize = cp.getSize();
+        final Method[] methods = getMethods();
+        final List<CompletableFuture<MethodGen>> futures = new ArrayList<>(methods.length);
+        final List<ConstantPoolGen> stagingPools = new ArrayList<>(methods.length);
+        for (final Method method : methods) {
+            final ConstantPoolGen staging = new ConstantPoolGen(cp);
+            stagingPools.add(staging);
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                final MethodGen mg = new MethodGen(method, className, staging);
+                transformer.accept(mg);
+                return mg;
+            }, executor));
+        }
+        final MethodGen[] transformed = new MethodGen[methods.length];
+        try {
+            for (int i = 0; i < methods.length; i++) {
+                transformed[i] = futures.get(i).join();
+            }
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new ClassGenException(e.getCause().getMessage(), e.getCause());
+        }
+        for (int i = 0; i < methods.length; i++) {
+            mergeConstantPool(transformed[i], stagingPools.get(i), baseSize);
+            setMethodAt(transformed[i].getMethod(), i);
+        }
+    }
+
     /**
      * Unpacks attributes representing annotations.
      */
@@ -0,0 +1,804 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.Arrays;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Attribute;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.CodeException;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantCP;
+import org.apache.bcel.classfile.ConstantNameAndType;
+import org.apache.bcel.classfile.Method;
+
+/**
+ * Writes byte code directly into a growable byte array, without creating {@link Instruction} objects or an
+ * {@link InstructionList}. Branches refer to {@link Label}s, which may be marked before or after the branches using them;
+ * forward references are patched when the label is marked. The exception table, the maximum stack size and the number of
+ * local variables are computed while the code is written.
+ * <p>
+ * The stack size is tracked along the written code: after an unconditional jump, return or throw the stack height is taken
+ * from the next marked label. A label that is reached only by backward branches is assumed to start with an empty stack, as
+ * is the case for code produced by Java compilers. JSR and RET are not supported.
+ * </p>
+ * <p>
+ * A writer may be reused for several methods with {@link #reset(int)}.
+ * </p>
+ *
+ * @see InstructionList
+ * @see MethodGen
+ * @since 6.13.0
+ */
+public class CodeWriter {
+
+    /**
+     * A position in the code of a {@link CodeWriter}, used as branch target and to delimit exception handlers.
+     */
+    public static final class Label {
+
+        private int position = -1;
+        private int stackDepth = -1;
+        // Triples of (opcode position, operand position, operand size) waiting for this label to be marked
+        private int[] fixups;
+        private int fixupCount;
+
+        Label() {
+        }
+
+        private void addFixup(final int opcodePosition, final int operandPosition, final int size) {
+            if (fixups == null) {
+                fixups = new int[6];
+            } else if (fixupCount * 3 == fixups.length) {
+                fixups = Arrays.copyOf(fixups, fixups.length * 2);
+            }
+            fixups[fixupCount * 3] = opcodePosition;
+            fixups[fixupCount * 3 + 1] = operandPosition;
+            fixups[fixupCount * 3 + 2] = size;
+            fixupCount++;
+        }
+
+        /**
+         * Gets the byte code offset of this label.
+         *
+         * @return the byte code offset, or -1 if the label has not been marked yet.
+         */
+        public int getPosition() {
+            return position;
+        }
+    }
+
+    private final ConstantPoolGen cp;
+    private byte[] code = new byte[64];
+    private int length;
+    private int stackDepth;
+    private int maxStack;
+    private int maxLocals;
+    private Label[] handlers = new Label[12]; // Triples of start, end and handler label
+    private int[] catchTypes = new int[4];
+    private int handlerCount;
+    private int unresolved; // Number of labels used but not yet marked
+
+    /**
+     * Constructs a writer for a method with the given arguments.
+     *
+     * @param cp constant pool that receives all referenced constants.
+     * @param isStatic whether the method is static, that is, has no {@code this} in local variable 0.
+     * @param argTypes argument types of the method.
+     */
+    public CodeWriter(final ConstantPoolGen cp, final boolean isStatic, final Type[] argTypes) {
+        this(cp, argumentsSize(isStatic, argTypes));
+    }
+
+    /**
+     * Constructs a writer.
+     *
+     * @param cp constant pool that receives all referenced constants.
+     * @param maxLocals initial number of local variables, that is, the size of the method's arguments including {@code this}.
+     */
+    public CodeWriter(final ConstantPoolGen cp, final int maxLocals) {
+        this.cp = cp;
+        this.maxLocals = maxLocals;
+    }
+
+    private static int argumentsSize(final boolean isStatic, final Type[] argTypes) {
+        int size = isStatic ? 0 : 1;
+        if (argTypes != null) {
+            for (final Type argType : argTypes) {
+                size += argType.getSize();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Registers an exception handler. This should be done before the handler label is marked, so that the code at the
+     * handler starts with the exception on the stack.
+     *
+     * @param start start of the protected range (inclusive).
+     * @param end end of the protected range (exclusive).
+     * @param handler start of the handler code.
+     * @param catchType type of the caught exception, {@code null} to catch everything, as for {@code finally}.
+     */
+    public void addExceptionHandler(final Label start, final Label end, final Label handler, final ObjectType catchType) {
+        if (handlerCount * 3 == handlers.length) {
+            handlers = Arrays.copyOf(handlers, handlers.length * 2);
+            catchTypes = Arrays.copyOf(catchTypes, catchTypes.length * 2);
+        }
+        handlers[handlerCount * 3] = start;
+        handlers[handlerCount * 3 + 1] = end;
+        handlers[handlerCount * 3 + 2] = handler;
+        catchTypes[handlerCount++] = catchType == null ? 0 : cp.addClass(catchType);
+        mergeStackDepth(handler, 1);
+    }
+
+    private void branchTo(final Label label, final int opcodePosition, final int size) {
+        if (label.position >= 0) {
+            final int offset = label.position - opcodePosition;
+            if (size == 2) {
+                putShort(checkShortOffset(offset), length);
+            } else {
+                putInt(offset, length);
+            }
+            length += size;
+        } else {
+            if (label.fixupCount == 0) {
+                unresolved++;
+            }
+            label.addFixup(opcodePosition, length, size);
+            length += size;
+        }
+        mergeStackDepth(label, stackDepth);
+    }
+
+    private int checkShortOffset(final int offset) {
+        if (!Instruction.isValidShort(offset)) {
+            throw new ClassGenException("Branch offset too large for short: " + offset + ", use GOTO_W");
+        }
+        return offset;
+    }
+
+    /**
+     * Creates a new, unmarked label.
+     *
+     * @return a new label.
+     */
+    public Label createLabel() {
+        return new Label();
+    }
+
+    /**
+     * Writes an instruction without operands, such as {@code IADD}, {@code ARETURN} or {@code ATHROW}.
+     *
+     * @param opcode the opcode.
+     */
+    public void emit(final int opcode) {
+        if (opcode < 0 || opcode >= Const.BREAKPOINT || Const.getNoOfOperands(opcode) != 0 || Const.getConsumeStack(opcode) < 0
+            || Const.getProduceStack(opcode) < 0) {
+            throw new ClassGenException("Instruction " + opcode + " needs operands");
+        }
+        ensureCapacity(1);
+        code[length++] = (byte) opcode;
+        updateStack(Const.getConsumeStack(opcode), Const.getProduceStack(opcode));
+        switch (opcode) {
+        case Const.IRETURN:
+        case Const.LRETURN:
+        case Const.FRETURN:
+        case Const.DRETURN:
+        case Const.ARETURN:
+        case Const.RETURN:
+        case Const.ATHROW:
+            stackDepth = -1;
+            break;
+        default:
+            // The short forms are grouped by type in the order int, long, float, double, reference
+            if (opcode >= Const.ILOAD_0 && opcode <= Const.ALOAD_3) {
+                updateLocals((opcode - Const.ILOAD_0) % 4, localSize((opcode - Const.ILOAD_0) / 4));
+            } else if (opcode >= Const.ISTORE_0 && opcode <= Const.ASTORE_3) {
+                updateLocals((opcode - Const.ISTORE_0) % 4, localSize((opcode - Const.ISTORE_0) / 4));
+            }
+            break;
+        }
+    }
+
+    /**
+     * Writes a field access instruction.
+     *
+     * @param opcode one of {@code GETFIELD}, {@code PUTFIELD}, {@code GETSTATIC} or {@code PUTSTATIC}.
+     * @param className the class declaring the field.
+     * @param fieldName the name of the field.
+     * @param signature the signature of the field.
+     */
+    public void emitField(final int opcode, final String className, final String fieldName, final String signature) {
+        final int size = Type.size(Type.getTypeSize(signature));
+        final int index = cp.addFieldref(className, fieldName, signature);
+        switch (opcode) {
+        case Const.GETSTATIC:
+            putOpcodeAndShort(opcode, index);
+            updateStack(0, size);
+            break;
+        case Const.PUTSTATIC:
+            putOpcodeAndShort(opcode, index);
+            updateStack(size, 0);
+            break;
+        case Const.GETFIELD:
+            putOpcodeAndShort(opcode, index);
+            updateStack(1, size);
+            break;
+        case Const.PUTFIELD:
+            putOpcodeAndShort(opcode, index);
+            updateStack(1 + size, 0);
+            break;
+        default:
+            throw new ClassGenException("Not a field access instruction: " + opcode);
+        }
+    }
+
+    /**
+     * Writes an {@code IINC} instruction, using the wide form if necessary.
+     *
+     * @param index the local variable index.
+     * @param increment the increment.
+     */
+    public void emitIinc(final int index, final int increment) {
+        if (index > Const.MAX_BYTE || !Instruction.isValidByte(increment)) {
+            if (!Instruction.isValidShort(increment)) {
+                throw new ClassGenException("IINC increment out of range: " + increment);
+            }
+            ensureCapacity(6);
+            code[length++] = (byte) Const.WIDE;
+            code[length++] = (byte) Const.IINC;
+            putShort(index, length);
+            putShort(increment, length + 2);
+            length += 4;
+        } else {
+            ensureCapacity(3);
+            code[length++] = (byte) Const.IINC;
+            code[length++] = (byte) index;
+            code[length++] = (byte) increment;
+        }
+        updateLocals(index, 1);
+    }
+
+    /**
+     * Writes an invoke instruction.
+     *
+     * @param opcode one of {@code INVOKEVIRTUAL}, {@code INVOKESPECIAL}, {@code INVOKESTATIC} or {@code INVOKEINTERFACE}.
+     * @param className the class declaring the method.
+     * @param methodName the name of the method.
+     * @param signature the signature of the method.
+     */
+    public void emitInvoke(final int opcode, final String className, final String methodName, final String signature) {
+        emitInvoke(opcode, className, methodName, signature, opcode == Const.INVOKEINTERFACE);
+    }
+
+    /**
+     * Writes an invoke instruction.
+     *
+     * @param opcode one of {@code INVOKEVIRTUAL}, {@code INVOKESPECIAL}, {@code INVOKESTATIC} or {@code INVOKEINTERFACE}.
+     * @param className the class declaring the method.
+     * @param methodName the name of the method.
+     * @param signature the signature of the method.
+     * @param isInterface whether the class is an interface, for example for static and private interface methods.
+     */
+    public void emitInvoke(final int opcode, final String className, final String methodName, final String signature, final boolean isInterface) {
+        final int argsSize = Type.getArgumentTypesSize(signature);
+        final int index = isInterface ? cp.addInterfaceMethodref(className, methodName, signature) : cp.addMethodref(className, methodName, signature);
+        switch (opcode) {
+        case Const.INVOKEVIRTUAL:
+        case Const.INVOKESPECIAL:
+            putOpcodeAndShort(opcode, index);
+            updateStack(argsSize + 1, Type.getReturnTypeSize(signature));
+            break;
+        case Const.INVOKESTATIC:
+            putOpcodeAndShort(opcode, index);
+            updateStack(argsSize, Type.getReturnTypeSize(signature));
+            break;
+        case Const.INVOKEINTERFACE:
+            putOpcodeAndShort(opcode, index);
+            ensureCapacity(2);
+            code[length++] = (byte) (argsSize + 1);
+            code[length++] = 0;
+            updateStack(argsSize + 1, Type.getReturnTypeSize(signature));
+            break;
+        default:
+            throw new ClassGenException("Not an invoke instruction: " + opcode);
+        }
+    }
+
+    /**
+     * Writes an {@code INVOKEDYNAMIC} instruction.
+     *
+     * @param index constant pool index of a {@code CONSTANT_InvokeDynamic} entry.
+     */
+    public void emitInvokeDynamic(final int index) {
+        final Constant c = cp.getConstant(index);
+        if (c == null || c.getTag() != Const.CONSTANT_InvokeDynamic) {
+            throw new ClassGenException("Not an InvokeDynamic constant: " + index);
+        }
+        final ConstantNameAndType nat = (ConstantNameAndType) cp.getConstant(((ConstantCP) c).getNameAndTypeIndex());
+        final String signature = nat.getSignature(cp.getConstantPool());
+        putOpcodeAndShort(Const.INVOKEDYNAMIC, index);
+        ensureCapacity(2);
+        code[length++] = 0;
+        code[length++] = 0;
+        updateStack(Type.getArgumentTypesSize(signature), Type.getReturnTypeSize(signature));
+    }
+
+    /**
+     * Writes a branch instruction.
+     *
+     * @param opcode one of the {@code IF} instructions, {@code GOTO} or {@code GOTO_W}.
+     * @param target the branch target.
+     */
+    public void emitJump(final int opcode, final Label target) {
+        final int start = length;
+        if (opcode >= Const.IFEQ && opcode <= Const.IF_ACMPNE || opcode == Const.IFNULL || opcode == Const.IFNONNULL || opcode == Const.GOTO) {
+            updateStack(Const.getConsumeStack(opcode), 0);
+            ensureCapacity(3);
+            code[length++] = (byte) opcode;
+            branchTo(target, start, 2);
+        } else if (opcode == Const.GOTO_W) {
+            ensureCapacity(5);
+            code[length++] = (byte) opcode;
+            branchTo(target, start, 4);
+        } else {
+            throw new ClassGenException("Not a supported branch instruction: " + opcode);
+        }
+        if (opcode == Const.GOTO || opcode == Const.GOTO_W) {
+            stackDepth = -1;
+        }
+    }
+
+    /**
+     * Writes an {@code LDC}, {@code LDC_W} or {@code LDC2_W} instruction for a constant already in the pool.
+     *
+     * @param index constant pool index of the constant.
+     */
+    public void emitLdc(final int index) {
+        final Constant c = cp.getConstant(index);
+        if (c == null) {
+            throw new ClassGenException("No constant at index " + index);
+        }
+        final byte tag = c.getTag();
+        if (tag == Const.CONSTANT_Long || tag == Const.CONSTANT_Double) {
+            putOpcodeAndShort(Const.LDC2_W, index);
+            updateStack(0, 2);
+        } else if (index <= Const.MAX_BYTE) {
+            ensureCapacity(2);
+            code[length++] = (byte) Const.LDC;
+            code[length++] = (byte) index;
+            updateStack(0, 1);
+        } else {
+            putOpcodeAndShort(Const.LDC_W, index);
+            updateStack(0, 1);
+        }
+    }
+
+    /**
+     * Writes a load or store instruction for a local variable, using the short or wide form where applicable.
+     *
+     * @param opcode one of the {@code LOAD} or {@code STORE} instructions with an index operand, such as {@code ILOAD}.
+     * @param index the local variable index.
+     */
+    public void emitLocal(final int opcode, final int index) {
+        final boolean load;
+        if (opcode >= Const.ILOAD && opcode <= Const.ALOAD) {
+            load = true;
+        } else if (opcode >= Const.ISTORE && opcode <= Const.ASTORE) {
+            load = false;
+        } else {
+            throw new ClassGenException("Not a local variable instruction: " + opcode);
+        }
+        if (index < 0 || index > Const.MAX_SHORT) {
+            throw new ClassGenException("Local variable index out of range: " + index);
+        }
+        final int typeOrdinal = load ? opcode - Const.ILOAD : opcode - Const.ISTORE;
+        final int size = localSize(typeOrdinal);
+        if (index <= 3) {
+            ensureCapacity(1);
+            final int base = (load ? Const.ILOAD_0 : Const.ISTORE_0) + typeOrdinal * 4;
+            code[length++] = (byte) (base + index);
+        } else if (index <= Const.MAX_BYTE) {
+            ensureCapacity(2);
+            code[length++] = (byte) opcode;
+            code[length++] = (byte) index;
+        } else {
+            ensureCapacity(4);
+            code[length++] = (byte) Const.WIDE;
+            code[length++] = (byte) opcode;
+            putShort(index, length);
+            length += 2;
+        }
+        if (load) {
+            updateStack(0, size);
+        } else {
+            updateStack(size, 0);
+        }
+        updateLocals(index, size);
+    }
+
+    /**
+     * Writes a {@code LOOKUPSWITCH} instruction.
+     *
+     * @param keys the match values, in ascending order.
+     * @param targets the branch targets for the match values.
+     * @param defaultTarget the default branch target.
+     */
+    public void emitLookupSwitch(final int[] keys, final Label[] targets, final Label defaultTarget) {
+        if (keys.length != targets.length) {
+            throw new ClassGenException("Match and target arrays have different lengths");
+        }
+        for (int i = 1; i < keys.length; i++) {
+            if (keys[i - 1] >= keys[i]) {
+                throw new ClassGenException("LOOKUPSWITCH keys must be sorted in ascending order");
+            }
+        }
+        final int start = beginSwitch(Const.LOOKUPSWITCH, 8 + keys.length * 8);
+        branchTo(defaultTarget, start, 4);
+        putInt(keys.length, length);
+        length += 4;
+        for (int i = 0; i < keys.length; i++) {
+            putInt(keys[i], length);
+            length += 4;
+            branchTo(targets[i], start, 4);
+        }
+        stackDepth = -1;
+    }
+
+    /**
+     * Writes a {@code MULTIANEWARRAY} instruction.
+     *
+     * @param type the array type.
+     * @param dimensions the number of dimensions to create.
+     */
+    public void emitMultiANewArray(final ArrayType type, final int dimensions) {
+        if (dimensions < 1 || dimensions > type.getDimensions()) {
+            throw new ClassGenException("Invalid dimensions for " + type + ": " + dimensions);
+        }
+        putOpcodeAndShort(Const.MULTIANEWARRAY, cp.addArrayClass(type));
+        ensureCapacity(1);
+        code[length++] = (byte) dimensions;
+        updateStack(dimensions, 1);
+    }
+
+    /**
+     * Writes a {@code NEWARRAY} instruction.
+     *
+     * @param type the primitive element type.
+     */
+    public void emitNewArray(final BasicType type) {
+        ensureCapacity(2);
+        code[length++] = (byte) Const.NEWARRAY;
+        code[length++] = type.getType();
+        updateStack(1, 1);
+    }
+
+    /**
+     * Writes the shortest instruction that pushes the given value.
+     *
+     * @param value the value to push.
+     */
+    public void emitPush(final double value) {
+        if (value == 0.0 && 1 / value > 0 || value == 1.0) {
+            emit(Const.DCONST_0 + (int) value);
+        } else {
+            emitLdc(cp.addDouble(value));
+        }
+    }
+
+    /**
+     * Writes the shortest instruction that pushes the given value.
+     *
+     * @param value the value to push.
+     */
+    public void emitPush(final float value) {
+        if (value == 0.0f && 1 / value > 0 || value == 1.0f || value == 2.0f) {
+            emit(Const.FCONST_0 + (int) value);
+        } else {
+            emitLdc(cp.addFloat(value));
+        }
+    }
+
+    /**
+     * Writes the shortest instruction that pushes the given value.
+     *
+     * @param value the value to push.
+     */
+    public void emitPush(final int value) {
+        if (value >= -1 && value <= 5) {
+            emit(Const.ICONST_0 + value);
+        } else if (Instruction.isValidByte(value)) {
+            ensureCapacity(2);
+            code[length++] = (byte) Const.BIPUSH;
+            code[length++] = (byte) value;
+            updateStack(0, 1);
+        } else if (Instruction.isValidShort(value)) {
+            putOpcodeAndShort(Const.SIPUSH, value);
+            updateStack(0, 1);
+        } else {
+            emitLdc(cp.addInteger(value));
+        }
+    }
+
+    /**
+     * Writes the shortest instruction that pushes the given value.
+     *
+     * @param value the value to push.
+     */
+    public void emitPush(final long value) {
+        if (value == 0 || value == 1) {
+            emit(Const.LCONST_0 + (int) value);
+        } else {
+            emitLdc(cp.addLong(value));
+        }
+    }
+
+    /**
+     * Writes an instruction that pushes the given string, or {@code ACONST_NULL} for {@code null}.
+     *
+     * @param value the value to push.
+     */
+    public void emitPush(final String value) {
+        if (value == null) {
+            emit(Const.ACONST_NULL);
+        } else {
+            emitLdc(cp.addString(value));
+        }
+    }
+
+    /**
+     * Writes a {@code TABLESWITCH} instruction.
+     *
+     * @param low the lowest match value.
+     * @param high the highest match value.
+     * @param targets the branch targets for the values from {@code low} to {@code high}.
+     * @param defaultTarget the default branch target.
+     */
+    public void emitTableSwitch(final int low, final int high, final Label[] targets, final Label defaultTarget) {
+        if (high < low || (long) high - low + 1 != targets.length) {
+            throw new ClassGenException("TABLESWITCH needs one target for each value from " + low + " to " + high);
+        }
+        final int start = beginSwitch(Const.TABLESWITCH, 12 + targets.length * 4);
+        branchTo(defaultTarget, start, 4);
+        putInt(low, length);
+        putInt(high, length + 4);
+        length += 8;
+        for (final Label target : targets) {
+            branchTo(target, start, 4);
+        }
+        stackDepth = -1;
+    }
+
+    /**
+     * Writes an instruction with a class operand.
+     *
+     * @param opcode one of {@code NEW}, {@code ANEWARRAY}, {@code CHECKCAST} or {@code INSTANCEOF}.
+     * @param type the class or array type.
+     */
+    public void emitType(final int opcode, final ReferenceType type) {
+        final int index = type instanceof ArrayType ? cp.addArrayClass((ArrayType) type) : cp.addClass((ObjectType) type);
+        switch (opcode) {
+        case Const.NEW:
+            putOpcodeAndShort(opcode, index);
+            updateStack(0, 1);
+            break;
+        case Const.ANEWARRAY:
+        case Const.CHECKCAST:
+        case Const.INSTANCEOF:
+            putOpcodeAndShort(opcode, index);
+            updateStack(1, 1);
+            break;
+        default:
+            throw new ClassGenException("Not a class operand instruction: " + opcode);
+        }
+    }
+
+    private int beginSwitch(final int opcode, final int fixedLength) {
+        updateStack(1, 0);
+        final int start = length;
+        final int padding = (4 - (start + 1) % 4) % 4;
+        ensureCapacity(1 + padding + fixedLength);
+        code[length++] = (byte) opcode;
+        for (int i = 0; i < padding; i++) {
+            code[length++] = 0;
+        }
+        return start;
+    }
+
+    private void ensureCapacity(final int n) {
+        if (length + n > code.length) {
+            code = Arrays.copyOf(code, Math.max(code.length * 2, length + n));
+        }
+    }
+
+    /**
+     * Gets the code written so far, as a {@code Code} attribute.
+     *
+     * @param attributes attributes of the code, such as a {@code LineNumberTable}.
+     * @return a new {@code Code} attribute.
+     * @throws ClassGenException if a label used by a branch or exception handler has not been marked.
+     */
+    public Code getCode(final Attribute... attributes) {
+        if (unresolved > 0) {
+            throw new ClassGenException(unresolved + " branch target label(s) not marked");
+        }
+        final CodeException[] exceptions = new CodeException[handlerCount];
+        for (int i = 0; i < handlerCount; i++) {
+            final int startPc = handlers[i * 3].position;
+            final int endPc = handlers[i * 3 + 1].position;
+            final int handlerPc = handlers[i * 3 + 2].position;
+            if (startPc < 0 || endPc < 0 || handlerPc < 0) {
+                throw new ClassGenException("Exception handler label not marked");
+            }
+            exceptions[i] = new CodeException(startPc, endPc, handlerPc, catchTypes[i]);
+        }
+        return new Code(cp.addUtf8("Code"), 0, maxStack, maxLocals, Arrays.copyOf(code, length), exceptions, attributes, cp.getConstantPool());
+    }
+
+    /**
+     * Gets the constant pool.
+     *
+     * @return the constant pool.
+     */
+    public ConstantPoolGen getConstantPool() {
+        return cp;
+    }
+
+    /**
+     * Gets the number of local variables used so far.
+     *
+     * @return the number of local variables.
+     */
+    public int getMaxLocals() {
+        return maxLocals;
+    }
+
+    /**
+     * Gets the maximum stack size reached so far.
+     *
+     * @return the maximum stack size.
+     */
+    public int getMaxStack() {
+        return maxStack;
+    }
+
+    /**
+     * Creates a method with the code written so far.
+     *
+     * @param accessFlags access flags of the method.
+     * @param name name of the method.
+     * @param signature signature of the method.
+     * @return a new method.
+     */
+    public Method getMethod(final int accessFlags, final String name, final String signature) {
+        return new Method(accessFlags, cp.addUtf8(name), cp.addUtf8(signature), new Attribute[] {getCode()}, cp.getConstantPool());
+    }
+
+    /**
+     * Gets the current byte code offset, that is, the number of bytes written so far.
+     *
+     * @return the current byte code offset.
+     */
+    public int getPosition() {
+        return length;
+    }
+
+    /**
+     * Marks the current position with the given label and patches all branches to it written so far.
+     *
+     * @param label an unmarked label.
+     */
+    public void mark(final Label label) {
+        if (label.position >= 0) {
+            throw new ClassGenException("Label already marked at " + label.position);
+        }
+        label.position = length;
+        if (label.fixupCount > 0) {
+            unresolved--;
+            for (int i = 0; i < label.fixupCount; i++) {
+                final int offset = length - label.fixups[i * 3];
+                final int operand = label.fixups[i * 3 + 1];
+                if (label.fixups[i * 3 + 2] == 2) {
+                    putShort(checkShortOffset(offset), operand);
+                } else {
+                    putInt(offset, operand);
+                }
+            }
+            label.fixups = null;
+            label.fixupCount = 0;
+        }
+        if (stackDepth < 0) {
+            stackDepth = label.stackDepth < 0 ? 0 : label.stackDepth;
+        }
+        mergeStackDepth(label, stackDepth);
+    }
+
+    private static int localSize(final int typeOrdinal) {
+        return typeOrdinal == 1 || typeOrdinal == 3 ? 2 : 1; // long or double
+    }
+
+    private void mergeStackDepth(final Label label, final int depth) {
+        if (depth < 0) {
+            return;
+        }
+        if (label.stackDepth < 0) {
+            label.stackDepth = depth;
+        } else if (label.stackDepth != depth) {
+            throw new ClassGenException("Inconsistent stack height at label: " + label.stackDepth + " != " + depth);
+        }
+    }
+
+    private void putInt(final int value, final int offset) {
+        code[offset] = (byte) (value >>> 24);
+        code[offset + 1] = (byte) (value >>> 16);
+        code[offset + 2] = (byte) (value >>> 8);
+        code[offset + 3] = (byte) value;
+    }
+
+    private void putOpcodeAndShort(final int opcode, final int value) {
+        ensureCapacity(3);
+        code[length] = (byte) opcode;
+        putShort(value, length + 1);
+        length += 3;
+    }
+
+    private void putShort(final int value, final int offset) {
+        code[offset] = (byte) (value >>> 8);
+        code[offset + 1] = (byte) value;
+    }
+
+    /**
+     * Discards all code, exception handlers and statistics, so that this writer can be used for another method. The
+     * buffer is kept.
+     *
+     * @param maxLocals initial number of local variables, that is, the size of the method's arguments including {@code this}.
+     */
+    public void reset(final int maxLocals) {
+        length = 0;
+        stackDepth = 0;
+        maxStack = 0;
+        this.maxLocals = maxLocals;
+        Arrays.fill(handlers, 0, handlerCount * 3, null);
+        handlerCount = 0;
+        unresolved = 0;
+    }
+
+    private void updateLocals(final int index, final int size) {
+        if (index + size > maxLocals) {
+            maxLocals = index + size;
+        }
+    }
+
+    private void updateStack(final int consumed, final int produced) {
+        if (stackDepth < 0) {
+            // Unreachable code after a jump or return, for example dead code that will be verified as such
+            stackDepth = 0;
+        }
+        stackDepth -= consumed;
+        if (stackDepth < 0) {
+            throw new ClassGenException("Stack underflow at " + length);
+        }
+        stackDepth += produced;
+        if (stackDepth > maxStack) {
+            maxStack = stackDepth;
+        }
+    }
+}
@@ -21,6 +21,7 @@ package org.apache.bcel.generic;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.function.Function;
 
 import org.apache.bcel.Const;
 import org.apache.bcel.classfile.Constant;
@@ -34,6 +35,8 @@ import org.apache.bcel.classfile.ConstantInteger;
 import org.apache.bcel.classfile.ConstantInterfaceMethodref;
 import org.apache.bcel.classfile.ConstantInvokeDynamic;
 import org.apache.bcel.classfile.ConstantLong;
+import org.apache.bcel.classfile.ConstantMethodHandle;
+import org.apache.bcel.classfile.ConstantMethodType;
 import org.apache.bcel.classfile.ConstantMethodref;
 import org.apache.bcel.classfile.ConstantNameAndType;
 import org.apache.bcel.classfile.ConstantPool;
@@ -59,6 +62,12 @@ public class ConstantPoolGen {
 
     private static final String FIELDREF_DELIM = "&";
 
+    private static final String METHODHANDLE_DELIM = "*";
+
+    private static final String METHODTYPE_DELIM = "(";
+
+    private static final String INVOKEDYNAMIC_DELIM = "!";
+
     /**
      * Builds a lookup key that stays collision-free even when the parts contain the ASCII characters used as
      * delimiters above. Class, member and signature names read from a class file may legally contain those characters
@@ -104,6 +113,12 @@ public class ConstantPoolGen {
 
     private final Map<String, Integer> cpTable = new HashMap<>();
 
+    private final Map<String, Integer> dynamicTable = new HashMap<>();
+
+    private ConstantPoolGen base; // Looked up for the constants below the first added one, see ConstantPoolGen(ConstantPoolGen)
+
+    private boolean shared; // Whether constants is still the array of base
+
     /**
      * Constructs a new empty constant pool.
      */
@@ -187,6 +202,16 @@ public class ConstantPoolGen {
                 if (!cpTable.containsKey(key)) {
                     cpTable.put(key, Integer.valueOf(i));
                 }
+                if (c instanceof ConstantInvokeDynamic) {
+                    dynamicTable.putIfAbsent(toKey(INVOKEDYNAMIC_DELIM, className, methodName, signature), Integer.valueOf(i));
+                }
+            } else if (c instanceof ConstantMethodHandle) {
+                final ConstantMethodHandle m = (ConstantMethodHandle) c;
+                dynamicTable.putIfAbsent(toKey(METHODHANDLE_DELIM, Integer.toString(m.getReferenceKind()), Integer.toString(m.getReferenceIndex())),
+                    Integer.valueOf(i));
+            } else if (c instanceof ConstantMethodType) {
+                final ConstantUtf8 u8 = (ConstantUtf8) constants[((ConstantMethodType) c).getDescriptorIndex()];
+                dynamicTable.putIfAbsent(toKey(METHODTYPE_DELIM, u8.getBytes()), Integer.valueOf(i));
             }
 //            else if (c == null) { // entries may be null
 //                // nothing to do
@@ -222,6 +247,22 @@ public class ConstantPoolGen {
         this(cp.getConstantPool());
     }
 
+    /**
+     * Constructs a staging pool over another pool, which must not change while this one is used. The staging pool starts
+     * out with the constants of the base pool at the same indices, shares its array of constants until a constant is
+     * added, and looks up the base pool for constants it does not hold itself. Several threads may use staging pools over
+     * the same base pool.
+     *
+     * @param base The base pool.
+     */
+    ConstantPoolGen(final ConstantPoolGen base) {
+        this.base = base;
+        size = base.size;
+        constants = base.constants;
+        index = base.index;
+        shared = true;
+    }
+
     /**
      * Add a reference to an array class (for example, String[][]) as needed by MULTIANEWARRAY instruction, for example, to the ConstantPool.
      *
@@ -265,7 +306,8 @@ public class ConstantPoolGen {
     }
 
     /**
-     * Adds a constant from another ConstantPool and returns the new index.
+     * Adds a constant from another ConstantPool and returns the new index. An InvokeDynamic constant keeps its index into
+     * the bootstrap methods of the class, so it may only be copied between pools of the same class.
      *
      * @param constant The constant to add.
      * @param cpGen Source pool.
@@ -323,6 +365,21 @@ public class ConstantPoolGen {
                 throw new IllegalArgumentException("Unknown constant type " + constant);
             }
         }
+        case Const.CONSTANT_MethodHandle: {
+            final ConstantMethodHandle m = (ConstantMethodHandle) constant;
+            return addMethodHandle(m.getReferenceKind(), addConstant(constants[m.getReferenceIndex()], cpGen));
+        }
+        case Const.CONSTANT_MethodType: {
+            final ConstantUtf8 u8 = (ConstantUtf8) constants[((ConstantMethodType) constant).getDescriptorIndex()];
+            return addMethodType(u8.getBytes());
+        }
+        case Const.CONSTANT_InvokeDynamic: {
+            final ConstantInvokeDynamic m = (ConstantInvokeDynamic) constant;
+            final ConstantNameAndType n = (ConstantNameAndType) constants[m.getNameAndTypeIndex()];
+            final String name = ((ConstantUtf8) constants[n.getNameIndex()]).getBytes();
+            final String signature = ((ConstantUtf8) constants[n.getSignatureIndex()]).getBytes();
+            return addInvokeDynamic(m.getBootstrapMethodAttrIndex(), name, signature);
+        }
         default: // Never reached
             throw new IllegalArgumentException("Unknown constant type " + constant);
         }
@@ -432,6 +489,28 @@ public class ConstantPoolGen {
         return computeIfAbsent(cpTable, toKey(IMETHODREF_DELIM, className, methodName, signature), ret);
     }
 
+    /**
+     * Add a new InvokeDynamic constant to the ConstantPool, if it is not already in there.
+     *
+     * @param bootstrapMethodAttrIndex index into the bootstrap methods of the class.
+     * @param name name of the call site.
+     * @param signature method signature of the call site.
+     * @return index of entry.
+     * @see ClassGen#addBootstrapMethod(int, int...)
+     * @since 6.13.0
+     */
+    public int addInvokeDynamic(final int bootstrapMethodAttrIndex, final String name, final String signature) {
+        final int cpRet;
+        if ((cpRet = lookupInvokeDynamic(bootstrapMethodAttrIndex, name, signature)) != -1) {
+            return cpRet; // Already in CP
+        }
+        adjustSize();
+        final int nameAndTypeIndex = addNameAndType(name, signature);
+        final int ret = index;
+        constants[index++] = new ConstantInvokeDynamic(bootstrapMethodAttrIndex, nameAndTypeIndex);
+        return computeIfAbsent(dynamicTable, toKey(INVOKEDYNAMIC_DELIM, Integer.toString(bootstrapMethodAttrIndex), name, signature), ret);
+    }
+
     /**
      * Add a new long constant to the ConstantPool, if it is not already in there.
      *
@@ -450,6 +529,25 @@ public class ConstantPoolGen {
         return ret;
     }
 
+    /**
+     * Add a new MethodHandle constant to the ConstantPool, if it is not already in there.
+     *
+     * @param referenceKind the kind of the handle, one of the {@code Const.REF_} constants.
+     * @param referenceIndex index of the Fieldref, Methodref or InterfaceMethodref constant the handle refers to.
+     * @return index of entry.
+     * @since 6.13.0
+     */
+    public int addMethodHandle(final int referenceKind, final int referenceIndex) {
+        int ret;
+        if ((ret = lookupMethodHandle(referenceKind, referenceIndex)) != -1) {
+            return ret; // Already in CP
+        }
+        adjustSize();
+        ret = index;
+        constants[index++] = new ConstantMethodHandle(referenceKind, referenceIndex);
+        return computeIfAbsent(dynamicTable, toKey(METHODHANDLE_DELIM, Integer.toString(referenceKind), Integer.toString(referenceIndex)), ret);
+    }
+
     /**
      * Adds a new Methodref constant to the ConstantPool.
      *
@@ -481,6 +579,25 @@ public class ConstantPoolGen {
         return computeIfAbsent(cpTable, toKey(METHODREF_DELIM, className, methodName, signature), ret);
     }
 
+    /**
+     * Add a new MethodType constant to the ConstantPool, if it is not already in there.
+     *
+     * @param descriptor method descriptor string to add.
+     * @return index of entry.
+     * @since 6.13.0
+     */
+    public int addMethodType(final String descriptor) {
+        int ret;
+        if ((ret = lookupMethodType(descriptor)) != -1) {
+            return ret; // Already in CP
+        }
+        final int descriptorIndex = addUtf8(descriptor);
+        adjustSize();
+        ret = index;
+        constants[index++] = new ConstantMethodType(descriptorIndex);
+        return computeIfAbsent(dynamicTable, toKey(METHODTYPE_DELIM, descriptor), ret);
+    }
+
     /**
      * Add a new NameAndType constant to the ConstantPool if it is not already in there.
      *
@@ -541,6 +658,7 @@ public class ConstantPoolGen {
      * Resize internal array of constants.
      */
     protected void adjustSize() {
+        unshare();
         // 3 extra spaces are needed as some entries may take 3 slots
         if (index + 3 >= Const.MAX_CP_ENTRIES + 1) {
             throw new IllegalStateException("The number of constants " + (index + 3)
@@ -590,8 +708,12 @@ public class ConstantPoolGen {
         return new ConstantPool(Arrays.copyOf(constants, index));
     }
 
-    private int getIndex(final Map<String, Integer> map, final String key) {
-        return toIndex(map.get(key));
+    private int getIndex(final Function<ConstantPoolGen, Map<String, Integer>> table, final String key) {
+        final Integer index = table.apply(this).get(key);
+        if (index == null && base != null) {
+            return base.getIndex(table, key);
+        }
+        return toIndex(index);
     }
 
     /**
@@ -610,7 +732,7 @@ public class ConstantPoolGen {
      * @return index on success, -1 otherwise.
      */
     public int lookupClass(final String str) {
-        return getIndex(classTable, Utility.packageToPath(str));
+        return getIndex(p -> p.classTable, Utility.packageToPath(str));
     }
 
     /**
@@ -641,7 +763,7 @@ public class ConstantPoolGen {
      * @return index on success, -1 otherwise.
      */
     public int lookupFieldref(final String className, final String fieldName, final String signature) {
-        return getIndex(cpTable, toKey(FIELDREF_DELIM, className, fieldName, signature));
+        return getIndex(p -> p.cpTable, toKey(FIELDREF_DELIM, className, fieldName, signature));
     }
 
     /**
@@ -700,7 +822,20 @@ public class ConstantPoolGen {
      * @return index on success, -1 otherwise.
      */
     public int lookupInterfaceMethodref(final String className, final String methodName, final String signature) {
-        return getIndex(cpTable, toKey(IMETHODREF_DELIM, className, methodName, signature));
+        return getIndex(p -> p.cpTable, toKey(IMETHODREF_DELIM, className, methodName, signature));
+    }
+
+    /**
+     * Look for ConstantInvokeDynamic in ConstantPool.
+     *
+     * @param bootstrapMethodAttrIndex index into the bootstrap methods of the class.
+     * @param name name of the call site.
+     * @param signature method signature of the call site.
+     * @return index on success, -1 otherwise.
+     * @since 6.13.0
+     */
+    public int lookupInvokeDynamic(final int bootstrapMethodAttrIndex, final String name, final String signature) {
+        return getIndex(p -> p.dynamicTable, toKey(INVOKEDYNAMIC_DELIM, Integer.toString(bootstrapMethodAttrIndex), name, signature));
     }
 
     /**
@@ -721,6 +856,18 @@ public class ConstantPoolGen {
         return -1;
     }
 
+    /**
+     * Look for ConstantMethodHandle in ConstantPool.
+     *
+     * @param referenceKind the kind of the handle, one of the {@code Const.REF_} constants.
+     * @param referenceIndex index of the constant the handle refers to.
+     * @return index on success, -1 otherwise.
+     * @since 6.13.0
+     */
+    public int lookupMethodHandle(final int referenceKind, final int referenceIndex) {
+        return getIndex(p -> p.dynamicTable, toKey(METHODHANDLE_DELIM, Integer.toString(referenceKind), Integer.toString(referenceIndex)));
+    }
+
     /**
      * Looks up a Methodref in the ConstantPool.
      *
@@ -740,7 +887,18 @@ public class ConstantPoolGen {
      * @return index on success, -1 otherwise.
      */
     public int lookupMethodref(final String className, final String methodName, final String signature) {
-        return getIndex(cpTable, toKey(METHODREF_DELIM, className, methodName, signature));
+        return getIndex(p -> p.cpTable, toKey(METHODREF_DELIM, className, methodName, signature));
+    }
+
+    /**
+     * Look for ConstantMethodType in ConstantPool.
+     *
+     * @param descriptor method descriptor string to look for.
+     * @return index on success, -1 otherwise.
+     * @since 6.13.0
+     */
+    public int lookupMethodType(final String descriptor) {
+        return getIndex(p -> p.dynamicTable, toKey(METHODTYPE_DELIM, descriptor));
     }
 
     /**
@@ -751,7 +909,7 @@ public class ConstantPoolGen {
      * @return index on success, -1 otherwise.
      */
     public int lookupNameAndType(final String name, final String signature) {
-        return getIndex(natTable, toKey(name, signature));
+        return getIndex(p -> p.natTable, toKey(name, signature));
     }
 
     /**
@@ -761,7 +919,7 @@ public class ConstantPoolGen {
      * @return index on success, -1 otherwise.
      */
     public int lookupString(final String str) {
-        return getIndex(stringTable, str);
+        return getIndex(p -> p.stringTable, str);
     }
 
     /**
@@ -771,7 +929,7 @@ public class ConstantPoolGen {
      * @return index on success, -1 otherwise.
      */
     public int lookupUtf8(final String n) {
-        return getIndex(utf8Table, n);
+        return getIndex(p -> p.utf8Table, n);
     }
 
     /**
@@ -781,6 +939,7 @@ public class ConstantPoolGen {
      * @param c new constant pool entry at index i.
      */
     public void setConstant(final int i, final Constant c) {
+        unshare();
         constants[i] = c;
     }
 
@@ -799,4 +958,14 @@ public class ConstantPoolGen {
         }
         return buf.toString();
     }
+
+    /**
+     * Copies the constants of the base pool before they are changed.
+     */
+    private void unshare() {
+        if (shared) {
+            constants = constants.clone();
+            shared = false;
+        }
+    }
 }
@@ -0,0 +1,114 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.List;
+import java.util.Objects;
+
+import org.apache.bcel.Const;
+
+/**
+ * Constant propagation of {@code int} values through local variables and the operand stack.
+ * <p>
+ * The abstract value of a slot or word is its constant {@link Integer}, or null if it is not known to be constant.
+ * Constants are pushed by {@code ICONST}, {@code BIPUSH}, {@code SIPUSH} and {@code LDC}, and folded through the
+ * {@code int} arithmetic, shift, logical and narrowing instructions and {@code IINC}. A division by a constant zero is
+ * not constant.
+ * </p>
+ *
+ * @see DataflowAnalysis
+ * @since 6.13.0
+ */
+public class ConstantPropagation extends FrameAnalysis<Integer> {
+
+    /**
+     * Constructs the problem for the given method.
+     *
+     * @param mg the method, its instruction list is not null.
+     */
+    public ConstantPropagation(final MethodGen mg) {
+        super(mg);
+    }
+
+    /**
+     * @return null.
+     */
+    @Override
+    protected Integer exception() {
+        return null;
+    }
+
+    /**
+     * @return the constant if both are the same, null otherwise.
+     */
+    @Override
+    protected Integer join(final Integer a, final Integer b) {
+        return Objects.equals(a, b) ? a : null;
+    }
+
+    /**
+     * @return null.
+     */
+    @Override
+    protected Integer parameter(final Type type, final boolean thisReference) {
+        return null;
+    }
+
+    /**
+     * @return null.
+     */
+    @Override
+    protected Integer unknown() {
+        return null;
+    }
+
+    @Override
+    protected Integer value(final InstructionHandle ih, final List<Integer> operands) {
+        final Instruction i = ih.getInstruction();
+        final Integer constant = PeepholeOptimizer.intConstant(i, getConstantPool());
+        if (constant != null) {
+            return constant;
+        }
+        final short opcode = i.getOpcode();
+        if (operands.size() == 1) {
+            final Integer a = operands.get(0);
+            if (a == null) {
+                return null;
+            }
+            switch (opcode) {
+            case Const.IINC:
+                return a + ((IINC) i).getIncrement();
+            case Const.INEG:
+                return -a;
+            case Const.I2B:
+                return (int) (byte) a.intValue();
+            case Const.I2C:
+                return (int) (char) a.intValue();
+            case Const.I2S:
+                return (int) (short) a.intValue();
+            default:
+                return null;
+            }
+        }
+        if (operands.size() == 2 && operands.get(0) != null && operands.get(1) != null) {
+            return PeepholeOptimizer.fold(operands.get(0), operands.get(1), opcode);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * The solution of a {@link DataflowProblem} over the {@link BasicBlockGraph} of a method.
+ * <p>
+ * The problem is solved when the analysis is created, by a worklist of blocks kept in a {@link BitSet} and always
+ * visiting the pending block that comes first in reverse post order, or in post order for a backward problem. Values
+ * are kept per block, values at instructions are recomputed on demand. Only blocks reachable from the method
+ * entry are analyzed.
+ * </p>
+ * <p>
+ * Analyses of different methods are independent, {@link #analyze(Collection, Function, boolean)} can run them in
+ * parallel.
+ * </p>
+ *
+ * @param <V> the type of the values.
+ * @see DataflowProblem
+ * @see LivenessAnalysis
+ * @see ReachingDefinitions
+ * @see ConstantPropagation
+ * @see NullnessAnalysis
+ * @since 6.13.0
+ */
+public class DataflowAnalysis<V> {
+
+    /**
+     * Analyzes several methods, each with its own problem.
+     *
+     * @param <V> the type of the values.
+     * @param methods the methods to analyze, their instruction lists are not null.
+     * @param problems creates the problem of a method, called concurrently if {@code parallel} is true.
+     * @param parallel whether to analyze the methods in parallel.
+     * @return the analyses in the iteration order of {@code methods}.
+     */
+    public static <V> List<DataflowAnalysis<V>> analyze(final Collection<MethodGen> methods,
+        final Function<? super MethodGen, ? extends DataflowProblem<V>> problems, final boolean parallel) {
+        return (parallel ? methods.parallelStream() : methods.stream()).map(mg -> new DataflowAnalysis<V>(mg, problems.apply(mg)))
+            .collect(Collectors.toList());
+    }
+
+    private final BasicBlockGraph graph;
+    private final DataflowProblem<V> problem;
+    private final BasicBlock[] order;
+    // Indexed by reverse post order
+    private final Object[] in;
+    private final Object[] out;
+    private final Object[] exceptional; // Forward: merged into the handlers, backward: merged from the handlers
+    private int visits;
+
+    /**
+     * Solves a problem over the given graph.
+     *
+     * @param graph the control flow graph.
+     * @param problem the problem.
+     */
+    public DataflowAnalysis(final BasicBlockGraph graph, final DataflowProblem<V> problem) {
+        this.graph = graph;
+        this.problem = problem;
+        this.order = graph.getReversePostOrder();
+        final int length = order.length;
+        in = new Object[length];
+        out = new Object[length];
+        exceptional = new Object[length];
+        final V bottom = problem.bottom();
+        for (int i = 0; i < length; i++) {
+            in[i] = out[i] = exceptional[i] = bottom;
+        }
+        final BitSet work = new BitSet(length);
+        work.set(0, length);
+        final boolean forward = problem.isForward();
+        for (int next = work.nextSetBit(0); next >= 0; next = work.nextSetBit(0)) {
+            work.clear(next);
+            visits++;
+            if (forward) {
+                visitForward(next, work);
+            } else {
+                visitBackward(length - 1 - next, work);
+            }
+        }
+    }
+
+    /**
+     * Builds the graph of a method and solves a problem over it.
+     *
+     * @param mg the method, its instruction list is not null.
+     * @param problem the problem.
+     */
+    public DataflowAnalysis(final MethodGen mg, final DataflowProblem<V> problem) {
+        this(new BasicBlockGraph(mg), problem);
+    }
+
+    @SuppressWarnings("unchecked") // only values of the problem are stored
+    private V get(final Object[] values, final int index) {
+        return (V) values[index];
+    }
+
+    /**
+     * Gets the value after an instruction, in execution order for both directions.
+     *
+     * @param ih the instruction.
+     * @return the value, or null if the instruction is unreachable.
+     */
+    public V getAfter(final InstructionHandle ih) {
+        return valueAt(ih, false);
+    }
+
+    /**
+     * Gets the values before all instructions of a block, in execution order for both directions, in one pass over the
+     * block.
+     *
+     * @param block the block.
+     * @return the values in the order of the instructions of the block, or null if the block is unreachable.
+     */
+    public List<V> getBefore(final BasicBlock block) {
+        if (!block.isReachable()) {
+            return null;
+        }
+        final int i = block.getReversePostOrderIndex();
+        final InstructionHandle[] instructions = block.instructions;
+        final List<V> values = new ArrayList<>(Collections.nCopies(instructions.length, null));
+        if (problem.isForward()) {
+            V value = get(in, i);
+            for (int k = 0; k < instructions.length; k++) {
+                values.set(k, value);
+                value = problem.transfer(instructions[k], value);
+            }
+        } else {
+            final boolean isProtected = block.exceptionSuccessors.length > 0;
+            final V handlers = get(exceptional, i);
+            V value = get(out, i);
+            for (int k = instructions.length - 1; k >= 0; k--) {
+                if (isProtected) {
+                    value = problem.merge(value, problem.transferException(instructions[k], handlers));
+                }
+                value = problem.transfer(instructions[k], value);
+                values.set(k, value);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Gets the value before an instruction, in execution order for both directions.
+     *
+     * @param ih the instruction.
+     * @return the value, or null if the instruction is unreachable.
+     */
+    public V getBefore(final InstructionHandle ih) {
+        return valueAt(ih, true);
+    }
+
+    /**
+     * Gets the graph the problem was solved over.
+     *
+     * @return the control flow graph.
+     */
+    public BasicBlockGraph getGraph() {
+        return graph;
+    }
+
+    /**
+     * Gets the value at the start of a block.
+     *
+     * @param block the block.
+     * @return the value, or null if the block is unreachable.
+     */
+    public V getIn(final BasicBlock block) {
+        return block.isReachable() ? get(in, block.getReversePostOrderIndex()) : null;
+    }
+
+    /**
+     * Gets the value at the end of a block, before the value flows along the edges to its successors.
+     *
+     * @param block the block.
+     * @return the value, or null if the block is unreachable.
+     */
+    public V getOut(final BasicBlock block) {
+        return block.isReachable() ? get(out, block.getReversePostOrderIndex()) : null;
+    }
+
+    /**
+     * Gets the problem that was solved.
+     *
+     * @return the problem.
+     */
+    public DataflowProblem<V> getProblem() {
+        return problem;
+    }
+
+    /**
+     * Gets the number of block visits needed to reach the fixpoint.
+     *
+     * @return the number of visits, at least the number of reachable blocks.
+     */
+    public int getVisits() {
+        return visits;
+    }
+
+    private V valueAt(final InstructionHandle ih, final boolean before) {
+        final BasicBlock block = graph.getBlock(ih);
+        if (block == null || !block.isReachable()) {
+            return null;
+        }
+        final int i = block.getReversePostOrderIndex();
+        final InstructionHandle[] instructions = block.instructions;
+        if (problem.isForward()) {
+            V value = get(in, i);
+            for (final InstructionHandle current : instructions) {
+                if (current == ih && before) {
+                    return value;
+                }
+                value = problem.transfer(current, value);
+                if (current == ih) {
+                    return value;
+                }
+            }
+        } else {
+            final boolean isProtected = block.exceptionSuccessors.length > 0;
+            final V handlers = get(exceptional, i);
+            V value = get(out, i);
+            for (int k = instructions.length - 1; k >= 0; k--) {
+                if (isProtected) {
+                    value = problem.merge(value, problem.transferException(instructions[k], handlers));
+                }
+                if (instructions[k] == ih && !before) {
+                    return value;
+                }
+                value = problem.transfer(instructions[k], value);
+                if (instructions[k] == ih) {
+                    return value;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void visitBackward(final int i, final BitSet work) {
+        final BasicBlock block = order[i];
+        final int length = order.length;
+        V value = block.successors.length == 0 ? problem.boundary() : problem.bottom();
+        for (final BasicBlock succ : block.successors) {
+            if (succ.isReachable()) {
+                value = problem.merge(value, problem.transferEdge(block, succ, get(in, succ.getReversePostOrderIndex())));
+            }
+        }
+        out[i] = value;
+        final boolean isProtected = block.exceptionSuccessors.length > 0;
+        V handlers = problem.bottom();
+        for (final BasicBlock handler : block.exceptionSuccessors) {
+            handlers = problem.merge(handlers, get(in, handler.getReversePostOrderIndex()));
+        }
+        exceptional[i] = handlers;
+        final InstructionHandle[] instructions = block.instructions;
+        for (int k = instructions.length - 1; k >= 0; k--) {
+            if (isProtected) {
+                value = problem.merge(value, problem.transferException(instructions[k], handlers));
+            }
+            value = problem.transfer(instructions[k], value);
+        }
+        if (!Objects.equals(value, in[i])) {
+            in[i] = value;
+            for (final BasicBlock pred : block.predecessors) {
+                if (pred.isReachable()) {
+                    work.set(length - 1 - pred.getReversePostOrderIndex());
+                }
+            }
+            for (final BasicBlock pred : block.exceptionPredecessors) {
+                if (pred.isReachable()) {
+                    work.set(length - 1 - pred.getReversePostOrderIndex());
+                }
+            }
+        }
+    }
+
+    private void visitForward(final int i, final BitSet work) {
+        final BasicBlock block = order[i];
+        V value = i == 0 ? problem.boundary() : problem.bottom();
+        for (final BasicBlock pred : block.predecessors) {
+            if (pred.isReachable()) {
+                value = problem.merge(value, problem.transferEdge(pred, block, get(out, pred.getReversePostOrderIndex())));
+            }
+        }
+        for (final BasicBlock pred : block.exceptionPredecessors) {
+            if (pred.isReachable()) {
+                value = problem.merge(value, get(exceptional, pred.getReversePostOrderIndex()));
+            }
+        }
+        in[i] = value;
+        final boolean isProtected = block.exceptionSuccessors.length > 0;
+        V thrown = problem.bottom();
+        for (final InstructionHandle ih : block.instructions) {
+            if (isProtected) {
+                thrown = problem.merge(thrown, problem.transferException(ih, value));
+            }
+            value = problem.transfer(ih, value);
+        }
+        if (!Objects.equals(value, out[i])) {
+            out[i] = value;
+            for (final BasicBlock succ : block.successors) {
+                work.set(succ.getReversePostOrderIndex());
+            }
+        }
+        if (!Objects.equals(thrown, exceptional[i])) {
+            exceptional[i] = thrown;
+            for (final BasicBlock handler : block.exceptionSuccessors) {
+                work.set(handler.getReversePostOrderIndex());
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+/**
+ * A dataflow problem solved by a {@link DataflowAnalysis}: a lattice of values given by its bottom element and its
+ * merge, a direction and a transfer function per instruction.
+ * <p>
+ * Values are compared with {@link Object#equals(Object)} to detect the fixpoint and must not be modified once passed
+ * to or returned from a method of this interface; a transfer function changing a value returns a new one. For the
+ * analysis to terminate, the transfer functions must be monotone and the lattice of finite height.
+ * </p>
+ *
+ * @param <V> the type of the values.
+ * @see DataflowAnalysis
+ * @since 6.13.0
+ */
+public interface DataflowProblem<V> {
+
+    /**
+     * Gets the value at the method entry for a forward problem, at every method exit for a backward problem.
+     *
+     * @return the boundary value.
+     */
+    V boundary();
+
+    /**
+     * Gets the least element of the lattice, the identity of {@link #merge(Object, Object)}. Blocks start with this value
+     * before their predecessors, or successors for a backward problem, are known.
+     *
+     * @return the bottom value.
+     */
+    V bottom();
+
+    /**
+     * Tests whether values flow from the method entry towards its exits, otherwise against the control flow.
+     *
+     * @return whether the problem is a forward problem.
+     */
+    boolean isForward();
+
+    /**
+     * Merges the values meeting at a join point.
+     *
+     * @param a a value.
+     * @param b another value.
+     * @return the least upper bound of the values.
+     */
+    V merge(V a, V b);
+
+    /**
+     * Computes the effect of an instruction, the value after it for a forward problem, before it for a backward one.
+     *
+     * @param ih the instruction.
+     * @param value the value before the instruction for a forward problem, after it for a backward one.
+     * @return the transformed value.
+     */
+    V transfer(InstructionHandle ih, V value);
+
+    /**
+     * Computes the value flowing along a normal control flow edge, for example to take a branch condition into account.
+     * The default returns the value unchanged.
+     *
+     * @param from the source of the edge.
+     * @param to the destination of the edge.
+     * @param value the value at the end of {@code from} for a forward problem, at the start of {@code to} for a backward
+     *        one.
+     * @return the value flowing along the edge.
+     */
+    default V transferEdge(final BasicBlock from, final BasicBlock to, final V value) {
+        return value;
+    }
+
+    /**
+     * Computes the value flowing to the exception handlers protecting an instruction, should the instruction throw. For a
+     * forward problem the result is merged into the start of the handlers, for a backward problem the value given is the
+     * merged start of the handlers and the result is merged into the value after the instruction. The default returns
+     * the value unchanged.
+     *
+     * @param ih the protected instruction.
+     * @param value the value before the instruction for a forward problem, at the start of its handlers for a backward
+     *        one.
+     * @return the value flowing along the exception edges.
+     */
+    default V transferException(final InstructionHandle ih, final V value) {
+        return value;
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.function.Function;
+
+/**
+ * A bounded cache from descriptors to the values parsed from them, for concurrent use without locking.
+ * <p>
+ * Entries live in a fixed size table at the slot given by the hash code of their descriptor, a new entry replaces the
+ * one in its slot. Entries are immutable, so a thread reading a slot sees either a complete entry or none, and a value
+ * lost to a race is simply parsed again. Cached values are shared and must not be modified.
+ * </p>
+ *
+ * @param <V> the type of the values.
+ */
+final class DescriptorCache<V> {
+
+    private static final class Entry<V> {
+
+        final String descriptor;
+        final V value;
+
+        Entry(final String descriptor, final V value) {
+            this.descriptor = descriptor;
+            this.value = value;
+        }
+    }
+
+    private final Entry<V>[] table;
+    private final Function<String, V> parser;
+
+    /**
+     * Constructs a cache.
+     *
+     * @param size the number of entries, a power of two.
+     * @param parser computes the value of a descriptor.
+     */
+    @SuppressWarnings("unchecked") // generic array
+    DescriptorCache(final int size, final Function<String, V> parser) {
+        this.table = new Entry[size];
+        this.parser = parser;
+    }
+
+    /**
+     * Gets the value of a descriptor, parsing it if it is not cached.
+     *
+     * @param descriptor the descriptor.
+     * @return the shared value.
+     */
+    V get(final String descriptor) {
+        final int hash = descriptor.hashCode();
+        final int slot = (hash ^ hash >>> 16) & table.length - 1;
+        final Entry<V> entry = table[slot];
+        if (entry != null && entry.descriptor.equals(descriptor)) {
+            return entry.value;
+        }
+        final V value = parser.apply(descriptor);
+        table[slot] = new Entry<>(descriptor, value);
+        return value;
+    }
+}
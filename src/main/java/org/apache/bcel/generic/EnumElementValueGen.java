@@ -98,7 +98,6 @@ public class EnumElementValueGen extends ElementValueGen {
      */
     @Override
     public ElementValue getElementValue() {
-        System.err.println("Duplicating value: " + getEnumTypeString() + ":" + getEnumValueString());
         return new EnumElementValue(super.getElementValueType(), typeIdx, valueIdx, getConstantPool().getConstantPool());
     }
 
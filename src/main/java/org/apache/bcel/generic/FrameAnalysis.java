@@ -0,0 +1,257 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.bcel.Const;
+
+/**
+ * A forward problem tracking an abstract value in every local variable slot and operand stack word.
+ * <p>
+ * Loads, stores and the stack manipulating instructions such as {@code DUP_X1} move values around, every other
+ * instruction pops its operands and pushes the value computed by {@link #value(InstructionHandle, List)}. Exception
+ * handlers start with the stack holding {@link #exception()}. The bottom of the lattice is the null frame of
+ * unreached code.
+ * </p>
+ *
+ * @param <T> the type of the abstract values, compared with {@link Object#equals(Object)}.
+ * @see ConstantPropagation
+ * @see NullnessAnalysis
+ * @since 6.13.0
+ */
+public abstract class FrameAnalysis<T> implements DataflowProblem<ValueFrame<T>> {
+
+    private final MethodGen mg;
+    private final ConstantPoolGen cp;
+    private final int maxLocals;
+
+    /**
+     * Constructs an analysis of the given method.
+     *
+     * @param mg the method, its instruction list is not null.
+     */
+    protected FrameAnalysis(final MethodGen mg) {
+        this.mg = mg;
+        this.cp = mg.getConstantPool();
+        int locals = mg.isStatic() ? 0 : 1;
+        for (final Type argType : mg.getArgumentTypes()) {
+            locals += argType.getSize();
+        }
+        for (final InstructionHandle ih : mg.getInstructionList()) {
+            final Instruction i = ih.getInstruction();
+            if (i instanceof LocalVariableInstruction) {
+                final LocalVariableInstruction lvi = (LocalVariableInstruction) i;
+                locals = Math.max(locals, lvi.getIndex() + lvi.getType(cp).getSize());
+            }
+        }
+        this.maxLocals = locals;
+    }
+
+    /**
+     * @return the frame on entry, holding the {@link #parameter(Type, boolean) parameters}.
+     */
+    @Override
+    public ValueFrame<T> boundary() {
+        final Object[] locals = new Object[maxLocals];
+        Arrays.fill(locals, unknown());
+        int slot = 0;
+        if (!mg.isStatic()) {
+            locals[slot++] = parameter(ObjectType.getInstance(mg.getClassName()), true);
+        }
+        for (final Type argType : mg.getArgumentTypes()) {
+            locals[slot] = parameter(argType, false);
+            slot += argType.getSize();
+        }
+        return new ValueFrame<>(locals, new Object[0]);
+    }
+
+    /**
+     * @return null, the frame of unreached code.
+     */
+    @Override
+    public ValueFrame<T> bottom() {
+        return null;
+    }
+
+    /**
+     * Gets the value of the exception on the stack at the start of a handler.
+     *
+     * @return the abstract value of a caught exception.
+     */
+    protected abstract T exception();
+
+    /**
+     * Gets the constant pool of the analyzed method.
+     *
+     * @return the constant pool.
+     */
+    protected ConstantPoolGen getConstantPool() {
+        return cp;
+    }
+
+    /**
+     * @return true.
+     */
+    @Override
+    public boolean isForward() {
+        return true;
+    }
+
+    /**
+     * Merges two abstract values.
+     *
+     * @param a an abstract value.
+     * @param b another abstract value.
+     * @return the least upper bound of the values.
+     */
+    protected abstract T join(T a, T b);
+
+    /**
+     * Merges the frames slot by slot and word by word.
+     *
+     * @throws ClassGenException if the stack sizes differ.
+     */
+    @Override
+    @SuppressWarnings("unchecked") // only values of the analysis are stored
+    public ValueFrame<T> merge(final ValueFrame<T> a, final ValueFrame<T> b) {
+        if (a == null || a.equals(b)) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.getStackSize() != b.getStackSize()) {
+            throw new ClassGenException("Stack sizes differ at a merge point: " + a + " and " + b);
+        }
+        final Object[] locals = a.locals().clone();
+        for (int i = 0; i < locals.length; i++) {
+            locals[i] = join((T) locals[i], b.getLocal(i));
+        }
+        final Object[] stack = a.stack().clone();
+        for (int i = 0; i < stack.length; i++) {
+            stack[i] = join((T) stack[i], b.getStack(i));
+        }
+        return new ValueFrame<>(locals, stack);
+    }
+
+    @SuppressWarnings("unchecked") // only values of the analysis are stored
+    private List<T> operands(final Object[] words) {
+        return (List<T>) Arrays.asList(words);
+    }
+
+    /**
+     * Gets the value of a parameter on entry.
+     *
+     * @param type the type of the parameter.
+     * @param thisReference whether the parameter is the {@code this} reference.
+     * @return the abstract value.
+     */
+    protected abstract T parameter(Type type, boolean thisReference);
+
+    @Override
+    public ValueFrame<T> transfer(final InstructionHandle ih, final ValueFrame<T> frame) {
+        if (frame == null) {
+            return null;
+        }
+        final Instruction i = ih.getInstruction();
+        final Object[] in = frame.stack();
+        if (i instanceof LocalVariableInstruction) {
+            final LocalVariableInstruction lvi = (LocalVariableInstruction) i;
+            final int slot = lvi.getIndex();
+            final Object[] locals = frame.locals().clone();
+            if (i instanceof IINC) {
+                locals[slot] = value(ih, operands(new Object[] {locals[slot]}));
+                return new ValueFrame<>(locals, in);
+            }
+            final int size = lvi.getType(cp).getSize();
+            if (i instanceof StoreInstruction) {
+                System.arraycopy(in, in.length - size, locals, slot, size);
+                return new ValueFrame<>(locals, Arrays.copyOf(in, in.length - size));
+            }
+            final Object[] stack = Arrays.copyOf(in, in.length + size);
+            System.arraycopy(locals, slot, stack, in.length, size);
+            return new ValueFrame<>(frame.locals(), stack);
+        }
+        if (i instanceof StackInstruction) {
+            return new ValueFrame<>(frame.locals(), shuffle(i.getOpcode(), in));
+        }
+        final int consumed = i.consumeStack(cp);
+        final int produced = i.produceStack(cp);
+        final Object[] operands = Arrays.copyOfRange(in, in.length - consumed, in.length);
+        final Object[] stack = Arrays.copyOf(in, in.length - consumed + produced);
+        if (produced > 0) {
+            Arrays.fill(stack, in.length - consumed, stack.length, unknown());
+            stack[in.length - consumed] = value(ih, operands(operands));
+        }
+        return new ValueFrame<>(frame.locals(), stack);
+    }
+
+    private Object[] shuffle(final short opcode, final Object[] in) {
+        final int length = in.length;
+        switch (opcode) {
+        case Const.POP:
+            return Arrays.copyOf(in, length - 1);
+        case Const.POP2:
+            return Arrays.copyOf(in, length - 2);
+        case Const.SWAP:
+            final Object[] swapped = in.clone();
+            swapped[length - 1] = in[length - 2];
+            swapped[length - 2] = in[length - 1];
+            return swapped;
+        default:
+            // DUP, DUP_X1, DUP_X2, DUP2, DUP2_X1 and DUP2_X2 insert copies of the top words further down
+            final int words = opcode >= Const.DUP2 ? 2 : 1;
+            final int depth = words + opcode - (words == 1 ? Const.DUP : Const.DUP2);
+            final Object[] stack = new Object[length + words];
+            final int at = length - depth;
+            System.arraycopy(in, 0, stack, 0, at);
+            System.arraycopy(in, length - words, stack, at, words);
+            System.arraycopy(in, at, stack, at + words, depth);
+            return stack;
+        }
+    }
+
+    /**
+     * @return the frame before the instruction with the stack replaced by the caught {@link #exception()}.
+     */
+    @Override
+    public ValueFrame<T> transferException(final InstructionHandle ih, final ValueFrame<T> frame) {
+        return frame == null ? null : new ValueFrame<>(frame.locals(), new Object[] {exception()});
+    }
+
+    /**
+     * Gets the value nothing is known about, held by unassigned slots and the second word of a {@code long} or
+     * {@code double}.
+     *
+     * @return the abstract value.
+     */
+    protected abstract T unknown();
+
+    /**
+     * Computes the value pushed by an instruction other than a load or a stack manipulation, or the new value of the
+     * slot incremented by an {@code IINC}. For instructions pushing two words the second one is {@link #unknown()}.
+     *
+     * @param ih the instruction.
+     * @param operands the operand stack words consumed, the top of the stack last, or the slot value for {@code IINC}.
+     * @return the abstract value.
+     */
+    protected abstract T value(InstructionHandle ih, List<T> operands);
+}
@@ -115,7 +115,7 @@ public class INVOKEDYNAMIC extends InvokeInstruction {
      */
     @Override
     public ReferenceType getReferenceType(final ConstantPoolGen cpg) {
-        return new ObjectType(Object.class.getName());
+        return Type.OBJECT;
     }
 
     /**
@@ -0,0 +1,264 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.util.ByteSequence;
+import org.apache.commons.lang3.ArrayUtils;
+
+/**
+ * Table driven decoder behind {@link Instruction#readInstruction(ByteSequence)}.
+ * <p>
+ * Each opcode maps to a factory and an operand layout. On request, instructions whose only operand is a local variable
+ * index or a constant pool index are interned per (opcode, operand) pair, so decoding the same {@code ALOAD 1} or
+ * {@code GETFIELD #12} twice yields the same object. Interned instructions are immutable: their index setters throw a
+ * {@link ClassGenException}, use {@link Instruction#copy()} to get a private, modifiable instance.
+ * </p>
+ */
+final class InstructionDecoder {
+
+    /** Operands are decoded by {@link Instruction#initFromFile(ByteSequence, boolean)}, never interned. */
+    private static final byte OTHER = 0;
+
+    /** Compact local variable instruction such as ILOAD_2, the index is implied by the opcode. */
+    private static final byte IMPLICIT_LOCAL = 1;
+
+    /** Unsigned byte local variable index. */
+    private static final byte LOCAL = 2;
+
+    /** Unsigned byte constant pool index (LDC). */
+    private static final byte CP_BYTE = 3;
+
+    /** Unsigned short constant pool index. */
+    private static final byte CP_SHORT = 4;
+
+    /** Interned instructions are kept in lazily allocated pages of this many operands. */
+    private static final int PAGE_SIZE = 256;
+
+    private static final Supplier<?>[] FACTORIES = new Supplier<?>[Const.MAX_BYTE + 1];
+
+    private static final byte[] LAYOUTS = new byte[Const.MAX_BYTE + 1];
+
+    /** Per opcode page table of interned instructions, null for opcodes that are never interned. */
+    private static final AtomicReferenceArray<?>[] SHARED = new AtomicReferenceArray<?>[Const.MAX_BYTE + 1];
+
+    static {
+        register(Const.BIPUSH, OTHER, BIPUSH::new);
+        register(Const.SIPUSH, OTHER, SIPUSH::new);
+        register(Const.LDC, CP_BYTE, LDC::new);
+        register(Const.LDC_W, CP_SHORT, LDC_W::new);
+        register(Const.LDC2_W, CP_SHORT, LDC2_W::new);
+        register(Const.ILOAD, LOCAL, ILOAD::new);
+        register(Const.LLOAD, LOCAL, LLOAD::new);
+        register(Const.FLOAD, LOCAL, FLOAD::new);
+        register(Const.DLOAD, LOCAL, DLOAD::new);
+        register(Const.ALOAD, LOCAL, ALOAD::new);
+        registerCompact(Const.ILOAD_0, ILOAD::new);
+        registerCompact(Const.LLOAD_0, LLOAD::new);
+        registerCompact(Const.FLOAD_0, FLOAD::new);
+        registerCompact(Const.DLOAD_0, DLOAD::new);
+        registerCompact(Const.ALOAD_0, ALOAD::new);
+        register(Const.ISTORE, LOCAL, ISTORE::new);
+        register(Const.LSTORE, LOCAL, LSTORE::new);
+        register(Const.FSTORE, LOCAL, FSTORE::new);
+        register(Const.DSTORE, LOCAL, DSTORE::new);
+        register(Const.ASTORE, LOCAL, ASTORE::new);
+        registerCompact(Const.ISTORE_0, ISTORE::new);
+        registerCompact(Const.LSTORE_0, LSTORE::new);
+        registerCompact(Const.FSTORE_0, FSTORE::new);
+        registerCompact(Const.DSTORE_0, DSTORE::new);
+        registerCompact(Const.ASTORE_0, ASTORE::new);
+        register(Const.IINC, OTHER, IINC::new);
+        register(Const.IFEQ, OTHER, IFEQ::new);
+        register(Const.IFNE, OTHER, IFNE::new);
+        register(Const.IFLT, OTHER, IFLT::new);
+        register(Const.IFGE, OTHER, IFGE::new);
+        register(Const.IFGT, OTHER, IFGT::new);
+        register(Const.IFLE, OTHER, IFLE::new);
+        register(Const.IF_ICMPEQ, OTHER, IF_ICMPEQ::new);
+        register(Const.IF_ICMPNE, OTHER, IF_ICMPNE::new);
+        register(Const.IF_ICMPLT, OTHER, IF_ICMPLT::new);
+        register(Const.IF_ICMPGE, OTHER, IF_ICMPGE::new);
+        register(Const.IF_ICMPGT, OTHER, IF_ICMPGT::new);
+        register(Const.IF_ICMPLE, OTHER, IF_ICMPLE::new);
+        register(Const.IF_ACMPEQ, OTHER, IF_ACMPEQ::new);
+        register(Const.IF_ACMPNE, OTHER, IF_ACMPNE::new);
+        register(Const.GOTO, OTHER, GOTO::new);
+        register(Const.JSR, OTHER, JSR::new);
+        register(Const.RET, OTHER, RET::new);
+        register(Const.TABLESWITCH, OTHER, TABLESWITCH::new);
+        register(Const.LOOKUPSWITCH, OTHER, LOOKUPSWITCH::new);
+        register(Const.GETSTATIC, CP_SHORT, GETSTATIC::new);
+        register(Const.PUTSTATIC, CP_SHORT, PUTSTATIC::new);
+        register(Const.GETFIELD, CP_SHORT, GETFIELD::new);
+        register(Const.PUTFIELD, CP_SHORT, PUTFIELD::new);
+        register(Const.INVOKEVIRTUAL, CP_SHORT, INVOKEVIRTUAL::new);
+        register(Const.INVOKESPECIAL, CP_SHORT, INVOKESPECIAL::new);
+        register(Const.INVOKESTATIC, CP_SHORT, INVOKESTATIC::new);
+        register(Const.INVOKEINTERFACE, OTHER, INVOKEINTERFACE::new);
+        register(Const.INVOKEDYNAMIC, OTHER, INVOKEDYNAMIC::new);
+        register(Const.NEW, CP_SHORT, NEW::new);
+        register(Const.NEWARRAY, OTHER, NEWARRAY::new);
+        register(Const.ANEWARRAY, CP_SHORT, ANEWARRAY::new);
+        register(Const.CHECKCAST, CP_SHORT, CHECKCAST::new);
+        register(Const.INSTANCEOF, CP_SHORT, INSTANCEOF::new);
+        register(Const.MULTIANEWARRAY, OTHER, MULTIANEWARRAY::new);
+        register(Const.IFNULL, OTHER, IFNULL::new);
+        register(Const.IFNONNULL, OTHER, IFNONNULL::new);
+        register(Const.GOTO_W, OTHER, GOTO_W::new);
+        register(Const.JSR_W, OTHER, JSR_W::new);
+        register(Const.BREAKPOINT, OTHER, BREAKPOINT::new);
+        register(Const.IMPDEP1, OTHER, IMPDEP1::new);
+        register(Const.IMPDEP2, OTHER, IMPDEP2::new);
+    }
+
+    /**
+     * Tests whether the given instruction is an interned instance handed out by {@link #read(ByteSequence, short, boolean, boolean)}.
+     *
+     * @param instruction the instruction to test.
+     * @param operand the instruction's local variable or constant pool index.
+     * @return whether the instruction is shared and must not be modified.
+     */
+    static boolean isShared(final Instruction instruction, final int operand) {
+        final int opcode = instruction.getOpcode();
+        if (opcode < 0 || opcode > Const.MAX_BYTE) {
+            return false;
+        }
+        return lookup(opcode, LAYOUTS[opcode] == IMPLICIT_LOCAL ? 0 : operand) == instruction;
+    }
+
+    /**
+     * Gets the interned instruction for the given opcode and operand.
+     *
+     * @return the interned instruction or null if there is none yet.
+     */
+    private static Instruction lookup(final int opcode, final int operand) {
+        final AtomicReferenceArray<?> pages = SHARED[opcode];
+        if (pages == null || operand < 0 || operand / PAGE_SIZE >= pages.length()) {
+            return null;
+        }
+        final AtomicReferenceArray<?> page = (AtomicReferenceArray<?>) pages.get(operand / PAGE_SIZE);
+        return page == null ? null : (Instruction) page.get(operand % PAGE_SIZE);
+    }
+
+    /**
+     * Decodes the operands of an instruction whose opcode (and wide prefix, if any) has already been read.
+     *
+     * @param bytes input stream positioned after the opcode.
+     * @param opcode the opcode.
+     * @param wide whether the opcode was prefixed with WIDE.
+     * @param intern whether to return an interned instance if the operand layout allows it.
+     * @return the decoded, possibly interned, instruction.
+     * @throws IOException Thrown when an I/O exception of some sort has occurred.
+     */
+    static Instruction read(final ByteSequence bytes, final short opcode, final boolean wide, final boolean intern) throws IOException {
+        final Supplier<?> factory = FACTORIES[opcode];
+        if (factory == null) {
+            throw new ClassGenException("Illegal opcode detected: " + opcode);
+        }
+        final int operand;
+        switch (wide || !intern ? OTHER : LAYOUTS[opcode]) {
+        case IMPLICIT_LOCAL:
+            operand = 0;
+            break;
+        case LOCAL:
+        case CP_BYTE:
+            operand = bytes.readUnsignedByte();
+            break;
+        case CP_SHORT:
+            operand = bytes.readUnsignedShort();
+            break;
+        default:
+            final Instruction obj = (Instruction) factory.get();
+            if (wide && !(obj instanceof LocalVariableInstruction || obj instanceof RET)) {
+                throw new ClassGenException("Illegal opcode after wide: " + opcode);
+            }
+            obj.setOpcode(opcode);
+            obj.initFromFile(bytes, wide); // Do further initializations, if any
+            return obj;
+        }
+        final Instruction shared = lookup(opcode, operand);
+        return shared != null ? shared : intern(opcode, operand, (Instruction) factory.get());
+    }
+
+    /**
+     * Initializes a fresh instruction from the already decoded operand and publishes it, unless another thread won the race.
+     */
+    @SuppressWarnings("unchecked")
+    private static Instruction intern(final short opcode, final int operand, final Instruction obj) throws IOException {
+        obj.setOpcode(opcode);
+        final byte[] operandBytes;
+        switch (LAYOUTS[opcode]) {
+        case IMPLICIT_LOCAL:
+            operandBytes = ArrayUtils.EMPTY_BYTE_ARRAY;
+            break;
+        case CP_SHORT:
+            operandBytes = new byte[] {(byte) (operand >>> 8), (byte) operand};
+            break;
+        default:
+            operandBytes = new byte[] {(byte) operand};
+            break;
+        }
+        // Only taken on a miss, so reusing initFromFile() keeps the decoded state identical to the unshared path
+        try (ByteSequence operandSequence = new ByteSequence(operandBytes)) {
+            obj.initFromFile(operandSequence, false);
+        }
+        final AtomicReferenceArray<AtomicReferenceArray<Instruction>> pages = (AtomicReferenceArray<AtomicReferenceArray<Instruction>>) SHARED[opcode];
+        final int pageIndex = operand / PAGE_SIZE;
+        AtomicReferenceArray<Instruction> page = pages.get(pageIndex);
+        if (page == null) {
+            pages.compareAndSet(pageIndex, null, new AtomicReferenceArray<>(PAGE_SIZE));
+            page = pages.get(pageIndex);
+        }
+        return page.compareAndSet(operand % PAGE_SIZE, null, obj) ? obj : page.get(operand % PAGE_SIZE);
+    }
+
+    private static void register(final short opcode, final byte layout, final Supplier<Instruction> factory) {
+        FACTORIES[opcode] = factory;
+        LAYOUTS[opcode] = layout;
+        switch (layout) {
+        case IMPLICIT_LOCAL:
+        case LOCAL:
+        case CP_BYTE:
+            SHARED[opcode] = new AtomicReferenceArray<AtomicReferenceArray<Instruction>>(1);
+            break;
+        case CP_SHORT:
+            SHARED[opcode] = new AtomicReferenceArray<AtomicReferenceArray<Instruction>>((Const.MAX_SHORT + 1) / PAGE_SIZE);
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * Registers the four compact forms xLOAD_0 to xLOAD_3 (or xSTORE_0 to xSTORE_3) starting at the given opcode.
+     */
+    private static void registerCompact(final short opcode0, final Supplier<Instruction> factory) {
+        for (short opcode = opcode0; opcode < opcode0 + 4; opcode++) {
+            register(opcode, IMPLICIT_LOCAL, factory);
+        }
+    }
+
+    private InstructionDecoder() {
+    } // non-instantiable
+}
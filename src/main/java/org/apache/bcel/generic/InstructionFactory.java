@@ -18,6 +18,8 @@
  */
 package org.apache.bcel.generic;
 
+import java.util.Arrays;
+
 import org.apache.bcel.Const;
 
 /**
@@ -51,6 +53,36 @@ public class InstructionFactory implements InstructionConstants {
 
     private static final String FQCN_STRING_BUFFER = "java.lang.StringBuffer";
 
+    private static final String FQCN_STRING_BUILDER = "java.lang.StringBuilder";
+
+    private static final String FQCN_LAMBDA_METAFACTORY = "java.lang.invoke.LambdaMetafactory";
+
+    private static final String METAFACTORY = "metafactory";
+
+    private static final String METAFACTORY_SIGNATURE = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/invoke/MethodType;"
+        + "Ljava/lang/invoke/MethodType;Ljava/lang/invoke/MethodHandle;Ljava/lang/invoke/MethodType;)Ljava/lang/invoke/CallSite;";
+
+    private static final String FQCN_STRING_CONCAT_FACTORY = "java.lang.invoke.StringConcatFactory";
+
+    private static final String MAKE_CONCAT_WITH_CONSTANTS = "makeConcatWithConstants";
+
+    private static final String MAKE_CONCAT_WITH_CONSTANTS_SIGNATURE = "(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;"
+        + "Ljava/lang/invoke/MethodType;Ljava/lang/String;[Ljava/lang/Object;)Ljava/lang/invoke/CallSite;";
+
+    /**
+     * Marks an argument in a recipe of {@link #createConcat(String, Type[], InstructionList[])}.
+     *
+     * @since 6.13.0
+     */
+    public static final char CONCAT_ARGUMENT = '\u0001';
+
+    private static final char CONCAT_CONSTANT = '\u0002';
+
+    /**
+     * The maximum number of argument slots of a {@code makeConcatWithConstants} call site.
+     */
+    private static final int MAX_CONCAT_SLOTS = 200;
+
     /**
      * These must agree with the order of Constants.T_CHAR through T_LONG.
      */
@@ -486,6 +518,36 @@ public class InstructionFactory implements InstructionConstants {
         return new ALOAD(0);
     }
 
+    /**
+     * Boxes a primitive type where the erased interface method has a reference type, as javac does for the instantiated
+     * method type of a lambda.
+     */
+    private static Type instantiated(final Type type, final Type erased) {
+        if (!(type instanceof BasicType) || type == Type.VOID || !(erased instanceof ReferenceType)) {
+            return type;
+        }
+        switch (type.getType()) {
+        case Const.T_BOOLEAN:
+            return ObjectType.getInstance("java.lang.Boolean");
+        case Const.T_CHAR:
+            return ObjectType.getInstance("java.lang.Character");
+        case Const.T_BYTE:
+            return ObjectType.getInstance("java.lang.Byte");
+        case Const.T_SHORT:
+            return ObjectType.getInstance("java.lang.Short");
+        case Const.T_INT:
+            return ObjectType.getInstance("java.lang.Integer");
+        case Const.T_LONG:
+            return ObjectType.getInstance("java.lang.Long");
+        case Const.T_FLOAT:
+            return ObjectType.getInstance("java.lang.Float");
+        case Const.T_DOUBLE:
+            return ObjectType.getInstance("java.lang.Double");
+        default:
+            throw new IllegalArgumentException("Invalid type " + type);
+        }
+    }
+
     private static boolean isString(final Type type) {
         return type instanceof ObjectType && ((ObjectType) type).getClassName().equals("java.lang.String");
     }
@@ -560,6 +622,78 @@ public class InstructionFactory implements InstructionConstants {
         }
     }
 
+    /**
+     * Creates code that concatenates constant text and values to a String, like the {@code +} operator on strings. For
+     * classes of version 53 (Java 9) and above the values are concatenated by an {@code invokedynamic} call site of
+     * {@code java.lang.invoke.StringConcatFactory.makeConcatWithConstants}, whose bootstrap method is added to the class.
+     * Otherwise, or if the factory has no class generator, or the values take more than 200 slots, a
+     * {@code java.lang.StringBuilder} is used.
+     * <p>
+     * The recipe is the text of the string with a {@link #CONCAT_ARGUMENT} character where the next value goes, as for
+     * {@code makeConcatWithConstants}, where the other tag character {@code '\u0002'} is not supported.
+     * </p>
+     *
+     * @param recipe the text of the string with a placeholder for each value.
+     * @param argTypes the types of the values.
+     * @param args code that pushes each value, appended to the result and left empty.
+     * @return the code that pushes the String.
+     * @throws IllegalArgumentException if the placeholders in the recipe do not match the values.
+     * @since 6.13.0
+     */
+    public InstructionList createConcat(final String recipe, final Type[] argTypes, final InstructionList[] args) {
+        if (argTypes.length != args.length) {
+            throw new IllegalArgumentException("Got " + argTypes.length + " types for " + args.length + " values");
+        }
+        int count = 0;
+        for (int i = 0; i < recipe.length(); i++) {
+            if (recipe.charAt(i) == CONCAT_ARGUMENT) {
+                count++;
+            } else if (recipe.charAt(i) == CONCAT_CONSTANT) {
+                throw new IllegalArgumentException("Constant tags are not supported: " + recipe);
+            }
+        }
+        if (count != args.length) {
+            throw new IllegalArgumentException("Recipe has " + count + " placeholders for " + args.length + " values: " + recipe);
+        }
+        int slots = 0;
+        for (final Type argType : argTypes) {
+            if (argType.getSize() == 0) {
+                throw new IllegalArgumentException("Cannot concatenate " + argType);
+            }
+            slots += argType.getSize();
+        }
+        final InstructionList il = new InstructionList();
+        if (cg != null && cg.getMajor() >= Const.MAJOR_9 && slots <= MAX_CONCAT_SLOTS) {
+            for (final InstructionList arg : args) {
+                il.append(arg);
+            }
+            final int bootstrapMethodRef = cp.addMethodref(FQCN_STRING_CONCAT_FACTORY, MAKE_CONCAT_WITH_CONSTANTS, MAKE_CONCAT_WITH_CONSTANTS_SIGNATURE);
+            final int bootstrapMethod = cg.addBootstrapMethod(cp.addMethodHandle(Const.REF_invokeStatic, bootstrapMethodRef), cp.addString(recipe));
+            il.append(new INVOKEDYNAMIC(cp.addInvokeDynamic(bootstrapMethod, MAKE_CONCAT_WITH_CONSTANTS, Type.getMethodSignature(Type.STRING, argTypes))));
+            return il;
+        }
+        il.append(createNew(Type.STRINGBUILDER));
+        il.append(InstructionConst.DUP);
+        il.append(createInvoke(FQCN_STRING_BUILDER, Const.CONSTRUCTOR_NAME, Type.VOID, Type.NO_ARGS, Const.INVOKESPECIAL));
+        int start = 0;
+        int arg = 0;
+        for (int i = 0; i <= recipe.length(); i++) {
+            if (i == recipe.length() || recipe.charAt(i) == CONCAT_ARGUMENT) {
+                if (i > start) {
+                    il.append(new PUSH(cp, recipe.substring(start, i)));
+                    il.append(createStringBuilderAppend(Type.STRING));
+                }
+                if (i < recipe.length()) {
+                    il.append(args[arg]);
+                    il.append(createStringBuilderAppend(argTypes[arg++]));
+                }
+                start = i + 1;
+            }
+        }
+        il.append(createInvoke(FQCN_STRING_BUILDER, "toString", Type.STRING, Type.NO_ARGS, Const.INVOKEVIRTUAL));
+        return il;
+    }
+
     /**
      * Create conversion operation for two stack operands, this may be an I2C, instruction, for example, if the operands are basic
      * types and CHECKCAST if they are reference types.
@@ -759,6 +893,100 @@ public class InstructionFactory implements InstructionConstants {
         }
     }
 
+    /**
+     * Creates an invokedynamic instruction that makes a lambda, an instance of a functional interface whose method calls
+     * an implementation method, through {@code java.lang.invoke.LambdaMetafactory.metafactory}. The instruction pops the
+     * captured values, which are passed to the implementation before the arguments of the interface method, and pushes
+     * the instance. The bootstrap method is added to the class and shared by lambdas with equal arguments.
+     *
+     * @param interfaceType the functional interface.
+     * @param methodName the name of the abstract method of the interface.
+     * @param methodSignature the signature of that method, for example {@code (Ljava/lang/Object;)Ljava/lang/Object;}
+     *        for {@code Function.apply}.
+     * @param instantiatedSignature the signature the lambda implements that method with, the same or more specific, for
+     *        example {@code (Ljava/lang/String;)Ljava/lang/Integer;}.
+     * @param implementation index of the MethodHandle constant of the implementation method.
+     * @param capturedTypes the types of the captured values.
+     * @return the invokedynamic instruction.
+     * @throws ClassGenException if this factory has no class generator to add the bootstrap method to.
+     * @see ConstantPoolGen#addMethodHandle(int, int)
+     * @since 6.13.0
+     */
+    public INVOKEDYNAMIC createLambda(final ObjectType interfaceType, final String methodName, final String methodSignature,
+        final String instantiatedSignature, final int implementation, final Type[] capturedTypes) {
+        if (cg == null) {
+            throw new ClassGenException("Lambdas need a class generator for their bootstrap methods");
+        }
+        final int bootstrapMethodRef = cp.addMethodref(FQCN_LAMBDA_METAFACTORY, METAFACTORY, METAFACTORY_SIGNATURE);
+        final int bootstrapMethod = cg.addBootstrapMethod(cp.addMethodHandle(Const.REF_invokeStatic, bootstrapMethodRef), cp.addMethodType(methodSignature),
+            implementation, cp.addMethodType(instantiatedSignature));
+        return new INVOKEDYNAMIC(cp.addInvokeDynamic(bootstrapMethod, methodName, Type.getMethodSignature(interfaceType, capturedTypes)));
+    }
+
+    /**
+     * Creates an invokedynamic instruction that makes a lambda calling a method of the class, such as a synthetic method
+     * holding the body of a lambda expression, or a constructor. The first values passed to the implementation are
+     * captured, where the receiver of an instance method comes first. The remaining ones are the arguments of the
+     * interface method. Primitive types of the implementation are boxed in the instantiated signature where the interface
+     * method has a reference type.
+     *
+     * @param interfaceType the functional interface.
+     * @param methodName the name of the abstract method of the interface.
+     * @param methodSignature the signature of that method.
+     * @param implementation the implementation method.
+     * @param captured the number of captured values.
+     * @return the invokedynamic instruction.
+     * @throws ClassGenException if this factory has no class generator to add the bootstrap method to.
+     * @throws IllegalArgumentException if the implementation takes fewer values than are captured.
+     * @see #createLambda(ObjectType, String, String, String, int, Type[])
+     * @since 6.13.0
+     */
+    public INVOKEDYNAMIC createLambda(final ObjectType interfaceType, final String methodName, final String methodSignature, final MethodGen implementation,
+        final int captured) {
+        if (cg == null) {
+            throw new ClassGenException("Lambdas need a class generator for their bootstrap methods");
+        }
+        final ObjectType owner = ObjectType.getInstance(implementation.getClassName());
+        final boolean isConstructor = Const.CONSTRUCTOR_NAME.equals(implementation.getName());
+        final boolean isInterface = cg.isInterface() && cg.getClassName().equals(implementation.getClassName());
+        final int kind;
+        if (isConstructor) {
+            kind = Const.REF_newInvokeSpecial;
+        } else if (implementation.isStatic()) {
+            kind = Const.REF_invokeStatic;
+        } else if (implementation.isPrivate()) {
+            kind = Const.REF_invokeSpecial;
+        } else {
+            kind = isInterface ? Const.REF_invokeInterface : Const.REF_invokeVirtual;
+        }
+        Type[] parameters = implementation.getArgumentTypes();
+        if (kind != Const.REF_invokeStatic && kind != Const.REF_newInvokeSpecial) {
+            final Type[] withReceiver = new Type[parameters.length + 1];
+            withReceiver[0] = owner;
+            System.arraycopy(parameters, 0, withReceiver, 1, parameters.length);
+            parameters = withReceiver;
+        }
+        if (captured < 0 || captured > parameters.length) {
+            throw new IllegalArgumentException("Cannot capture " + captured + " of " + parameters.length + " values of " + implementation);
+        }
+        final Type erasedReturnType = Type.getReturnType(methodSignature);
+        final Type returnType;
+        if (Type.VOID.equals(erasedReturnType)) {
+            returnType = Type.VOID;
+        } else {
+            returnType = instantiated(isConstructor ? owner : implementation.getReturnType(), erasedReturnType);
+        }
+        final Type[] capturedTypes = Arrays.copyOfRange(parameters, 0, captured);
+        final Type[] erasedTypes = Type.getArgumentTypes(methodSignature);
+        final Type[] instantiatedTypes = Arrays.copyOfRange(parameters, captured, parameters.length);
+        for (int i = 0; i < instantiatedTypes.length && i < erasedTypes.length; i++) {
+            instantiatedTypes[i] = instantiated(instantiatedTypes[i], erasedTypes[i]);
+        }
+        final String instantiatedSignature = Type.getMethodSignature(returnType, instantiatedTypes);
+        final int ref = isInterface ? cp.addInterfaceMethodref(implementation) : cp.addMethodref(implementation);
+        return createLambda(interfaceType, methodName, methodSignature, instantiatedSignature, cp.addMethodHandle(kind, ref), capturedTypes);
+    }
+
     /**
      * Creates a NEW instruction.
      *
@@ -800,7 +1028,7 @@ public class InstructionFactory implements InstructionConstants {
         if (t instanceof ArrayType) {
             at = (ArrayType) t;
         } else {
-            at = new ArrayType(t, dim);
+            at = ArrayType.getInstance(t, dim);
         }
         return new MULTIANEWARRAY(cp.addArrayClass(at), dim);
     }
@@ -844,6 +1072,24 @@ public class InstructionFactory implements InstructionConstants {
         return new PUTSTATIC(cp.addFieldref(className, name, t.getSignature()));
     }
 
+    private InvokeInstruction createStringBuilderAppend(final Type type) {
+        final Type argType;
+        switch (type.getType()) {
+        case Const.T_BYTE:
+        case Const.T_SHORT:
+            argType = Type.INT; // No append(byte), append(short)
+            break;
+        case Const.T_ARRAY:
+        case Const.T_OBJECT:
+            argType = isString(type) ? Type.STRING : Type.OBJECT;
+            break;
+        default:
+            argType = type;
+            break;
+        }
+        return createInvoke(FQCN_STRING_BUILDER, APPEND, Type.STRINGBUILDER, new Type[] {argType}, Const.INVOKEVIRTUAL);
+    }
+
     /**
      * Gets the class generator.
      *
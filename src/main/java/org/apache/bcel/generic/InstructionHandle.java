@@ -18,10 +18,16 @@
  */
 package org.apache.bcel.generic;
 
+import java.util.AbstractCollection;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
 import java.util.Set;
 
 import org.apache.bcel.classfile.Utility;
@@ -52,6 +58,12 @@ public class InstructionHandle {
      */
     static final InstructionTargeter[] EMPTY_INSTRUCTION_TARGETER_ARRAY = {};
 
+    /**
+     * Targeters and attributes live in small inline arrays until there are more than this many of them, then they move to
+     * hash based collections.
+     */
+    private static final int INLINE_LIMIT = 8;
+
     /**
      * Factory method.
      */
@@ -69,9 +81,16 @@ public class InstructionHandle {
      */
     @Deprecated
     protected int i_position = -1; // byte code offset of instruction
-    private Set<InstructionTargeter> targeters;
 
-    private Map<Object, Object> attributes;
+    /** Inline targeters, compared by identity; null once targeterSet is in use. */
+    private InstructionTargeter[] targeters;
+    private int targeterCount;
+    private Set<InstructionTargeter> targeterSet;
+
+    /** Inline attributes as alternating keys and values; null once attributeMap is in use. */
+    private Object[] attributes;
+    private int attributeCount;
+    private Map<Object, Object> attributeMap;
 
     /**
      * Constructs an InstructionHandle.
@@ -98,10 +117,31 @@ public class InstructionHandle {
      * @param attr The attribute to associate with this handle.
      */
     public void addAttribute(final Object key, final Object attr) {
-        if (attributes == null) {
-            attributes = new HashMap<>(3);
+        if (attributeMap != null) {
+            attributeMap.put(key, attr);
+            return;
+        }
+        final int i = indexOfAttribute(key);
+        if (i >= 0) {
+            attributes[i + 1] = attr;
+        } else if (attributeCount < INLINE_LIMIT) {
+            if (attributes == null) {
+                attributes = new Object[4];
+            } else if (attributes.length == 2 * attributeCount) {
+                attributes = Arrays.copyOf(attributes, 4 * attributeCount);
+            }
+            attributes[2 * attributeCount] = key;
+            attributes[2 * attributeCount + 1] = attr;
+            attributeCount++;
+        } else {
+            attributeMap = new HashMap<>();
+            for (int j = 0; j < 2 * attributeCount; j += 2) {
+                attributeMap.put(attributes[j], attributes[j + 1]);
+            }
+            attributeMap.put(key, attr);
+            attributes = null;
+            attributeCount = 0;
         }
-        attributes.put(key, attr);
     }
 
     /**
@@ -115,16 +155,30 @@ public class InstructionHandle {
     }
 
     /**
-     * Denote this handle is being referenced by t.
+     * Denote this handle is being referenced by t. Targeters are compared by identity, so two equal branch instructions
+     * or local variables targeting this handle are both recorded.
      *
      * @param t The instruction targeter.
      */
     public void addTargeter(final InstructionTargeter t) {
-        if (targeters == null) {
-            targeters = new HashSet<>();
+        if (targeterSet != null) {
+            targeterSet.add(t);
+        } else if (indexOfTargeter(t) < 0) {
+            if (targeterCount < INLINE_LIMIT) {
+                if (targeters == null) {
+                    targeters = new InstructionTargeter[2];
+                } else if (targeters.length == targeterCount) {
+                    targeters = Arrays.copyOf(targeters, 2 * targeterCount);
+                }
+                targeters[targeterCount++] = t;
+            } else {
+                targeterSet = Collections.newSetFromMap(new IdentityHashMap<>());
+                targeterSet.addAll(Arrays.asList(targeters).subList(0, targeterCount));
+                targeterSet.add(t);
+                targeters = null;
+                targeterCount = 0;
+            }
         }
-        // if (!targeters.contains(t))
-        targeters.add(t);
     }
 
     /**
@@ -136,6 +190,8 @@ public class InstructionHandle {
         instruction = null;
         i_position = -1;
         attributes = null;
+        attributeCount = 0;
+        attributeMap = null;
         removeAllTargeters();
     }
 
@@ -146,19 +202,63 @@ public class InstructionHandle {
      * @return The attribute value.
      */
     public Object getAttribute(final Object key) {
-        return attributes != null ? attributes.get(key) : null;
+        if (attributeMap != null) {
+            return attributeMap.get(key);
+        }
+        final int i = indexOfAttribute(key);
+        return i >= 0 ? attributes[i + 1] : null;
     }
 
     /**
      * Gets all attributes associated with this handle.
      *
-     * @return all attributes associated with this handle.
+     * @return a live view of all attributes associated with this handle, removing an attribute from it removes it from the
+     *         handle.
      */
     public Collection<Object> getAttributes() {
-        if (attributes == null) {
-            attributes = new HashMap<>(3);
-        }
-        return attributes.values();
+        return new AbstractCollection<Object>() {
+
+            @Override
+            public Iterator<Object> iterator() {
+                if (attributeMap != null) {
+                    return attributeMap.values().iterator();
+                }
+                return new Iterator<Object>() {
+
+                    private int next;
+                    private int last = -1;
+
+                    @Override
+                    public boolean hasNext() {
+                        return attributeMap == null && next < attributeCount;
+                    }
+
+                    @Override
+                    public Object next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        last = next++;
+                        return attributes[2 * last + 1];
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (last < 0) {
+                            throw new IllegalStateException();
+                        }
+                        removeAttribute(attributes[2 * last]);
+                        next = last;
+                        last = -1;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return attributeMap != null ? attributeMap.size() : attributeCount;
+            }
+        };
     }
 
     /**
@@ -207,9 +307,10 @@ public class InstructionHandle {
         if (!hasTargeters()) {
             return EMPTY_INSTRUCTION_TARGETER_ARRAY;
         }
-        final InstructionTargeter[] t = new InstructionTargeter[targeters.size()];
-        targeters.toArray(t);
-        return t;
+        if (targeterSet != null) {
+            return targeterSet.toArray(EMPTY_INSTRUCTION_TARGETER_ARRAY);
+        }
+        return Arrays.copyOf(targeters, targeterCount);
     }
 
     /**
@@ -218,7 +319,25 @@ public class InstructionHandle {
      * @return true if this handle has targeters, false otherwise.
      */
     public boolean hasTargeters() {
-        return targeters != null && !targeters.isEmpty();
+        return targeterSet != null ? !targeterSet.isEmpty() : targeterCount > 0;
+    }
+
+    private int indexOfAttribute(final Object key) {
+        for (int i = 0; i < 2 * attributeCount; i += 2) {
+            if (Objects.equals(attributes[i], key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOfTargeter(final InstructionTargeter t) {
+        for (int i = 0; i < targeterCount; i++) {
+            if (targeters[i] == t) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     /**
@@ -226,8 +345,10 @@ public class InstructionHandle {
      */
     public void removeAllTargeters() {
         if (targeters != null) {
-            targeters.clear();
+            Arrays.fill(targeters, 0, targeterCount, null);
         }
+        targeterCount = 0;
+        targeterSet = null;
     }
 
     /**
@@ -236,8 +357,16 @@ public class InstructionHandle {
      * @param key The key object to retrieve the attribute.
      */
     public void removeAttribute(final Object key) {
-        if (attributes != null) {
-            attributes.remove(key);
+        if (attributeMap != null) {
+            attributeMap.remove(key);
+            return;
+        }
+        final int i = indexOfAttribute(key);
+        if (i >= 0) {
+            attributeCount--;
+            System.arraycopy(attributes, i + 2, attributes, i, 2 * attributeCount - i);
+            attributes[2 * attributeCount] = null;
+            attributes[2 * attributeCount + 1] = null;
         }
     }
 
@@ -247,8 +376,15 @@ public class InstructionHandle {
      * @param t The instruction targeter.
      */
     public void removeTargeter(final InstructionTargeter t) {
-        if (targeters != null) {
-            targeters.remove(t);
+        if (targeterSet != null) {
+            targeterSet.remove(t);
+            return;
+        }
+        final int i = indexOfTargeter(t);
+        if (i >= 0) {
+            targeterCount--;
+            System.arraycopy(targeters, i + 1, targeters, i, targeterCount - i);
+            targeters[targeterCount] = null;
         }
     }
 
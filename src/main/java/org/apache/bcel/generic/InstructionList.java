@@ -18,9 +18,9 @@
  */
 package org.apache.bcel.generic;
 
-import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
@@ -33,7 +33,6 @@ import org.apache.bcel.Const;
 import org.apache.bcel.classfile.Constant;
 import org.apache.bcel.util.ByteSequence;
 import org.apache.commons.lang3.ArrayUtils;
-import org.apache.commons.lang3.stream.Streams;
 
 /**
  * This class is a container for a list of <a href="Instruction.html">Instruction</a> objects. Instructions can be appended, inserted, moved, deleted, and so
@@ -49,6 +48,55 @@ import org.apache.commons.lang3.stream.Streams;
  */
 public class InstructionList implements Iterable<InstructionHandle> {
 
+    /**
+     * Collects the byte code in an array of the precomputed size, which is returned without a copy.
+     */
+    private static final class ByteCodeOutputStream extends OutputStream {
+
+        private byte[] buf;
+        private int count;
+
+        ByteCodeOutputStream(final int size) {
+            buf = new byte[size];
+        }
+
+        private void ensureCapacity(final int required) {
+            // Only if an instruction dumps more bytes than its length says
+            if (required > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(required, buf.length * 2));
+            }
+        }
+
+        byte[] toByteArray() {
+            return count == buf.length ? buf : Arrays.copyOf(buf, count);
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, buf, count, len);
+            count += len;
+        }
+
+        @Override
+        public void write(final int b) {
+            ensureCapacity(count + 1);
+            buf[count++] = (byte) b;
+        }
+    }
+
+    /**
+     * Tests whether the array contains the given object, compared by identity.
+     */
+    private static boolean containsSame(final Object[] array, final Object o) {
+        for (final Object element : array) {
+            if (element == o) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Find the target instruction (handle) that corresponds to the given target position (byte code offset).
      *
@@ -89,6 +137,12 @@ public class InstructionList implements Iterable<InstructionHandle> {
 
     private List<InstructionListObserver> observers;
 
+    private BranchHandle[] widenable = {}; // GOTO and JSR handles collected by setPositions()
+    private int[] widenableIndex = ArrayUtils.EMPTY_INT_ARRAY; // list indices of widenable handles
+    private int widenableCount;
+
+    private int modCount; // bumped on every change made through this list, see getModCount()
+
     /**
      * Create (empty) instruction list.
      */
@@ -110,6 +164,23 @@ public class InstructionList implements Iterable<InstructionHandle> {
      * @param code byte array containing the instructions.
      */
     public InstructionList(final byte[] code) {
+        this(code, false);
+    }
+
+    /**
+     * Initialize instruction list from byte array, optionally with interned instructions.
+     * <p>
+     * Interned local variable and constant pool index instructions, see {@link Instruction#readInstruction(ByteSequence, boolean)},
+     * are shared by all handles and lists with the same opcode and operand. They cannot be changed in place, and methods
+     * looking up an {@link Instruction} such as {@link #contains(Instruction)} and {@link #delete(Instruction)} find the
+     * first of the handles sharing it. This suits code that only reads the list.
+     * </p>
+     *
+     * @param code byte array containing the instructions.
+     * @param intern whether to use interned instructions.
+     * @since 6.13.0
+     */
+    public InstructionList(final byte[] code, final boolean intern) {
         int count = 0; // Contains actual length
         final int[] pos;
         final InstructionHandle[] ihs;
@@ -126,7 +197,7 @@ public class InstructionList implements Iterable<InstructionHandle> {
                 /*
                  * Reads one instruction from the byte stream, the byte position is set accordingly.
                  */
-                final Instruction i = Instruction.readInstruction(bytes);
+                final Instruction i = Instruction.readInstruction(bytes, intern);
                 final InstructionHandle ih;
                 if (i instanceof BranchInstruction) {
                     ih = append((BranchInstruction) i);
@@ -290,6 +361,7 @@ public class InstructionList implements Iterable<InstructionHandle> {
             end = ih;
         }
         length++; // Update length
+        modCount++;
     }
 
     /**
@@ -355,6 +427,7 @@ public class InstructionList implements Iterable<InstructionHandle> {
             end = il.end; // Update end ...
         }
         length += il.length; // Update length
+        modCount++;
         il.clear();
         return ret;
     }
@@ -385,6 +458,7 @@ public class InstructionList implements Iterable<InstructionHandle> {
     private void clear() {
         start = end = null;
         length = 0;
+        modCount++;
     }
 
     /**
@@ -590,7 +664,8 @@ public class InstructionList implements Iterable<InstructionHandle> {
     public byte[] getByteCode() {
         // Update position indices of instructions
         setPositions();
-        final ByteArrayOutputStream b = new ByteArrayOutputStream();
+        final int size = end == null ? 0 : end.getPosition() + end.getInstruction().getLength();
+        final ByteCodeOutputStream b = new ByteCodeOutputStream(size);
         final DataOutputStream out = new DataOutputStream(b);
         try {
             for (InstructionHandle ih = start; ih != null; ih = ih.getNext()) {
@@ -665,6 +740,17 @@ public class InstructionList implements Iterable<InstructionHandle> {
         return length;
     }
 
+    /**
+     * Gets the number of changes made through this list, including calls to {@link #update()}, so that derived data such
+     * as encoded byte code can be cached until the next change. Instructions, handles and targeters changed in place are
+     * not counted unless {@link #update()} is called.
+     *
+     * @return the modification count.
+     */
+    int getModCount() {
+        return modCount;
+    }
+
     /**
      * Gets the start of list.
      *
@@ -761,6 +847,7 @@ public class InstructionList implements Iterable<InstructionHandle> {
             start = ih;
         }
         length++;
+        modCount++;
     }
 
     /**
@@ -826,6 +913,7 @@ public class InstructionList implements Iterable<InstructionHandle> {
             start = il.start; // Update start ...
         }
         length += il.length; // Update length
+        modCount++;
         il.clear();
         return ret;
     }
@@ -922,6 +1010,7 @@ public class InstructionList implements Iterable<InstructionHandle> {
                 throw new ClassGenException("Invalid range: From " + start + " to " + end + " contains target " + target);
             }
         }
+        modCount++;
         // Step 2: Temporarily remove the given instructions from the list
         final InstructionHandle prev = start.getPrev();
         InstructionHandle next = end.getNext();
@@ -958,17 +1047,20 @@ public class InstructionList implements Iterable<InstructionHandle> {
 
     /**
      * Redirect all references from oldTarget to newTarget, that is, update targets of branch instructions.
+     * <p>
+     * The branch instructions are found through the targeters registered with oldTarget, so the cost does not depend on
+     * the length of the list.
+     * </p>
      *
      * @param oldTarget The old target instruction handle.
      * @param newTarget The new target instruction handle.
      */
     public void redirectBranches(final InstructionHandle oldTarget, final InstructionHandle newTarget) {
-        for (InstructionHandle ih = start; ih != null; ih = ih.getNext()) {
-            final Instruction i = ih.getInstruction();
-            if (i instanceof BranchInstruction) {
-                final BranchInstruction b = (BranchInstruction) i;
-                final InstructionHandle target = b.getTarget();
-                if (target == oldTarget) {
+        modCount++;
+        for (final InstructionTargeter targeter : oldTarget.getTargeters()) {
+            if (targeter instanceof BranchInstruction) {
+                final BranchInstruction b = (BranchInstruction) targeter;
+                if (b.getTarget() == oldTarget) {
                     b.setTarget(newTarget);
                 }
                 if (b instanceof Select) { // Either LOOKUPSWITCH or TABLESWITCH
@@ -985,6 +1077,9 @@ public class InstructionList implements Iterable<InstructionHandle> {
 
     /**
      * Redirect all references of exception handlers from oldTarget to newTarget.
+     * <p>
+     * Only handlers registered as targeters of oldTarget are examined.
+     * </p>
      *
      * @param exceptions array of exception handlers.
      * @param oldTarget The old target instruction handle.
@@ -992,21 +1087,28 @@ public class InstructionList implements Iterable<InstructionHandle> {
      * @see MethodGen
      */
     public void redirectExceptionHandlers(final CodeExceptionGen[] exceptions, final InstructionHandle oldTarget, final InstructionHandle newTarget) {
-        Streams.of(exceptions).forEach(exception -> {
-            if (exception.getStartPC() == oldTarget) {
-                exception.setStartPC(newTarget);
-            }
-            if (exception.getEndPC() == oldTarget) {
-                exception.setEndPC(newTarget);
-            }
-            if (exception.getHandlerPC() == oldTarget) {
-                exception.setHandlerPC(newTarget);
+        modCount++;
+        for (final InstructionTargeter targeter : oldTarget.getTargeters()) {
+            if (targeter instanceof CodeExceptionGen && containsSame(exceptions, targeter)) {
+                final CodeExceptionGen exception = (CodeExceptionGen) targeter;
+                if (exception.getStartPC() == oldTarget) {
+                    exception.setStartPC(newTarget);
+                }
+                if (exception.getEndPC() == oldTarget) {
+                    exception.setEndPC(newTarget);
+                }
+                if (exception.getHandlerPC() == oldTarget) {
+                    exception.setHandlerPC(newTarget);
+                }
             }
-        });
+        }
     }
 
     /**
      * Redirect all references of local variables from oldTarget to newTarget.
+     * <p>
+     * Only local variables registered as targeters of oldTarget are examined.
+     * </p>
      *
      * @param lg array of local variables.
      * @param oldTarget The old target instruction handle.
@@ -1014,14 +1116,18 @@ public class InstructionList implements Iterable<InstructionHandle> {
      * @see MethodGen
      */
     public void redirectLocalVariables(final LocalVariableGen[] lg, final InstructionHandle oldTarget, final InstructionHandle newTarget) {
-        Streams.of(lg).forEach(element -> {
-            if (element.getStart() == oldTarget) {
-                element.setStart(newTarget);
-            }
-            if (element.getEnd() == oldTarget) {
-                element.setEnd(newTarget);
+        modCount++;
+        for (final InstructionTargeter targeter : oldTarget.getTargeters()) {
+            if (targeter instanceof LocalVariableGen && containsSame(lg, targeter)) {
+                final LocalVariableGen element = (LocalVariableGen) targeter;
+                if (element.getStart() == oldTarget) {
+                    element.setStart(newTarget);
+                }
+                if (element.getEnd() == oldTarget) {
+                    element.setEnd(newTarget);
+                }
             }
-        });
+        }
     }
 
     /**
@@ -1064,6 +1170,7 @@ public class InstructionList implements Iterable<InstructionHandle> {
         for (InstructionHandle ih = first; ih != null; ih = next) {
             next = ih.getNext();
             length--;
+            modCount++;
             if (ih.hasTargeters()) { // Still got targeters?
                 targetList.add(ih);
                 buf.append(ih.toString(true)).append(" ");
@@ -1096,11 +1203,16 @@ public class InstructionList implements Iterable<InstructionHandle> {
      * @param newCp The new constant pool.
      */
     public void replaceConstantPool(final ConstantPoolGen oldCp, final ConstantPoolGen newCp) {
+        modCount++;
         for (InstructionHandle ih = start; ih != null; ih = ih.getNext()) {
             final Instruction i = ih.getInstruction();
             if (i instanceof CPInstruction) {
-                final CPInstruction ci = (CPInstruction) i;
+                CPInstruction ci = (CPInstruction) i;
                 final Constant c = oldCp.getConstant(ci.getIndex());
+                if (InstructionDecoder.isShared(ci, ci.getIndex())) {
+                    ci = (CPInstruction) ci.copy();
+                    ih.setInstruction(ci);
+                }
                 ci.setIndex(newCp.addConstant(c, oldCp));
             }
         }
@@ -1119,11 +1231,6 @@ public class InstructionList implements Iterable<InstructionHandle> {
      * @param check Perform sanity checks, for example if all targeted instructions really belong to this list.
      */
     public void setPositions(final boolean check) { // called by code in other packages
-        int maxAdditionalBytes = 0;
-        int additionalBytes = 0;
-        int index = 0;
-        int count = 0;
-        final int[] pos = new int[length];
         /*
          * Pass 0: Sanity checks
          */
@@ -1151,50 +1258,73 @@ public class InstructionList implements Iterable<InstructionHandle> {
                 }
             }
         }
+        final int[] pos = new int[length];
         /*
-         * Pass 1: Set position numbers and sum up the maximum number of bytes an instruction may be shifted.
+         * Pass 1: Set position numbers in a single walk and collect the GOTO and JSR instructions that may need widening on the
+         * way. Instructions and handles can change their length in place without telling the list, so the whole list is
+         * walked.
          */
-        for (InstructionHandle ih = start; ih != null; ih = ih.getNext()) {
+        widenableCount = 0;
+        assignPositions(start, 0, 0, pos);
+        /*
+         * Pass 2: Widen only those GOTO and JSR instructions whose offset no longer fits in a short, and reassign positions
+         * from each widened instruction onward. Widening may push other branches out of range, so repeat until stable.
+         */
+        int k = 0;
+        while (k < widenableCount) {
+            final BranchHandle bh = widenable[k];
+            if (Instruction.isValidShort(((BranchInstruction) bh.getInstruction()).getTargetOffset())) {
+                k++;
+            } else {
+                bh.updatePosition(0, 0);
+                widenableCount = k; // Rest is collected again
+                assignPositions(bh.getNext(), bh.getPosition() + bh.getInstruction().getLength(), widenableIndex[k] + 1, pos);
+                k = 0;
+            }
+        }
+        Arrays.fill(widenable, 0, widenableCount, null); // Don't hold on to handles
+        bytePositions = pos;
+    }
+
+    /**
+     * Assigns positions from the given handle to the end of the list.
+     *
+     * @param from first handle to place.
+     * @param offset byte code offset of {@code from}.
+     * @param count index of {@code from} in the list.
+     * @param pos positions array to update.
+     */
+    private void assignPositions(final InstructionHandle from, final int offset, final int count, final int[] pos) {
+        int index = offset;
+        int n = count;
+        for (InstructionHandle ih = from; ih != null; ih = ih.getNext()) {
             final Instruction i = ih.getInstruction();
             ih.setPosition(index);
-            pos[count++] = index;
-            /*
-             * Gets an estimate about how many additional bytes may be added, because BranchInstructions may have variable length
-             * depending on the target offset (short vs. int) or alignment issues (TABLESWITCH and LOOKUPSWITCH).
-             */
+            pos[n] = index;
             switch (i.getOpcode()) {
-            case Const.JSR:
-            case Const.GOTO:
-                maxAdditionalBytes += 2;
-                break;
             case Const.TABLESWITCH:
             case Const.LOOKUPSWITCH:
-                maxAdditionalBytes += 3;
+                ih.updatePosition(0, 0); // Recompute padding for the new position
+                break;
+            case Const.JSR:
+            case Const.GOTO:
+                if (!(ih instanceof BranchHandle)) {
+                    break;
+                }
+                if (widenableCount == widenable.length) {
+                    final int newLength = Math.max(8, widenableCount * 2);
+                    widenable = Arrays.copyOf(widenable, newLength);
+                    widenableIndex = Arrays.copyOf(widenableIndex, newLength);
+                }
+                widenable[widenableCount] = (BranchHandle) ih;
+                widenableIndex[widenableCount++] = n;
                 break;
             default:
-                // TODO should this be an error?
                 break;
             }
             index += i.getLength();
+            n++;
         }
-        /*
-         * Pass 2: Expand the variable-length (Branch) Instructions depending on the target offset (short or int) and ensure that
-         * branch targets are within this list.
-         */
-        for (InstructionHandle ih = start; ih != null; ih = ih.getNext()) {
-            additionalBytes += ih.updatePosition(additionalBytes, maxAdditionalBytes);
-        }
-        /*
-         * Pass 3: Update position numbers (which may have changed due to the preceding expansions), like pass 1.
-         */
-        index = count = 0;
-        for (InstructionHandle ih = start; ih != null; ih = ih.getNext()) {
-            final Instruction i = ih.getInstruction();
-            ih.setPosition(index);
-            pos[count++] = index;
-            index += i.getLength();
-        }
-        bytePositions = Arrays.copyOfRange(pos, 0, count); // Trim to proper size
     }
 
     /**
@@ -1230,6 +1360,7 @@ public class InstructionList implements Iterable<InstructionHandle> {
      * has to be called by the user after he has finished editing the object.
      */
     public void update() {
+        modCount++;
         if (observers != null) {
             for (final InstructionListObserver observer : observers) {
                 observer.notify(this);
@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.BitSet;
+
+/**
+ * Live local variables: the set of slots whose current value may still be read, a backward problem.
+ * <p>
+ * A {@code long} or {@code double} variable is represented by its first slot. The values are {@link BitSet}s indexed
+ * by slot.
+ * </p>
+ *
+ * @see DataflowAnalysis
+ * @since 6.13.0
+ */
+public class LivenessAnalysis implements DataflowProblem<BitSet> {
+
+    private static final BitSet EMPTY = new BitSet();
+
+    /**
+     * @return the empty set, no variable is live after the method returns.
+     */
+    @Override
+    public BitSet boundary() {
+        return EMPTY;
+    }
+
+    /**
+     * @return the empty set.
+     */
+    @Override
+    public BitSet bottom() {
+        return EMPTY;
+    }
+
+    /**
+     * @return false.
+     */
+    @Override
+    public boolean isForward() {
+        return false;
+    }
+
+    /**
+     * @return the union of the sets.
+     */
+    @Override
+    public BitSet merge(final BitSet a, final BitSet b) {
+        if (a.isEmpty() || a.equals(b)) {
+            return b;
+        }
+        if (b.isEmpty()) {
+            return a;
+        }
+        final BitSet union = (BitSet) a.clone();
+        union.or(b);
+        return union;
+    }
+
+    /**
+     * Removes the slot written by a store and adds the slot read by a load or {@code IINC}.
+     */
+    @Override
+    public BitSet transfer(final InstructionHandle ih, final BitSet value) {
+        final Instruction i = ih.getInstruction();
+        if (!(i instanceof LocalVariableInstruction)) {
+            return value;
+        }
+        final int slot = ((LocalVariableInstruction) i).getIndex();
+        final boolean live = !(i instanceof StoreInstruction);
+        if (value.get(slot) == live) {
+            return value;
+        }
+        final BitSet result = (BitSet) value.clone();
+        result.set(slot, live);
+        return result;
+    }
+}
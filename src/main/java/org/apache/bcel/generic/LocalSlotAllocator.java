@@ -0,0 +1,285 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.LocalVariable;
+import org.apache.bcel.classfile.LocalVariableTypeTable;
+import org.apache.commons.lang3.ArrayUtils;
+
+/**
+ * Reassigns the local variable slots of a method so that variables which are never live at the same time share a slot,
+ * then recomputes max locals.
+ * <p>
+ * Every slot above the parameters is treated as one variable. Liveness is computed over branches, fall through and the
+ * edges from protected instructions to their exception handlers; a {@code long} or {@code double} occupies two slots.
+ * The {@code this} reference and the parameters keep their slots, as do slots used with both widths and slots read
+ * before being written. Methods using {@code JSR}/{@code RET} are left alone.
+ * </p>
+ * <p>
+ * {@link LocalVariableGen}s and the LocalVariableTypeTable follow their variables, those of variables no instruction
+ * accesses are removed. A StackMapTable is not updated, call
+ * {@link MethodGen#setStackMap()} afterwards for class files of version 50 and above.
+ * </p>
+ *
+ * @since 6.13.0
+ */
+public class LocalSlotAllocator implements OptimizationPass {
+
+    private static boolean overlaps(final int a, final int aSize, final int b, final int bSize) {
+        return a < b + bSize && b < a + aSize;
+    }
+
+    /**
+     * Reassigns the slots of the given method and calls {@link MethodGen#setMaxLocals()} if any slot changed.
+     *
+     * @param mg the method.
+     * @return whether any slot changed.
+     */
+    @Override
+    public boolean apply(final MethodGen mg) {
+        final InstructionList il = mg.getInstructionList();
+        if (il == null || il.isEmpty()) {
+            return false;
+        }
+        final ConstantPoolGen cp = mg.getConstantPool();
+        final InstructionHandle[] handles = il.getInstructionHandles();
+        final int length = handles.length;
+        int fixedSlots = mg.isStatic() ? 0 : 1;
+        for (final Type argType : mg.getArgumentTypes()) {
+            fixedSlots += argType.getSize();
+        }
+        /*
+         * Collect the variables, that is, the slots accessed by instructions, and their widths.
+         */
+        int slotCount = fixedSlots;
+        for (final InstructionHandle ih : handles) {
+            final Instruction i = ih.getInstruction();
+            if (i instanceof JsrInstruction || i instanceof RET) {
+                return false;
+            }
+            if (i instanceof LocalVariableInstruction) {
+                final LocalVariableInstruction lvi = (LocalVariableInstruction) i;
+                slotCount = Math.max(slotCount, lvi.getIndex() + lvi.getType(cp).getSize());
+            }
+        }
+        final int[] widths = new int[slotCount]; // 0 if unused
+        final BitSet pinned = new BitSet(slotCount);
+        pinned.set(0, fixedSlots);
+        for (final InstructionHandle ih : handles) {
+            final Instruction i = ih.getInstruction();
+            if (i instanceof LocalVariableInstruction) {
+                final LocalVariableInstruction lvi = (LocalVariableInstruction) i;
+                final int slot = lvi.getIndex();
+                final int width = lvi.getType(cp).getSize();
+                if (widths[slot] != 0 && widths[slot] != width) {
+                    pinned.set(slot);
+                }
+                widths[slot] = Math.max(widths[slot], width);
+            }
+        }
+        for (int slot = 0; slot + 1 < slotCount; slot++) {
+            if (widths[slot] == 2 && widths[slot + 1] != 0) {
+                // The upper half of a long or double is also accessed on its own
+                pinned.set(slot);
+                pinned.set(slot + 1);
+            }
+        }
+        /*
+         * Successors, including exception edges.
+         */
+        il.setPositions();
+        final int[] indexOfPosition = new int[handles[length - 1].getPosition() + 1];
+        for (int k = 0; k < length; k++) {
+            indexOfPosition[handles[k].getPosition()] = k;
+        }
+        final int[][] successors = new int[length][];
+        for (int k = 0; k < length; k++) {
+            final Instruction i = handles[k].getInstruction();
+            final short opcode = i.getOpcode();
+            int[] succ = ArrayUtils.EMPTY_INT_ARRAY;
+            if (i instanceof BranchInstruction) {
+                final int target = indexOfPosition[((BranchInstruction) i).getTarget().getPosition()];
+                if (i instanceof Select) {
+                    final InstructionHandle[] targets = ((Select) i).getTargets();
+                    succ = new int[targets.length + 1];
+                    for (int t = 0; t < targets.length; t++) {
+                        succ[t] = indexOfPosition[targets[t].getPosition()];
+                    }
+                    succ[targets.length] = target;
+                } else if (opcode == Const.GOTO || opcode == Const.GOTO_W || k + 1 == length) {
+                    succ = new int[] {target};
+                } else {
+                    succ = new int[] {target, k + 1};
+                }
+            } else if (opcode != Const.ATHROW && (opcode < Const.IRETURN || opcode > Const.RETURN) && k + 1 < length) {
+                succ = new int[] {k + 1};
+            }
+            successors[k] = succ;
+        }
+        for (final CodeExceptionGen ceg : mg.getExceptionHandlers()) {
+            final int handler = indexOfPosition[ceg.getHandlerPC().getPosition()];
+            final int end = indexOfPosition[ceg.getEndPC().getPosition()];
+            for (int k = indexOfPosition[ceg.getStartPC().getPosition()]; k <= end; k++) {
+                successors[k] = Arrays.copyOf(successors[k], successors[k].length + 1);
+                successors[k][successors[k].length - 1] = handler;
+            }
+        }
+        /*
+         * Backward liveness until stable, visiting the instructions in reverse order.
+         */
+        final BitSet[] liveIn = new BitSet[length];
+        for (int k = 0; k < length; k++) {
+            liveIn[k] = new BitSet(slotCount);
+        }
+        final BitSet liveOut = new BitSet(slotCount);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int k = length - 1; k >= 0; k--) {
+                liveOut.clear();
+                for (final int s : successors[k]) {
+                    liveOut.or(liveIn[s]);
+                }
+                final Instruction i = handles[k].getInstruction();
+                if (i instanceof StoreInstruction) {
+                    liveOut.clear(((LocalVariableInstruction) i).getIndex());
+                } else if (i instanceof LocalVariableInstruction) { // Load or IINC
+                    liveOut.set(((LocalVariableInstruction) i).getIndex());
+                }
+                if (!liveOut.equals(liveIn[k])) {
+                    liveIn[k].clear();
+                    liveIn[k].or(liveOut);
+                    changed = true;
+                }
+            }
+        }
+        // Read before written on some path
+        pinned.or(liveIn[0]);
+        /*
+         * A variable interferes with every variable live after one of its stores.
+         */
+        final BitSet[] interferences = new BitSet[slotCount];
+        for (int k = 0; k < length; k++) {
+            final Instruction i = handles[k].getInstruction();
+            if (i instanceof StoreInstruction || i instanceof IINC) {
+                final int slot = ((LocalVariableInstruction) i).getIndex();
+                liveOut.clear();
+                for (final int s : successors[k]) {
+                    liveOut.or(liveIn[s]);
+                }
+                liveOut.clear(slot);
+                for (int other = liveOut.nextSetBit(0); other >= 0; other = liveOut.nextSetBit(other + 1)) {
+                    if (interferences[slot] == null) {
+                        interferences[slot] = new BitSet(slotCount);
+                    }
+                    if (interferences[other] == null) {
+                        interferences[other] = new BitSet(slotCount);
+                    }
+                    interferences[slot].set(other);
+                    interferences[other].set(slot);
+                }
+            }
+        }
+        /*
+         * Color greedily in slot order, pinned slots are reserved for themselves.
+         */
+        final BitSet reserved = new BitSet(slotCount);
+        for (int slot = pinned.nextSetBit(0); slot >= 0 && slot < slotCount; slot = pinned.nextSetBit(slot + 1)) {
+            reserved.set(slot, slot + Math.max(1, widths[slot]));
+        }
+        final int[] mapping = new int[slotCount];
+        Arrays.fill(mapping, -1);
+        boolean remapped = false;
+        for (int slot = 0; slot < slotCount; slot++) {
+            if (widths[slot] == 0) {
+                continue;
+            }
+            if (pinned.get(slot)) {
+                mapping[slot] = slot;
+                continue;
+            }
+            final int width = widths[slot];
+            int candidate = fixedSlots;
+            boolean free = false;
+            while (!free) {
+                free = reserved.nextSetBit(candidate) < 0 || reserved.nextSetBit(candidate) >= candidate + width;
+                if (free && interferences[slot] != null) {
+                    for (int other = interferences[slot].nextSetBit(0); other >= 0 && free; other = interferences[slot].nextSetBit(other + 1)) {
+                        free = mapping[other] < 0 || !overlaps(candidate, width, mapping[other], widths[other]);
+                    }
+                }
+                if (!free) {
+                    candidate++;
+                }
+            }
+            mapping[slot] = candidate;
+            remapped |= candidate != slot;
+        }
+        if (!remapped) {
+            return false;
+        }
+        /*
+         * Rewrite, copying instructions since they may be shared.
+         */
+        for (final InstructionHandle ih : handles) {
+            final Instruction i = ih.getInstruction();
+            if (i instanceof LocalVariableInstruction) {
+                final int slot = ((LocalVariableInstruction) i).getIndex();
+                if (mapping[slot] != slot) {
+                    final LocalVariableInstruction copy = (LocalVariableInstruction) i.copy();
+                    copy.setIndex(mapping[slot]);
+                    ih.setInstruction(copy);
+                }
+            }
+        }
+        // Variables never accessed have no slot any more and could exceed max locals
+        for (final LocalVariableGen lg : mg.getLocalVariables()) {
+            final int slot = lg.getIndex();
+            if (slot < slotCount && mapping[slot] >= 0) {
+                lg.setIndex(mapping[slot]);
+            } else if (slot >= fixedSlots) {
+                mg.removeLocalVariable(lg);
+            }
+        }
+        final LocalVariableTypeTable lvtt = mg.getLocalVariableTypeTable();
+        if (lvtt != null) {
+            final List<LocalVariable> kept = new ArrayList<>();
+            for (final LocalVariable lv : lvtt.getLocalVariableTypeTable()) {
+                final int slot = lv.getIndex();
+                if (slot < slotCount && mapping[slot] >= 0) {
+                    lv.setIndex(mapping[slot]);
+                    kept.add(lv);
+                } else if (slot < fixedSlots) {
+                    kept.add(lv);
+                }
+            }
+            lvtt.setLocalVariableTable(kept.toArray(new LocalVariable[0]));
+        }
+        mg.setMaxLocals();
+        // Instructions and local variables were changed in place, see MethodGen.getMethod()
+        mg.update();
+        return true;
+    }
+}
@@ -167,7 +167,7 @@ public abstract class LocalVariableInstruction extends Instruction implements Ty
      * Sets the local variable index. also updates opcode and length TODO Why?
      *
      * @param index local variable index (unsigned short).
-     * @throws ClassGenException if index is out of bounds.
+     * @throws ClassGenException if index is out of bounds or this is a shared instruction, see {@link Instruction#readInstruction(ByteSequence, boolean)}.
      * @see #setIndexOnly(int)
      */
     @Override
@@ -175,6 +175,9 @@ public abstract class LocalVariableInstruction extends Instruction implements Ty
         if (!isNonNegativeUShort(index)) {
             throw new ClassGenException("Illegal value: " + index);
         }
+        if (InstructionDecoder.isShared(this, this.n)) {
+            throw new ClassGenException("Cannot change the index of shared instruction " + this + ", use copy() first");
+        }
         this.n = index;
         // Cannot be < 0 as this is checked above
         if (index <= 3) { // Use more compact instruction xLOAD_n
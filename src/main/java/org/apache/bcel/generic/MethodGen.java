@@ -22,10 +22,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.Hashtable;
 import java.util.List;
 import java.util.Objects;
-import java.util.Stack;
 import java.util.stream.Collectors;
 
 import org.apache.bcel.Const;
@@ -44,6 +42,7 @@ import org.apache.bcel.classfile.Method;
 import org.apache.bcel.classfile.ParameterAnnotationEntry;
 import org.apache.bcel.classfile.ParameterAnnotations;
 import org.apache.bcel.classfile.RuntimeVisibleParameterAnnotations;
+import org.apache.bcel.classfile.StackMap;
 import org.apache.bcel.classfile.Utility;
 import org.apache.bcel.util.BCELComparator;
 import org.apache.commons.lang3.ArrayUtils;
@@ -62,47 +61,6 @@ import org.apache.commons.lang3.stream.Streams;
  */
 public class MethodGen extends FieldGenOrMethodGen {
 
-    static final class BranchStack {
-
-        private final Stack<BranchTarget> branchTargets = new Stack<>();
-        private final Hashtable<InstructionHandle, BranchTarget> visitedTargets = new Hashtable<>();
-
-        public BranchTarget pop() {
-            if (!branchTargets.empty()) {
-                return branchTargets.pop();
-            }
-            return null;
-        }
-
-        public void push(final InstructionHandle target, final int stackDepth) {
-            if (visited(target)) {
-                return;
-            }
-            branchTargets.push(visit(target, stackDepth));
-        }
-
-        private BranchTarget visit(final InstructionHandle target, final int stackDepth) {
-            final BranchTarget bt = new BranchTarget(target, stackDepth);
-            visitedTargets.put(target, bt);
-            return bt;
-        }
-
-        private boolean visited(final InstructionHandle target) {
-            return visitedTargets.get(target) != null;
-        }
-    }
-
-    static final class BranchTarget {
-
-        final InstructionHandle target;
-        final int stackDepth;
-
-        BranchTarget(final InstructionHandle target, final int stackDepth) {
-            this.target = target;
-            this.stackDepth = stackDepth;
-        }
-    }
-
     private static BCELComparator<FieldGenOrMethodGen> bcelComparator = new BCELComparator<FieldGenOrMethodGen>() {
 
         @Override
@@ -135,79 +93,133 @@ public class MethodGen extends FieldGenOrMethodGen {
 
     /**
      * Computes stack usage of an instruction list by performing control flow analysis.
+     * <p>
+     * Each instruction is visited once; the instruction list positions are updated with {@link InstructionList#setPositions()}.
+     * </p>
      *
      * @param cp The constant pool generator.
      * @param il The instruction list.
      * @param et The exception handlers.
      * @return maximum stack depth used by method.
+     * @throws ClassGenException if a branch or handler targets an instruction outside of the list.
      */
     public static int getMaxStack(final ConstantPoolGen cp, final InstructionList il, final CodeExceptionGen[] et) {
-        final BranchStack branchTargets = new BranchStack();
+        final int length = il.getLength();
+        if (length == 0) {
+            return 0;
+        }
+        il.setPositions();
+        final InstructionHandle[] handles = il.getInstructionHandles();
+        final int[] indexOfPosition = new int[handles[length - 1].getPosition() + 1];
+        for (int i = 0; i < length; i++) {
+            indexOfPosition[handles[i].getPosition()] = i;
+        }
+        // Stack depth on entry of each instruction, -1 while not yet reached; every instruction is queued at most once.
+        final int[] depths = new int[length];
+        Arrays.fill(depths, -1);
+        final int[] worklist = new int[length];
+        int worklistSize = 0;
         /*
-         * Initially, populate the branch stack with the exception handlers, because these aren't (necessarily) branched to
+         * Initially, populate the worklist with the exception handlers, because these aren't (necessarily) branched to
          * explicitly. in each case, the stack will have depth 1, containing the exception object.
          */
         for (final CodeExceptionGen element : et) {
             final InstructionHandle handlerPc = element.getHandlerPC();
             if (handlerPc != null) {
-                branchTargets.push(handlerPc, 1);
+                worklistSize = enqueue(handles, indexOfPosition, handlerPc, 1, depths, worklist, worklistSize);
             }
         }
-        int stackDepth = 0;
+        // Field and invoke stack effects resolve and parse signatures, cache them by constant pool index for this call.
+        int[] cpDeltas = null;
+        short[] cpOpcodes = null;
         int maxStackDepth = 0;
-        InstructionHandle ih = il.getStart();
-        while (ih != null) {
+        int index = 0;
+        int stackDepth = 0;
+        depths[0] = 0;
+        while (index >= 0) {
+            final InstructionHandle ih = handles[index];
             final Instruction instruction = ih.getInstruction();
             final short opcode = instruction.getOpcode();
-            final int delta = instruction.produceStack(cp) - instruction.consumeStack(cp);
+            final int delta;
+            if (instruction instanceof FieldOrMethod) {
+                final int cpIndex = ((FieldOrMethod) instruction).getIndex();
+                if (cpDeltas == null) {
+                    cpDeltas = new int[Math.max(cp.getSize(), cpIndex + 1)];
+                    cpOpcodes = new short[cpDeltas.length];
+                }
+                if (cpIndex < cpDeltas.length && cpOpcodes[cpIndex] == opcode) {
+                    delta = cpDeltas[cpIndex];
+                } else {
+                    delta = instruction.produceStack(cp) - instruction.consumeStack(cp);
+                    if (cpIndex < cpDeltas.length) {
+                        cpDeltas[cpIndex] = delta;
+                        cpOpcodes[cpIndex] = opcode;
+                    }
+                }
+            } else {
+                delta = instruction.produceStack(cp) - instruction.consumeStack(cp);
+            }
             stackDepth += delta;
             if (stackDepth > maxStackDepth) {
                 maxStackDepth = stackDepth;
             }
             // choose the next instruction based on whether current is a branch.
+            boolean fallThrough = true;
             if (instruction instanceof BranchInstruction) {
                 final BranchInstruction branch = (BranchInstruction) instruction;
                 if (instruction instanceof Select) {
                     // explore all of the select's targets. the default target is handled below.
-                    final Select select = (Select) branch;
-                    final InstructionHandle[] targets = select.getTargets();
-                    for (final InstructionHandle target : targets) {
-                        branchTargets.push(target, stackDepth);
+                    for (final InstructionHandle target : ((Select) branch).getTargets()) {
+                        worklistSize = enqueue(handles, indexOfPosition, target, stackDepth, depths, worklist, worklistSize);
                     }
                     // nothing to fall through to.
-                    ih = null;
+                    fallThrough = false;
                 } else if (!(branch instanceof IfInstruction)) {
                     // if an instruction that comes back to following PC,
-                    // push next instruction, with stack depth reduced by 1.
-                    if (opcode == Const.JSR || opcode == Const.JSR_W) {
-                        branchTargets.push(ih.getNext(), stackDepth - 1);
+                    // queue next instruction, with stack depth reduced by 1.
+                    if ((opcode == Const.JSR || opcode == Const.JSR_W) && index + 1 < length) {
+                        worklistSize = enqueue(handles, indexOfPosition, handles[index + 1], stackDepth - 1, depths, worklist, worklistSize);
                     }
-                    ih = null;
+                    fallThrough = false;
                 }
-                // for all branches, the target of the branch is pushed on the branch stack.
+                // for all branches, the target of the branch is queued.
                 // conditional branches have a fall through case, selects don't, and
                 // jsr/jsr_w return to the next instruction.
-                branchTargets.push(branch.getTarget(), stackDepth);
+                worklistSize = enqueue(handles, indexOfPosition, branch.getTarget(), stackDepth, depths, worklist, worklistSize);
             } else // check for instructions that terminate the method.
             if (opcode == Const.ATHROW || opcode == Const.RET || opcode >= Const.IRETURN && opcode <= Const.RETURN) {
-                ih = null;
-            }
-            // normal case, go to the next instruction.
-            if (ih != null) {
-                ih = ih.getNext();
+                fallThrough = false;
             }
-            // if we have no more instructions, see if there are any deferred branches to explore.
-            if (ih == null) {
-                final BranchTarget bt = branchTargets.pop();
-                if (bt != null) {
-                    ih = bt.target;
-                    stackDepth = bt.stackDepth;
+            // normal case, go to the next instruction unless it was already reached by a branch.
+            index++;
+            if (fallThrough && index < length && depths[index] < 0) {
+                depths[index] = stackDepth;
+            } else {
+                // see if there are any deferred branches to explore.
+                index = worklistSize > 0 ? worklist[--worklistSize] : -1;
+                if (index >= 0) {
+                    stackDepth = depths[index];
                 }
             }
         }
         return maxStackDepth;
     }
 
+    private static int enqueue(final InstructionHandle[] handles, final int[] indexOfPosition, final InstructionHandle target, final int stackDepth,
+        final int[] depths, final int[] worklist, final int worklistSize) {
+        final int position = target.getPosition();
+        final int index = position >= 0 && position < indexOfPosition.length ? indexOfPosition[position] : -1;
+        if (index < 0 || handles[index] != target) {
+            throw new ClassGenException("Branch target " + target + " not in instruction list");
+        }
+        if (depths[index] >= 0) {
+            return worklistSize;
+        }
+        depths[index] = stackDepth;
+        worklist[worklistSize] = index;
+        return worklistSize + 1;
+    }
+
     /**
      * Sets the comparison strategy object.
      *
@@ -244,6 +256,12 @@ public class MethodGen extends FieldGenOrMethodGen {
 
     private List<MethodObserver> observers;
 
+    // Code attribute returned by the last getMethod() and what it was computed from, see codeChanged()
+    private Code cachedCode;
+    private InstructionList cachedList;
+    private int cachedListModCount;
+    private ConstantPoolGen cachedConstantPool;
+
     /**
      * Declare method. If the method is non-static the constructor automatically declares a local variable '$this' in slot
      * 0. The actual code is contained in the 'il' parameter, which may further manipulated by the user. But they must take
@@ -397,6 +415,7 @@ public class MethodGen extends FieldGenOrMethodGen {
      * @param a attribute to be added.
      */
     public void addCodeAttribute(final Attribute a) {
+        codeChanged();
         codeAttrsList.add(a);
     }
 
@@ -425,10 +444,22 @@ public class MethodGen extends FieldGenOrMethodGen {
             throw new ClassGenException("Exception handler target is null instruction");
         }
         final CodeExceptionGen c = new CodeExceptionGen(startPc, endPc, handlerPc, catchType);
+        codeChanged();
         exceptionList.add(c);
         return c;
     }
 
+    /**
+     * Adds an exception handler at the given position of the exception table, handlers before it take precedence.
+     */
+    CodeExceptionGen addExceptionHandler(final int index, final InstructionHandle startPc, final InstructionHandle endPc, final InstructionHandle handlerPc,
+        final ObjectType catchType) {
+        final CodeExceptionGen c = addExceptionHandler(startPc, endPc, handlerPc, catchType);
+        exceptionList.remove(exceptionList.size() - 1);
+        exceptionList.add(index, c);
+        return c;
+    }
+
     /**
      * Give an instruction a line number corresponding to the source code line.
      *
@@ -439,6 +470,7 @@ public class MethodGen extends FieldGenOrMethodGen {
      */
     public LineNumberGen addLineNumber(final InstructionHandle ih, final int srcLine) {
         final LineNumberGen l = new LineNumberGen(ih, srcLine);
+        codeChanged();
         lineNumberList.add(l);
         return l;
     }
@@ -493,6 +525,7 @@ public class MethodGen extends FieldGenOrMethodGen {
                 maxLocals = slot + add;
             }
             final LocalVariableGen l = new LocalVariableGen(slot, name, type, start, end, origIndex);
+            codeChanged();
             final int i;
             if ((i = variableList.indexOf(l)) >= 0) {
                 variableList.set(i, l);
@@ -585,6 +618,13 @@ public class MethodGen extends FieldGenOrMethodGen {
         }
     }
 
+    /**
+     * Drops the cached Code attribute, see {@link #getMethod()}.
+     */
+    private void codeChanged() {
+        cachedCode = null;
+    }
+
     /**
      * Creates a deep copy of this method.
      *
@@ -728,6 +768,66 @@ public class MethodGen extends FieldGenOrMethodGen {
         return className;
     }
 
+    private Code getCode(final ConstantPoolGen cp) {
+        if (cachedCode != null && cachedList == il && cachedListModCount == il.getModCount() && cachedConstantPool == cp) {
+            // Each method gets its own Code, sharing the encoded byte code, exception table and attributes
+            return new Code(cachedCode);
+        }
+        /*
+         * Also updates positions of instructions, that is, their indices
+         */
+        final byte[] byteCode = il.getByteCode();
+        LineNumberTable lnt = null;
+        LocalVariableTable lvt = null;
+        /*
+         * Create LocalVariableTable and LineNumberTable attributes (for debuggers, for example)
+         */
+        if (!variableList.isEmpty() && !stripAttributes) {
+            updateLocalVariableTable(getLocalVariableTable(cp));
+            addCodeAttribute(lvt = getLocalVariableTable(cp));
+        }
+        if (localVariableTypeTable != null) {
+            // LocalVariable length in LocalVariableTypeTable is not updated automatically. It's a difference with
+            // LocalVariableTable.
+            if (lvt != null) {
+                adjustLocalVariableTypeTable(lvt);
+            }
+            addCodeAttribute(localVariableTypeTable);
+        }
+        if (!lineNumberList.isEmpty() && !stripAttributes) {
+            addCodeAttribute(lnt = getLineNumberTable(cp));
+        }
+        final Attribute[] codeAttrs = getCodeAttributes();
+        /*
+         * Each attribute causes 6 additional header bytes
+         */
+        int attrsLen = 0;
+        for (final Attribute codeAttr : codeAttrs) {
+            attrsLen += codeAttr.getLength() + 6;
+        }
+        final CodeException[] cExc = getCodeExceptions();
+        final int excLen = cExc.length * 8; // Every entry takes 8 bytes
+        final Code code = new Code(cp.addUtf8("Code"), 8 + byteCode.length + // prologue byte code
+            2 + excLen + // exceptions
+            2 + attrsLen, // attributes
+            maxStack, maxLocals, byteCode, cExc, codeAttrs, cp.getConstantPool());
+        // Undo effects of adding attributes
+        if (lvt != null) {
+            removeCodeAttribute(lvt);
+        }
+        if (localVariableTypeTable != null) {
+            removeCodeAttribute(localVariableTypeTable);
+        }
+        if (lnt != null) {
+            removeCodeAttribute(lnt);
+        }
+        cachedCode = code;
+        cachedList = il;
+        cachedListModCount = il.getModCount();
+        cachedConstantPool = cp;
+        return new Code(code);
+    }
+
     /**
      * Gets all attributes of this method.
      *
@@ -876,6 +976,12 @@ public class MethodGen extends FieldGenOrMethodGen {
     /**
      * Gets method object. Never forget to call setMaxStack() or setMaxStack(max), respectively, before calling this method
      * (the same applies for max locals).
+     * <p>
+     * The encoded byte code, exception table and code attributes are cached and shared by the Code attributes of the
+     * returned methods until this object or its instruction list is changed through their methods, or the constant pool
+     * generator is replaced. After changing instructions, handles, local variables, line numbers or exception handlers in
+     * place, call {@link #update()} or {@link InstructionList#update()}.
+     * </p>
      *
      * @return method object.
      */
@@ -884,42 +990,9 @@ public class MethodGen extends FieldGenOrMethodGen {
         final ConstantPoolGen cp = super.getConstantPool();
         final int nameIndex = cp.addUtf8(super.getName());
         final int signatureIndex = cp.addUtf8(signature);
-        /*
-         * Also updates positions of instructions, that is, their indices
-         */
-        final byte[] byteCode = il != null ? il.getByteCode() : null;
-        LineNumberTable lnt = null;
-        LocalVariableTable lvt = null;
-        /*
-         * Create LocalVariableTable and LineNumberTable attributes (for debuggers, for example)
-         */
-        if (!variableList.isEmpty() && !stripAttributes) {
-            updateLocalVariableTable(getLocalVariableTable(cp));
-            addCodeAttribute(lvt = getLocalVariableTable(cp));
-        }
-        if (localVariableTypeTable != null) {
-            // LocalVariable length in LocalVariableTypeTable is not updated automatically. It's a difference with
-            // LocalVariableTable.
-            if (lvt != null) {
-                adjustLocalVariableTypeTable(lvt);
-            }
-            addCodeAttribute(localVariableTypeTable);
-        }
-        if (!lineNumberList.isEmpty() && !stripAttributes) {
-            addCodeAttribute(lnt = getLineNumberTable(cp));
-        }
-        final Attribute[] codeAttrs = getCodeAttributes();
-        /*
-         * Each attribute causes 6 additional header bytes
-         */
-        int attrsLen = 0;
-        for (final Attribute codeAttr : codeAttrs) {
-            attrsLen += codeAttr.getLength() + 6;
-        }
-        final CodeException[] cExc = getCodeExceptions();
-        final int excLen = cExc.length * 8; // Every entry takes 8 bytes
         Code code = null;
-        if (byteCode != null && !isAbstract() && !isNative()) {
+        if (il != null && !isAbstract() && !isNative()) {
+            code = getCode(cp);
             // Remove any stale code attribute
             final Attribute[] attributes = getAttributes();
             for (final Attribute a : attributes) {
@@ -927,10 +1000,6 @@ public class MethodGen extends FieldGenOrMethodGen {
                     removeAttribute(a);
                 }
             }
-            code = new Code(cp.addUtf8("Code"), 8 + byteCode.length + // prologue byte code
-                2 + excLen + // exceptions
-                2 + attrsLen, // attributes
-                maxStack, maxLocals, byteCode, cExc, codeAttrs, cp.getConstantPool());
             addAttribute(code);
         }
         final Attribute[] annotations = addRuntimeAnnotationsAsAttribute(cp);
@@ -942,15 +1011,6 @@ public class MethodGen extends FieldGenOrMethodGen {
         }
         final Method m = new Method(super.getAccessFlags(), nameIndex, signatureIndex, getAttributes(), cp.getConstantPool());
         // Undo effects of adding attributes
-        if (lvt != null) {
-            removeCodeAttribute(lvt);
-        }
-        if (localVariableTypeTable != null) {
-            removeCodeAttribute(localVariableTypeTable);
-        }
-        if (lnt != null) {
-            removeCodeAttribute(lnt);
-        }
         if (code != null) {
             removeAttribute(code);
         }
@@ -997,13 +1057,16 @@ public class MethodGen extends FieldGenOrMethodGen {
      * @param a The attribute to remove.
      */
     public void removeCodeAttribute(final Attribute a) {
-        codeAttrsList.remove(a);
+        if (codeAttrsList.remove(a)) {
+            codeChanged();
+        }
     }
 
     /**
      * Remove all code attributes.
      */
     public void removeCodeAttributes() {
+        codeChanged();
         localVariableTypeTable = null;
         codeAttrsList.clear();
     }
@@ -1023,13 +1086,16 @@ public class MethodGen extends FieldGenOrMethodGen {
      * @param c The exception handler to remove.
      */
     public void removeExceptionHandler(final CodeExceptionGen c) {
-        exceptionList.remove(c);
+        if (exceptionList.remove(c)) {
+            codeChanged();
+        }
     }
 
     /**
      * Remove all line numbers.
      */
     public void removeExceptionHandlers() {
+        codeChanged();
         exceptionList.clear();
     }
 
@@ -1046,13 +1112,16 @@ public class MethodGen extends FieldGenOrMethodGen {
      * @param l The line number to remove.
      */
     public void removeLineNumber(final LineNumberGen l) {
-        lineNumberList.remove(l);
+        if (lineNumberList.remove(l)) {
+            codeChanged();
+        }
     }
 
     /**
      * Remove all line numbers.
      */
     public void removeLineNumbers() {
+        codeChanged();
         lineNumberList.clear();
     }
 
@@ -1063,6 +1132,7 @@ public class MethodGen extends FieldGenOrMethodGen {
      * @param l The local variable to remove.
      */
     public void removeLocalVariable(final LocalVariableGen l) {
+        codeChanged();
         l.dispose();
         variableList.remove(l);
     }
@@ -1071,6 +1141,7 @@ public class MethodGen extends FieldGenOrMethodGen {
      * Remove all local variables.
      */
     public void removeLocalVariables() {
+        codeChanged();
         variableList.forEach(LocalVariableGen::dispose);
         variableList.clear();
     }
@@ -1079,6 +1150,7 @@ public class MethodGen extends FieldGenOrMethodGen {
      * Remove the LocalVariableTypeTable
      */
     public void removeLocalVariableTypeTable() {
+        codeChanged();
         localVariableTypeTable = null;
     }
 
@@ -1191,6 +1263,7 @@ public class MethodGen extends FieldGenOrMethodGen {
      * Compute maximum number of local variables.
      */
     public void setMaxLocals() { // TODO could be package-protected? (some tests would need repackaging)
+        final int old = maxLocals;
         if (il != null) {
             int max = isStatic() ? 0 : 1;
             for (final Type argType : argTypes) {
@@ -1209,6 +1282,9 @@ public class MethodGen extends FieldGenOrMethodGen {
         } else {
             maxLocals = 0;
         }
+        if (maxLocals != old) {
+            codeChanged();
+        }
     }
 
     /**
@@ -1217,6 +1293,9 @@ public class MethodGen extends FieldGenOrMethodGen {
      * @param m The maximum number of local variables.
      */
     public void setMaxLocals(final int m) {
+        if (maxLocals != m) {
+            codeChanged();
+        }
         maxLocals = m;
     }
 
@@ -1224,11 +1303,15 @@ public class MethodGen extends FieldGenOrMethodGen {
      * Computes max. stack size by performing control flow analysis.
      */
     public void setMaxStack() { // TODO could be package-protected? (some tests would need repackaging)
+        final int old = maxStack;
         if (il != null) {
             maxStack = getMaxStack(super.getConstantPool(), il, getExceptionHandlers());
         } else {
             maxStack = 0;
         }
+        if (maxStack != old) {
+            codeChanged();
+        }
     }
 
     /**
@@ -1237,6 +1320,9 @@ public class MethodGen extends FieldGenOrMethodGen {
      * @param m The maximum stack size.
      */
     public void setMaxStack(final int m) { // TODO could be package-protected?
+        if (maxStack != m) {
+            codeChanged();
+        }
         maxStack = m;
     }
 
@@ -1249,12 +1335,50 @@ public class MethodGen extends FieldGenOrMethodGen {
         setType(returnType);
     }
 
+    /**
+     * Computes the StackMapTable frames of this method and replaces any StackMapTable code attribute, so that the
+     * method passes the type checking verifier required for class files of version 50 and above. Call this after the
+     * instruction list, exception handlers and max stack/locals are final, just before {@link #getMethod()}.
+     * <p>
+     * Merged reference types are resolved through the {@link org.apache.bcel.Repository}, which must be able to find
+     * the classes involved. Unreachable code is replaced by {@code NOP}s ending in {@code ATHROW} and exception handlers
+     * are trimmed to reachable code, since no frame can describe it.
+     * </p>
+     *
+     * @throws ClassGenException if the code is not type correct, uses JSR/RET, or a class cannot be found.
+     * @since 6.13.0
+     */
+    public void setStackMap() {
+        setStackMap(null);
+    }
+
+    /**
+     * Computes the StackMapTable frames of this method.
+     *
+     * @param superclassName superclass of this method's class, used in place of the class while merging types if it is
+     *        not in the repository yet, may be null.
+     */
+    void setStackMap(final String superclassName) {
+        codeChanged();
+        codeAttrsList.removeIf(StackMap.class::isInstance);
+        if (il == null || il.isEmpty() || isAbstract() || isNative()) {
+            return;
+        }
+        final StackMap stackMap = new StackMapGen(this, superclassName).compute(exceptionList);
+        if (stackMap != null) {
+            addCodeAttribute(stackMap);
+        }
+    }
+
     /**
      * Do not/Do produce attributes code attributesLineNumberTable and LocalVariableTable, like javac -O.
      *
      * @param flag whether to strip attributes.
      */
     public void stripAttributes(final boolean flag) {
+        if (stripAttributes != flag) {
+            codeChanged();
+        }
         stripAttributes = flag;
     }
 
@@ -1289,6 +1413,7 @@ public class MethodGen extends FieldGenOrMethodGen {
      * has to be called by the user after they have finished editing the object.
      */
     public void update() {
+        codeChanged();
         if (observers != null) {
             for (final MethodObserver observer : observers) {
                 observer.notify(this);
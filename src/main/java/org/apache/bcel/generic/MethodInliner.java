@@ -0,0 +1,503 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.ConstantClass;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.util.Repository;
+
+/**
+ * Inlines calls to small methods that cannot be overridden: static methods, private methods and final methods or
+ * methods of final classes, called with {@code INVOKESTATIC}, {@code INVOKESPECIAL} or {@code INVOKEVIRTUAL}.
+ * <p>
+ * The callee is looked up in the class being generated, if given, and in a {@link Repository} otherwise. Its locals
+ * are moved above those of the caller, its arguments are stored into them, returns become jumps to the instruction
+ * following the call and its exception handlers are put in front of the caller's. Instance calls keep their null check
+ * of the receiver. Only the calls present when {@link #apply(MethodGen)} starts are inlined, running the inliner again
+ * inlines calls of the inlined code.
+ * </p>
+ * <p>
+ * Callees are not inlined if they are larger than the callee budget, would grow the caller beyond the method budget,
+ * are recursive, synchronized or native, use {@code JSR}/{@code RET} or {@code INVOKEDYNAMIC}, leave more than their
+ * result on the operand stack when returning, catch exceptions while the caller has values on the operand stack below
+ * the arguments, use members or classes of another class the caller could not access, or are static methods of another
+ * class whose initialization, which the call would trigger, may run a static initializer.
+ * The line numbers and local variable names of the callee are not kept. Max locals and max stack are recomputed, a
+ * StackMapTable is not updated, call {@link MethodGen#setStackMap()} afterwards for class files of version 50 and above.
+ * {@link LocalSlotAllocator} can compact the locals of the inlined code.
+ * </p>
+ *
+ * @since 6.13.0
+ */
+public class MethodInliner implements OptimizationPass {
+
+    /**
+     * The default largest code length of a callee in bytes, that of HotSpot's {@code MaxInlineSize}.
+     */
+    public static final int DEFAULT_MAX_CALLEE_SIZE = 35;
+
+    /**
+     * The default largest code length of a caller in bytes, that of HotSpot's {@code HugeMethodLimit} beyond which methods
+     * are not compiled.
+     */
+    public static final int DEFAULT_MAX_METHOD_SIZE = 8000;
+
+    private static String packageOf(final String className) {
+        final int dot = className.lastIndexOf('.');
+        return dot < 0 ? "" : className.substring(0, dot);
+    }
+
+    /**
+     * Computes the operand stack depth in words before every reachable instruction of a method.
+     */
+    private static DataflowAnalysis<Integer> stackDepths(final MethodGen mg) {
+        final ConstantPoolGen cp = mg.getConstantPool();
+        return new DataflowAnalysis<>(mg, new DataflowProblem<Integer>() {
+
+            @Override
+            public Integer boundary() {
+                return 0;
+            }
+
+            @Override
+            public Integer bottom() {
+                return null;
+            }
+
+            @Override
+            public boolean isForward() {
+                return true;
+            }
+
+            @Override
+            public Integer merge(final Integer a, final Integer b) {
+                return a == null ? b : a;
+            }
+
+            @Override
+            public Integer transfer(final InstructionHandle ih, final Integer depth) {
+                final Instruction i = ih.getInstruction();
+                return depth == null ? null : depth - i.consumeStack(cp) + i.produceStack(cp);
+            }
+
+            @Override
+            public Integer transferException(final InstructionHandle ih, final Integer depth) {
+                return depth == null ? null : 1;
+            }
+        });
+    }
+
+    /**
+     * Tests whether every return of the given method leaves only the result on the operand stack.
+     */
+    private static boolean returnsWithOnlyResult(final MethodGen callee) {
+        final DataflowAnalysis<Integer> depths = stackDepths(callee);
+        final int resultSize = callee.getReturnType().getSize();
+        for (final InstructionHandle ih : callee.getInstructionList()) {
+            if (ih.getInstruction() instanceof ReturnInstruction) {
+                final Integer depth = depths.getBefore(ih);
+                if (depth != null && depth.intValue() != resultSize) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private final int maxCalleeSize;
+    private final int maxMethodSize;
+    private final ClassGen classGen;
+    private Repository repository = org.apache.bcel.Repository.getRepository();
+
+    /**
+     * Constructs an inliner with the default budgets looking up callees in the repository.
+     */
+    public MethodInliner() {
+        this(null, DEFAULT_MAX_CALLEE_SIZE, DEFAULT_MAX_METHOD_SIZE);
+    }
+
+    /**
+     * Constructs an inliner.
+     *
+     * @param classGen the class of the methods to transform, where callees of the same class are looked up, may be null.
+     * @param maxCalleeSize the largest code length of a callee in bytes.
+     * @param maxMethodSize the largest code length of a caller in bytes after inlining.
+     */
+    public MethodInliner(final ClassGen classGen, final int maxCalleeSize, final int maxMethodSize) {
+        this.classGen = classGen;
+        this.maxCalleeSize = maxCalleeSize;
+        this.maxMethodSize = maxMethodSize;
+    }
+
+    /**
+     * Tests whether the code of a callee of another class only uses members and classes the caller can access.
+     */
+    private boolean accessible(final InstructionList code, final ConstantPoolGen cp, final String callerClass) {
+        final String callerPackage = packageOf(callerClass);
+        for (final InstructionHandle ih : code) {
+            final Instruction i = ih.getInstruction();
+            ObjectType loaded = null;
+            if (i instanceof LoadClass) {
+                loaded = ((LoadClass) i).getLoadClassType(cp);
+            } else if (i instanceof LDC && cp.getConstant(((LDC) i).getIndex()) instanceof ConstantClass) {
+                final Object value = ((LDC) i).getValue(cp);
+                loaded = value instanceof ObjectType ? (ObjectType) value : null;
+            }
+            if (loaded == null || loaded.getClassName().equals(callerClass)) {
+                continue;
+            }
+            final JavaClass owner = lookup(loaded.getClassName());
+            if (owner == null || !owner.isPublic() && !owner.getPackageName().equals(callerPackage)) {
+                return false;
+            }
+            if (i instanceof FieldOrMethod && ((FieldOrMethod) i).getReferenceType(cp) instanceof ObjectType) {
+                final FieldOrMethod fom = (FieldOrMethod) i;
+                final org.apache.bcel.classfile.FieldOrMethod member = findMember(owner, fom.getName(cp), fom.getSignature(cp), i instanceof FieldInstruction);
+                // Members inherited from elsewhere are not resolved
+                if (member == null || member.isPrivate() || !member.isPublic() && !owner.getPackageName().equals(callerPackage)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean apply(final MethodGen mg) {
+        final InstructionList il = mg.getInstructionList();
+        if (il == null || il.isEmpty()) {
+            return false;
+        }
+        final ConstantPoolGen cp = mg.getConstantPool();
+        il.setPositions();
+        int size = il.getEnd().getPosition() + il.getEnd().getInstruction().getLength();
+        boolean changed = false;
+        // Inlined code starts above the caller's locals, code inlined at different calls may share slots
+        mg.setMaxLocals();
+        final int base = mg.getMaxLocals();
+        final InstructionHandle[] handles = il.getInstructionHandles();
+        // Stack depths before the calls, taken before any change as inlining keeps the depths of the remaining code
+        final DataflowAnalysis<Integer> analysis = stackDepths(mg);
+        final Map<InstructionHandle, Integer> depths = new HashMap<>();
+        for (final InstructionHandle ih : handles) {
+            if (ih.getInstruction() instanceof InvokeInstruction) {
+                depths.put(ih, analysis.getBefore(ih));
+            }
+        }
+        for (final InstructionHandle ih : handles) {
+            if (!(ih.getInstruction() instanceof InvokeInstruction)) {
+                continue;
+            }
+            final InvokeInstruction invoke = (InvokeInstruction) ih.getInstruction();
+            final Callee callee = resolve(mg, invoke);
+            if (callee == null) {
+                continue;
+            }
+            final MethodGen calleeGen = new MethodGen(callee.method, callee.className, callee.cp);
+            if (!returnsWithOnlyResult(calleeGen)
+                || !callee.className.equals(mg.getClassName()) && !accessible(calleeGen.getInstructionList(), callee.cp, mg.getClassName())) {
+                continue;
+            }
+            if (calleeGen.getExceptionHandlers().length > 0) {
+                // A caught exception empties the operand stack, so nothing of the caller's may be below the arguments
+                final Integer depth = depths.get(ih);
+                if (depth == null || depth.intValue() != invoke.consumeStack(cp)) {
+                    continue;
+                }
+            }
+            if (!inline(mg, ih, calleeGen, base, maxMethodSize - size)) {
+                continue;
+            }
+            // Branches of the caller around the call may have been widened as well
+            il.setPositions();
+            size = il.getEnd().getPosition() + il.getEnd().getInstruction().getLength();
+            changed = true;
+        }
+        if (changed) {
+            mg.setMaxLocals();
+            mg.setMaxStack();
+        }
+        return changed;
+    }
+
+    private org.apache.bcel.classfile.FieldOrMethod findMember(final JavaClass owner, final String name, final String signature, final boolean field) {
+        for (final org.apache.bcel.classfile.FieldOrMethod member : field ? owner.getFields() : owner.getMethods()) {
+            if (member.getName().equals(name) && member.getSignature().equals(signature)) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the repository callees are looked up in.
+     *
+     * @return the repository.
+     */
+    public Repository getRepository() {
+        return repository;
+    }
+
+    /**
+     * Replaces a call with the code of the callee unless the code would grow by more than the given number of bytes.
+     */
+    private boolean inline(final MethodGen mg, final InstructionHandle call, final MethodGen callee, final int base, final int maxGrowth) {
+        final ConstantPoolGen cp = mg.getConstantPool();
+        final InstructionList il = mg.getInstructionList();
+        final InstructionList body = new InstructionList();
+        /*
+         * Store the arguments, the last one is on top of the stack.
+         */
+        final Type[] argTypes = callee.getArgumentTypes();
+        int slot = base + (callee.isStatic() ? 0 : 1);
+        final int[] slots = new int[argTypes.length];
+        for (int k = 0; k < argTypes.length; k++) {
+            slots[k] = slot;
+            slot += argTypes[k].getSize();
+        }
+        for (int k = argTypes.length - 1; k >= 0; k--) {
+            body.append(InstructionFactory.createStore(argTypes[k], slots[k]));
+        }
+        if (!callee.isStatic()) {
+            body.append(InstructionConst.DUP);
+            body.append(new INVOKEVIRTUAL(cp.addMethodref("java.lang.Object", "getClass", "()Ljava/lang/Class;")));
+            body.append(InstructionConst.POP);
+            body.append(InstructionFactory.createStore(Type.OBJECT, base));
+        }
+        /*
+         * Copy the code, moving its locals and turning returns into jumps past the call.
+         */
+        final InstructionHandle after = call.getNext();
+        final InstructionHandle[] handles = callee.getInstructionList().getInstructionHandles();
+        final Map<InstructionHandle, InstructionHandle> map = new HashMap<>();
+        for (int k = 0; k < handles.length; k++) {
+            final Instruction i = handles[k].getInstruction();
+            if (i instanceof ReturnInstruction) {
+                // The result is left on the stack
+                map.put(handles[k], k == handles.length - 1 ? after : body.append(new GOTO(after)));
+            } else if (i instanceof BranchInstruction) {
+                map.put(handles[k], body.append((BranchInstruction) i.copy()));
+            } else {
+                final Instruction copy = i.copy();
+                if (copy instanceof LocalVariableInstruction) {
+                    ((LocalVariableInstruction) copy).setIndex(((LocalVariableInstruction) copy).getIndex() + base);
+                }
+                map.put(handles[k], body.append(copy));
+            }
+        }
+        if (body.isEmpty()) {
+            body.append(InstructionConst.NOP);
+        }
+        for (final InstructionHandle ih : handles) {
+            final Instruction i = ih.getInstruction();
+            if (i instanceof BranchInstruction) {
+                final BranchInstruction branch = (BranchInstruction) map.get(ih).getInstruction();
+                branch.setTarget(map.get(((BranchInstruction) i).getTarget()));
+                if (i instanceof Select) {
+                    final InstructionHandle[] targets = ((Select) i).getTargets();
+                    for (int t = 0; t < targets.length; t++) {
+                        ((Select) branch).setTarget(t, map.get(targets[t]));
+                    }
+                }
+            }
+        }
+        if (callee.getConstantPool() != cp) {
+            body.replaceConstantPool(callee.getConstantPool(), cp);
+        }
+        /*
+         * Measure the relocated code, where switches may need up to 3 more bytes of padding at their final position.
+         */
+        body.setPositions();
+        int growth = body.getEnd().getPosition() + body.getEnd().getInstruction().getLength() - call.getInstruction().getLength();
+        for (final InstructionHandle ih : body) {
+            if (ih.getInstruction() instanceof Select) {
+                growth += 3;
+            }
+        }
+        if (growth > maxGrowth) {
+            // Release the targets of the copied branches, some of them are in the caller
+            body.dispose();
+            return false;
+        }
+        /*
+         * Put the callee's handlers first, the caller's handlers around the call also protect the inlined code.
+         */
+        final InstructionHandle last = body.getEnd();
+        final InstructionHandle first = il.insert(call, body);
+        int index = 0;
+        for (final CodeExceptionGen ceg : callee.getExceptionHandlers()) {
+            final InstructionHandle start = map.get(ceg.getStartPC());
+            final InstructionHandle end = map.get(ceg.getEndPC());
+            if (start != after) {
+                mg.addExceptionHandler(index++, start, end == after ? last : end, map.get(ceg.getHandlerPC()), ceg.getCatchType());
+            }
+        }
+        /*
+         * Retarget and remove the call.
+         */
+        for (final InstructionTargeter targeter : call.getTargeters()) {
+            if (targeter instanceof CodeExceptionGen) {
+                final CodeExceptionGen ceg = (CodeExceptionGen) targeter;
+                if (ceg.getStartPC() == call) {
+                    ceg.setStartPC(first);
+                }
+                if (ceg.getEndPC() == call) {
+                    ceg.setEndPC(last);
+                }
+                if (ceg.getHandlerPC() == call) {
+                    ceg.setHandlerPC(first);
+                }
+            } else if (targeter instanceof LocalVariableGen) {
+                final LocalVariableGen lvg = (LocalVariableGen) targeter;
+                if (lvg.getStart() == call) {
+                    lvg.setStart(first);
+                }
+                if (lvg.getEnd() == call) {
+                    lvg.setEnd(last);
+                }
+            } else {
+                targeter.updateTarget(call, first);
+            }
+        }
+        try {
+            il.delete(call);
+        } catch (final TargetLostException e) {
+            throw new ClassGenException("Call still targeted after inlining: " + e.getMessage(), e);
+        }
+        return true;
+    }
+
+    private JavaClass lookup(final String className) {
+        try {
+            return repository.loadClass(className);
+        } catch (final ClassNotFoundException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Finds the method a call invokes if it may be inlined into the given caller.
+     */
+    private Callee resolve(final MethodGen caller, final InvokeInstruction invoke) {
+        final ConstantPoolGen cp = caller.getConstantPool();
+        final short opcode = invoke.getOpcode();
+        if (opcode == Const.INVOKEINTERFACE || opcode == Const.INVOKEDYNAMIC || !(invoke.getReferenceType(cp) instanceof ObjectType)) {
+            return null;
+        }
+        final String className = invoke.getClassName(cp);
+        final String name = invoke.getMethodName(cp);
+        final String signature = invoke.getSignature(cp);
+        if (name.equals(Const.CONSTRUCTOR_NAME) || className.equals(caller.getClassName()) && name.equals(caller.getName())
+            && signature.equals(caller.getSignature())) {
+            return null;
+        }
+        final Method method;
+        final ConstantPoolGen calleeCp;
+        final boolean finalClass;
+        if (classGen != null && className.equals(classGen.getClassName())) {
+            method = classGen.containsMethod(name, signature);
+            calleeCp = classGen.getConstantPool();
+            finalClass = classGen.isFinal();
+        } else {
+            final JavaClass clazz = lookup(className);
+            method = clazz == null ? null : findMethod(clazz, name, signature);
+            calleeCp = clazz == null ? null : new ConstantPoolGen(clazz.getConstantPool());
+            finalClass = clazz != null && clazz.isFinal();
+        }
+        if (method == null || method.isAbstract() || method.isNative() || method.isSynchronized() || method.getCode() == null
+            || method.isStatic() != (opcode == Const.INVOKESTATIC)) {
+            return null;
+        }
+        if (opcode == Const.INVOKEVIRTUAL && !method.isPrivate() && !method.isFinal() && !finalClass) {
+            return null;
+        }
+        // A static call initializes the class of the callee, the inlined code would not
+        if (opcode == Const.INVOKESTATIC && !className.equals(caller.getClassName()) && mayInitialize(lookup(className))) {
+            return null;
+        }
+        final Code code = method.getCode();
+        if (code.getCode().length > maxCalleeSize) {
+            return null;
+        }
+        for (final Instruction i : new InstructionList(code.getCode()).getInstructions()) {
+            if (i instanceof JsrInstruction || i instanceof RET || i instanceof INVOKEDYNAMIC) {
+                return null;
+            }
+        }
+        return new Callee(className, method, code, calleeCp);
+    }
+
+    /**
+     * Tests whether initializing a class may run a static initializer of the class or of its supertypes.
+     */
+    private boolean mayInitialize(final JavaClass clazz) {
+        if (clazz == null || findMethod(clazz, Const.STATIC_INITIALIZER_NAME, "()V") != null) {
+            return true;
+        }
+        for (final String name : clazz.getInterfaceNames()) {
+            if (mayInitialize(lookup(name))) {
+                return true;
+            }
+        }
+        return !clazz.getClassName().equals(clazz.getSuperclassName()) && !Type.OBJECT.getClassName().equals(clazz.getSuperclassName())
+            && mayInitialize(lookup(clazz.getSuperclassName()));
+    }
+
+    private Method findMethod(final JavaClass clazz, final String name, final String signature) {
+        for (final Method method : clazz.getMethods()) {
+            if (method.getName().equals(name) && method.getSignature().equals(signature)) {
+                return method;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Sets the repository callees are looked up in, the default is the current {@link org.apache.bcel.Repository}.
+     *
+     * @param repository the repository.
+     */
+    public void setRepository(final Repository repository) {
+        this.repository = repository;
+    }
+
+    /**
+     * A resolved callee.
+     */
+    private static final class Callee {
+
+        final String className;
+        final Method method;
+        final Code code;
+        final ConstantPoolGen cp;
+
+        Callee(final String className, final Method method, final Code code, final ConstantPoolGen cp) {
+            this.className = className;
+            this.method = method;
+            this.code = code;
+            this.cp = cp;
+        }
+    }
+}
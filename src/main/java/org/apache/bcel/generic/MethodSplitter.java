@@ -0,0 +1,622 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.LocalVariable;
+import org.apache.bcel.classfile.LocalVariableTypeTable;
+import org.apache.bcel.classfile.Method;
+
+/**
+ * Splits methods whose code is larger than a byte limit by moving regions of their code into new private static
+ * helper methods of the class, until the method and every helper fit the limit.
+ * <p>
+ * A region is a range of instructions entered only at its first instruction and left only to the instruction following
+ * it, with an empty operand stack at both ends. Exception handlers must lie entirely inside the region, together with
+ * their handler code, or protect all of it; in the latter case the region may not write locals the handler reads.
+ * The live locals at the start of the region are passed to the helper as arguments, including {@code this}, and the
+ * one local it writes that is live after it, if any, is returned. Regions returning from the method, writing more than
+ * one live local, using {@code JSR}/{@code RET} or monitors, or assigning final fields of the class are not moved.
+ * Each step moves the largest region that fits the limit.
+ * </p>
+ * <p>
+ * Line numbers move with the code, local variable names of the moved code are not kept. Max locals and max stack are
+ * recomputed, StackMapTables are not: call {@link ClassGen#setStackMaps()} afterwards for class files of version 50
+ * and above. The types of locals are computed as for StackMapTables, so classes the method uses may be looked up in
+ * the {@link org.apache.bcel.Repository}.
+ * </p>
+ *
+ * @since 6.13.0
+ */
+public class MethodSplitter implements OptimizationPass {
+
+    /**
+     * The default largest code length of a method in bytes, that of HotSpot's {@code HugeMethodLimit} beyond which
+     * methods are not compiled.
+     */
+    public static final int DEFAULT_MAX_METHOD_SIZE = 8000;
+
+    private static final MethodGen[] EMPTY_ARRAY = {};
+
+    /**
+     * Bytes a helper needs besides the moved code: loading and returning the result, and padding of switches, which
+     * may move to other alignments.
+     */
+    private static final int EXIT_SIZE = 5;
+    private static final int SWITCH_PADDING = 3;
+
+    private static int codeSize(final InstructionList il) {
+        il.setPositions();
+        return il.getEnd().getPosition() + il.getEnd().getInstruction().getLength();
+    }
+
+    private static int loadSize(final int slot) {
+        return slot <= 3 ? 1 : slot <= Const.MAX_BYTE ? 2 : 4;
+    }
+
+    /**
+     * Gets the type of a local to pass it to or from a helper, null if it is unusable or holds an uninitialized object.
+     */
+    private static Type verifiedType(final Type[] locals, final int slot) {
+        if (locals == null || slot >= locals.length) {
+            return null;
+        }
+        final Type type = locals[slot];
+        if (type == Type.NULL) {
+            return Type.OBJECT;
+        }
+        return type.getType() == Const.T_UNKNOWN ? null : type;
+    }
+
+    private final ClassGen classGen;
+    private final int maxMethodSize;
+
+    /**
+     * Constructs a splitter for the methods of a class with the {@link #DEFAULT_MAX_METHOD_SIZE}.
+     *
+     * @param classGen the class the helper methods are added to.
+     */
+    public MethodSplitter(final ClassGen classGen) {
+        this(classGen, DEFAULT_MAX_METHOD_SIZE);
+    }
+
+    /**
+     * Constructs a splitter for the methods of a class.
+     *
+     * @param classGen the class the helper methods are added to.
+     * @param maxMethodSize the largest code length in bytes of a split method and of its helpers.
+     */
+    public MethodSplitter(final ClassGen classGen, final int maxMethodSize) {
+        this.classGen = classGen;
+        this.maxMethodSize = maxMethodSize;
+    }
+
+    /**
+     * Splits the given method if it exceeds the limit.
+     *
+     * @return whether helper methods were created.
+     * @see #split(MethodGen)
+     */
+    @Override
+    public boolean apply(final MethodGen mg) {
+        return split(mg).length > 0;
+    }
+
+    /**
+     * Checks whether a region is self contained with respect to the exception handlers and the locals, and computes its
+     * arguments and result.
+     */
+    private Region createRegion(final MethodGen mg, final InstructionHandle[] handles, final Map<InstructionHandle, Integer> indexes,
+        final StackMapGen types, final BitSet[] live, final int start, final int end, final int size) {
+        final ConstantPoolGen cp = mg.getConstantPool();
+        final BitSet written = new BitSet();
+        for (int k = start; k <= end; k++) {
+            final Instruction i = handles[k].getInstruction();
+            if (i instanceof StoreInstruction || i instanceof IINC) {
+                final LocalVariableInstruction lvi = (LocalVariableInstruction) i;
+                written.set(lvi.getIndex(), lvi.getIndex() + lvi.getType(cp).getSize());
+            }
+        }
+        for (final CodeExceptionGen ceg : mg.getExceptionHandlers()) {
+            final int first = indexes.get(ceg.getStartPC());
+            final int last = indexes.get(ceg.getEndPC());
+            final int handler = indexes.get(ceg.getHandlerPC());
+            final boolean handlerInside = handler >= start && handler <= end;
+            if (first >= start && last <= end) {
+                if (!handlerInside) {
+                    return null;
+                }
+            } else if (first <= start && last >= end) {
+                // The handler sees the locals as they were when the exception was thrown
+                final BitSet read = live[handler];
+                if (handlerInside || read != null && read.intersects(written)) {
+                    return null;
+                }
+            } else if (last >= start && first <= end || handlerInside) {
+                return null;
+            }
+        }
+        final BitSet liveIn = live[start];
+        final BitSet liveAfter = live[end + 1];
+        if (liveIn == null || liveAfter == null) {
+            return null;
+        }
+        final Type[] localsIn = types.getLocals(handles[start]);
+        final int[] argumentSlots = new int[liveIn.cardinality()];
+        final Type[] argumentTypes = new Type[argumentSlots.length];
+        int callSize = 3;
+        int k = 0;
+        for (int slot = liveIn.nextSetBit(0); slot >= 0; slot = liveIn.nextSetBit(slot + 1)) {
+            final Type type = verifiedType(localsIn, slot);
+            if (type == null) {
+                return null;
+            }
+            argumentSlots[k] = slot;
+            argumentTypes[k++] = type;
+            callSize += loadSize(slot);
+        }
+        final BitSet liveOut = (BitSet) liveAfter.clone();
+        liveOut.and(written);
+        if (liveOut.cardinality() > 1) {
+            return null;
+        }
+        final int resultSlot = liveOut.nextSetBit(0);
+        Type resultType = null;
+        if (resultSlot >= 0) {
+            resultType = verifiedType(types.getLocals(handles[end + 1]), resultSlot);
+            if (resultType == null) {
+                return null;
+            }
+            callSize += loadSize(resultSlot);
+        }
+        if (size <= callSize) {
+            return null;
+        }
+        return new Region(start, end, size, argumentSlots, argumentTypes, resultSlot, resultType);
+    }
+
+    /**
+     * Moves a region into a new helper method and replaces it by a call of the helper.
+     */
+    private MethodGen extract(final MethodGen mg, final InstructionHandle[] handles, final Region region) {
+        final ConstantPoolGen cp = mg.getConstantPool();
+        final InstructionList il = mg.getInstructionList();
+        final InstructionHandle start = handles[region.start];
+        final InstructionHandle end = handles[region.end];
+        final InstructionHandle next = handles[region.end + 1];
+        final Set<InstructionHandle> inside = Collections.newSetFromMap(new IdentityHashMap<>());
+        final Set<InstructionTargeter> insideBranches = Collections.newSetFromMap(new IdentityHashMap<>());
+        int slots = 0;
+        for (int k = region.start; k <= region.end; k++) {
+            inside.add(handles[k]);
+            final Instruction i = handles[k].getInstruction();
+            if (i instanceof BranchInstruction) {
+                insideBranches.add((BranchInstruction) i);
+            } else if (i instanceof LocalVariableInstruction) {
+                slots = Math.max(slots, ((LocalVariableInstruction) i).getIndex() + ((LocalVariableInstruction) i).getType(cp).getSize());
+            }
+        }
+        /*
+         * The arguments come first in the helper, the other locals of the region follow in the order they are used.
+         */
+        final int[] slotMap = new int[Math.max(slots, region.resultSlot + 2)];
+        Arrays.fill(slotMap, -1);
+        int nextSlot = 0;
+        final String[] argumentNames = new String[region.argumentSlots.length];
+        for (int k = 0; k < region.argumentSlots.length; k++) {
+            final int slot = region.argumentSlots[k];
+            if (slot < slotMap.length) {
+                slotMap[slot] = nextSlot;
+            }
+            nextSlot += region.argumentTypes[k].getSize();
+            argumentNames[k] = variableName(mg, slot, start);
+        }
+        final InstructionList body = new InstructionList();
+        final Map<InstructionHandle, InstructionHandle> map = new HashMap<>();
+        for (int k = region.start; k <= region.end; k++) {
+            final Instruction i = handles[k].getInstruction();
+            if (i instanceof BranchInstruction) {
+                map.put(handles[k], body.append((BranchInstruction) i.copy()));
+            } else {
+                final Instruction copy = i.copy();
+                if (copy instanceof LocalVariableInstruction) {
+                    final LocalVariableInstruction lvi = (LocalVariableInstruction) copy;
+                    final int slot = lvi.getIndex();
+                    if (slotMap[slot] < 0) {
+                        slotMap[slot] = nextSlot;
+                        nextSlot += lvi.getType(cp).getSize();
+                    }
+                    lvi.setIndex(slotMap[slot]);
+                }
+                map.put(handles[k], body.append(copy));
+            }
+        }
+        final InstructionHandle exit;
+        if (region.resultSlot >= 0) {
+            exit = body.append(InstructionFactory.createLoad(region.resultType, slotMap[region.resultSlot]));
+            body.append(InstructionFactory.createReturn(region.resultType));
+        } else {
+            exit = body.append(InstructionConst.RETURN);
+        }
+        map.put(next, exit);
+        for (int k = region.start; k <= region.end; k++) {
+            final Instruction i = handles[k].getInstruction();
+            if (i instanceof BranchInstruction) {
+                final BranchInstruction branch = (BranchInstruction) map.get(handles[k]).getInstruction();
+                branch.setTarget(map.get(((BranchInstruction) i).getTarget()));
+                if (i instanceof Select) {
+                    final InstructionHandle[] targets = ((Select) i).getTargets();
+                    for (int t = 0; t < targets.length; t++) {
+                        ((Select) branch).setTarget(t, map.get(targets[t]));
+                    }
+                }
+            }
+        }
+        final Type returnType = region.resultSlot >= 0 ? region.resultType : Type.VOID;
+        final String name = helperName(mg.getName());
+        final MethodGen helper = new MethodGen(Const.ACC_PRIVATE | Const.ACC_STATIC | Const.ACC_SYNTHETIC | mg.getAccessFlags() & Const.ACC_STRICT,
+            returnType, region.argumentTypes, argumentNames, name, mg.getClassName(), body, cp);
+        for (final CodeExceptionGen ceg : mg.getExceptionHandlers()) {
+            if (inside.contains(ceg.getStartPC())) {
+                helper.addExceptionHandler(map.get(ceg.getStartPC()), map.get(ceg.getEndPC()), map.get(ceg.getHandlerPC()), ceg.getCatchType());
+                mg.removeExceptionHandler(ceg);
+                ceg.setStartPC(null);
+                ceg.setEndPC(null);
+                ceg.setHandlerPC(null);
+            }
+        }
+        for (final LineNumberGen lng : mg.getLineNumbers()) {
+            final InstructionHandle ih = lng.getInstruction();
+            if (inside.contains(ih)) {
+                helper.addLineNumber(map.get(ih), lng.getSourceLine());
+                if (ih != start) {
+                    ih.removeTargeter(lng);
+                    mg.removeLineNumber(lng);
+                }
+            }
+        }
+        helper.setMaxLocals();
+        helper.setMaxStack();
+        /*
+         * Call the helper in place of the region.
+         */
+        final InstructionList call = new InstructionList();
+        for (int k = 0; k < region.argumentSlots.length; k++) {
+            call.append(InstructionFactory.createLoad(region.argumentTypes[k], region.argumentSlots[k]));
+        }
+        final int index = classGen.isInterface() ? cp.addInterfaceMethodref(mg.getClassName(), name, helper.getSignature())
+            : cp.addMethodref(mg.getClassName(), name, helper.getSignature());
+        call.append(new INVOKESTATIC(index));
+        if (region.resultSlot >= 0) {
+            call.append(InstructionFactory.createStore(region.resultType, region.resultSlot));
+        }
+        final InstructionHandle last = call.getEnd();
+        final InstructionHandle first = il.insert(start, call);
+        final List<LocalVariableGen> removed = new ArrayList<>();
+        for (final InstructionHandle ih : inside) {
+            for (final InstructionTargeter targeter : ih.getTargeters()) {
+                if (insideBranches.contains(targeter)) {
+                    continue;
+                }
+                if (targeter instanceof CodeExceptionGen) {
+                    // Only handlers protecting the whole region are left
+                    final CodeExceptionGen ceg = (CodeExceptionGen) targeter;
+                    if (ceg.getStartPC() == ih) {
+                        ceg.setStartPC(first);
+                    }
+                    if (ceg.getEndPC() == ih) {
+                        ceg.setEndPC(last);
+                    }
+                } else if (targeter instanceof LocalVariableGen) {
+                    final LocalVariableGen lvg = (LocalVariableGen) targeter;
+                    if (inside.contains(lvg.getStart()) && inside.contains(lvg.getEnd())) {
+                        removed.add(lvg);
+                        mg.removeLocalVariable(lvg);
+                    } else if (lvg.getStart() == ih) {
+                        lvg.setStart(first);
+                    } else {
+                        lvg.setEnd(last);
+                    }
+                } else {
+                    targeter.updateTarget(ih, first);
+                }
+            }
+        }
+        try {
+            il.delete(start, end);
+        } catch (final TargetLostException e) {
+            throw new ClassGenException("Region still targeted after splitting: " + e.getMessage(), e);
+        }
+        final LocalVariableTypeTable lvtt = mg.getLocalVariableTypeTable();
+        if (lvtt != null && !removed.isEmpty()) {
+            final List<LocalVariable> kept = new ArrayList<>();
+            for (final LocalVariable lv : lvtt.getLocalVariableTypeTable()) {
+                if (removed.stream().noneMatch(lvg -> lvg.getName().equals(lv.getName()) && lvg.getOrigIndex() == lv.getIndex())) {
+                    kept.add(lv);
+                }
+            }
+            lvtt.setLocalVariableTable(kept.toArray(new LocalVariable[0]));
+        }
+        classGen.addMethod(helper.getMethod());
+        return helper;
+    }
+
+    /**
+     * Finds the largest region of a method whose helper would fit the limit.
+     */
+    private Region findRegion(final MethodGen mg) {
+        final ConstantPoolGen cp = mg.getConstantPool();
+        final InstructionList il = mg.getInstructionList();
+        final StackMapGen types = new StackMapGen(mg, classGen.getSuperclassName());
+        types.analyze(mg.getExceptionHandlers());
+        final InstructionHandle[] handles = il.getInstructionHandles();
+        final int n = handles.length;
+        final Map<InstructionHandle, Integer> indexes = new HashMap<>();
+        for (int k = 0; k < n; k++) {
+            indexes.put(handles[k], k);
+        }
+        /*
+         * Jumps other than falling through: the range of instructions jumping to each instruction, and the range of
+         * targets of each branch.
+         */
+        final int[] minSource = new int[n];
+        final int[] maxSource = new int[n];
+        final int[] minTarget = new int[n];
+        final int[] maxTarget = new int[n];
+        Arrays.fill(minSource, n);
+        Arrays.fill(maxSource, -1);
+        Arrays.fill(minTarget, n);
+        Arrays.fill(maxTarget, -1);
+        final boolean[] barrier = new boolean[n];
+        for (int k = 0; k < n; k++) {
+            final Instruction i = handles[k].getInstruction();
+            if (i instanceof BranchInstruction) {
+                final List<InstructionHandle> targets = new ArrayList<>();
+                targets.add(((BranchInstruction) i).getTarget());
+                if (i instanceof Select) {
+                    Collections.addAll(targets, ((Select) i).getTargets());
+                }
+                for (final InstructionHandle target : targets) {
+                    final int t = indexes.get(target);
+                    minSource[t] = Math.min(minSource[t], k);
+                    maxSource[t] = Math.max(maxSource[t], k);
+                    minTarget[k] = Math.min(minTarget[k], t);
+                    maxTarget[k] = Math.max(maxTarget[k], t);
+                }
+            }
+            barrier[k] = i instanceof ReturnInstruction || i instanceof JsrInstruction || i instanceof RET || i instanceof MONITORENTER
+                || i instanceof MONITOREXIT || isFinalFieldStore(i, cp);
+        }
+        for (final CodeExceptionGen ceg : mg.getExceptionHandlers()) {
+            final int handler = indexes.get(ceg.getHandlerPC());
+            minSource[handler] = Math.min(minSource[handler], indexes.get(ceg.getStartPC()));
+            maxSource[handler] = Math.max(maxSource[handler], indexes.get(ceg.getEndPC()));
+        }
+        final BitSet[] live = new BitSet[n];
+        final DataflowAnalysis<BitSet> liveness = new DataflowAnalysis<>(mg, new LivenessAnalysis());
+        for (final BasicBlock block : liveness.getGraph().getBlocks()) {
+            final List<BitSet> values = liveness.getBefore(block);
+            if (values != null) {
+                for (int k = 0; k < values.size(); k++) {
+                    live[indexes.get(block.instructions[k])] = values.get(k);
+                }
+            }
+        }
+        Region best = null;
+        final int[] ends = new int[n];
+        final BitSet written = new BitSet();
+        final BitSet liveOut = new BitSet();
+        for (int start = 0; start < n - 1; start++) {
+            if (types.getStackSize(handles[start]) != 0) {
+                continue;
+            }
+            final int startPosition = handles[start].getPosition();
+            int required = -1;
+            int furthest = -1;
+            int switches = 0;
+            int candidates = 0;
+            written.clear();
+            for (int end = start; end < n - 1; end++) {
+                final Instruction i = handles[end].getInstruction();
+                if (barrier[end] || end > start && minSource[end] < start || minTarget[end] < start) {
+                    break;
+                }
+                if (i instanceof Select) {
+                    switches++;
+                }
+                if (handles[end + 1].getPosition() - startPosition + EXIT_SIZE + SWITCH_PADDING * switches > maxMethodSize) {
+                    break;
+                }
+                required = Math.max(required, maxSource[end]);
+                furthest = Math.max(furthest, maxTarget[end]);
+                if (i instanceof StoreInstruction || i instanceof IINC) {
+                    written.set(((LocalVariableInstruction) i).getIndex());
+                }
+                if (required <= end && furthest <= end + 1 && types.getStackSize(handles[end + 1]) == 0 && live[end + 1] != null) {
+                    // At most one of the locals written is live after the region
+                    liveOut.clear();
+                    liveOut.or(live[end + 1]);
+                    liveOut.and(written);
+                    if (liveOut.cardinality() <= 1) {
+                        ends[candidates++] = end;
+                    }
+                }
+            }
+            // The largest candidate that qualifies
+            for (int c = candidates - 1; c >= 0; c--) {
+                final int size = handles[ends[c] + 1].getPosition() - startPosition;
+                if (best != null && size <= best.size) {
+                    break;
+                }
+                final Region region = createRegion(mg, handles, indexes, types, live, start, ends[c], size);
+                if (region != null) {
+                    best = region;
+                    break;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Gets the class the helper methods are added to.
+     *
+     * @return the class.
+     */
+    public ClassGen getClassGen() {
+        return classGen;
+    }
+
+    /**
+     * Gets the largest code length in bytes of a split method and of its helpers.
+     *
+     * @return the limit.
+     */
+    public int getMaxMethodSize() {
+        return maxMethodSize;
+    }
+
+    private String helperName(final String methodName) {
+        final String prefix = methodName.replace("<", "").replace(">", "") + "$split$";
+        for (int k = 0;; k++) {
+            final String name = prefix + k;
+            boolean used = false;
+            for (final Method method : classGen.getMethods()) {
+                used |= method.getName().equals(name);
+            }
+            if (!used) {
+                return name;
+            }
+        }
+    }
+
+    private boolean isFinalFieldStore(final Instruction i, final ConstantPoolGen cp) {
+        if (!(i instanceof PUTFIELD || i instanceof PUTSTATIC)) {
+            return false;
+        }
+        final FieldInstruction fi = (FieldInstruction) i;
+        if (!fi.getReferenceType(cp).equals(ObjectType.getInstance(classGen.getClassName()))) {
+            return false;
+        }
+        final Field field = classGen.containsField(fi.getFieldName(cp));
+        return field == null || field.isFinal();
+    }
+
+    /**
+     * Splits a method until its code fits the limit, adding the helper methods to the class. The method itself is
+     * changed but not replaced in the class. The method may still exceed the limit if no region of it qualifies.
+     *
+     * @param mg the method to split.
+     * @return the helper methods added to the class, empty if the method already fits the limit or cannot be split.
+     * @throws ClassGenException if the method is not type correct or a class cannot be found in the repository.
+     */
+    public MethodGen[] split(final MethodGen mg) {
+        final InstructionList il = mg.getInstructionList();
+        if (il == null || il.isEmpty()) {
+            return EMPTY_ARRAY;
+        }
+        final List<MethodGen> helpers = new ArrayList<>();
+        while (codeSize(il) > maxMethodSize) {
+            final Region region = findRegion(mg);
+            if (region == null) {
+                break;
+            }
+            helpers.add(extract(mg, il.getInstructionHandles(), region));
+        }
+        if (!helpers.isEmpty()) {
+            mg.setMaxLocals();
+            mg.setMaxStack();
+        }
+        return helpers.toArray(EMPTY_ARRAY);
+    }
+
+    /**
+     * Splits all methods of the class exceeding the limit and replaces them in the class.
+     *
+     * @return the number of helper methods added to the class.
+     * @throws ClassGenException if a method is not type correct or a class cannot be found in the repository.
+     * @see #split(MethodGen)
+     */
+    public int splitMethods() {
+        int count = 0;
+        for (final Method method : classGen.getMethods()) {
+            final Code code = method.getCode();
+            if (code == null || code.getCode().length <= maxMethodSize) {
+                continue;
+            }
+            final MethodGen mg = new MethodGen(method, classGen.getClassName(), classGen.getConstantPool());
+            final int helpers = split(mg).length;
+            if (helpers > 0) {
+                classGen.replaceMethod(method, mg.getMethod());
+                count += helpers;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Gets the name of the variable in a slot at an instruction, for the arguments of helpers.
+     */
+    private String variableName(final MethodGen mg, final int slot, final InstructionHandle ih) {
+        final int position = ih.getPosition();
+        for (final LocalVariableGen lvg : mg.getLocalVariables()) {
+            if (lvg.getIndex() == slot && lvg.getStart().getPosition() <= position && (lvg.getEnd() == null || lvg.getEnd().getPosition() >= position)) {
+                return lvg.getName();
+            }
+        }
+        return "arg" + slot;
+    }
+
+    /**
+     * Candidate region of a method, as indexes into its instruction handles.
+     */
+    private static final class Region {
+
+        final int start;
+        final int end;
+        final int size;
+        final int[] argumentSlots;
+        final Type[] argumentTypes;
+        final int resultSlot;
+        final Type resultType;
+
+        Region(final int start, final int end, final int size, final int[] argumentSlots, final Type[] argumentTypes, final int resultSlot,
+            final Type resultType) {
+            this.start = start;
+            this.end = end;
+            this.size = size;
+            this.argumentSlots = argumentSlots;
+            this.argumentTypes = argumentTypes;
+            this.resultSlot = resultSlot;
+            this.resultType = resultType;
+        }
+    }
+}
@@ -98,7 +98,7 @@ public class NEWARRAY extends Instruction implements AllocationInstruction, Exce
      * @return type of constructed array.
      */
     public final Type getType() {
-        return new ArrayType(BasicType.getType(type), 1);
+        return ArrayType.getInstance(BasicType.getType(type), 1);
     }
 
     /**
@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.List;
+
+import org.apache.bcel.Const;
+
+/**
+ * Nullness of references held by local variables and the operand stack.
+ * <p>
+ * {@code ACONST_NULL} pushes {@link Nullness#NULL}; the {@code this} reference, caught exceptions, new objects and
+ * arrays and {@code LDC} constants are {@link Nullness#NON_NULL}, and {@code CHECKCAST} keeps the nullness of its
+ * operand. A variable loaded right before an {@code IFNULL} or {@code IFNONNULL} is known on both edges of the branch.
+ * Everything else, including the words of primitive values, is {@link Nullness#UNKNOWN}.
+ * </p>
+ *
+ * @see DataflowAnalysis
+ * @since 6.13.0
+ */
+public class NullnessAnalysis extends FrameAnalysis<NullnessAnalysis.Nullness> {
+
+    /**
+     * The abstract values of the analysis.
+     */
+    public enum Nullness {
+
+        /** Always null. */
+        NULL,
+
+        /** Never null. */
+        NON_NULL,
+
+        /** Possibly null, or not a reference. */
+        UNKNOWN
+    }
+
+    /**
+     * Constructs the problem for the given method.
+     *
+     * @param mg the method, its instruction list is not null.
+     */
+    public NullnessAnalysis(final MethodGen mg) {
+        super(mg);
+    }
+
+    /**
+     * @return {@link Nullness#NON_NULL}.
+     */
+    @Override
+    protected Nullness exception() {
+        return Nullness.NON_NULL;
+    }
+
+    /**
+     * @return the value if both are the same, {@link Nullness#UNKNOWN} otherwise.
+     */
+    @Override
+    protected Nullness join(final Nullness a, final Nullness b) {
+        return a == b ? a : Nullness.UNKNOWN;
+    }
+
+    /**
+     * @return {@link Nullness#NON_NULL} for the {@code this} reference, {@link Nullness#UNKNOWN} otherwise.
+     */
+    @Override
+    protected Nullness parameter(final Type type, final boolean thisReference) {
+        return thisReference ? Nullness.NON_NULL : Nullness.UNKNOWN;
+    }
+
+    /**
+     * Refines the variable tested by an {@code IFNULL} or {@code IFNONNULL} ending {@code from}, if it was loaded right
+     * before the branch.
+     */
+    @Override
+    public ValueFrame<Nullness> transferEdge(final BasicBlock from, final BasicBlock to, final ValueFrame<Nullness> frame) {
+        final InstructionHandle end = from.getEnd();
+        final short opcode = end.getInstruction().getOpcode();
+        final InstructionHandle prev = end.getPrev();
+        if (frame == null || opcode != Const.IFNULL && opcode != Const.IFNONNULL || prev == null || prev.getInstruction().getOpcode() != Const.ALOAD
+            && (prev.getInstruction().getOpcode() < Const.ALOAD_0 || prev.getInstruction().getOpcode() > Const.ALOAD_3) || from.getStart() == end) {
+            return frame;
+        }
+        final InstructionHandle target = ((IfInstruction) end.getInstruction()).getTarget();
+        final InstructionHandle next = end.getNext();
+        if (target == next) {
+            return frame; // Both edges lead to the same block
+        }
+        final boolean taken = to.getStart() == target;
+        final Nullness nullness = taken == (opcode == Const.IFNULL) ? Nullness.NULL : Nullness.NON_NULL;
+        final int slot = ((ALOAD) prev.getInstruction()).getIndex();
+        if (frame.getLocal(slot) == nullness) {
+            return frame;
+        }
+        final Object[] locals = frame.locals().clone();
+        locals[slot] = nullness;
+        return new ValueFrame<>(locals, frame.stack());
+    }
+
+    /**
+     * @return {@link Nullness#UNKNOWN}.
+     */
+    @Override
+    protected Nullness unknown() {
+        return Nullness.UNKNOWN;
+    }
+
+    @Override
+    protected Nullness value(final InstructionHandle ih, final List<Nullness> operands) {
+        final Instruction i = ih.getInstruction();
+        switch (i.getOpcode()) {
+        case Const.ACONST_NULL:
+            return Nullness.NULL;
+        case Const.NEW:
+        case Const.NEWARRAY:
+        case Const.ANEWARRAY:
+        case Const.MULTIANEWARRAY:
+            return Nullness.NON_NULL;
+        case Const.LDC:
+        case Const.LDC_W:
+            return ((LDC) i).getType(getConstantPool()) instanceof ReferenceType ? Nullness.NON_NULL : Nullness.UNKNOWN;
+        case Const.CHECKCAST:
+            return operands.get(0);
+        default:
+            return Nullness.UNKNOWN;
+        }
+    }
+}
@@ -29,14 +29,23 @@ import org.apache.bcel.classfile.Utility;
 public class ObjectType extends ReferenceType {
 
     /**
-     * Constructs a new instance.
+     * Holds the canonical instances apart from this class, whose initialization waits for {@link Type}, which creates
+     * instances for its constants.
+     */
+    private static final class Interned {
+        static final TypeInterner<ObjectType> TYPES = new TypeInterner<>();
+    }
+
+    /**
+     * Gets the canonical instance for a class name, equal object types obtained here are the same instance.
      *
      * @param className fully qualified class name, for example {@link String}.
-     * @return A new instance.
+     * @return the shared instance.
      * @since 6.0
      */
     public static ObjectType getInstance(final String className) {
-        return new ObjectType(className);
+        final String name = Utility.pathToPackage(className);
+        return Interned.TYPES.intern(name, () -> new ObjectType(name));
     }
 
     private final String className; // Class name of type
@@ -72,7 +81,7 @@ public class ObjectType extends ReferenceType {
      */
     @Override
     public boolean equals(final Object type) {
-        return type instanceof ObjectType && ((ObjectType) type).className.equals(className);
+        return type == this || type instanceof ObjectType && ((ObjectType) type).className.equals(className);
     }
 
     /**
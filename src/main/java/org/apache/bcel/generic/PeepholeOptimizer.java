@@ -0,0 +1,526 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantInteger;
+
+/**
+ * Runs a chain of {@link OptimizationPass}es over the code of a method until none of them changes anything.
+ * <p>
+ * The built-in passes are local rewrites that keep branches, exception handlers, local variables and line numbers
+ * consistent. They never increase the stack depth, so the max stack of the method stays valid; call
+ * {@link MethodGen#setMaxStack()} to tighten it and {@link MethodGen#setStackMap()} to recompute the frames of class
+ * files of version 50 and above.
+ * </p>
+ *
+ * <pre>
+ * new PeepholeOptimizer().optimize(mg);
+ * mg.setMaxStack();
+ * </pre>
+ *
+ * @see MethodGen#removeNOPs()
+ * @since 6.13.0
+ */
+public class PeepholeOptimizer {
+
+    /**
+     * Removes {@code GOTO}s and turns conditional branches into {@code POP}s if they target the next instruction.
+     */
+    public static final OptimizationPass BRANCH_TO_NEXT = PeepholeOptimizer::removeBranchesToNext;
+
+    /**
+     * Folds {@code int} arithmetic on {@code ICONST}, {@code BIPUSH}, {@code SIPUSH} and {@code LDC} operands into a single
+     * constant.
+     */
+    public static final OptimizationPass CONSTANT_FOLDING = PeepholeOptimizer::foldConstants;
+
+    /**
+     * Removes code that cannot be reached from the start of the method or a reachable exception handler, typically
+     * code after an unconditional jump, and the handlers protecting only such code.
+     */
+    public static final OptimizationPass DEAD_CODE = PeepholeOptimizer::removeDeadCode;
+
+    /**
+     * Retargets branches to a {@code GOTO} to the final target of the chain of {@code GOTO}s.
+     */
+    public static final OptimizationPass JUMP_THREADING = PeepholeOptimizer::threadJumps;
+
+    /**
+     * Removes pairs without effect: a load followed by a store to the same local variable, and a load, constant or
+     * {@code DUP} immediately followed by a {@code POP} of the same size.
+     */
+    public static final OptimizationPass REDUNDANT_LOAD_STORE = PeepholeOptimizer::removeRedundantLoadStores;
+
+    /**
+     * Deletes the range from {@code from} to {@code to}, retargeting branches, exception handler starts and handlers and
+     * line numbers to {@code newTarget}, moving the ends of exception handlers and local variables before the range, and
+     * dropping those that only covered the range.
+     */
+    private static void delete(final MethodGen mg, final InstructionHandle from, final InstructionHandle to, final InstructionHandle newTarget) {
+        final InstructionHandle prev = from.getPrev();
+        Set<InstructionHandle> removed = null;
+        for (InstructionHandle ih = from;; ih = ih.getNext()) {
+            if (ih.hasTargeters()) {
+                removed = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (InstructionHandle r = from;; r = r.getNext()) {
+                    removed.add(r);
+                    if (r == to) {
+                        break;
+                    }
+                }
+                break;
+            }
+            if (ih == to) {
+                break;
+            }
+        }
+        if (removed != null) {
+            for (final InstructionHandle ih : removed) {
+                for (final InstructionTargeter targeter : ih.getTargeters()) {
+                    if (targeter instanceof CodeExceptionGen) {
+                        final CodeExceptionGen ceg = (CodeExceptionGen) targeter;
+                        final boolean startRemoved = removed.contains(ceg.getStartPC());
+                        final boolean endRemoved = removed.contains(ceg.getEndPC());
+                        if (startRemoved && (endRemoved || newTarget == null) || endRemoved && prev == null) {
+                            mg.removeExceptionHandler(ceg);
+                            ceg.setStartPC(null);
+                            ceg.setEndPC(null);
+                            ceg.setHandlerPC(null);
+                            continue;
+                        }
+                        if (startRemoved) {
+                            ceg.setStartPC(newTarget);
+                        }
+                        if (endRemoved) {
+                            ceg.setEndPC(prev);
+                        }
+                        if (removed.contains(ceg.getHandlerPC())) {
+                            ceg.setHandlerPC(newTarget);
+                        }
+                    } else if (targeter instanceof LocalVariableGen) {
+                        final LocalVariableGen lg = (LocalVariableGen) targeter;
+                        final boolean startRemoved = removed.contains(lg.getStart());
+                        final boolean endRemoved = removed.contains(lg.getEnd());
+                        if (startRemoved && (endRemoved || newTarget == null) || endRemoved && prev == null) {
+                            mg.removeLocalVariable(lg);
+                            continue;
+                        }
+                        if (startRemoved) {
+                            lg.setStart(newTarget);
+                        }
+                        if (endRemoved) {
+                            lg.setEnd(prev);
+                        }
+                    } else if (targeter instanceof LineNumberGen) {
+                        final LineNumberGen lng = (LineNumberGen) targeter;
+                        if (newTarget != null) {
+                            lng.setInstruction(newTarget);
+                        } else {
+                            ih.removeTargeter(lng);
+                            mg.removeLineNumber(lng);
+                        }
+                    }
+                }
+            }
+        }
+        try {
+            mg.getInstructionList().delete(from, to);
+        } catch (final TargetLostException e) {
+            // Only branches are left, and they are retargeted like the ones removeNOPs() handles
+            if (newTarget != null) {
+                for (final InstructionHandle target : e.getTargets()) {
+                    for (final InstructionTargeter targeter : target.getTargeters()) {
+                        targeter.updateTarget(target, newTarget);
+                    }
+                }
+            }
+        }
+    }
+
+    private static InstructionHandle finalTarget(final InstructionHandle target, final int limit) {
+        InstructionHandle ih = target;
+        for (int i = 0; i < limit; i++) {
+            if (!isGoto(ih.getInstruction())) {
+                return ih;
+            }
+            ih = ((BranchInstruction) ih.getInstruction()).getTarget();
+        }
+        return target; // A cycle of GOTOs, leave it alone
+    }
+
+    static Integer fold(final int a, final int b, final short opcode) {
+        switch (opcode) {
+        case Const.IADD:
+            return a + b;
+        case Const.ISUB:
+            return a - b;
+        case Const.IMUL:
+            return a * b;
+        case Const.IDIV:
+            return b != 0 ? a / b : null;
+        case Const.IREM:
+            return b != 0 ? a % b : null;
+        case Const.IAND:
+            return a & b;
+        case Const.IOR:
+            return a | b;
+        case Const.IXOR:
+            return a ^ b;
+        case Const.ISHL:
+            return a << b;
+        case Const.ISHR:
+            return a >> b;
+        case Const.IUSHR:
+            return a >>> b;
+        default:
+            return null;
+        }
+    }
+
+    private static boolean foldConstants(final MethodGen mg) {
+        final ConstantPoolGen cp = mg.getConstantPool();
+        boolean changed = false;
+        InstructionHandle ih = mg.getInstructionList().getStart();
+        while (ih != null) {
+            final Integer a = intConstant(ih.getInstruction(), cp);
+            final InstructionHandle next = ih.getNext();
+            Integer folded = null;
+            InstructionHandle last = null;
+            if (a != null && next != null && !isJumpTarget(next)) {
+                if (next.getInstruction().getOpcode() == Const.INEG) {
+                    folded = -a;
+                    last = next;
+                } else {
+                    final Integer b = intConstant(next.getInstruction(), cp);
+                    last = next.getNext();
+                    if (b != null && last != null && !isJumpTarget(last)) {
+                        folded = fold(a, b, last.getInstruction().getOpcode());
+                    }
+                }
+            }
+            if (folded != null) {
+                ih.setInstruction(new PUSH(cp, folded.intValue()).getInstruction());
+                delete(mg, next, last, last.getNext());
+                changed = true; // Try again, the result may be an operand of the next operation
+            } else {
+                ih = next;
+            }
+        }
+        return changed;
+    }
+
+    static Integer intConstant(final Instruction i, final ConstantPoolGen cp) {
+        switch (i.getOpcode()) {
+        case Const.LDC:
+        case Const.LDC_W:
+            // Folded constants that do not fit in a short, other constants such as method types have no value
+            final Constant c = cp.getConstant(((LDC) i).getIndex());
+            return c instanceof ConstantInteger ? ((ConstantInteger) c).getBytes() : null;
+        case Const.ICONST_M1:
+        case Const.ICONST_0:
+        case Const.ICONST_1:
+        case Const.ICONST_2:
+        case Const.ICONST_3:
+        case Const.ICONST_4:
+        case Const.ICONST_5:
+        case Const.BIPUSH:
+        case Const.SIPUSH:
+            return ((ConstantPushInstruction) i).getValue().intValue();
+        default:
+            return null;
+        }
+    }
+
+    private static boolean isGoto(final Instruction i) {
+        return i.getOpcode() == Const.GOTO || i.getOpcode() == Const.GOTO_W;
+    }
+
+    /**
+     * Tests whether control may enter the given instruction other than from the previous one.
+     */
+    private static boolean isJumpTarget(final InstructionHandle ih) {
+        for (final InstructionTargeter targeter : ih.getTargeters()) {
+            if (targeter instanceof BranchInstruction || targeter instanceof CodeExceptionGen && ((CodeExceptionGen) targeter).getHandlerPC() == ih) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the size of the value pushed by an instruction without side effects that consumes nothing, 0 for any other
+     * instruction.
+     */
+    private static int pushedSize(final Instruction i, final ConstantPoolGen cp) {
+        if (i instanceof LoadInstruction || i instanceof ConstantPushInstruction) {
+            return ((TypedInstruction) i).getType(cp).getSize();
+        }
+        switch (i.getOpcode()) {
+        case Const.ACONST_NULL:
+        case Const.DUP:
+            return 1;
+        case Const.DUP2:
+            return 2;
+        default:
+            return 0;
+        }
+    }
+
+    private static int reach(final int index, final boolean[] reachable, final int[] worklist, final int worklistSize) {
+        if (reachable[index]) {
+            return worklistSize;
+        }
+        reachable[index] = true;
+        worklist[worklistSize] = index;
+        return worklistSize + 1;
+    }
+
+    private static boolean removeBranchesToNext(final MethodGen mg) {
+        final InstructionList il = mg.getInstructionList();
+        final ConstantPoolGen cp = mg.getConstantPool();
+        boolean changed = false;
+        InstructionHandle next;
+        for (InstructionHandle ih = il.getStart(); ih != null; ih = next) {
+            next = ih.getNext();
+            final Instruction i = ih.getInstruction();
+            if (next == null || !(i instanceof BranchInstruction) || ((BranchInstruction) i).getTarget() != next) {
+                continue;
+            }
+            if (isGoto(i)) {
+                delete(mg, ih, ih, next);
+                changed = true;
+            } else if (i instanceof IfInstruction) {
+                // The operands must still be popped
+                final InstructionHandle pop = il.insert(ih, i.consumeStack(cp) == 2 ? InstructionConst.POP2 : InstructionConst.POP);
+                delete(mg, ih, ih, pop);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean removeDeadCode(final MethodGen mg) {
+        final InstructionList il = mg.getInstructionList();
+        final InstructionHandle[] handles = il.getInstructionHandles();
+        final int length = handles.length;
+        if (length == 0) {
+            return false;
+        }
+        il.setPositions();
+        final int[] indexOfPosition = new int[handles[length - 1].getPosition() + 1];
+        for (int i = 0; i < length; i++) {
+            indexOfPosition[handles[i].getPosition()] = i;
+        }
+        final boolean[] reachable = new boolean[length];
+        final int[] worklist = new int[length];
+        int worklistSize = 0;
+        reachable[0] = true;
+        worklist[worklistSize++] = 0;
+        final CodeExceptionGen[] handlers = mg.getExceptionHandlers();
+        final boolean[] handlerReachable = new boolean[handlers.length];
+        while (worklistSize > 0) {
+            while (worklistSize > 0) {
+                final int index = worklist[--worklistSize];
+                final Instruction i = handles[index].getInstruction();
+                final short opcode = i.getOpcode();
+                if (i instanceof BranchInstruction) {
+                    worklistSize = reach(indexOfPosition[((BranchInstruction) i).getTarget().getPosition()], reachable, worklist, worklistSize);
+                    if (i instanceof Select) {
+                        for (final InstructionHandle target : ((Select) i).getTargets()) {
+                            worklistSize = reach(indexOfPosition[target.getPosition()], reachable, worklist, worklistSize);
+                        }
+                    } else if (!isGoto(i) && index + 1 < length) { // Conditional branch or JSR
+                        worklistSize = reach(index + 1, reachable, worklist, worklistSize);
+                    }
+                } else if (opcode != Const.ATHROW && opcode != Const.RET && (opcode < Const.IRETURN || opcode > Const.RETURN) && index + 1 < length) {
+                    worklistSize = reach(index + 1, reachable, worklist, worklistSize);
+                }
+            }
+            // Handlers protecting reachable code are reachable
+            for (int h = 0; h < handlers.length; h++) {
+                if (!handlerReachable[h]) {
+                    final int end = indexOfPosition[handlers[h].getEndPC().getPosition()];
+                    for (int k = indexOfPosition[handlers[h].getStartPC().getPosition()]; k <= end; k++) {
+                        if (reachable[k]) {
+                            handlerReachable[h] = true;
+                            worklistSize = reach(indexOfPosition[handlers[h].getHandlerPC().getPosition()], reachable, worklist, worklistSize);
+                            break;
+                        }
+                    }
+                }
+            }
+        }
+        boolean changed = false;
+        for (int h = 0; h < handlers.length; h++) {
+            if (!handlerReachable[h]) {
+                mg.removeExceptionHandler(handlers[h]);
+                handlers[h].setStartPC(null);
+                handlers[h].setEndPC(null);
+                handlers[h].setHandlerPC(null);
+                changed = true;
+            }
+        }
+        for (int i = 0; i < length; i++) {
+            if (!reachable[i]) {
+                int j = i;
+                while (j + 1 < length && !reachable[j + 1]) {
+                    j++;
+                }
+                delete(mg, handles[i], handles[j], j + 1 < length ? handles[j + 1] : null);
+                changed = true;
+                i = j;
+            }
+        }
+        return changed;
+    }
+
+    private static boolean removeRedundantLoadStores(final MethodGen mg) {
+        final ConstantPoolGen cp = mg.getConstantPool();
+        boolean changed = false;
+        InstructionHandle ih = mg.getInstructionList().getStart();
+        while (ih != null) {
+            final InstructionHandle next = ih.getNext();
+            if (next != null && !isJumpTarget(next)) {
+                final Instruction first = ih.getInstruction();
+                final Instruction second = next.getInstruction();
+                final boolean redundant;
+                if (first instanceof LoadInstruction && second instanceof StoreInstruction) {
+                    final LocalVariableInstruction load = (LocalVariableInstruction) first;
+                    final LocalVariableInstruction store = (LocalVariableInstruction) second;
+                    redundant = load.getIndex() == store.getIndex() && load.getType(cp).equals(store.getType(cp));
+                } else if (second.getOpcode() == Const.POP) {
+                    redundant = pushedSize(first, cp) == 1;
+                } else if (second.getOpcode() == Const.POP2) {
+                    redundant = pushedSize(first, cp) == 2;
+                } else {
+                    redundant = false;
+                }
+                if (redundant) {
+                    final InstructionHandle after = next.getNext();
+                    delete(mg, ih, next, after);
+                    changed = true;
+                    ih = after;
+                    continue;
+                }
+            }
+            ih = next;
+        }
+        return changed;
+    }
+
+    private static boolean threadJumps(final MethodGen mg) {
+        final InstructionList il = mg.getInstructionList();
+        final int limit = il.getLength();
+        boolean changed = false;
+        for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+            final Instruction i = ih.getInstruction();
+            if (i instanceof BranchInstruction) {
+                final BranchInstruction branch = (BranchInstruction) i;
+                final InstructionHandle target = finalTarget(branch.getTarget(), limit);
+                if (target != branch.getTarget()) {
+                    branch.setTarget(target);
+                    changed = true;
+                }
+                if (i instanceof Select) {
+                    final Select select = (Select) i;
+                    final InstructionHandle[] targets = select.getTargets();
+                    for (int k = 0; k < targets.length; k++) {
+                        final InstructionHandle t = finalTarget(targets[k], limit);
+                        if (t != targets[k]) {
+                            select.setTarget(k, t);
+                            changed = true;
+                        }
+                    }
+                }
+            }
+        }
+        return changed;
+    }
+
+    private final List<OptimizationPass> passes;
+
+    /**
+     * Constructs an optimizer running all built-in passes.
+     */
+    public PeepholeOptimizer() {
+        this(CONSTANT_FOLDING, REDUNDANT_LOAD_STORE, JUMP_THREADING, BRANCH_TO_NEXT, DEAD_CODE);
+    }
+
+    /**
+     * Constructs an optimizer running the given passes in order.
+     *
+     * @param passes the passes to run.
+     */
+    public PeepholeOptimizer(final OptimizationPass... passes) {
+        this.passes = new ArrayList<>(Arrays.asList(passes));
+    }
+
+    /**
+     * Adds a pass run after the current ones.
+     *
+     * @param pass the pass to add.
+     */
+    public void addPass(final OptimizationPass pass) {
+        passes.add(pass);
+    }
+
+    /**
+     * Gets the passes run by this optimizer.
+     *
+     * @return the passes, in order.
+     */
+    public OptimizationPass[] getPasses() {
+        return passes.toArray(new OptimizationPass[0]);
+    }
+
+    /**
+     * Runs all passes over the given method, again and again until none of them changes anything.
+     *
+     * @param mg the method to optimize.
+     * @return whether the method was changed.
+     */
+    public boolean optimize(final MethodGen mg) {
+        if (mg.getInstructionList() == null || mg.getInstructionList().isEmpty()) {
+            return false;
+        }
+        boolean changed = false;
+        boolean again = true;
+        while (again) {
+            again = false;
+            for (final OptimizationPass pass : passes) {
+                again |= pass.apply(mg);
+            }
+            changed |= again;
+        }
+        if (changed) {
+            // Instructions were changed in place, see MethodGen.getMethod()
+            mg.update();
+        }
+        return changed;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reaching definitions: the stores and {@code IINC}s of local variables whose value may still be held by their slot, a
+ * forward problem.
+ * <p>
+ * The definitions of a method are numbered in instruction list order, the values are {@link BitSet}s of those
+ * numbers. The parameters have no definition, a slot without a reaching definition still holds the value it had on
+ * entry.
+ * </p>
+ *
+ * @see DataflowAnalysis
+ * @since 6.13.0
+ */
+public class ReachingDefinitions implements DataflowProblem<BitSet> {
+
+    private static final BitSet EMPTY = new BitSet();
+
+    private final InstructionHandle[] definitions;
+    private final Map<InstructionHandle, Integer> numbers = new HashMap<>();
+    private final Map<Integer, BitSet> definitionsOfSlot = new HashMap<>();
+
+    /**
+     * Numbers the definitions of the given method.
+     *
+     * @param mg the method, its instruction list is not null.
+     */
+    public ReachingDefinitions(final MethodGen mg) {
+        final List<InstructionHandle> list = new ArrayList<>();
+        for (final InstructionHandle ih : mg.getInstructionList()) {
+            final Instruction i = ih.getInstruction();
+            if (i instanceof StoreInstruction || i instanceof IINC) {
+                final int slot = ((LocalVariableInstruction) i).getIndex();
+                numbers.put(ih, list.size());
+                definitionsOfSlot.computeIfAbsent(slot, k -> new BitSet()).set(list.size());
+                list.add(ih);
+            }
+        }
+        definitions = list.toArray(InstructionHandle.EMPTY_ARRAY);
+    }
+
+    /**
+     * @return the empty set.
+     */
+    @Override
+    public BitSet boundary() {
+        return EMPTY;
+    }
+
+    /**
+     * @return the empty set.
+     */
+    @Override
+    public BitSet bottom() {
+        return EMPTY;
+    }
+
+    /**
+     * Gets a definition by its number.
+     *
+     * @param number the number of a definition, a bit of the values.
+     * @return the store or {@code IINC}.
+     */
+    public InstructionHandle getDefinition(final int number) {
+        return definitions[number];
+    }
+
+    /**
+     * Gets the definitions of a slot among a set of reaching definitions, for example the stores that may have produced
+     * the value read by a load.
+     *
+     * @param value a value of this problem.
+     * @param slot the local variable slot.
+     * @return the definitions of the slot in instruction list order.
+     */
+    public InstructionHandle[] getDefinitions(final BitSet value, final int slot) {
+        final BitSet ofSlot = definitionsOfSlot.get(slot);
+        if (ofSlot == null) {
+            return InstructionHandle.EMPTY_ARRAY;
+        }
+        final BitSet reaching = (BitSet) ofSlot.clone();
+        reaching.and(value);
+        return reaching.stream().mapToObj(n -> definitions[n]).toArray(InstructionHandle[]::new);
+    }
+
+    /**
+     * @return true.
+     */
+    @Override
+    public boolean isForward() {
+        return true;
+    }
+
+    /**
+     * @return the union of the sets.
+     */
+    @Override
+    public BitSet merge(final BitSet a, final BitSet b) {
+        if (a.isEmpty() || a.equals(b)) {
+            return b;
+        }
+        if (b.isEmpty()) {
+            return a;
+        }
+        final BitSet union = (BitSet) a.clone();
+        union.or(b);
+        return union;
+    }
+
+    /**
+     * Replaces the definitions of the slot written by a store or {@code IINC} with the instruction itself.
+     */
+    @Override
+    public BitSet transfer(final InstructionHandle ih, final BitSet value) {
+        final Integer number = numbers.get(ih);
+        if (number == null) {
+            return value;
+        }
+        final BitSet result = (BitSet) value.clone();
+        result.andNot(definitionsOfSlot.get(((LocalVariableInstruction) ih.getInstruction()).getIndex()));
+        result.set(number);
+        return result;
+    }
+}
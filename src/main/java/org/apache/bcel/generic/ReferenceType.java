@@ -20,7 +20,7 @@ package org.apache.bcel.generic;
 
 import org.apache.bcel.Const;
 import org.apache.bcel.Repository;
-import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.util.ClassHierarchy;
 
 /**
  * Super class for object and array types.
@@ -109,7 +109,7 @@ public abstract class ReferenceType extends Type {
             final ArrayType arrType2 = (ArrayType) t;
             if (arrType1.getDimensions() == arrType2.getDimensions() && arrType1.getBasicType() instanceof ObjectType
                 && arrType2.getBasicType() instanceof ObjectType) {
-                return new ArrayType(((ObjectType) arrType1.getBasicType()).getFirstCommonSuperclass((ObjectType) arrType2.getBasicType()),
+                return ArrayType.getInstance(((ObjectType) arrType1.getBasicType()).getFirstCommonSuperclass((ObjectType) arrType2.getBasicType()),
                     arrType1.getDimensions());
             }
         }
@@ -121,37 +121,19 @@ public abstract class ReferenceType extends Type {
     }
 
     private ReferenceType getFirstCommonSuperclassInternal(final ReferenceType t) throws ClassNotFoundException {
-        if (this instanceof ObjectType && ((ObjectType) this).referencesInterfaceExact()
-            || t instanceof ObjectType && ((ObjectType) t).referencesInterfaceExact()) {
+        // this and t are ObjectTypes, see above.
+        final ClassHierarchy hierarchy = Repository.getClassHierarchy();
+        final String thiz = ((ObjectType) this).getClassName();
+        final String other = ((ObjectType) t).getClassName();
+        if (hierarchy.isInterface(thiz) || hierarchy.isInterface(other)) {
             return OBJECT;
             // TODO: The above line is correct comparing to the vmspec2. But one could
             // make class file verification a bit stronger here by using the notion of
             // superinterfaces or even castability or assignment compatibility.
         }
-        // this and t are ObjectTypes, see above.
-        final ObjectType thiz = (ObjectType) this;
-        final ObjectType other = (ObjectType) t;
-        final JavaClass[] thizSups = Repository.getSuperClasses(thiz.getClassName());
-        final JavaClass[] otherSups = Repository.getSuperClasses(other.getClassName());
-        if (thizSups == null || otherSups == null) {
-            return null;
-        }
-        // Waaahh...
-        final JavaClass[] thisSups = new JavaClass[thizSups.length + 1];
-        final JavaClass[] tSups = new JavaClass[otherSups.length + 1];
-        System.arraycopy(thizSups, 0, thisSups, 1, thizSups.length);
-        System.arraycopy(otherSups, 0, tSups, 1, otherSups.length);
-        thisSups[0] = Repository.lookupClass(thiz.getClassName());
-        tSups[0] = Repository.lookupClass(other.getClassName());
-        for (final JavaClass tSup : tSups) {
-            for (final JavaClass thisSup : thisSups) {
-                if (thisSup.equals(tSup)) {
-                    return ObjectType.getInstance(thisSup.getClassName());
-                }
-            }
-        }
+        final String common = hierarchy.getFirstCommonSuperclass(thiz, other);
         // Huh? Did you ask for OBJECT's superclass??
-        return null;
+        return common == null ? null : ObjectType.getInstance(common);
     }
 
     /**
@@ -171,41 +153,24 @@ public abstract class ReferenceType extends Type {
         if (equals(NULL)) {
             return true; // This is not explicitly stated, but clear. Isn't it?
         }
-        /*
-         * If this is a class type then
-         */
-        if (this instanceof ObjectType && ((ObjectType) this).referencesClassExact()) {
-            /*
-             * If T is a class type, then this must be the same class as T, or this must be a subclass of T;
-             */
-            if (T instanceof ObjectType && ((ObjectType) T).referencesClassExact()
-                && (equals(T) || Repository.instanceOf(((ObjectType) this).getClassName(), ((ObjectType) T).getClassName()))) {
-                return true;
-            }
-            /*
-             * If T is an interface type, this must implement interface T.
-             */
-            if (T instanceof ObjectType && ((ObjectType) T).referencesInterfaceExact()
-                && Repository.implementationOf(((ObjectType) this).getClassName(), ((ObjectType) T).getClassName())) {
-                return true;
-            }
-        }
-        /*
-         * If this is an interface type, then:
-         */
-        if (this instanceof ObjectType && ((ObjectType) this).referencesInterfaceExact()) {
-            /*
-             * If T is a class type, then T must be Object (�2.4.7).
-             */
-            if (T instanceof ObjectType && ((ObjectType) T).referencesClassExact() && T.equals(OBJECT)) {
-                return true;
-            }
-            /*
-             * If T is an interface type, then T must be the same interface as this or a superinterface of this (�2.13.2).
-             */
-            if (T instanceof ObjectType && ((ObjectType) T).referencesInterfaceExact()
-                && (equals(T) || Repository.implementationOf(((ObjectType) this).getClassName(), ((ObjectType) T).getClassName()))) {
-                return true;
+        final ClassHierarchy hierarchy = Repository.getClassHierarchy();
+        if (this instanceof ObjectType) {
+            final String name = ((ObjectType) this).getClassName();
+            final boolean isInterface = hierarchy.isInterface(name);
+            if (T instanceof ObjectType) {
+                final String target = ((ObjectType) T).getClassName();
+                if (hierarchy.isInterface(target)) {
+                    /*
+                     * If T is an interface type, a class must implement interface T, an interface must be the same interface as T or
+                     * a subinterface of T (�2.13.2).
+                     */
+                    return hierarchy.implementationOf(name, target);
+                }
+                /*
+                 * If T is a class type, a class must be the same class as T or a subclass of T, for an interface T must be Object
+                 * (�2.4.7).
+                 */
+                return isInterface ? T.equals(OBJECT) : hierarchy.instanceOf(name, target);
             }
         }
         /*
@@ -215,7 +180,7 @@ public abstract class ReferenceType extends Type {
             /*
              * If T is a class type, then T must be Object (�2.4.7).
              */
-            if (T instanceof ObjectType && ((ObjectType) T).referencesClassExact() && T.equals(OBJECT)) {
+            if (T.equals(OBJECT)) {
                 return true;
             }
             /*
@@ -243,7 +208,7 @@ public abstract class ReferenceType extends Type {
             // are at least two different pages where assignment compatibility is defined and
             // on one of them "interfaces implemented by arrays" is exchanged with "'Cloneable' or
             // 'java.io.Serializable'"
-            if (T instanceof ObjectType && ((ObjectType) T).referencesInterfaceExact()) {
+            if (T instanceof ObjectType && hierarchy.isInterface(((ObjectType) T).getClassName())) {
                 for (final String element : Const.getInterfacesImplementedByArrays()) {
                     if (T.equals(ObjectType.getInstance(element))) {
                         return true;
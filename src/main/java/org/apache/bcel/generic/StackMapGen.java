@@ -0,0 +1,1063 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Constant;
+import org.apache.bcel.classfile.ConstantDynamic;
+import org.apache.bcel.classfile.ConstantNameAndType;
+import org.apache.bcel.classfile.ConstantPool;
+import org.apache.bcel.classfile.StackMap;
+import org.apache.bcel.classfile.StackMapEntry;
+import org.apache.bcel.classfile.StackMapType;
+
+/**
+ * Computes the StackMapTable attribute of a method by data flow analysis over its instruction list, as required by the
+ * type checking verifier for class files of version 50 and above.
+ * <p>
+ * The types of merged references are resolved through their first common superclass, looked up in the
+ * {@link org.apache.bcel.Repository}. Unreachable code cannot be described by stack map frames; like other bytecode
+ * generators, it is replaced by {@code NOP}s (or {@code GOTO}s for branch handles) ending in {@code ATHROW}, and
+ * exception handler ranges are trimmed to the reachable instructions.
+ * </p>
+ *
+ * @see MethodGen#setStackMap()
+ */
+final class StackMapGen {
+
+    /**
+     * Types of locals and stack items at one instruction.
+     */
+    private static final class TypeState {
+
+        final Type[] locals;
+        final Type[] stack;
+        int stackSize;
+
+        TypeState(final int maxLocals, final int maxStack) {
+            locals = new Type[maxLocals];
+            Arrays.fill(locals, TOP);
+            stack = new Type[maxStack];
+        }
+
+        TypeState(final TypeState state) {
+            locals = state.locals.clone();
+            stack = state.stack.clone();
+            stackSize = state.stackSize;
+        }
+
+        Type pop() {
+            if (stackSize == 0) {
+                throw new ClassGenException("Operand stack underflow");
+            }
+            return stack[--stackSize];
+        }
+
+        void pop(final int n) {
+            for (int i = 0; i < n; i++) {
+                pop();
+            }
+        }
+
+        void push(final Type type) {
+            if (stackSize == stack.length) {
+                throw new ClassGenException("Operand stack overflow, max stack is " + stack.length);
+            }
+            stack[stackSize++] = type;
+        }
+
+        /**
+         * Replaces all occurrences of an uninitialized object once its constructor has been called.
+         */
+        void replace(final Type from, final Type to) {
+            for (int i = 0; i < locals.length; i++) {
+                if (locals[i] == from) {
+                    locals[i] = to;
+                }
+            }
+            for (int i = 0; i < stackSize; i++) {
+                if (stack[i] == from) {
+                    stack[i] = to;
+                }
+            }
+        }
+
+        void store(final int index, final Type type) {
+            if (index > 0 && isCategory2(locals[index - 1])) {
+                locals[index - 1] = TOP; // Overwrites the second half of a long or double
+            }
+            locals[index] = type;
+            if (isCategory2(type)) {
+                locals[index + 1] = TOP;
+            }
+        }
+    }
+
+    /**
+     * An object created by NEW (or the {@code this} of a constructor) whose constructor has not been called yet.
+     */
+    private static final class UninitializedType extends Type {
+
+        final InstructionHandle newHandle; // null for uninitializedThis
+        final ObjectType initializedType;
+
+        UninitializedType(final InstructionHandle newHandle, final ObjectType initializedType) {
+            super(Const.T_UNKNOWN, "<uninitialized " + initializedType.getClassName() + ">");
+            this.newHandle = newHandle;
+            this.initializedType = initializedType;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            return this == o;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(this);
+        }
+    }
+
+    /** Unusable local variable, also the second half of a long or double. */
+    private static final Type TOP = Type.UNKNOWN;
+
+    private static boolean isCategory2(final Type type) {
+        return type == Type.LONG || type == Type.DOUBLE;
+    }
+
+    /**
+     * Maps a declared type to its verification type.
+     */
+    private static Type toVerificationType(final Type type) {
+        switch (type.getType()) {
+        case Const.T_BOOLEAN:
+        case Const.T_BYTE:
+        case Const.T_CHAR:
+        case Const.T_SHORT:
+        case Const.T_INT:
+            return Type.INT;
+        default:
+            return type;
+        }
+    }
+
+    private final MethodGen mg;
+    private final ConstantPoolGen cpg;
+    private final InstructionList il;
+    private final String superclassName;
+    private final Map<InstructionHandle, UninitializedType> uninitialized = new HashMap<>();
+    private InstructionHandle[] handles;
+    private int[] indexOfPosition;
+    private TypeState[] states;
+    private TypeState initial; // The implicit frame at offset 0, which merges may widen in states[0]
+    private boolean[] needsFrame;
+    private int[] worklist;
+    private int worklistSize;
+    private boolean[] queued;
+
+    /**
+     * Constructs a StackMapGen.
+     *
+     * @param mg the method, its instruction list should be complete.
+     * @param superclassName superclass of the method's class, used when the class itself cannot be found in the repository
+     *        while merging types, may be null.
+     */
+    StackMapGen(final MethodGen mg, final String superclassName) {
+        this.mg = mg;
+        this.cpg = mg.getConstantPool();
+        this.il = mg.getInstructionList();
+        this.superclassName = superclassName;
+    }
+
+    private void addSuccessor(final InstructionHandle target, final TypeState state) {
+        final int index = indexOf(target);
+        needsFrame[index] = true;
+        merge(index, state);
+    }
+
+    /**
+     * Computes the frames and rewrites unreachable code.
+     *
+     * @param exceptionHandlers the method's exception handlers, replaced by the handlers to keep.
+     * @return the StackMapTable attribute, null if the method does not need one.
+     */
+    StackMap compute(final List<CodeExceptionGen> exceptionHandlers) {
+        final CodeExceptionGen[] handlers = exceptionHandlers.toArray(CodeExceptionGen.EMPTY_ARRAY);
+        final int maxStack = Math.max(mg.getMaxStack(), MethodGen.getMaxStack(cpg, il, handlers));
+        final int maxLocals = Math.max(mg.getMaxLocals(), computeMaxLocals());
+        flow(handlers, maxLocals, maxStack);
+        final boolean rewritten = replaceUnreachableCode(maxLocals, maxStack, exceptionHandlers);
+        if (rewritten) {
+            il.setPositions();
+        }
+        return createStackMap();
+    }
+
+    /**
+     * Computes the types before every reachable instruction without changing the method, for {@link #getLocals} and
+     * {@link #getStackSize}.
+     *
+     * @param handlers the method's exception handlers.
+     */
+    void analyze(final CodeExceptionGen[] handlers) {
+        flow(handlers, Math.max(mg.getMaxLocals(), computeMaxLocals()), Math.max(mg.getMaxStack(), MethodGen.getMaxStack(cpg, il, handlers)));
+    }
+
+    private void flow(final CodeExceptionGen[] handlers, final int maxLocals, final int maxStack) {
+        index();
+        states = new TypeState[handles.length];
+        needsFrame = new boolean[handles.length];
+        initial = initialState(maxLocals, maxStack);
+        states[0] = new TypeState(initial);
+        final int[] handlerStart = new int[handlers.length];
+        final int[] handlerEnd = new int[handlers.length];
+        for (int h = 0; h < handlers.length; h++) {
+            handlerStart[h] = indexOf(handlers[h].getStartPC());
+            handlerEnd[h] = indexOf(handlers[h].getEndPC());
+            needsFrame[indexOf(handlers[h].getHandlerPC())] = true;
+        }
+        worklist = new int[handles.length];
+        queued = new boolean[handles.length];
+        worklistSize = 1;
+        queued[0] = true;
+        while (worklistSize > 0) {
+            final int index = worklist[--worklistSize];
+            queued[index] = false;
+            final TypeState in = states[index];
+            for (int h = 0; h < handlers.length; h++) {
+                if (index >= handlerStart[h] && index <= handlerEnd[h]) {
+                    final TypeState handlerState = new TypeState(in);
+                    handlerState.stackSize = 0;
+                    final ObjectType catchType = handlers[h].getCatchType();
+                    handlerState.push(catchType != null ? catchType : Type.THROWABLE);
+                    merge(indexOf(handlers[h].getHandlerPC()), handlerState);
+                }
+            }
+            final InstructionHandle ih = handles[index];
+            final TypeState out = new TypeState(in);
+            execute(ih, out);
+            final Instruction instruction = ih.getInstruction();
+            if (instruction instanceof BranchInstruction) {
+                addSuccessor(((BranchInstruction) instruction).getTarget(), out);
+                if (instruction instanceof Select) {
+                    for (final InstructionHandle target : ((Select) instruction).getTargets()) {
+                        addSuccessor(target, out);
+                    }
+                }
+            }
+            if (instruction instanceof UnconditionalBranch || instruction instanceof Select) {
+                if (index + 1 < handles.length) {
+                    needsFrame[index + 1] = true;
+                }
+            } else if (!(instruction instanceof ReturnInstruction || instruction instanceof ATHROW)) {
+                if (index + 1 == handles.length) {
+                    throw new ClassGenException("Execution falls off the end of the code");
+                }
+                merge(index + 1, out);
+            }
+        }
+    }
+
+    private int computeMaxLocals() {
+        int max = mg.isStatic() ? 0 : 1;
+        for (final Type argType : mg.getArgumentTypes()) {
+            max += argType.getSize();
+        }
+        for (InstructionHandle ih = il.getStart(); ih != null; ih = ih.getNext()) {
+            final Instruction ins = ih.getInstruction();
+            if (ins instanceof LocalVariableInstruction || ins instanceof RET) {
+                max = Math.max(max, ((IndexedInstruction) ins).getIndex() + ((TypedInstruction) ins).getType(cpg).getSize());
+            }
+        }
+        return max;
+    }
+
+    private StackMap createStackMap() {
+        final ConstantPool cp = cpg.getConstantPool();
+        final List<StackMapEntry> entries = new ArrayList<>();
+        StackMapType[] previousLocals = toLocalTypes(initial.locals);
+        int previousPosition = -1;
+        for (int i = 0; i < handles.length; i++) {
+            if (!needsFrame[i]) {
+                continue;
+            }
+            final TypeState state = states[i];
+            final int position = handles[i].getPosition();
+            final int delta = position - previousPosition - 1;
+            final StackMapType[] locals = toLocalTypes(state.locals);
+            final StackMapType[] stack = toStackTypes(state);
+            final int diff = locals.length - previousLocals.length;
+            final boolean sameLocals = diff == 0 && isPrefix(locals, previousLocals);
+            if (i == 0) {
+                // A branch back to the start, where merges may have widened the initial frame
+                entries.add(new StackMapEntry(Const.FULL_FRAME, delta, locals, stack, cp));
+            } else if (sameLocals && stack.length == 0) {
+                entries.add(delta <= Const.SAME_FRAME_MAX ? new StackMapEntry(Const.SAME_FRAME + delta, delta, null, null, cp)
+                    : new StackMapEntry(Const.SAME_FRAME_EXTENDED, delta, null, null, cp));
+            } else if (sameLocals && stack.length == 1) {
+                entries.add(delta <= Const.SAME_LOCALS_1_STACK_ITEM_FRAME_MAX - Const.SAME_LOCALS_1_STACK_ITEM_FRAME
+                    ? new StackMapEntry(Const.SAME_LOCALS_1_STACK_ITEM_FRAME + delta, delta, null, stack, cp)
+                    : new StackMapEntry(Const.SAME_LOCALS_1_STACK_ITEM_FRAME_EXTENDED, delta, null, stack, cp));
+            } else if (stack.length == 0 && diff < 0 && diff >= -3 && isPrefix(locals, previousLocals)) {
+                entries.add(new StackMapEntry(Const.SAME_FRAME_EXTENDED + diff, delta, null, null, cp));
+            } else if (stack.length == 0 && diff > 0 && diff <= 3 && isPrefix(previousLocals, locals)) {
+                entries.add(new StackMapEntry(Const.SAME_FRAME_EXTENDED + diff, delta, Arrays.copyOfRange(locals, previousLocals.length, locals.length), null,
+                    cp));
+            } else {
+                entries.add(new StackMapEntry(Const.FULL_FRAME, delta, locals, stack, cp));
+            }
+            previousLocals = locals;
+            previousPosition = position;
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+        final StackMap stackMap = new StackMap(cpg.addUtf8("StackMapTable"), 0, null, cp);
+        stackMap.setStackMap(entries.toArray(new StackMapEntry[0]));
+        return stackMap;
+    }
+
+    private void execute(final InstructionHandle ih, final TypeState state) {
+        final Instruction instruction = ih.getInstruction();
+        final short opcode = instruction.getOpcode();
+        switch (opcode) {
+        case Const.NOP:
+        case Const.IINC:
+        case Const.GOTO:
+        case Const.GOTO_W:
+        case Const.RETURN:
+            break;
+        case Const.ACONST_NULL:
+            state.push(Type.NULL);
+            break;
+        case Const.ICONST_M1:
+        case Const.ICONST_0:
+        case Const.ICONST_1:
+        case Const.ICONST_2:
+        case Const.ICONST_3:
+        case Const.ICONST_4:
+        case Const.ICONST_5:
+        case Const.BIPUSH:
+        case Const.SIPUSH:
+            state.push(Type.INT);
+            break;
+        case Const.LCONST_0:
+        case Const.LCONST_1:
+            state.push(Type.LONG);
+            break;
+        case Const.FCONST_0:
+        case Const.FCONST_1:
+        case Const.FCONST_2:
+            state.push(Type.FLOAT);
+            break;
+        case Const.DCONST_0:
+        case Const.DCONST_1:
+            state.push(Type.DOUBLE);
+            break;
+        case Const.LDC:
+        case Const.LDC_W:
+        case Const.LDC2_W:
+            state.push(getConstantType(((CPInstruction) instruction).getIndex()));
+            break;
+        case Const.ILOAD:
+        case Const.ILOAD_0:
+        case Const.ILOAD_1:
+        case Const.ILOAD_2:
+        case Const.ILOAD_3:
+        case Const.LLOAD:
+        case Const.LLOAD_0:
+        case Const.LLOAD_1:
+        case Const.LLOAD_2:
+        case Const.LLOAD_3:
+        case Const.FLOAD:
+        case Const.FLOAD_0:
+        case Const.FLOAD_1:
+        case Const.FLOAD_2:
+        case Const.FLOAD_3:
+        case Const.DLOAD:
+        case Const.DLOAD_0:
+        case Const.DLOAD_1:
+        case Const.DLOAD_2:
+        case Const.DLOAD_3:
+        case Const.ALOAD:
+        case Const.ALOAD_0:
+        case Const.ALOAD_1:
+        case Const.ALOAD_2:
+        case Const.ALOAD_3:
+            state.push(state.locals[((LocalVariableInstruction) instruction).getIndex()]);
+            break;
+        case Const.ISTORE:
+        case Const.ISTORE_0:
+        case Const.ISTORE_1:
+        case Const.ISTORE_2:
+        case Const.ISTORE_3:
+        case Const.LSTORE:
+        case Const.LSTORE_0:
+        case Const.LSTORE_1:
+        case Const.LSTORE_2:
+        case Const.LSTORE_3:
+        case Const.FSTORE:
+        case Const.FSTORE_0:
+        case Const.FSTORE_1:
+        case Const.FSTORE_2:
+        case Const.FSTORE_3:
+        case Const.DSTORE:
+        case Const.DSTORE_0:
+        case Const.DSTORE_1:
+        case Const.DSTORE_2:
+        case Const.DSTORE_3:
+        case Const.ASTORE:
+        case Const.ASTORE_0:
+        case Const.ASTORE_1:
+        case Const.ASTORE_2:
+        case Const.ASTORE_3:
+            state.store(((LocalVariableInstruction) instruction).getIndex(), state.pop());
+            break;
+        case Const.IALOAD:
+        case Const.BALOAD:
+        case Const.CALOAD:
+        case Const.SALOAD:
+            state.pop(2);
+            state.push(Type.INT);
+            break;
+        case Const.LALOAD:
+            state.pop(2);
+            state.push(Type.LONG);
+            break;
+        case Const.FALOAD:
+            state.pop(2);
+            state.push(Type.FLOAT);
+            break;
+        case Const.DALOAD:
+            state.pop(2);
+            state.push(Type.DOUBLE);
+            break;
+        case Const.AALOAD: {
+            state.pop();
+            final Type array = state.pop();
+            state.push(array instanceof ArrayType ? toVerificationType(((ArrayType) array).getElementType()) : Type.NULL);
+            break;
+        }
+        case Const.IASTORE:
+        case Const.LASTORE:
+        case Const.FASTORE:
+        case Const.DASTORE:
+        case Const.AASTORE:
+        case Const.BASTORE:
+        case Const.CASTORE:
+        case Const.SASTORE:
+            state.pop(3);
+            break;
+        case Const.POP:
+            state.pop();
+            break;
+        case Const.POP2:
+            if (!isCategory2(state.pop())) {
+                state.pop();
+            }
+            break;
+        case Const.DUP: {
+            final Type value = state.pop();
+            state.push(value);
+            state.push(value);
+            break;
+        }
+        case Const.DUP_X1: {
+            final Type value1 = state.pop();
+            final Type value2 = state.pop();
+            state.push(value1);
+            state.push(value2);
+            state.push(value1);
+            break;
+        }
+        case Const.DUP_X2: {
+            final Type value1 = state.pop();
+            final Type value2 = state.pop();
+            if (isCategory2(value2)) {
+                state.push(value1);
+                state.push(value2);
+            } else {
+                final Type value3 = state.pop();
+                state.push(value1);
+                state.push(value3);
+                state.push(value2);
+            }
+            state.push(value1);
+            break;
+        }
+        case Const.DUP2: {
+            final Type value1 = state.pop();
+            if (isCategory2(value1)) {
+                state.push(value1);
+            } else {
+                final Type value2 = state.pop();
+                state.push(value2);
+                state.push(value1);
+                state.push(value2);
+            }
+            state.push(value1);
+            break;
+        }
+        case Const.DUP2_X1: {
+            final Type value1 = state.pop();
+            if (isCategory2(value1)) {
+                final Type value2 = state.pop();
+                state.push(value1);
+                state.push(value2);
+                state.push(value1);
+            } else {
+                final Type value2 = state.pop();
+                final Type value3 = state.pop();
+                state.push(value2);
+                state.push(value1);
+                state.push(value3);
+                state.push(value2);
+                state.push(value1);
+            }
+            break;
+        }
+        case Const.DUP2_X2: {
+            final Type value1 = state.pop();
+            if (isCategory2(value1)) {
+                final Type value2 = state.pop();
+                if (isCategory2(value2)) {
+                    state.push(value1);
+                    state.push(value2);
+                } else {
+                    final Type value3 = state.pop();
+                    state.push(value1);
+                    state.push(value3);
+                    state.push(value2);
+                }
+                state.push(value1);
+            } else {
+                final Type value2 = state.pop();
+                final Type value3 = state.pop();
+                if (isCategory2(value3)) {
+                    state.push(value2);
+                    state.push(value1);
+                    state.push(value3);
+                } else {
+                    final Type value4 = state.pop();
+                    state.push(value2);
+                    state.push(value1);
+                    state.push(value4);
+                    state.push(value3);
+                }
+                state.push(value2);
+                state.push(value1);
+            }
+            break;
+        }
+        case Const.SWAP: {
+            final Type value1 = state.pop();
+            final Type value2 = state.pop();
+            state.push(value1);
+            state.push(value2);
+            break;
+        }
+        case Const.IADD:
+        case Const.ISUB:
+        case Const.IMUL:
+        case Const.IDIV:
+        case Const.IREM:
+        case Const.ISHL:
+        case Const.ISHR:
+        case Const.IUSHR:
+        case Const.IAND:
+        case Const.IOR:
+        case Const.IXOR:
+        case Const.LCMP:
+        case Const.FCMPL:
+        case Const.FCMPG:
+        case Const.DCMPL:
+        case Const.DCMPG:
+            state.pop(2);
+            state.push(Type.INT);
+            break;
+        case Const.LADD:
+        case Const.LSUB:
+        case Const.LMUL:
+        case Const.LDIV:
+        case Const.LREM:
+        case Const.LSHL:
+        case Const.LSHR:
+        case Const.LUSHR:
+        case Const.LAND:
+        case Const.LOR:
+        case Const.LXOR:
+            state.pop(2);
+            state.push(Type.LONG);
+            break;
+        case Const.FADD:
+        case Const.FSUB:
+        case Const.FMUL:
+        case Const.FDIV:
+        case Const.FREM:
+            state.pop(2);
+            state.push(Type.FLOAT);
+            break;
+        case Const.DADD:
+        case Const.DSUB:
+        case Const.DMUL:
+        case Const.DDIV:
+        case Const.DREM:
+            state.pop(2);
+            state.push(Type.DOUBLE);
+            break;
+        case Const.INEG:
+        case Const.L2I:
+        case Const.F2I:
+        case Const.D2I:
+        case Const.I2B:
+        case Const.I2C:
+        case Const.I2S:
+        case Const.ARRAYLENGTH:
+        case Const.INSTANCEOF:
+            state.pop();
+            state.push(Type.INT);
+            break;
+        case Const.LNEG:
+        case Const.I2L:
+        case Const.F2L:
+        case Const.D2L:
+            state.pop();
+            state.push(Type.LONG);
+            break;
+        case Const.FNEG:
+        case Const.I2F:
+        case Const.L2F:
+        case Const.D2F:
+            state.pop();
+            state.push(Type.FLOAT);
+            break;
+        case Const.DNEG:
+        case Const.I2D:
+        case Const.L2D:
+        case Const.F2D:
+            state.pop();
+            state.push(Type.DOUBLE);
+            break;
+        case Const.IFEQ:
+        case Const.IFNE:
+        case Const.IFLT:
+        case Const.IFGE:
+        case Const.IFGT:
+        case Const.IFLE:
+        case Const.IFNULL:
+        case Const.IFNONNULL:
+        case Const.TABLESWITCH:
+        case Const.LOOKUPSWITCH:
+        case Const.IRETURN:
+        case Const.LRETURN:
+        case Const.FRETURN:
+        case Const.DRETURN:
+        case Const.ARETURN:
+        case Const.ATHROW:
+        case Const.MONITORENTER:
+        case Const.MONITOREXIT:
+        case Const.PUTSTATIC:
+            state.pop();
+            break;
+        case Const.IF_ICMPEQ:
+        case Const.IF_ICMPNE:
+        case Const.IF_ICMPLT:
+        case Const.IF_ICMPGE:
+        case Const.IF_ICMPGT:
+        case Const.IF_ICMPLE:
+        case Const.IF_ACMPEQ:
+        case Const.IF_ACMPNE:
+        case Const.PUTFIELD:
+            state.pop(2);
+            break;
+        case Const.GETSTATIC:
+            state.push(toVerificationType(((FieldInstruction) instruction).getFieldType(cpg)));
+            break;
+        case Const.GETFIELD:
+            state.pop();
+            state.push(toVerificationType(((FieldInstruction) instruction).getFieldType(cpg)));
+            break;
+        case Const.INVOKEVIRTUAL:
+        case Const.INVOKESPECIAL:
+        case Const.INVOKESTATIC:
+        case Const.INVOKEINTERFACE:
+        case Const.INVOKEDYNAMIC: {
+            final InvokeInstruction invoke = (InvokeInstruction) instruction;
+            state.pop(invoke.getArgumentTypes(cpg).length);
+            if (opcode == Const.INVOKESPECIAL && Const.CONSTRUCTOR_NAME.equals(invoke.getMethodName(cpg))) {
+                final Type receiver = state.pop();
+                if (!(receiver instanceof UninitializedType)) {
+                    throw new ClassGenException("Constructor called on initialized object at " + ih);
+                }
+                state.replace(receiver, ((UninitializedType) receiver).initializedType);
+            } else if (opcode != Const.INVOKESTATIC && opcode != Const.INVOKEDYNAMIC) {
+                state.pop();
+            }
+            final Type returnType = invoke.getReturnType(cpg);
+            if (returnType != Type.VOID) {
+                state.push(toVerificationType(returnType));
+            }
+            break;
+        }
+        case Const.NEW: {
+            final ObjectType type = ((NEW) instruction).getLoadClassType(cpg);
+            state.push(uninitialized.computeIfAbsent(ih, k -> new UninitializedType(k, type)));
+            break;
+        }
+        case Const.NEWARRAY:
+            state.pop();
+            state.push(((NEWARRAY) instruction).getType());
+            break;
+        case Const.ANEWARRAY:
+            state.pop();
+            state.push(ArrayType.getInstance(((CPInstruction) instruction).getType(cpg), 1));
+            break;
+        case Const.CHECKCAST:
+            state.pop();
+            state.push(((CPInstruction) instruction).getType(cpg));
+            break;
+        case Const.MULTIANEWARRAY:
+            state.pop(((MULTIANEWARRAY) instruction).getDimensions());
+            state.push(((CPInstruction) instruction).getType(cpg));
+            break;
+        default:
+            // JSR, JSR_W and RET are not allowed in class files that require stack map frames
+            throw new ClassGenException("Cannot compute stack map frames for " + instruction + " at " + ih);
+        }
+    }
+
+    private Type getConstantType(final int index) {
+        final ConstantPool cp = cpg.getConstantPool();
+        final Constant c = cp.getConstant(index);
+        switch (c.getTag()) {
+        case Const.CONSTANT_Integer:
+            return Type.INT;
+        case Const.CONSTANT_Float:
+            return Type.FLOAT;
+        case Const.CONSTANT_Long:
+            return Type.LONG;
+        case Const.CONSTANT_Double:
+            return Type.DOUBLE;
+        case Const.CONSTANT_String:
+            return Type.STRING;
+        case Const.CONSTANT_Class:
+            return Type.CLASS;
+        case Const.CONSTANT_MethodType:
+            return ObjectType.getInstance("java.lang.invoke.MethodType");
+        case Const.CONSTANT_MethodHandle:
+            return ObjectType.getInstance("java.lang.invoke.MethodHandle");
+        case Const.CONSTANT_Dynamic:
+            final ConstantNameAndType nat = cp.getConstant(((ConstantDynamic) c).getNameAndTypeIndex(), Const.CONSTANT_NameAndType);
+            return toVerificationType(Type.getType(nat.getSignature(cp)));
+        default:
+            throw new ClassGenException("Unexpected constant " + c + " at index " + index);
+        }
+    }
+
+    /**
+     * Gets the verification types of the locals before an instruction, after {@link #analyze}. {@link Type#UNKNOWN}
+     * stands for unusable locals and uninitialized objects, {@link Type#NULL} for locals only known to be null.
+     *
+     * @param ih the instruction.
+     * @return the types indexed by slot, null if the instruction is unreachable.
+     */
+    Type[] getLocals(final InstructionHandle ih) {
+        final TypeState state = states[indexOf(ih)];
+        if (state == null) {
+            return null;
+        }
+        final Type[] locals = state.locals.clone();
+        for (int i = 0; i < locals.length; i++) {
+            if (locals[i] instanceof UninitializedType) {
+                locals[i] = TOP;
+            }
+        }
+        return locals;
+    }
+
+    /**
+     * Gets the number of items on the operand stack before an instruction, after {@link #analyze}.
+     *
+     * @param ih the instruction.
+     * @return the stack size, -1 if the instruction is unreachable.
+     */
+    int getStackSize(final InstructionHandle ih) {
+        final TypeState state = states[indexOf(ih)];
+        return state == null ? -1 : state.stackSize;
+    }
+
+    private void index() {
+        il.setPositions();
+        handles = il.getInstructionHandles();
+        final InstructionHandle last = handles[handles.length - 1];
+        indexOfPosition = new int[last.getPosition() + 1];
+        for (int i = 0; i < handles.length; i++) {
+            indexOfPosition[handles[i].getPosition()] = i;
+        }
+    }
+
+    private int indexOf(final InstructionHandle ih) {
+        return indexOfPosition[ih.getPosition()];
+    }
+
+    private TypeState initialState(final int maxLocals, final int maxStack) {
+        final TypeState state = new TypeState(maxLocals, maxStack);
+        int index = 0;
+        if (!mg.isStatic()) {
+            final ObjectType thisType = ObjectType.getInstance(mg.getClassName());
+            if (Const.CONSTRUCTOR_NAME.equals(mg.getName()) && !Type.OBJECT.equals(thisType)) {
+                state.locals[index++] = new UninitializedType(null, thisType);
+            } else {
+                state.locals[index++] = thisType;
+            }
+        }
+        for (final Type argType : mg.getArgumentTypes()) {
+            state.store(index, toVerificationType(argType));
+            index += argType.getSize();
+        }
+        return state;
+    }
+
+    private static boolean isPrefix(final StackMapType[] prefix, final StackMapType[] types) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (prefix[i].getType() != types[i].getType() || prefix[i].getIndex() != types[i].getIndex()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void merge(final int index, final TypeState state) {
+        final TypeState current = states[index];
+        boolean changed = false;
+        if (current == null) {
+            states[index] = new TypeState(state);
+            changed = true;
+        } else {
+            if (current.stackSize != state.stackSize) {
+                throw new ClassGenException("Inconsistent stack height " + current.stackSize + " != " + state.stackSize + " at " + handles[index]);
+            }
+            for (int i = 0; i < current.locals.length; i++) {
+                final Type merged = mergeLocal(current.locals[i], state.locals[i]);
+                if (merged != current.locals[i]) {
+                    current.locals[i] = merged;
+                    changed = true;
+                }
+            }
+            for (int i = 0; i < current.stackSize; i++) {
+                final Type merged = mergeStack(current.stack[i], state.stack[i], index);
+                if (merged != current.stack[i]) {
+                    current.stack[i] = merged;
+                    changed = true;
+                }
+            }
+        }
+        if (changed && !queued[index]) {
+            queued[index] = true;
+            worklist[worklistSize++] = index;
+        }
+    }
+
+    private Type mergeLocal(final Type current, final Type incoming) {
+        if (current == TOP || current.equals(incoming)) {
+            return current;
+        }
+        if (isMergeableReference(current) && isMergeableReference(incoming)) {
+            return mergeReferences((ReferenceType) current, (ReferenceType) incoming);
+        }
+        return TOP;
+    }
+
+    /**
+     * Gets the first common superclass of two reference types, returning the current type if it already is that.
+     */
+    private ReferenceType mergeReferences(final ReferenceType current, final ReferenceType incoming) {
+        ReferenceType a = current;
+        ReferenceType b = incoming;
+        final ObjectType thisType = ObjectType.getInstance(mg.getClassName());
+        while (true) {
+            try {
+                final ReferenceType merged = a.getFirstCommonSuperclass(b);
+                if (merged == null) {
+                    return Type.OBJECT;
+                }
+                return merged.equals(current) ? current : merged;
+            } catch (final ClassNotFoundException e) {
+                // The class being generated is usually not in the repository yet
+                if (superclassName != null && thisType.equals(a)) {
+                    a = ObjectType.getInstance(superclassName);
+                } else if (superclassName != null && thisType.equals(b)) {
+                    b = ObjectType.getInstance(superclassName);
+                } else {
+                    throw new ClassGenException("Cannot find common superclass of " + current + " and " + incoming, e);
+                }
+            }
+        }
+    }
+
+    private Type mergeStack(final Type current, final Type incoming, final int index) {
+        if (current.equals(incoming)) {
+            return current;
+        }
+        if (isMergeableReference(current) && isMergeableReference(incoming)) {
+            return mergeReferences((ReferenceType) current, (ReferenceType) incoming);
+        }
+        throw new ClassGenException("Incompatible stack types " + current + " and " + incoming + " at " + handles[index]);
+    }
+
+    private static boolean isMergeableReference(final Type type) {
+        return type instanceof ReferenceType;
+    }
+
+    /**
+     * Replaces every run of unreachable instructions with NOPs, GOTOs back to the start of the run and a final ATHROW, each
+     * run starting with a frame holding just a Throwable on the stack, and trims exception handlers to reachable code.
+     *
+     * @return whether any code was rewritten.
+     */
+    private boolean replaceUnreachableCode(final int maxLocals, final int maxStack, final List<CodeExceptionGen> exceptionHandlers) {
+        boolean rewritten = false;
+        final TypeState deadState = new TypeState(maxLocals, maxStack);
+        deadState.push(Type.THROWABLE);
+        for (int i = 0; i < handles.length; i++) {
+            if (states[i] != null) {
+                continue;
+            }
+            rewritten = true;
+            final int start = i;
+            while (i + 1 < handles.length && states[i + 1] == null) {
+                i++;
+            }
+            for (int j = start; j <= i; j++) {
+                states[j] = deadState;
+                final InstructionHandle ih = handles[j];
+                if (ih instanceof BranchHandle) {
+                    ih.setInstruction(new GOTO(handles[start]));
+                    if (j < i) {
+                        needsFrame[j + 1] = true;
+                    }
+                } else {
+                    ih.setInstruction(j == i ? InstructionConst.ATHROW : InstructionConst.NOP);
+                }
+            }
+            needsFrame[start] = true;
+        }
+        if (rewritten) {
+            trimExceptionHandlers(exceptionHandlers, deadState);
+        }
+        return rewritten;
+    }
+
+    /**
+     * Encodes locals, where a long or double takes one entry for its two slots and trailing unusable slots are omitted.
+     */
+    private StackMapType[] toLocalTypes(final Type[] locals) {
+        int length = locals.length;
+        while (length > 0 && locals[length - 1] == TOP) {
+            length--;
+        }
+        final List<StackMapType> result = new ArrayList<>(length);
+        for (int i = 0; i < length; i++) {
+            result.add(toStackMapType(locals[i]));
+            if (isCategory2(locals[i])) {
+                i++;
+            }
+        }
+        return result.toArray(StackMapType.EMPTY_ARRAY);
+    }
+
+    private StackMapType[] toStackTypes(final TypeState state) {
+        final StackMapType[] result = new StackMapType[state.stackSize];
+        Arrays.setAll(result, i -> toStackMapType(state.stack[i]));
+        return result;
+    }
+
+    private StackMapType toStackMapType(final Type type) {
+        final ConstantPool cp = cpg.getConstantPool();
+        if (type == TOP) {
+            return new StackMapType(Const.ITEM_Bogus, -1, cp);
+        }
+        if (type == Type.INT) {
+            return new StackMapType(Const.ITEM_Integer, -1, cp);
+        }
+        if (type == Type.FLOAT) {
+            return new StackMapType(Const.ITEM_Float, -1, cp);
+        }
+        if (type == Type.LONG) {
+            return new StackMapType(Const.ITEM_Long, -1, cp);
+        }
+        if (type == Type.DOUBLE) {
+            return new StackMapType(Const.ITEM_Double, -1, cp);
+        }
+        if (type == Type.NULL) {
+            return new StackMapType(Const.ITEM_Null, -1, cp);
+        }
+        if (type instanceof UninitializedType) {
+            final InstructionHandle newHandle = ((UninitializedType) type).newHandle;
+            return newHandle == null ? new StackMapType(Const.ITEM_InitObject, -1, cp)
+                : new StackMapType(Const.ITEM_NewObject, newHandle.getPosition(), cp);
+        }
+        if (type instanceof ArrayType) {
+            return new StackMapType(Const.ITEM_Object, cpg.addArrayClass((ArrayType) type), cp);
+        }
+        return new StackMapType(Const.ITEM_Object, cpg.addClass((ObjectType) type), cp);
+    }
+
+    /**
+     * Restricts exception handlers to reachable instructions, splitting a handler whose range contains unreachable code.
+     */
+    private void trimExceptionHandlers(final List<CodeExceptionGen> exceptionHandlers, final TypeState deadState) {
+        final List<CodeExceptionGen> result = new ArrayList<>();
+        for (final CodeExceptionGen handler : exceptionHandlers) {
+            final int start = indexOf(handler.getStartPC());
+            final int end = indexOf(handler.getEndPC());
+            CodeExceptionGen current = handler;
+            int liveStart = -1;
+            for (int i = start; i <= end + 1; i++) {
+                final boolean live = i <= end && states[i] != deadState;
+                if (live && liveStart < 0) {
+                    liveStart = i;
+                } else if (!live && liveStart >= 0) {
+                    if (current == null) {
+                        current = new CodeExceptionGen(handles[liveStart], handles[i - 1], handler.getHandlerPC(), handler.getCatchType());
+                    } else {
+                        current.setStartPC(handles[liveStart]);
+                        current.setEndPC(handles[i - 1]);
+                    }
+                    result.add(current);
+                    current = null;
+                    liveStart = -1;
+                }
+            }
+            if (current != null) { // No reachable instruction in range
+                current.setStartPC(null);
+                current.setEndPC(null);
+                current.setHandlerPC(null);
+            }
+        }
+        exceptionHandlers.clear();
+        exceptionHandlers.addAll(result);
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.bcel.Const;
+
+/**
+ * Replaces {@code java.lang.StringBuffer} objects that never leave the method by {@code java.lang.StringBuilder}
+ * objects, which do not lock on every call, such as the buffers older compilers created for string concatenation.
+ * <p>
+ * An intraprocedural dataflow analysis tracks which {@code NEW StringBuffer} instructions each local variable and stack
+ * word may come from. A buffer stays local if it is only constructed, used as the receiver of its methods other than
+ * {@code getClass()}, the monitor methods and those taking a {@code StringBuffer}, compared, cast to one of its
+ * supertypes shared with {@code StringBuilder}, and moved between local variables and the stack. Passing it to another
+ * method, returning, storing or throwing it lets it escape, and so does every other use. A buffer also escapes if a use
+ * or a local variable may see it as well as a buffer from elsewhere, or another buffer that escapes. The {@code NEW},
+ * the constructor and method calls and the casts of the remaining buffers are retargeted to {@code StringBuilder}, as
+ * are the types of the local variables holding them.
+ * </p>
+ * <p>
+ * Call {@link MethodGen#setStackMap()} afterwards for class files of version 50 and above.
+ * </p>
+ *
+ * @since 6.13.0
+ */
+public class StringBufferRewriter implements OptimizationPass {
+
+    /**
+     * Tracks the {@code NEW StringBuffer} instructions a value may come from, plus {@link #OTHER} for any value from
+     * elsewhere. The empty set stands for {@code null}.
+     */
+    private static final class Sites extends FrameAnalysis<Set<Object>> {
+
+        Sites(final MethodGen mg) {
+            super(mg);
+        }
+
+        @Override
+        protected Set<Object> exception() {
+            return OTHER_SET;
+        }
+
+        @Override
+        protected Set<Object> join(final Set<Object> a, final Set<Object> b) {
+            if (a.containsAll(b)) {
+                return a;
+            }
+            if (b.containsAll(a)) {
+                return b;
+            }
+            final Set<Object> union = new HashSet<>(a);
+            union.addAll(b);
+            return Collections.unmodifiableSet(union);
+        }
+
+        @Override
+        protected Set<Object> parameter(final Type type, final boolean thisReference) {
+            return OTHER_SET;
+        }
+
+        @Override
+        protected Set<Object> unknown() {
+            return OTHER_SET;
+        }
+
+        @Override
+        protected Set<Object> value(final InstructionHandle ih, final List<Set<Object>> operands) {
+            final Instruction i = ih.getInstruction();
+            final ConstantPoolGen cp = getConstantPool();
+            if (i instanceof NEW && isStringBuffer(((NEW) i).getLoadClassType(cp))) {
+                return Collections.singleton(ih);
+            }
+            if (i instanceof ACONST_NULL) {
+                return Collections.emptySet();
+            }
+            if (i instanceof CHECKCAST) {
+                return operands.get(0);
+            }
+            if (i instanceof INVOKEVIRTUAL) {
+                final INVOKEVIRTUAL invoke = (INVOKEVIRTUAL) i;
+                // All methods of StringBuffer returning a StringBuffer return the receiver
+                if (isStringBuffer(invoke.getReferenceType(cp)) && isStringBuffer(invoke.getReturnType(cp))) {
+                    return operands.get(0);
+                }
+            }
+            return OTHER_SET;
+        }
+    }
+
+    private static final String STRING_BUFFER = "java.lang.StringBuffer";
+
+    private static final String STRING_BUILDER = "java.lang.StringBuilder";
+
+    private static final Object OTHER = "other";
+
+    private static final Set<Object> OTHER_SET = Collections.singleton(OTHER);
+
+    /**
+     * Supertypes of StringBuffer that StringBuilder has too.
+     */
+    private static final Set<String> SHARED_SUPERTYPES = new HashSet<>(
+        Arrays.asList(STRING_BUFFER, "java.lang.Object", "java.lang.CharSequence", "java.lang.Appendable", "java.io.Serializable"));
+
+    /**
+     * Methods of Object that would tell a StringBuilder from a StringBuffer.
+     */
+    private static final Set<String> REVEALING_METHODS = new HashSet<>(Arrays.asList("getClass", "notify", "notifyAll", "wait"));
+
+    private static boolean isStringBuffer(final Type type) {
+        return type instanceof ObjectType && ((ObjectType) type).getClassName().equals(STRING_BUFFER);
+    }
+
+    /**
+     * Tests whether a buffer may be the operand of an instruction, the first operand being the receiver of a call.
+     */
+    private static boolean isLocalUse(final Instruction i, final int operand, final ConstantPoolGen cp) {
+        if (i instanceof INVOKESPECIAL || i instanceof INVOKEVIRTUAL) {
+            final InvokeInstruction invoke = (InvokeInstruction) i;
+            final Type owner = invoke.getReferenceType(cp);
+            final String name = invoke.getMethodName(cp);
+            if (operand != 0 || !(owner instanceof ObjectType) || REVEALING_METHODS.contains(name)) {
+                return false;
+            }
+            // StringBuilder has no compareTo(StringBuffer), the buffer is kept for such methods
+            for (final Type argumentType : invoke.getArgumentTypes(cp)) {
+                if (isStringBuffer(argumentType)) {
+                    return false;
+                }
+            }
+            final String className = ((ObjectType) owner).getClassName();
+            if (i instanceof INVOKESPECIAL) {
+                return className.equals(STRING_BUFFER) && name.equals(Const.CONSTRUCTOR_NAME);
+            }
+            return className.equals(STRING_BUFFER) || className.equals("java.lang.Object");
+        }
+        if (i instanceof CHECKCAST) {
+            final Type type = ((CHECKCAST) i).getType(cp);
+            return type instanceof ObjectType && SHARED_SUPERTYPES.contains(((ObjectType) type).getClassName());
+        }
+        return i instanceof IFNULL || i instanceof IFNONNULL || i instanceof IF_ACMPEQ || i instanceof IF_ACMPNE;
+    }
+
+    /**
+     * Tests whether a value holds buffers only, all of which stay local.
+     */
+    private static boolean isLocal(final Set<Object> value, final Set<Object> escaped) {
+        return !value.isEmpty() && !value.contains(OTHER) && Collections.disjoint(value, escaped);
+    }
+
+    @Override
+    public boolean apply(final MethodGen mg) {
+        final InstructionList il = mg.getInstructionList();
+        final ConstantPoolGen cp = mg.getConstantPool();
+        if (il == null || il.isEmpty() || !containsStringBuffers(il, cp)) {
+            return false;
+        }
+        final DataflowAnalysis<ValueFrame<Set<Object>>> analysis = new DataflowAnalysis<>(mg, new Sites(mg));
+        final Map<InstructionHandle, ValueFrame<Set<Object>>> frames = new IdentityHashMap<>();
+        for (final BasicBlock block : analysis.getGraph().getBlocks()) {
+            final List<ValueFrame<Set<Object>>> before = analysis.getBefore(block);
+            if (before != null) {
+                final InstructionHandle[] instructions = block.getInstructions();
+                for (int k = 0; k < instructions.length; k++) {
+                    frames.put(instructions[k], before.get(k));
+                }
+            }
+        }
+        /*
+         * Find the buffers used in a way that lets them escape, and the values whose buffers must all stay local or all
+         * escape together.
+         */
+        final Set<Object> escaped = new HashSet<>();
+        final List<Set<Object>> groups = new ArrayList<>();
+        for (final Map.Entry<InstructionHandle, ValueFrame<Set<Object>>> entry : frames.entrySet()) {
+            final Instruction i = entry.getKey().getInstruction();
+            if (i instanceof LocalVariableInstruction || i instanceof StackInstruction) {
+                continue; // Moves values only
+            }
+            final int consumed = i.consumeStack(cp);
+            for (int depth = 0; depth < consumed; depth++) {
+                final Set<Object> value = entry.getValue().peek(depth);
+                if (value.size() > (value.contains(OTHER) ? 1 : 0)) {
+                    if (isLocalUse(i, consumed - 1 - depth, cp)) {
+                        groups.add(value);
+                    } else {
+                        escaped.addAll(value);
+                    }
+                }
+            }
+        }
+        final LocalVariableGen[] variables = mg.getLocalVariables();
+        final List<Set<Object>> variableValues = new ArrayList<>(variables.length);
+        for (final LocalVariableGen lv : variables) {
+            final Set<Object> value = new HashSet<>();
+            if (isStringBuffer(lv.getType())) {
+                for (InstructionHandle ih = lv.getStart(); ih != null; ih = ih.getNext()) {
+                    final ValueFrame<Set<Object>> frame = frames.get(ih);
+                    if (frame != null && ih.getInstruction() instanceof LocalVariableInstruction && !(ih.getInstruction() instanceof IINC)
+                        && ((LocalVariableInstruction) ih.getInstruction()).getIndex() == lv.getIndex()) {
+                        value.addAll(ih.getInstruction() instanceof StoreInstruction ? frame.peek(0) : frame.getLocal(lv.getIndex()));
+                    }
+                    if (ih == lv.getEnd()) {
+                        break;
+                    }
+                }
+                groups.add(value);
+            }
+            variableValues.add(value);
+        }
+        // A buffer seen together with another value shares its fate
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (final Set<Object> group : groups) {
+                if (group.contains(OTHER) || !Collections.disjoint(group, escaped)) {
+                    changed |= escaped.addAll(group);
+                }
+            }
+        }
+        /*
+         * Retarget the instructions of the remaining buffers, which are not shared.
+         */
+        boolean rewritten = false;
+        for (final Map.Entry<InstructionHandle, ValueFrame<Set<Object>>> entry : frames.entrySet()) {
+            final InstructionHandle ih = entry.getKey();
+            final Instruction i = ih.getInstruction();
+            if (i instanceof NEW) {
+                if (isStringBuffer(((NEW) i).getLoadClassType(cp)) && !escaped.contains(ih)) {
+                    ih.setInstruction(new NEW(cp.addClass(STRING_BUILDER)));
+                    rewritten = true;
+                }
+            } else if (i instanceof INVOKESPECIAL || i instanceof INVOKEVIRTUAL) {
+                final InvokeInstruction invoke = (InvokeInstruction) i;
+                if (isStringBuffer(invoke.getReferenceType(cp)) && isLocal(entry.getValue().peek(i.consumeStack(cp) - 1), escaped)) {
+                    final Type returnType = isStringBuffer(invoke.getReturnType(cp)) ? Type.STRINGBUILDER : invoke.getReturnType(cp);
+                    final int index = cp.addMethodref(STRING_BUILDER, invoke.getMethodName(cp),
+                        Type.getMethodSignature(returnType, invoke.getArgumentTypes(cp)));
+                    ih.setInstruction(i instanceof INVOKESPECIAL ? new INVOKESPECIAL(index) : new INVOKEVIRTUAL(index));
+                    rewritten = true;
+                }
+            } else if (i instanceof CHECKCAST) {
+                if (isStringBuffer(((CHECKCAST) i).getType(cp)) && isLocal(entry.getValue().peek(0), escaped)) {
+                    ih.setInstruction(new CHECKCAST(cp.addClass(STRING_BUILDER)));
+                    rewritten = true;
+                }
+            }
+        }
+        for (int k = 0; k < variables.length; k++) {
+            if (isLocal(variableValues.get(k), escaped)) {
+                variables[k].setType(Type.STRINGBUILDER);
+            }
+        }
+        if (rewritten) {
+            mg.update();
+        }
+        return rewritten;
+    }
+
+    private boolean containsStringBuffers(final InstructionList il, final ConstantPoolGen cp) {
+        for (final InstructionHandle ih : il) {
+            if (ih.getInstruction() instanceof NEW && isStringBuffer(((NEW) ih.getInstruction()).getLoadClassType(cp))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
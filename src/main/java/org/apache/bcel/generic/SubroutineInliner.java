@@ -0,0 +1,289 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.bcel.classfile.LocalVariable;
+import org.apache.bcel.classfile.LocalVariableTypeTable;
+
+/**
+ * Removes {@code JSR}/{@code RET} subroutines by copying the code of a subroutine to each of its calls, so that the
+ * method can be part of a class file of version 50 and above, which need StackMapTables.
+ * <p>
+ * The code of a subroutine is what can be reached from its entry without following {@code JSR}s, which continue with
+ * the following instruction, or {@code RET}s, together with the exception handlers protecting any of it. Each call
+ * gets its own copy of the subroutine, nested subroutines are copied again for each copy of their caller. A
+ * {@code JSR} becomes an {@code ACONST_NULL} standing for the return address followed by a {@code GOTO} to the copy,
+ * a {@code RET} becomes a {@code GOTO} to the instruction following the call. Exception handlers are duplicated with
+ * the code they protect, unreachable code is dropped.
+ * </p>
+ * <p>
+ * Line numbers are kept for all copies, local variables for the code outside of subroutines. Max locals and max stack
+ * are recomputed, call {@link MethodGen#setStackMap()} afterwards for class files of version 50 and above. Code size
+ * grows with the number of calls and, for nested subroutines, exponentially with their depth.
+ * </p>
+ *
+ * @see org.apache.bcel.verifier.structurals.Subroutines
+ * @since 6.13.0
+ */
+public class SubroutineInliner implements OptimizationPass {
+
+    /**
+     * A copy of a subroutine, or of the code outside of subroutines, for one call.
+     */
+    private static final class Instantiation {
+
+        final Instantiation caller;
+        final InstructionHandle entry; // null for the code outside of subroutines
+        final int returnIndex; // Instruction following the call in the caller's copy
+        final BitSet body;
+        final InstructionHandle[] copies;
+
+        Instantiation(final Instantiation caller, final InstructionHandle entry, final int returnIndex, final BitSet body, final int length) {
+            this.caller = caller;
+            this.entry = entry;
+            this.returnIndex = returnIndex;
+            this.body = body;
+            this.copies = new InstructionHandle[length];
+        }
+    }
+
+    /**
+     * Gets the instructions that may follow an instruction within the same subroutine.
+     */
+    private static List<InstructionHandle> successors(final InstructionHandle ih) {
+        final List<InstructionHandle> successors = new ArrayList<>();
+        final Instruction i = ih.getInstruction();
+        if (i instanceof RET || i instanceof ReturnInstruction || i instanceof ATHROW) {
+            return successors;
+        }
+        if (i instanceof BranchInstruction && !(i instanceof JsrInstruction)) {
+            successors.add(((BranchInstruction) i).getTarget());
+            if (i instanceof Select) {
+                for (final InstructionHandle target : ((Select) i).getTargets()) {
+                    successors.add(target);
+                }
+            }
+            if (i instanceof UnconditionalBranch || i instanceof Select) {
+                return successors;
+            }
+        }
+        if (ih.getNext() == null) {
+            throw new ClassGenException("Execution falls off the end of the code at " + ih);
+        }
+        successors.add(ih.getNext());
+        return successors;
+    }
+
+    @Override
+    public boolean apply(final MethodGen mg) {
+        final InstructionList il = mg.getInstructionList();
+        if (il == null || il.isEmpty() || !containsSubroutines(il)) {
+            return false;
+        }
+        final InstructionHandle[] handles = il.getInstructionHandles();
+        final Map<InstructionHandle, Integer> indexes = new HashMap<>();
+        for (int k = 0; k < handles.length; k++) {
+            indexes.put(handles[k], k);
+        }
+        final CodeExceptionGen[] handlers = mg.getExceptionHandlers();
+        final Map<InstructionHandle, BitSet> bodies = new HashMap<>();
+        final InstructionList out = new InstructionList();
+        /*
+         * Copy the code outside of subroutines and every subroutine once per call, calls first create their copy.
+         */
+        final Instantiation main = new Instantiation(null, null, -1, body(handles[0], handlers, indexes), handles.length);
+        final List<Instantiation> instantiations = new ArrayList<>();
+        final Deque<Instantiation> pending = new ArrayDeque<>();
+        pending.add(main);
+        final Map<InstructionHandle, Instantiation> calls = new HashMap<>();
+        while (!pending.isEmpty()) {
+            final Instantiation current = pending.removeFirst();
+            instantiations.add(current);
+            for (int k = current.body.nextSetBit(0); k >= 0; k = current.body.nextSetBit(k + 1)) {
+                final Instruction i = handles[k].getInstruction();
+                if (i instanceof JsrInstruction) {
+                    final InstructionHandle entry = ((JsrInstruction) i).getTarget();
+                    for (Instantiation caller = current; caller != null; caller = caller.caller) {
+                        if (caller.entry == entry) {
+                            throw new ClassGenException("Recursive call of the subroutine at " + entry);
+                        }
+                    }
+                    final BitSet body = bodies.computeIfAbsent(entry, e -> body(e, handlers, indexes));
+                    final Instantiation callee = new Instantiation(current, entry, k + 1, body, handles.length);
+                    pending.add(callee);
+                    current.copies[k] = out.append(InstructionConst.ACONST_NULL);
+                    calls.put(out.append(new GOTO(null)), callee);
+                } else if (i instanceof RET) {
+                    if (current.caller == null) {
+                        throw new ClassGenException("RET outside of a subroutine at " + handles[k]);
+                    }
+                    current.copies[k] = out.append(new GOTO(null));
+                } else if (i instanceof BranchInstruction) {
+                    current.copies[k] = out.append((BranchInstruction) i.copy());
+                } else {
+                    current.copies[k] = out.append(i.copy());
+                }
+            }
+        }
+        /*
+         * Resolve the jumps now that every copy exists.
+         */
+        for (final Instantiation current : instantiations) {
+            for (int k = current.body.nextSetBit(0); k >= 0; k = current.body.nextSetBit(k + 1)) {
+                final Instruction i = handles[k].getInstruction();
+                if (i instanceof JsrInstruction) {
+                    final BranchHandle jump = (BranchHandle) current.copies[k].getNext();
+                    final Instantiation callee = calls.get(jump);
+                    jump.setTarget(callee.copies[indexes.get(callee.entry)]);
+                } else if (i instanceof RET) {
+                    ((BranchInstruction) current.copies[k].getInstruction()).setTarget(current.caller.copies[current.returnIndex]);
+                } else if (i instanceof BranchInstruction) {
+                    final BranchInstruction copy = (BranchInstruction) current.copies[k].getInstruction();
+                    copy.setTarget(current.copies[indexes.get(((BranchInstruction) i).getTarget())]);
+                    if (i instanceof Select) {
+                        final InstructionHandle[] targets = ((Select) i).getTargets();
+                        for (int t = 0; t < targets.length; t++) {
+                            ((Select) copy).setTarget(t, current.copies[indexes.get(targets[t])]);
+                        }
+                    }
+                }
+            }
+        }
+        /*
+         * Handlers protect the copies of their ranges, in the original order within each copy.
+         */
+        mg.removeExceptionHandlers();
+        for (final CodeExceptionGen ceg : handlers) {
+            final int start = indexes.get(ceg.getStartPC());
+            final int end = indexes.get(ceg.getEndPC());
+            final int handler = indexes.get(ceg.getHandlerPC());
+            for (final Instantiation current : instantiations) {
+                final int first = current.body.nextSetBit(start);
+                if (first < 0 || first > end) {
+                    continue;
+                }
+                mg.addExceptionHandler(current.copies[first], lastCopy(current, handles, current.body.previousSetBit(end)), current.copies[handler],
+                    ceg.getCatchType());
+            }
+        }
+        final LineNumberGen[] lineNumbers = mg.getLineNumbers();
+        mg.removeLineNumbers();
+        for (final LineNumberGen lng : lineNumbers) {
+            final int k = indexes.get(lng.getInstruction());
+            for (final Instantiation current : instantiations) {
+                if (current.body.get(k)) {
+                    mg.addLineNumber(current.copies[k], lng.getSourceLine());
+                }
+            }
+        }
+        updateLocalVariables(mg, main, handles, indexes);
+        mg.setInstructionList(out);
+        mg.setMaxLocals();
+        mg.setMaxStack();
+        return true;
+    }
+
+    /**
+     * Computes the instructions of a subroutine, or of the code outside of subroutines, with the handlers protecting
+     * them.
+     */
+    private BitSet body(final InstructionHandle entry, final CodeExceptionGen[] handlers, final Map<InstructionHandle, Integer> indexes) {
+        final BitSet body = new BitSet();
+        final Deque<InstructionHandle> work = new ArrayDeque<>();
+        work.add(entry);
+        body.set(indexes.get(entry));
+        boolean changed = true;
+        while (changed) {
+            while (!work.isEmpty()) {
+                for (final InstructionHandle successor : successors(work.removeFirst())) {
+                    final int k = indexes.get(successor);
+                    if (!body.get(k)) {
+                        body.set(k);
+                        work.add(successor);
+                    }
+                }
+            }
+            changed = false;
+            for (final CodeExceptionGen ceg : handlers) {
+                final int handler = indexes.get(ceg.getHandlerPC());
+                final int protectedIndex = body.nextSetBit(indexes.get(ceg.getStartPC()));
+                if (!body.get(handler) && protectedIndex >= 0 && protectedIndex <= indexes.get(ceg.getEndPC())) {
+                    body.set(handler);
+                    work.add(ceg.getHandlerPC());
+                    changed = true;
+                }
+            }
+        }
+        return body;
+    }
+
+    private boolean containsSubroutines(final InstructionList il) {
+        for (final InstructionHandle ih : il) {
+            if (ih.getInstruction() instanceof JsrInstruction) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the last instruction copied for an instruction, the {@code GOTO} of a call.
+     */
+    private InstructionHandle lastCopy(final Instantiation instantiation, final InstructionHandle[] handles, final int index) {
+        final InstructionHandle copy = instantiation.copies[index];
+        return handles[index].getInstruction() instanceof JsrInstruction ? copy.getNext() : copy;
+    }
+
+    /**
+     * Moves the local variables to the code outside of subroutines, dropping those only found in subroutines.
+     */
+    private void updateLocalVariables(final MethodGen mg, final Instantiation main, final InstructionHandle[] handles,
+        final Map<InstructionHandle, Integer> indexes) {
+        final List<LocalVariableGen> removed = new ArrayList<>();
+        for (final LocalVariableGen lvg : mg.getLocalVariables()) {
+            final int start = main.body.nextSetBit(indexes.get(lvg.getStart()));
+            final int end = lvg.getEnd() == null ? main.body.length() - 1 : main.body.previousSetBit(indexes.get(lvg.getEnd()));
+            if (start < 0 || end < start) {
+                removed.add(lvg);
+                mg.removeLocalVariable(lvg);
+            } else {
+                lvg.setStart(main.copies[start]);
+                lvg.setEnd(lastCopy(main, handles, end));
+            }
+        }
+        final LocalVariableTypeTable lvtt = mg.getLocalVariableTypeTable();
+        if (lvtt != null && !removed.isEmpty()) {
+            final List<LocalVariable> kept = new ArrayList<>();
+            for (final LocalVariable lv : lvtt.getLocalVariableTypeTable()) {
+                if (removed.stream().noneMatch(lvg -> lvg.getName().equals(lv.getName()) && lvg.getOrigIndex() == lv.getIndex())) {
+                    kept.add(lv);
+                }
+            }
+            lvtt.setLocalVariableTable(kept.toArray(new LocalVariable[0]));
+        }
+    }
+}
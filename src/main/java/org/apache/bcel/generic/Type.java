@@ -18,9 +18,7 @@
  */
 package org.apache.bcel.generic;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
 import java.util.Objects;
 
 import org.apache.bcel.Const;
@@ -66,19 +64,26 @@ public abstract class Type {
     public static final BasicType CHAR = new BasicType(Const.T_CHAR);
 
     /** Predefined constant for Object type. */
-    public static final ObjectType OBJECT = new ObjectType("java.lang.Object");
+    public static final ObjectType OBJECT = ObjectType.getInstance("java.lang.Object");
 
     /** Predefined constant for Class type. */
-    public static final ObjectType CLASS = new ObjectType("java.lang.Class");
+    public static final ObjectType CLASS = ObjectType.getInstance("java.lang.Class");
 
     /** Predefined constant for String type. */
-    public static final ObjectType STRING = new ObjectType("java.lang.String");
+    public static final ObjectType STRING = ObjectType.getInstance("java.lang.String");
 
     /** Predefined constant for StringBuffer type. */
-    public static final ObjectType STRINGBUFFER = new ObjectType("java.lang.StringBuffer");
+    public static final ObjectType STRINGBUFFER = ObjectType.getInstance("java.lang.StringBuffer");
+
+    /**
+     * Predefined constant for StringBuilder type.
+     *
+     * @since 6.13.0
+     */
+    public static final ObjectType STRINGBUILDER = ObjectType.getInstance("java.lang.StringBuilder");
 
     /** Predefined constant for Throwable type. */
-    public static final ObjectType THROWABLE = new ObjectType("java.lang.Throwable");
+    public static final ObjectType THROWABLE = ObjectType.getInstance("java.lang.Throwable");
 
     /**
      * Empty array.
@@ -92,9 +97,13 @@ public abstract class Type {
     public static final Type UNKNOWN = new Type(Const.T_UNKNOWN, "<unknown object>") {
     };
 
-    private static final ThreadLocal<Integer> CONSUMED_CHARS = ThreadLocal.withInitial(() -> Integer.valueOf(0));
+    /*
+     * Parsed descriptors, shared by all threads. Argument arrays are cloned before they are handed out.
+     */
+    private static final DescriptorCache<Type> TYPES = new DescriptorCache<>(1024, signature -> parseType(signature, 0));
+    private static final DescriptorCache<Type[]> ARGUMENT_TYPES = new DescriptorCache<>(1024, Type::parseArgumentTypes);
+    private static final DescriptorCache<Type> RETURN_TYPES = new DescriptorCache<>(1024, Type::parseReturnType);
 
-    // int consumed_chars=0; // Remember position in string, see getArgumentTypes
     static int consumed(final int coded) {
         return coded >> 2;
     }
@@ -110,25 +119,8 @@ public abstract class Type {
      * @return array of argument types.
      */
     public static Type[] getArgumentTypes(final String signature) {
-        final List<Type> vec = new ArrayList<>();
-        int index;
-        try {
-            // Skip any type arguments to read argument declarations between '(' and ')'
-            index = signature.indexOf('(') + 1;
-            if (index <= 0) {
-                throw new InvalidMethodSignatureException(signature);
-            }
-            while (signature.charAt(index) != ')') {
-                vec.add(getType(signature.substring(index)));
-                // corrected concurrent private static field access
-                index += unwrap(CONSUMED_CHARS); // update position
-            }
-        } catch (final StringIndexOutOfBoundsException e) { // Should never occur
-            throw new InvalidMethodSignatureException(signature, e);
-        }
-        final Type[] types = new Type[vec.size()];
-        vec.toArray(types);
-        return types;
+        final Type[] types = ARGUMENT_TYPES.get(signature);
+        return types.length == 0 ? NO_ARGS : types.clone();
     }
 
     static int getArgumentTypesSize(final String signature) {
@@ -141,7 +133,7 @@ public abstract class Type {
                 throw new InvalidMethodSignatureException(signature);
             }
             while (signature.charAt(index) != ')') {
-                final int coded = getTypeSize(signature.substring(index));
+                final int coded = getTypeSize(signature, index);
                 res += size(coded);
                 index += consumed(coded);
             }
@@ -177,18 +169,12 @@ public abstract class Type {
      * @return return type.
      */
     public static Type getReturnType(final String signature) {
-        try {
-            // Read return type after ')'
-            final int index = signature.lastIndexOf(')') + 1;
-            return getType(signature.substring(index));
-        } catch (final StringIndexOutOfBoundsException e) { // Should never occur
-            throw new InvalidMethodSignatureException(signature, e);
-        }
+        return RETURN_TYPES.get(signature);
     }
 
     static int getReturnTypeSize(final String signature) {
         final int index = signature.lastIndexOf(')') + 1;
-        return size(getTypeSize(signature.substring(index)));
+        return size(getTypeSize(signature, index));
     }
 
     /**
@@ -262,29 +248,7 @@ public abstract class Type {
      * @return type object.
      */
     public static Type getType(final String signature) throws StringIndexOutOfBoundsException {
-        final byte type = Utility.typeOfSignature(signature);
-        if (type <= Const.T_VOID) {
-            // corrected concurrent private static field access
-            wrap(CONSUMED_CHARS, 1);
-            return BasicType.getType(type);
-        }
-        if (type != Const.T_ARRAY) { // type == T_REFERENCE
-            // Utility.typeSignatureToString understands how to parse generic types.
-            final String parsedSignature = Utility.typeSignatureToString(signature, false);
-            wrap(CONSUMED_CHARS, parsedSignature.length() + 2); // "Lblabla;" 'L' and ';' are removed
-            return ObjectType.getInstance(Utility.pathToPackage(parsedSignature));
-        }
-        int dim = 0;
-        do { // Count dimensions
-            dim++;
-        } while (signature.charAt(dim) == '[');
-        // Recurse, but just once, if the signature is ok
-        final Type t = getType(signature.substring(dim));
-        // corrected concurrent private static field access
-        // consumed_chars += dim; // update counter - is replaced by
-        final int temp = unwrap(CONSUMED_CHARS) + dim;
-        wrap(CONSUMED_CHARS, temp);
-        return new ArrayType(t, dim);
+        return TYPES.get(signature);
     }
 
     /**
@@ -299,6 +263,40 @@ public abstract class Type {
         return ret;
     }
 
+    /**
+     * Gets the size and length of the type starting at the given index of a descriptor, see {@link #getTypeSize(String)}.
+     */
+    private static int getTypeSize(final String signature, final int index) {
+        switch (charAt(signature, index)) {
+        case 'B':
+        case 'C':
+        case 'F':
+        case 'I':
+        case 'S':
+        case 'Z':
+            return encode(1, 1);
+        case 'D':
+        case 'J':
+            return encode(2, 1);
+        case 'V':
+            return encode(0, 1);
+        case '[': {
+            final int dim = dimensions(signature, index);
+            return encode(1, dim + consumed(getTypeSize(signature, index + dim)));
+        }
+        case 'L':
+        case 'T': {
+            final int end = signature.indexOf(';', index); // Look for closing ';'
+            if (end < 0) {
+                throw new ClassFormatException("Invalid signature: " + signature.substring(index));
+            }
+            return encode(1, end - index + 1);
+        }
+        default:
+            return getTypeSize(signature.substring(index));
+        }
+    }
+
     static int getTypeSize(final String signature) throws StringIndexOutOfBoundsException {
         final byte type = Utility.typeOfSignature(signature);
         if (type <= Const.T_VOID) {
@@ -320,6 +318,39 @@ public abstract class Type {
         return encode(1, index + 1);
     }
 
+    /**
+     * Gets the character at the given index of a descriptor, or 0 past its end.
+     */
+    private static char charAt(final String signature, final int index) {
+        return index < signature.length() ? signature.charAt(index) : 0;
+    }
+
+    /**
+     * Counts the '[' starting at the given index of a descriptor.
+     */
+    private static int dimensions(final String signature, final int index) {
+        int dim = 0;
+        do { // Count dimensions
+            dim++;
+        } while (signature.charAt(index + dim) == '[');
+        return dim;
+    }
+
+    /**
+     * Gets the index of the ';' closing the class name starting at the given index of a descriptor.
+     *
+     * @return the index, or -1 if the name is missing its ';' or has type arguments.
+     */
+    private static int endOfClassName(final String signature, final int index) {
+        final int end = signature.indexOf(';', index);
+        for (int i = index + 1; i < end; i++) {
+            if (signature.charAt(i) == '<') {
+                return -1;
+            }
+        }
+        return end;
+    }
+
     static String internalTypeNameToSignature(final String internalTypeName) {
         if (StringUtils.isEmpty(internalTypeName) || Strings.CS.equalsAny(internalTypeName, Const.SHORT_TYPE_NAMES)) {
             return internalTypeName;
@@ -342,12 +373,132 @@ public abstract class Type {
         return coded & 3;
     }
 
-    private static int unwrap(final ThreadLocal<Integer> tl) {
-        return tl.get().intValue();
+    private static Type[] parseArgumentTypes(final String signature) {
+        try {
+            // Skip any type arguments to read argument declarations between '(' and ')'
+            final int start = signature.indexOf('(') + 1;
+            if (start <= 0) {
+                throw new InvalidMethodSignatureException(signature);
+            }
+            int count = 0;
+            for (int index = start; signature.charAt(index) != ')'; index = skipType(signature, index)) {
+                count++;
+            }
+            final Type[] types = new Type[count];
+            int index = start;
+            for (int i = 0; i < count; i++) {
+                types[i] = parseType(signature, index);
+                index = skipType(signature, index);
+            }
+            return types;
+        } catch (final StringIndexOutOfBoundsException e) { // Should never occur
+            throw new InvalidMethodSignatureException(signature, e);
+        }
+    }
+
+    private static Type parseReturnType(final String signature) {
+        try {
+            // Read return type after ')'
+            return parseType(signature, signature.lastIndexOf(')') + 1);
+        } catch (final StringIndexOutOfBoundsException e) { // Should never occur
+            throw new InvalidMethodSignatureException(signature, e);
+        }
+    }
+
+    /**
+     * Parses the type starting at the given index of a descriptor. Plain descriptors are read in place, anything else,
+     * such as a generic signature, goes through {@link #parseTypeSlow(String)}.
+     */
+    private static Type parseType(final String signature, final int index) {
+        switch (charAt(signature, index)) {
+        case 'B':
+            return BYTE;
+        case 'C':
+            return CHAR;
+        case 'D':
+            return DOUBLE;
+        case 'F':
+            return FLOAT;
+        case 'I':
+            return INT;
+        case 'J':
+            return LONG;
+        case 'S':
+            return SHORT;
+        case 'Z':
+            return BOOLEAN;
+        case 'V':
+            return VOID;
+        case '[': {
+            final int dim = dimensions(signature, index);
+            return ArrayType.getInstance(parseType(signature, index + dim), dim);
+        }
+        case 'L': {
+            final int end = endOfClassName(signature, index);
+            if (end >= 0) {
+                return ObjectType.getInstance(Utility.pathToPackage(signature.substring(index + 1, end)));
+            }
+            break;
+        }
+        default:
+            break;
+        }
+        return parseTypeSlow(signature.substring(index));
+    }
+
+    private static Type parseTypeSlow(final String signature) {
+        final byte type = Utility.typeOfSignature(signature);
+        if (type <= Const.T_VOID) {
+            return BasicType.getType(type);
+        }
+        if (type != Const.T_ARRAY) { // type == T_REFERENCE
+            // Utility.typeSignatureToString understands how to parse generic types.
+            return ObjectType.getInstance(Utility.pathToPackage(Utility.typeSignatureToString(signature, false)));
+        }
+        final int dim = dimensions(signature, 0);
+        return ArrayType.getInstance(parseTypeSlow(signature.substring(dim)), dim);
     }
 
-    private static void wrap(final ThreadLocal<Integer> tl, final int value) {
-        tl.set(Integer.valueOf(value));
+    /**
+     * Gets the index following the type starting at the given index of a descriptor.
+     */
+    private static int skipType(final String signature, final int index) {
+        switch (charAt(signature, index)) {
+        case 'B':
+        case 'C':
+        case 'D':
+        case 'F':
+        case 'I':
+        case 'J':
+        case 'S':
+        case 'Z':
+        case 'V':
+            return index + 1;
+        case '[':
+            return skipType(signature, index + dimensions(signature, index));
+        case 'L': {
+            final int end = endOfClassName(signature, index);
+            if (end >= 0) {
+                return end + 1;
+            }
+            break;
+        }
+        default:
+            break;
+        }
+        return index + typeLengthSlow(signature.substring(index));
+    }
+
+    private static int typeLengthSlow(final String signature) {
+        final byte type = Utility.typeOfSignature(signature);
+        if (type <= Const.T_VOID) {
+            return 1;
+        }
+        if (type != Const.T_ARRAY) { // type == T_REFERENCE
+            return Utility.typeSignatureToString(signature, false).length() + 2; // "Lblabla;" 'L' and ';' are removed
+        }
+        final int dim = dimensions(signature, 0);
+        return dim + typeLengthSlow(signature.substring(dim));
     }
 
     /**
@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * A concurrent table of canonical types, so that equal types share one instance.
+ * <p>
+ * Types are only weakly referenced, an entry goes away once its type is no longer used elsewhere. Cleared entries are
+ * removed on the next call.
+ * </p>
+ *
+ * @param <T> the type of the types.
+ */
+final class TypeInterner<T extends Type> {
+
+    private static final class Entry<T> extends WeakReference<T> {
+
+        final String key;
+
+        Entry(final String key, final T type, final ReferenceQueue<T> queue) {
+            super(type, queue);
+            this.key = key;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Entry<T>> map = new ConcurrentHashMap<>();
+    private final ReferenceQueue<T> queue = new ReferenceQueue<>();
+
+    private void expunge() {
+        for (Reference<? extends T> ref = queue.poll(); ref != null; ref = queue.poll()) {
+            map.remove(((Entry<?>) ref).key, ref);
+        }
+    }
+
+    /**
+     * Gets the canonical type for a key, creating it if there is none.
+     *
+     * @param key identifies the type, such as its signature.
+     * @param factory creates the type, may be called by several threads of which one wins.
+     * @return the canonical type.
+     */
+    T intern(final String key, final Supplier<T> factory) {
+        expunge();
+        while (true) {
+            final Entry<T> entry = map.get(key);
+            final T type = entry == null ? null : entry.get();
+            if (type != null) {
+                return type;
+            }
+            final T created = factory.get();
+            final Entry<T> replacement = new Entry<>(key, created, queue);
+            if (entry == null ? map.putIfAbsent(key, replacement) == null : map.replace(key, entry, replacement)) {
+                return created;
+            }
+        }
+    }
+}
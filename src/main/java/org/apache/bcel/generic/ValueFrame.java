@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.Arrays;
+
+/**
+ * An immutable abstract value for every local variable slot and operand stack word, the value type of a
+ * {@link FrameAnalysis}. A {@code long} or {@code double} occupies two slots or words, the abstract value of the
+ * second one is the {@link FrameAnalysis#unknown() unknown} value.
+ *
+ * @param <T> the type of the abstract values.
+ * @since 6.13.0
+ */
+public final class ValueFrame<T> {
+
+    private final Object[] locals;
+    private final Object[] stack;
+
+    ValueFrame(final Object[] locals, final Object[] stack) {
+        this.locals = locals;
+        this.stack = stack;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ValueFrame)) {
+            return false;
+        }
+        final ValueFrame<?> other = (ValueFrame<?>) obj;
+        return Arrays.equals(locals, other.locals) && Arrays.equals(stack, other.stack);
+    }
+
+    /**
+     * Gets the value of a local variable slot.
+     *
+     * @param index the slot.
+     * @return the abstract value.
+     */
+    @SuppressWarnings("unchecked") // only values of the analysis are stored
+    public T getLocal(final int index) {
+        return (T) locals[index];
+    }
+
+    /**
+     * Gets the number of local variable slots.
+     *
+     * @return the number of slots.
+     */
+    public int getMaxLocals() {
+        return locals.length;
+    }
+
+    /**
+     * Gets the value of an operand stack word.
+     *
+     * @param index the word, counted from the bottom of the stack.
+     * @return the abstract value.
+     */
+    @SuppressWarnings("unchecked") // only values of the analysis are stored
+    public T getStack(final int index) {
+        return (T) stack[index];
+    }
+
+    /**
+     * Gets the number of words on the operand stack.
+     *
+     * @return the stack size.
+     */
+    public int getStackSize() {
+        return stack.length;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(locals) + Arrays.hashCode(stack);
+    }
+
+    Object[] locals() {
+        return locals;
+    }
+
+    /**
+     * Gets the value of an operand stack word counted from the top.
+     *
+     * @param depth the depth, 0 for the top of the stack.
+     * @return the abstract value.
+     */
+    public T peek(final int depth) {
+        return getStack(stack.length - 1 - depth);
+    }
+
+    Object[] stack() {
+        return stack;
+    }
+
+    /**
+     * @return a String such as "locals=[a, b] stack=[c]".
+     */
+    @Override
+    public String toString() {
+        return "locals=" + Arrays.toString(locals) + " stack=" + Arrays.toString(stack);
+    }
+}
@@ -38,6 +38,7 @@ import org.apache.bcel.classfile.Utility;
 abstract class AbstractClassPathRepository implements Repository {
 
     private final ClassPath classPath;
+    private long modificationCount;
 
     AbstractClassPathRepository(final ClassPath classPath) {
         this.classPath = classPath;
@@ -54,6 +55,11 @@ abstract class AbstractClassPathRepository implements Repository {
         return classPath;
     }
 
+    @Override
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
     /**
      * Finds the JavaClass object for a runtime Class object. If a class with the same name is already in this Repository,
      * the Repository version is returned. Otherwise, getResourceAsStream() is called on the Class object to find the
@@ -123,6 +129,13 @@ abstract class AbstractClassPathRepository implements Repository {
         }
     }
 
+    /**
+     * Counts a replaced or removed class, or a cleared repository.
+     */
+    void modified() {
+        modificationCount++;
+    }
+
     @Override
     public abstract void removeClass(JavaClass javaClass);
 
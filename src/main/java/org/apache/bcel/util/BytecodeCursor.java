@@ -0,0 +1,402 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.util;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.ClassFormatException;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.commons.lang3.ArrayUtils;
+
+/**
+ * Walks the instructions of a byte code array without creating objects. Operands of the current instruction are decoded
+ * on demand through primitive accessors. One cursor may be reused for any number of code arrays with {@link #reset(byte[])}.
+ *
+ * <pre>
+ * final BytecodeCursor cursor = new BytecodeCursor();
+ * for (final Method m : javaClass.getMethods()) {
+ *     if (m.getCode() != null) {
+ *         cursor.reset(m.getCode());
+ *         while (cursor.next()) {
+ *             if (cursor.getOpcode() == Const.INVOKEVIRTUAL) {
+ *                 calls.add(cursor.getConstantPoolIndex());
+ *             }
+ *         }
+ *     }
+ * }
+ * </pre>
+ *
+ * @see InstructionList
+ * @since 6.13.0
+ */
+public final class BytecodeCursor {
+
+    private byte[] code;
+    private int end;
+    private int position;
+    private int next;
+    private int opcode;
+    private boolean wide;
+    private int padding; // only for switches
+
+    /**
+     * Constructs a cursor with no code; call one of the {@code reset} methods before {@link #next()}.
+     */
+    public BytecodeCursor() {
+        code = ArrayUtils.EMPTY_BYTE_ARRAY;
+    }
+
+    /**
+     * Constructs a cursor positioned before the first instruction of the given code.
+     *
+     * @param code byte code array.
+     */
+    public BytecodeCursor(final byte[] code) {
+        reset(code);
+    }
+
+    private void checkSwitch() {
+        if (opcode != Const.TABLESWITCH && opcode != Const.LOOKUPSWITCH) {
+            throw new IllegalStateException("Not a switch instruction: " + Const.getOpcodeName(opcode));
+        }
+    }
+
+    /**
+     * Gets the absolute branch target of the current instruction. For switches, this is the default target.
+     *
+     * @return the byte code offset of the branch target, or -1 if the instruction is not a branch.
+     */
+    public int getBranchTarget() {
+        switch (opcode) {
+        case Const.IFEQ:
+        case Const.IFNE:
+        case Const.IFLT:
+        case Const.IFGE:
+        case Const.IFGT:
+        case Const.IFLE:
+        case Const.IF_ICMPEQ:
+        case Const.IF_ICMPNE:
+        case Const.IF_ICMPLT:
+        case Const.IF_ICMPGE:
+        case Const.IF_ICMPGT:
+        case Const.IF_ICMPLE:
+        case Const.IF_ACMPEQ:
+        case Const.IF_ACMPNE:
+        case Const.GOTO:
+        case Const.JSR:
+        case Const.IFNULL:
+        case Const.IFNONNULL:
+            return position + readShort(position + 1);
+        case Const.GOTO_W:
+        case Const.JSR_W:
+            return position + readInt(position + 1);
+        case Const.TABLESWITCH:
+        case Const.LOOKUPSWITCH:
+            return position + readInt(position + 1 + padding);
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the constant pool index referenced by the current instruction, for example by {@code LDC}, field and invoke
+     * instructions, {@code NEW}, {@code CHECKCAST} or {@code MULTIANEWARRAY}.
+     *
+     * @return the constant pool index, or -1 if the instruction does not reference the constant pool.
+     */
+    public int getConstantPoolIndex() {
+        switch (opcode) {
+        case Const.LDC:
+            return code[position + 1] & 0xff;
+        case Const.LDC_W:
+        case Const.LDC2_W:
+        case Const.GETSTATIC:
+        case Const.PUTSTATIC:
+        case Const.GETFIELD:
+        case Const.PUTFIELD:
+        case Const.INVOKEVIRTUAL:
+        case Const.INVOKESPECIAL:
+        case Const.INVOKESTATIC:
+        case Const.INVOKEINTERFACE:
+        case Const.INVOKEDYNAMIC:
+        case Const.NEW:
+        case Const.ANEWARRAY:
+        case Const.CHECKCAST:
+        case Const.INSTANCEOF:
+        case Const.MULTIANEWARRAY:
+            return readUnsignedShort(position + 1);
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the increment of the current {@code IINC} instruction.
+     *
+     * @return the increment.
+     * @throws IllegalStateException if the current instruction is not {@code IINC}.
+     */
+    public int getIncrement() {
+        if (opcode != Const.IINC) {
+            throw new IllegalStateException("Not IINC: " + Const.getOpcodeName(opcode));
+        }
+        return wide ? readShort(position + 4) : code[position + 2];
+    }
+
+    /**
+     * Gets the immediate value of the current instruction: the pushed value of {@code BIPUSH} and {@code SIPUSH}, the array
+     * type of {@code NEWARRAY}, the dimensions of {@code MULTIANEWARRAY} or the argument count of {@code INVOKEINTERFACE}.
+     *
+     * @return the immediate value.
+     * @throws IllegalStateException if the current instruction has no such operand.
+     */
+    public int getImmediate() {
+        switch (opcode) {
+        case Const.BIPUSH:
+            return code[position + 1];
+        case Const.SIPUSH:
+            return readShort(position + 1);
+        case Const.NEWARRAY:
+            return code[position + 1] & 0xff;
+        case Const.MULTIANEWARRAY:
+        case Const.INVOKEINTERFACE:
+            return code[position + 3] & 0xff;
+        default:
+            throw new IllegalStateException("No immediate operand: " + Const.getOpcodeName(opcode));
+        }
+    }
+
+    /**
+     * Gets the length of the current instruction in bytes, including a {@code WIDE} prefix and switch padding.
+     *
+     * @return the length of the current instruction.
+     */
+    public int getLength() {
+        return next - position;
+    }
+
+    /**
+     * Gets the local variable index used by the current instruction, including the short forms such as {@code ALOAD_0},
+     * {@code IINC} and {@code RET}.
+     *
+     * @return the local variable index, or -1 if the instruction does not access a local variable.
+     */
+    public int getLocalIndex() {
+        if (opcode >= Const.ILOAD_0 && opcode <= Const.ALOAD_3) {
+            return (opcode - Const.ILOAD_0) % 4;
+        }
+        if (opcode >= Const.ISTORE_0 && opcode <= Const.ASTORE_3) {
+            return (opcode - Const.ISTORE_0) % 4;
+        }
+        switch (opcode) {
+        case Const.ILOAD:
+        case Const.LLOAD:
+        case Const.FLOAD:
+        case Const.DLOAD:
+        case Const.ALOAD:
+        case Const.ISTORE:
+        case Const.LSTORE:
+        case Const.FSTORE:
+        case Const.DSTORE:
+        case Const.ASTORE:
+        case Const.IINC:
+        case Const.RET:
+            return wide ? readUnsignedShort(position + 2) : code[position + 1] & 0xff;
+        default:
+            return -1;
+        }
+    }
+
+    /**
+     * Gets the opcode of the current instruction. For instructions with a {@code WIDE} prefix, this is the opcode of the
+     * modified instruction; see {@link #isWide()}.
+     *
+     * @return the opcode.
+     */
+    public int getOpcode() {
+        return opcode;
+    }
+
+    /**
+     * Gets the byte code offset of the current instruction.
+     *
+     * @return the byte code offset.
+     */
+    public int getPosition() {
+        return position;
+    }
+
+    /**
+     * Gets the number of match/target pairs of the current switch instruction, not counting the default target.
+     *
+     * @return the number of targets.
+     * @throws IllegalStateException if the current instruction is not a switch.
+     */
+    public int getSwitchCount() {
+        checkSwitch();
+        final int base = position + 1 + padding;
+        if (opcode == Const.TABLESWITCH) {
+            return readInt(base + 8) - readInt(base + 4) + 1;
+        }
+        return readInt(base + 4);
+    }
+
+    /**
+     * Gets the match value of the given pair of the current switch instruction.
+     *
+     * @param i index of the pair, from 0 to {@link #getSwitchCount()} - 1.
+     * @return the match value.
+     * @throws IllegalStateException if the current instruction is not a switch.
+     */
+    public int getSwitchMatch(final int i) {
+        checkSwitch();
+        final int base = position + 1 + padding;
+        if (opcode == Const.TABLESWITCH) {
+            return readInt(base + 4) + i;
+        }
+        return readInt(base + 8 + i * 8);
+    }
+
+    /**
+     * Gets the absolute branch target of the given pair of the current switch instruction.
+     *
+     * @param i index of the pair, from 0 to {@link #getSwitchCount()} - 1.
+     * @return the byte code offset of the target.
+     * @throws IllegalStateException if the current instruction is not a switch.
+     */
+    public int getSwitchTarget(final int i) {
+        checkSwitch();
+        final int base = position + 1 + padding;
+        if (opcode == Const.TABLESWITCH) {
+            return position + readInt(base + 12 + i * 4);
+        }
+        return position + readInt(base + 12 + i * 8);
+    }
+
+    /**
+     * Tests whether the current instruction has a {@code WIDE} prefix.
+     *
+     * @return whether the current instruction has a {@code WIDE} prefix.
+     */
+    public boolean isWide() {
+        return wide;
+    }
+
+    /**
+     * Moves to the next instruction.
+     *
+     * @return false if there are no more instructions.
+     * @throws ClassFormatException if the code contains an invalid opcode or a truncated instruction.
+     */
+    public boolean next() {
+        position = next;
+        if (position >= end) {
+            opcode = -1;
+            return false;
+        }
+        opcode = code[position] & 0xff;
+        wide = false;
+        int length;
+        if (opcode == Const.WIDE) {
+            if (position + 1 >= end) {
+                throw new ClassFormatException("Truncated WIDE instruction at " + position);
+            }
+            wide = true;
+            opcode = code[position + 1] & 0xff;
+            length = opcode == Const.IINC ? 6 : 4;
+        } else if (opcode == Const.TABLESWITCH || opcode == Const.LOOKUPSWITCH) {
+            padding = (4 - (position + 1) % 4) % 4;
+            final int base = position + 1 + padding;
+            if (base + 12 > end) {
+                throw new ClassFormatException("Truncated switch instruction at " + position);
+            }
+            if (opcode == Const.TABLESWITCH) {
+                length = 1 + padding + 12 + 4 * (readInt(base + 8) - readInt(base + 4) + 1);
+            } else {
+                length = 1 + padding + 8 + 8 * readInt(base + 4);
+            }
+        } else {
+            final short operands = Const.getNoOfOperands(opcode);
+            if (operands < 0) {
+                throw new ClassFormatException("Invalid opcode " + opcode + " at " + position);
+            }
+            length = 1 + operands;
+        }
+        next = position + length;
+        if (length <= 0 || next > end) {
+            throw new ClassFormatException("Truncated " + Const.getOpcodeName(opcode) + " instruction at " + position);
+        }
+        return true;
+    }
+
+    private int readInt(final int offset) {
+        return code[offset] << 24 | (code[offset + 1] & 0xff) << 16 | (code[offset + 2] & 0xff) << 8 | code[offset + 3] & 0xff;
+    }
+
+    private int readShort(final int offset) {
+        return (short) (code[offset] << 8 | code[offset + 1] & 0xff);
+    }
+
+    private int readUnsignedShort(final int offset) {
+        return (code[offset] & 0xff) << 8 | code[offset + 1] & 0xff;
+    }
+
+    /**
+     * Resets this cursor to the position before the first instruction of the given code array.
+     *
+     * @param code byte code array.
+     * @return {@code this} instance.
+     */
+    public BytecodeCursor reset(final byte[] code) {
+        return reset(code, 0, code.length);
+    }
+
+    /**
+     * Resets this cursor to the position before the first instruction of the given range of a code array. Offsets reported
+     * by this cursor are relative to the start of the array, so switch padding is computed correctly only if {@code start}
+     * is the offset of an instruction in a method's code.
+     *
+     * @param code byte code array.
+     * @param start offset of the first instruction.
+     * @param end offset after the last instruction.
+     * @return {@code this} instance.
+     */
+    public BytecodeCursor reset(final byte[] code, final int start, final int end) {
+        if (start < 0 || end > code.length || start > end) {
+            throw new IllegalArgumentException("Invalid range " + start + ".." + end + " for code length " + code.length);
+        }
+        this.code = code;
+        this.end = end;
+        this.next = start;
+        this.position = start;
+        this.opcode = -1;
+        this.wide = false;
+        return this;
+    }
+
+    /**
+     * Resets this cursor to the position before the first instruction of the given code attribute.
+     *
+     * @param code code attribute.
+     * @return {@code this} instance.
+     */
+    public BytecodeCursor reset(final Code code) {
+        return reset(code.getCode());
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.util;
+
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.bcel.classfile.ClassFormatException;
+import org.apache.bcel.classfile.JavaClass;
+
+/**
+ * An index of the superclasses and interfaces of the classes of a {@link Repository}, answering subtype queries in
+ * constant time.
+ * <p>
+ * Each indexed class keeps its superclasses ordered by depth, {@link Object} first, so a class is a subclass of another
+ * if the other is found at its own depth in that array. Each interface gets a number when it is indexed and each class
+ * keeps a {@link BitSet} of the numbers of all interfaces it implements. The first common superclass is the deepest
+ * class the two arrays share, found by a binary search. Since neither changes when more classes are indexed, classes
+ * are indexed when first queried, along with their supertypes, and may be added one by one.
+ * </p>
+ * <p>
+ * The index may be used by several threads. It is cleared when the {@link Repository#getModificationCount()
+ * modification count} of the repository changes, that is when classes are replaced or removed in it. Call
+ * {@link #clear()} for repositories that do not count modifications.
+ * </p>
+ *
+ * @see org.apache.bcel.Repository#getClassHierarchy()
+ * @since 6.13.0
+ */
+public class ClassHierarchy {
+
+    private static final class Node {
+
+        final String className;
+        final boolean isInterface;
+        final int interfaceNumber; // -1 for classes
+        final Node[] superclasses; // By depth, ending with this node
+        final BitSet interfaces; // Numbers of the interfaces implemented, including this one
+
+        Node(final String className, final boolean isInterface, final int interfaceNumber, final Node superclass, final BitSet interfaces) {
+            this.className = className;
+            this.isInterface = isInterface;
+            this.interfaceNumber = interfaceNumber;
+            if (superclass == null) {
+                superclasses = new Node[] {this};
+            } else {
+                superclasses = new Node[superclass.superclasses.length + 1];
+                System.arraycopy(superclass.superclasses, 0, superclasses, 0, superclass.superclasses.length);
+                superclasses[superclass.superclasses.length] = this;
+            }
+            if (isInterface) {
+                interfaces.set(interfaceNumber);
+            }
+            this.interfaces = interfaces;
+        }
+
+        int depth() {
+            return superclasses.length - 1;
+        }
+    }
+
+    private final Repository repository;
+    private final ConcurrentHashMap<String, Node> nodes = new ConcurrentHashMap<>();
+    private final AtomicInteger interfaceCount = new AtomicInteger();
+    private volatile long modificationCount;
+
+    /**
+     * Constructs an empty index over a repository.
+     *
+     * @param repository loads the classes to index.
+     */
+    public ClassHierarchy(final Repository repository) {
+        this.repository = repository;
+        this.modificationCount = repository.getModificationCount();
+    }
+
+    /**
+     * Indexes a class, such as one that is being generated and is not in the repository. A class that is already indexed
+     * is kept.
+     *
+     * @param clazz the class.
+     * @throws ClassNotFoundException if a supertype of the class cannot be found.
+     */
+    public void addClass(final JavaClass clazz) throws ClassNotFoundException {
+        checkRepository();
+        if (!nodes.containsKey(clazz.getClassName())) {
+            index(clazz, new HashSet<>());
+        }
+    }
+
+    /**
+     * Clears the index if classes were replaced or removed in the repository since it was last checked.
+     */
+    private void checkRepository() {
+        final long count = repository.getModificationCount();
+        if (count != modificationCount) {
+            modificationCount = count;
+            nodes.clear();
+        }
+    }
+
+    /**
+     * Removes all classes from the index.
+     */
+    public void clear() {
+        nodes.clear();
+    }
+
+    /**
+     * Gets the first common superclass of two classes, that is the narrowest class both are subclasses of. Interfaces
+     * count as subclasses of {@link Object} only.
+     *
+     * @param className a class name.
+     * @param otherClassName another class name.
+     * @return the name of the common superclass.
+     * @throws ClassNotFoundException if a class or one of its supertypes cannot be found.
+     */
+    public String getFirstCommonSuperclass(final String className, final String otherClassName) throws ClassNotFoundException {
+        checkRepository();
+        final Node[] a = node(className).superclasses;
+        final Node[] b = node(otherClassName).superclasses;
+        // Both arrays agree up to some depth and differ below it
+        int low = 0;
+        int high = Math.min(a.length, b.length) - 1;
+        if (a[low] != b[low]) {
+            return null;
+        }
+        while (low < high) {
+            final int mid = low + high + 1 >>> 1;
+            if (a[mid] == b[mid]) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return a[low].className;
+    }
+
+    /**
+     * Gets the repository the classes are loaded from.
+     *
+     * @return the repository.
+     */
+    public Repository getRepository() {
+        return repository;
+    }
+
+    /**
+     * Tests whether a class or interface is, or implements, an interface.
+     *
+     * @param className the name of the class or interface.
+     * @param interfaceName the name of the interface.
+     * @return true if the class implements the interface.
+     * @throws ClassNotFoundException if a class or one of its supertypes cannot be found.
+     * @throws IllegalArgumentException if {@code interfaceName} is not an interface.
+     * @see JavaClass#implementationOf(JavaClass)
+     */
+    public boolean implementationOf(final String className, final String interfaceName) throws ClassNotFoundException {
+        checkRepository();
+        final Node node = node(className);
+        final Node inter = node(interfaceName);
+        if (!inter.isInterface) {
+            throw new IllegalArgumentException(interfaceName + " is no interface");
+        }
+        return node.interfaces.get(inter.interfaceNumber);
+    }
+
+    private Node index(final JavaClass clazz, final Set<String> visiting) throws ClassNotFoundException {
+        final String className = clazz.getClassName();
+        visiting.add(className);
+        Node superclass = null;
+        if (clazz.getSuperclassNameIndex() != 0) {
+            final String superclassName = clazz.getSuperclassName();
+            if (visiting.contains(superclassName)) {
+                throw new ClassFormatException("Cyclic inheritance involving " + className);
+            }
+            superclass = node(superclassName, visiting);
+        }
+        final BitSet interfaces = superclass == null ? new BitSet() : (BitSet) superclass.interfaces.clone();
+        for (final String interfaceName : clazz.getInterfaceNames()) {
+            // Invalid cycles of interfaces are cut
+            if (!visiting.contains(interfaceName)) {
+                interfaces.or(node(interfaceName, visiting).interfaces);
+            }
+        }
+        visiting.remove(className);
+        final boolean isInterface = clazz.isInterface();
+        final Node node = new Node(className, isInterface, isInterface ? interfaceCount.getAndIncrement() : -1, superclass, interfaces);
+        final Node existing = nodes.putIfAbsent(className, node);
+        return existing != null ? existing : node;
+    }
+
+    /**
+     * Tests whether a class is, extends or implements another class or interface, like the {@code instanceof}
+     * operator.
+     *
+     * @param className the name of the class.
+     * @param superName the name of the other class or interface.
+     * @return true if instances of the class are instances of the other.
+     * @throws ClassNotFoundException if a class or one of its supertypes cannot be found.
+     * @see JavaClass#instanceOf(JavaClass)
+     */
+    public boolean instanceOf(final String className, final String superName) throws ClassNotFoundException {
+        checkRepository();
+        final Node node = node(className);
+        final Node superNode = node(superName);
+        if (superNode.isInterface) {
+            return node.interfaces.get(superNode.interfaceNumber);
+        }
+        final int depth = superNode.depth();
+        return depth <= node.depth() && node.superclasses[depth] == superNode;
+    }
+
+    /**
+     * Tests whether a class is an interface.
+     *
+     * @param className the name of the class.
+     * @return true if it is an interface.
+     * @throws ClassNotFoundException if the class or one of its supertypes cannot be found.
+     */
+    public boolean isInterface(final String className) throws ClassNotFoundException {
+        checkRepository();
+        return node(className).isInterface;
+    }
+
+    private Node node(final String className) throws ClassNotFoundException {
+        return node(className, new HashSet<>());
+    }
+
+    private Node node(final String className, final Set<String> visiting) throws ClassNotFoundException {
+        final Node node = nodes.get(className);
+        return node != null ? node : index(repository.loadClass(className), visiting);
+    }
+}
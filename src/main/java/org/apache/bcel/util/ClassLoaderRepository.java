@@ -38,6 +38,7 @@ public class ClassLoaderRepository implements Repository {
 
     private final java.lang.ClassLoader loader;
     private final Map<String, JavaClass> loadedClasses = new HashMap<>(); // CLASSNAME X JAVACLASS
+    private long modificationCount;
 
     /**
      * Constructs a ClassLoaderRepository.
@@ -54,6 +55,7 @@ public class ClassLoaderRepository implements Repository {
     @Override
     public void clear() {
         loadedClasses.clear();
+        modificationCount++;
     }
 
     /**
@@ -72,6 +74,11 @@ public class ClassLoaderRepository implements Repository {
         return null;
     }
 
+    @Override
+    public long getModificationCount() {
+        return modificationCount;
+    }
+
     @Override
     public JavaClass loadClass(final Class<?> clazz) throws ClassNotFoundException {
         return loadClass(clazz.getName());
@@ -105,7 +112,9 @@ public class ClassLoaderRepository implements Repository {
      */
     @Override
     public void removeClass(final JavaClass clazz) {
-        loadedClasses.remove(clazz.getClassName());
+        if (loadedClasses.remove(clazz.getClassName()) != null) {
+            modificationCount++;
+        }
     }
 
     /**
@@ -113,7 +122,10 @@ public class ClassLoaderRepository implements Repository {
      */
     @Override
     public void storeClass(final JavaClass clazz) {
-        loadedClasses.put(clazz.getClassName(), clazz);
+        final JavaClass old = loadedClasses.put(clazz.getClassName(), clazz);
+        if (old != null && old != clazz) {
+            modificationCount++;
+        }
         clazz.setRepository(this);
     }
 }
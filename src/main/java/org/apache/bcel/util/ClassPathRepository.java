@@ -49,6 +49,7 @@ public class ClassPathRepository extends AbstractClassPathRepository {
     @Override
     public void clear() {
         loadedClasses.clear();
+        modified();
     }
 
     /**
@@ -64,7 +65,9 @@ public class ClassPathRepository extends AbstractClassPathRepository {
      */
     @Override
     public void removeClass(final JavaClass javaClass) {
-        loadedClasses.remove(javaClass.getClassName());
+        if (loadedClasses.remove(javaClass.getClassName()) != null) {
+            modified();
+        }
     }
 
     /**
@@ -72,7 +75,10 @@ public class ClassPathRepository extends AbstractClassPathRepository {
      */
     @Override
     public void storeClass(final JavaClass javaClass) {
-        loadedClasses.put(javaClass.getClassName(), javaClass);
+        final JavaClass old = loadedClasses.put(javaClass.getClassName(), javaClass);
+        if (old != null && old != javaClass) {
+            modified();
+        }
         javaClass.setRepository(this);
     }
 }
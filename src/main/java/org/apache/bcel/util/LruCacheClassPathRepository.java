@@ -65,6 +65,7 @@ public class LruCacheClassPathRepository extends AbstractClassPathRepository {
     @Override
     public void clear() {
         loadedClasses.clear();
+        modified();
     }
 
     @Override
@@ -74,13 +75,18 @@ public class LruCacheClassPathRepository extends AbstractClassPathRepository {
 
     @Override
     public void removeClass(final JavaClass javaClass) {
-        loadedClasses.remove(javaClass.getClassName());
+        if (loadedClasses.remove(javaClass.getClassName()) != null) {
+            modified();
+        }
     }
 
     @Override
     public void storeClass(final JavaClass javaClass) {
         // Not storing parent's _loadedClass
-        loadedClasses.put(javaClass.getClassName(), javaClass);
+        final JavaClass old = loadedClasses.put(javaClass.getClassName(), javaClass);
+        if (old != null && old != javaClass) {
+            modified();
+        }
         javaClass.setRepository(this);
     }
 }
@@ -51,6 +51,7 @@ public class MemorySensitiveClassPathRepository extends AbstractClassPathReposit
     @Override
     public void clear() {
         loadedClasses.clear();
+        modified();
     }
 
     /**
@@ -67,7 +68,9 @@ public class MemorySensitiveClassPathRepository extends AbstractClassPathReposit
      */
     @Override
     public void removeClass(final JavaClass clazz) {
-        loadedClasses.remove(clazz.getClassName());
+        if (loadedClasses.remove(clazz.getClassName()) != null) {
+            modified();
+        }
     }
 
     /**
@@ -76,7 +79,11 @@ public class MemorySensitiveClassPathRepository extends AbstractClassPathReposit
     @Override
     public void storeClass(final JavaClass clazz) {
         // Not calling super.storeClass because this subclass maintains the mapping.
-        loadedClasses.put(clazz.getClassName(), new SoftReference<>(clazz));
+        final SoftReference<JavaClass> ref = loadedClasses.put(clazz.getClassName(), new SoftReference<>(clazz));
+        final JavaClass old = ref == null ? null : ref.get();
+        if (old != null && old != clazz) {
+            modified();
+        }
         clazz.setRepository(this);
     }
 }
@@ -48,6 +48,18 @@ public interface Repository {
      */
     ClassPath getClassPath();
 
+    /**
+     * Gets a number that changes whenever classes are replaced or removed, so that indexes over the repository such as
+     * {@link ClassHierarchy} know when they are out of date. Loading or storing a class that is not in the repository
+     * yet does not change it.
+     *
+     * @return the modification count, always 0 if the repository does not count modifications.
+     * @since 6.13.0
+     */
+    default long getModificationCount() {
+        return 0;
+    }
+
     /**
      * Finds the JavaClass instance for the given run-time class object.
      *
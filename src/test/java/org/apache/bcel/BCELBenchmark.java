@@ -25,6 +25,7 @@ import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 
 import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.Code;
 import org.apache.bcel.classfile.JavaClass;
 import org.apache.bcel.classfile.Method;
 import org.apache.bcel.generic.ClassGen;
@@ -102,6 +103,37 @@ public class BCELBenchmark {
         return new JarFile(javaHome + "/lib/rt.jar");
     }
 
+    /**
+     * Decodes the code of every method into an instruction list.
+     */
+    @Benchmark
+    public void instructionList(final Blackhole bh) throws IOException {
+        instructionList(bh, false);
+    }
+
+    private void instructionList(final Blackhole bh, final boolean intern) throws IOException {
+        final JarFile jar = getJarFile();
+        for (JarEntry entry : getClasses(jar)) {
+            final byte[] bytes = IOUtils.toByteArray(jar.getInputStream(entry));
+            final JavaClass clazz = new ClassParser(new ByteArrayInputStream(bytes), entry.getName()).parse();
+            for (Method m : clazz.getMethods()) {
+                final Code code = m.getCode();
+                if (code != null) {
+                    bh.consume(new InstructionList(code.getCode(), intern));
+                }
+            }
+        }
+        jar.close();
+    }
+
+    /**
+     * Decodes the code of every method into an instruction list with interned instructions.
+     */
+    @Benchmark
+    public void internedInstructionList(final Blackhole bh) throws IOException {
+        instructionList(bh, true);
+    }
+
     @Benchmark
     public void parser(final Blackhole bh) throws IOException {
         final JarFile jar = getJarFile();
@@ -21,6 +21,7 @@ package org.apache.bcel.classfile;
 
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.io.ByteArrayInputStream;
@@ -228,4 +229,23 @@ class JavaClassTest {
     void testGetSuperClassesAll(final Class<?> clazz) throws ClassNotFoundException {
         assertNotNull(Repository.lookupClass(clazz.getName()).getSuperClasses());
     }
+
+    @Test
+    void testGetMemberByNameAndSignature() throws Exception {
+        final JavaClass clazz = Repository.lookupClass(String.class).copy();
+        final Method length = clazz.getMethod("length", "()I");
+        assertNotNull(length);
+        assertSame(length, clazz.getMethod(String.class.getMethod("length")));
+        assertNull(clazz.getMethod("length", "()J"));
+        assertNotNull(clazz.getField("value", "[C") != null ? clazz.getField("value", "[C") : clazz.getField("value", "[B"));
+        assertNull(clazz.getField("value", "I"));
+        final int isEmpty = clazz.getMethod("isEmpty", "()Z").getNameIndex();
+        clazz.setMethods(new Method[] {length});
+        assertSame(length, clazz.getMethod("length", "()I"));
+        assertNull(clazz.getMethod("isEmpty", "()Z"));
+        // Renamed in place to a name that is looked up before the old one
+        length.setNameIndex(isEmpty);
+        assertSame(length, clazz.getMethod("isEmpty", "()I"));
+        assertNull(clazz.getMethod("length", "()I"));
+    }
 }
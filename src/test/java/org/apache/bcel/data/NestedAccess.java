@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.data;
+
+import java.util.function.Supplier;
+
+/**
+ * Inner classes using private members of their outer class through the accessors of class files before Java 11.
+ */
+public class NestedAccess {
+
+    final class Inner {
+
+        String run() {
+            count++;
+            total += count;
+            setName(name + '!');
+            return describe(count) + ':' + total + ':' + NestedAccess.super.getClass().getSimpleName();
+        }
+    }
+
+    private static String name = "nested";
+
+    public static String run() {
+        final NestedAccess outer = new NestedAccess(3);
+        return outer.new Inner().run() + ',' + outer.supplier().get();
+    }
+
+    private static void setName(final String value) {
+        name = value;
+    }
+
+    private int count;
+
+    private long total;
+
+    private NestedAccess(final int count) {
+        this.count = count;
+    }
+
+    private String describe(final int value) {
+        return name + '=' + value;
+    }
+
+    Supplier<String> supplier() {
+        return new Supplier<String>() {
+            @Override
+            public String get() {
+                return describe(count *= 2) + ':' + (total -= 1);
+            }
+        };
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.generic;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.Arrays;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.NestHost;
+import org.apache.bcel.classfile.NestMembers;
+import org.apache.bcel.data.NestedAccess;
+import org.apache.bcel.util.ClassPath;
+import org.apache.bcel.util.ClassPathRepository;
+import org.junit.jupiter.api.Test;
+
+class AccessorEliminatorTest {
+
+    private static final String HOST = NestedAccess.class.getName();
+
+    private static final String[] MEMBERS = {HOST + "$Inner", HOST + "$1"};
+
+    private static JavaClass[] nest() throws ClassNotFoundException {
+        return new JavaClass[] {Repository.lookupClass(MEMBERS[0]), Repository.lookupClass(HOST), Repository.lookupClass(MEMBERS[1])};
+    }
+
+    private static long accessors(final JavaClass clazz) {
+        return Arrays.stream(clazz.getMethods()).filter(m -> m.getName().startsWith("access$")).count();
+    }
+
+    @Test
+    void testIncompleteNest() throws ClassNotFoundException {
+        final JavaClass[] classes = Arrays.copyOf(nest(), 2);
+        final JavaClass[] transformed = new AccessorEliminator().transform(classes);
+        assertSame(classes[0], transformed[0]);
+        assertSame(classes[1], transformed[1]);
+    }
+
+    @Test
+    void testRepository() throws ClassNotFoundException {
+        final ClassPathRepository repository = new ClassPathRepository(ClassPath.SYSTEM_CLASS_PATH);
+        new AccessorEliminator().transform(repository, HOST, MEMBERS[0], MEMBERS[1]);
+        assertEquals(Const.MAJOR_11, repository.loadClass(HOST).getMajor());
+        assertEquals(1, accessors(repository.loadClass(HOST)));
+    }
+
+    @Test
+    void testTransform() throws Exception {
+        final JavaClass[] classes = nest();
+        assertEquals(10, accessors(classes[1]));
+        final JavaClass[] transformed = new AccessorEliminator().transform(classes);
+        final JavaClass host = transformed[1];
+        assertEquals(HOST, host.getClassName());
+        // The accessor calling Object.getClass() with INVOKESPECIAL is kept
+        assertEquals(1, accessors(host));
+        assertArrayEquals(MEMBERS, ((NestMembers) host.getAttribute(Const.ATTR_NEST_MEMBERS)).getClassNames());
+        for (final JavaClass clazz : transformed) {
+            assertEquals(Const.MAJOR_11, clazz.getMajor());
+            if (clazz != host) {
+                assertEquals(HOST, ((NestHost) clazz.getAttribute(Const.ATTR_NEST_HOST)).getConstantPool()
+                    .constantToString(((NestHost) clazz.getAttribute(Const.ATTR_NEST_HOST)).getHostClassIndex(), Const.CONSTANT_Class));
+            }
+        }
+        final ByteArrayClassLoader loader = new ByteArrayClassLoader();
+        final Class<?> hostClass = loader.defineClass(host);
+        loader.defineClass(transformed[0]);
+        loader.defineClass(transformed[2]);
+        assertEquals(NestedAccess.run(), hostClass.getMethod("run").invoke(null));
+    }
+}
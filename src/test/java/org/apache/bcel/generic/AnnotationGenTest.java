@@ -19,6 +19,7 @@
 
 package org.apache.bcel.generic;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -29,17 +30,69 @@ import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 import org.apache.bcel.AbstractTest;
 import org.apache.bcel.Const;
 import org.apache.bcel.classfile.Annotations;
+import org.apache.bcel.classfile.ArrayElementValue;
 import org.apache.bcel.classfile.Attribute;
+import org.apache.bcel.classfile.ClassParser;
+import org.apache.bcel.classfile.JavaClass;
 import org.apache.bcel.classfile.RuntimeInvisibleAnnotations;
+import org.apache.bcel.classfile.RuntimeInvisibleParameterAnnotations;
 import org.apache.bcel.classfile.RuntimeVisibleAnnotations;
+import org.apache.bcel.classfile.RuntimeVisibleParameterAnnotations;
 import org.junit.jupiter.api.Test;
 
 class AnnotationGenTest extends AbstractTest {
+
+    private static byte[] body(final Attribute attribute) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            attribute.dump(dos);
+        }
+        final byte[] bytes = baos.toByteArray();
+        assertEquals(6 + attribute.getLength(), bytes.length, "Length of " + attribute);
+        return Arrays.copyOfRange(bytes, 6, bytes.length);
+    }
+
+    private static byte[] encode(final int count, final boolean parameters, final AnnotationEntryGen... annotations) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (DataOutputStream dos = new DataOutputStream(baos)) {
+            if (parameters) {
+                dos.writeByte(count);
+            } else {
+                dos.writeShort(count);
+            }
+            for (final AnnotationEntryGen a : annotations) {
+                if (parameters) {
+                    dos.writeShort(a == null ? 0 : 1);
+                }
+                if (a != null) {
+                    a.dump(dos);
+                }
+            }
+        }
+        return baos.toByteArray();
+    }
+
+    private AnnotationEntryGen createAnnotation(final ConstantPoolGen cp, final boolean visible) {
+        final ArrayElementValueGen array = new ArrayElementValueGen(cp);
+        array.addElement(new SimpleElementValueGen(ElementValueGen.STRING, cp, "a"));
+        array.addElement(new ClassElementValueGen(ObjectType.getInstance("java.lang.String"), cp));
+        array.addElement(new EnumElementValueGen(ObjectType.getInstance("java.lang.annotation.ElementType"), "FIELD", cp));
+        final AnnotationEntryGen nested = new AnnotationEntryGen(ObjectType.getInstance("Nested"),
+            new ArrayList<>(Collections.singletonList(new ElementValuePairGen("value", new SimpleElementValueGen(ElementValueGen.PRIMITIVE_LONG, cp, 42L), cp))), true,
+            cp);
+        final List<ElementValuePairGen> elements = new ArrayList<>();
+        elements.add(new ElementValuePairGen("id", new SimpleElementValueGen(ElementValueGen.PRIMITIVE_INT, cp, 4), cp));
+        elements.add(new ElementValuePairGen("values", array, cp));
+        elements.add(new ElementValuePairGen("nested", new AnnotationElementValueGen(ElementValueGen.ANNOTATION, nested, cp), cp));
+        return new AnnotationEntryGen(ObjectType.getInstance("Complex"), elements, visible, cp);
+    }
     private void checkSerialize(final AnnotationEntryGen a, final ConstantPoolGen cpg) throws IOException {
         final String beforeName = a.getTypeName();
         final ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -134,4 +187,57 @@ class AnnotationGenTest extends AbstractTest {
         }
         assertTrue(foundRIV, "Should have seen a RuntimeInvisibleAnnotation");
     }
+
+    @Test
+    void testAnnotationAttributes() throws IOException {
+        final ConstantPoolGen cp = createClassGen("HelloWorld").getConstantPool();
+        final AnnotationEntryGen visible = createAnnotation(cp, true);
+        final AnnotationEntryGen invisible = createAnnotation(cp, false);
+        final AnnotationEntryGen other = createAnnotation(cp, true);
+        final Attribute[] attributes = AnnotationEntryGen.getAnnotationAttributes(cp, new AnnotationEntryGen[] {visible, invisible, other});
+        assertEquals(2, attributes.length);
+        assertTrue(attributes[0] instanceof RuntimeVisibleAnnotations);
+        assertArrayEquals(encode(2, false, visible, other), body(attributes[0]));
+        assertEquals("LComplex;", ((Annotations) attributes[0]).getAnnotationEntries()[1].getAnnotationType());
+        assertTrue(attributes[1] instanceof RuntimeInvisibleAnnotations);
+        assertArrayEquals(encode(1, false, invisible), body(attributes[1]));
+        assertEquals(0, AnnotationEntryGen.getAnnotationAttributes(cp, AnnotationEntryGen.EMPTY_ARRAY).length);
+    }
+
+    @Test
+    void testAnnotationAttributesAfterValuesChanged() throws IOException {
+        final ClassGen cg = createClassGen("HelloWorld");
+        final ConstantPoolGen cp = cg.getConstantPool();
+        final AnnotationEntryGen visible = createAnnotation(cp, true);
+        cg.addAnnotationEntry(visible);
+        final ArrayElementValueGen array = (ArrayElementValueGen) visible.getValues().get(1).getValue();
+        final AnnotationEntryGen nested = ((AnnotationElementValueGen) visible.getValues().get(2).getValue()).getAnnotation();
+        final int length = findAttribute("RuntimeVisibleAnnotations", cg.getJavaClass().getAttributes()).getLength();
+        // Changed through references held elsewhere after the class was written once
+        array.addElement(new SimpleElementValueGen(ElementValueGen.STRING, cp, "b"));
+        nested.addElementNameValuePair(new ElementValuePairGen("flag", new SimpleElementValueGen(ElementValueGen.PRIMITIVE_BOOLEAN, cp, true), cp));
+        final JavaClass jc = cg.getJavaClass();
+        final Attribute attribute = findAttribute("RuntimeVisibleAnnotations", jc.getAttributes());
+        assertEquals(length + 3 + 5, attribute.getLength());
+        assertArrayEquals(encode(1, false, visible), body(attribute));
+        final JavaClass parsed = new ClassParser(new ByteArrayInputStream(jc.getBytes()), "HelloWorld.class").parse();
+        final ArrayElementValue values = (ArrayElementValue) parsed.getAnnotationEntries()[0].getElementValuePairs()[1].getValue();
+        assertEquals(4, values.getElementValuesArraySize());
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    void testParameterAnnotationAttributes() throws IOException {
+        final ConstantPoolGen cp = createClassGen("HelloWorld").getConstantPool();
+        final AnnotationEntryGen visible = createAnnotation(cp, true);
+        final AnnotationEntryGen invisible = createAnnotation(cp, false);
+        final List<AnnotationEntryGen>[] parameters = new List[] {Collections.singletonList(visible), null, Collections.singletonList(invisible)};
+        final Attribute[] attributes = AnnotationEntryGen.getParameterAnnotationAttributes(cp, parameters);
+        assertEquals(2, attributes.length);
+        assertTrue(attributes[0] instanceof RuntimeVisibleParameterAnnotations);
+        assertArrayEquals(encode(3, true, visible, null, null), body(attributes[0]));
+        assertTrue(attributes[1] instanceof RuntimeInvisibleParameterAnnotations);
+        assertArrayEquals(encode(3, true, null, null, invisible), body(attributes[1]));
+        assertEquals(0, AnnotationEntryGen.getParameterAnnotationAttributes(cp, new List[] {null}).length);
+    }
 }
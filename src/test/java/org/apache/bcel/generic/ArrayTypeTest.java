@@ -20,6 +20,9 @@
 package org.apache.bcel.generic;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import org.junit.jupiter.api.Test;
 
@@ -53,6 +56,19 @@ class ArrayTypeTest {
         assertEquals(type, objectType.getElementType());
     }
 
+    @Test
+    void testGetInstance() {
+        final ArrayType type = ArrayType.getInstance(Type.STRING, 2);
+        assertSame(type, ArrayType.getInstance(ArrayType.getInstance(Type.STRING, 1), 1));
+        assertSame(type, Type.getType("[[Ljava/lang/String;"));
+        assertSame(type.getElementType(), ArrayType.getInstance(Type.STRING, 1));
+        final ArrayType created = new ArrayType(Type.STRING, 2);
+        assertNotSame(type, created);
+        assertEquals(type, created);
+        assertThrows(ClassGenException.class, () -> ArrayType.getInstance(Type.INT, 0));
+        assertThrows(ClassGenException.class, () -> ArrayType.getInstance(Type.VOID, 1));
+    }
+
     @Test
     void testGetSignatureDim1() {
         final ArrayType objectType = new ArrayType(Type.BYTE, 1);
@@ -0,0 +1,188 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.generic;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.junit.jupiter.api.Test;
+
+class BasicBlockGraphTest {
+
+    public static class Sample {
+
+        public static int nested(final int n) {
+            int s = 0;
+            for (int i = 0; i < n; i++) {
+                for (int j = 0; j < i; j++) {
+                    s += j;
+                }
+            }
+            return s;
+        }
+    }
+
+    private final MethodGen mg = TestMethods.create(new ConstantPoolGen());
+    private final InstructionList il = mg.getInstructionList();
+
+    @Test
+    void testBranchesAndLoop() {
+        // int y = x > 0 ? 1 : 2; while (y > 0) y--; return y;
+        il.append(new ILOAD(0));
+        final BranchHandle ifle = il.append(new IFLE(null));
+        il.append(InstructionConst.ICONST_1);
+        il.append(new ISTORE(1));
+        final BranchHandle toJoin = il.append(new GOTO(null));
+        final InstructionHandle orElse = il.append(InstructionConst.ICONST_2);
+        il.append(new ISTORE(1));
+        final InstructionHandle join = il.append(new ILOAD(1));
+        final BranchHandle exitLoop = il.append(new IFLE(null));
+        final InstructionHandle body = il.append(new IINC(1, -1));
+        il.append(new GOTO(join));
+        final InstructionHandle exit = il.append(new ILOAD(1));
+        il.append(InstructionConst.IRETURN);
+        final InstructionHandle dead = il.append(InstructionConst.ICONST_0);
+        il.append(InstructionConst.IRETURN);
+        ifle.setTarget(orElse);
+        toJoin.setTarget(join);
+        exitLoop.setTarget(exit);
+        il.setPositions();
+
+        final BasicBlockGraph graph = new BasicBlockGraph(mg);
+        final BasicBlock[] blocks = graph.getBlocks();
+        assertEquals(7, blocks.length);
+        final BasicBlock b0 = blocks[0];
+        final BasicBlock b1 = blocks[1];
+        final BasicBlock b2 = blocks[2];
+        final BasicBlock b3 = blocks[3];
+        final BasicBlock b4 = blocks[4];
+        final BasicBlock b5 = blocks[5];
+        final BasicBlock b6 = blocks[6];
+        assertSame(b0, graph.getEntry());
+        assertSame(b3, graph.getBlock(join));
+        assertSame(b4, graph.getBlock(body));
+        assertSame(toJoin, b1.getEnd());
+        assertEquals(3, b1.getInstructions().length);
+        assertArrayEquals(new BasicBlock[] {b2, b1}, b0.getSuccessors());
+        assertArrayEquals(new BasicBlock[] {b1, b2, b4}, b3.getPredecessors());
+        assertArrayEquals(new BasicBlock[0], b5.getSuccessors());
+
+        final BasicBlock[] rpo = graph.getReversePostOrder();
+        assertEquals(6, rpo.length);
+        assertSame(b0, rpo[0]);
+        assertTrue(b3.getReversePostOrderIndex() > b1.getReversePostOrderIndex());
+        assertTrue(b3.getReversePostOrderIndex() > b2.getReversePostOrderIndex());
+        assertTrue(b4.getReversePostOrderIndex() > b3.getReversePostOrderIndex());
+        assertSame(b6, graph.getBlock(dead));
+
+        assertNull(b0.getImmediateDominator());
+        assertSame(b0, b1.getImmediateDominator());
+        assertSame(b0, b3.getImmediateDominator());
+        assertSame(b3, b5.getImmediateDominator());
+        assertTrue(graph.dominates(b0, b5));
+        assertTrue(graph.dominates(b3, b3));
+        assertFalse(graph.dominates(b1, b3));
+        assertFalse(graph.dominates(b4, b5));
+
+        assertSame(b3, b0.getImmediatePostDominator());
+        assertSame(b3, b4.getImmediatePostDominator());
+        assertSame(b5, b3.getImmediatePostDominator());
+        assertNull(b5.getImmediatePostDominator());
+        assertTrue(graph.postDominates(b5, b0));
+        assertFalse(graph.postDominates(b1, b0));
+
+        assertFalse(b6.isReachable());
+        assertEquals(-1, b6.getReversePostOrderIndex());
+        assertNull(b6.getImmediateDominator());
+        assertFalse(graph.dominates(b0, b6));
+
+        assertArrayEquals(new BasicBlock[] {b3}, graph.getLoopHeaders());
+        assertArrayEquals(new BasicBlock[] {b3, b4}, graph.getLoop(b3));
+        assertArrayEquals(new BasicBlock[0], graph.getLoop(b0));
+        assertEquals(1, b4.getLoopDepth());
+        assertEquals(0, b5.getLoopDepth());
+    }
+
+    @Test
+    void testExceptionEdges() {
+        // int y = 1; try { return x / x; } catch (ArithmeticException e) { return -1; }
+        il.append(InstructionConst.ICONST_1);
+        il.append(new ISTORE(1));
+        final InstructionHandle tryStart = il.append(new ILOAD(0));
+        il.append(new ILOAD(0));
+        il.append(InstructionConst.IDIV);
+        final InstructionHandle tryEnd = il.append(InstructionConst.IRETURN);
+        final InstructionHandle handler = il.append(InstructionConst.POP);
+        il.append(InstructionConst.ICONST_M1);
+        il.append(InstructionConst.IRETURN);
+        mg.addExceptionHandler(tryStart, tryEnd, handler, new ObjectType("java.lang.ArithmeticException"));
+
+        final BasicBlockGraph graph = new BasicBlockGraph(mg);
+        final BasicBlock[] blocks = graph.getBlocks();
+        assertEquals(3, blocks.length);
+        assertSame(tryStart, blocks[1].getStart());
+        assertArrayEquals(new BasicBlock[] {blocks[1]}, blocks[0].getSuccessors());
+        assertArrayEquals(new BasicBlock[0], blocks[0].getExceptionSuccessors());
+        assertArrayEquals(new BasicBlock[] {blocks[2]}, blocks[1].getExceptionSuccessors());
+        assertArrayEquals(new BasicBlock[] {blocks[1]}, blocks[2].getExceptionPredecessors());
+        assertArrayEquals(new BasicBlock[0], blocks[2].getPredecessors());
+        assertTrue(blocks[2].isReachable());
+        assertSame(blocks[1], blocks[2].getImmediateDominator());
+        assertTrue(graph.postDominates(blocks[1], blocks[0]));
+        assertNull(blocks[1].getImmediatePostDominator());
+        assertEquals(0, graph.getLoopHeaders().length);
+    }
+
+    @Test
+    void testNestedLoopsOfCompiledCode() throws Exception {
+        final JavaClass clazz = Repository.lookupClass(Sample.class);
+        final Method method = clazz.getMethod(Sample.class.getMethod("nested", int.class));
+        final MethodGen nested = new MethodGen(method, clazz.getClassName(), new ConstantPoolGen(clazz.getConstantPool()));
+        final BasicBlockGraph graph = new BasicBlockGraph(nested);
+        final BasicBlock[] headers = graph.getLoopHeaders();
+        assertEquals(2, headers.length);
+        final BasicBlock outer = graph.dominates(headers[0], headers[1]) ? headers[0] : headers[1];
+        final BasicBlock inner = outer == headers[0] ? headers[1] : headers[0];
+        assertTrue(graph.dominates(outer, inner));
+        assertTrue(graph.getLoop(outer).length > graph.getLoop(inner).length);
+        assertEquals(2, inner.getLoopDepth());
+        for (final InstructionHandle ih : nested.getInstructionList()) {
+            if (ih.getInstruction().getOpcode() == Const.IADD) {
+                assertEquals(2, graph.getBlock(ih).getLoopDepth());
+            } else if (ih.getInstruction().getOpcode() == Const.IRETURN) {
+                assertEquals(0, graph.getBlock(ih).getLoopDepth());
+            }
+        }
+        for (final BasicBlock block : graph.getReversePostOrder()) {
+            for (final BasicBlock succ : block.getSuccessors()) {
+                // Every edge goes forward in reverse post order except the back edges
+                assertTrue(succ.getReversePostOrderIndex() > block.getReversePostOrderIndex() || graph.dominates(succ, block));
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.generic;
+
+import org.apache.bcel.classfile.JavaClass;
+
+/**
+ * Defines generated classes in tests, so that the JVM verifies and runs them.
+ */
+final class ByteArrayClassLoader extends ClassLoader {
+
+    ByteArrayClassLoader() {
+        super(ByteArrayClassLoader.class.getClassLoader());
+    }
+
+    Class<?> defineClass(final JavaClass javaClass) {
+        final byte[] bytes = javaClass.getBytes();
+        return defineClass(javaClass.getClassName(), bytes, 0, bytes.length);
+    }
+}
@@ -19,9 +19,23 @@
 
 package org.apache.bcel.generic;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Attribute;
+import org.apache.bcel.classfile.Field;
+import org.apache.bcel.classfile.Method;
 import org.junit.jupiter.api.Test;
 
 /**
@@ -29,6 +43,38 @@ import org.junit.jupiter.api.Test;
  */
 class ClassGenTest {
 
+    @Test
+    void testAddBootstrapMethod() {
+        final ClassGen cg = new ClassGen("Dynamic", "java.lang.Object", "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+        final ConstantPoolGen cp = cg.getConstantPool();
+        final int handle = cp.addMethodHandle(Const.REF_invokeStatic, cp.addMethodref("Bootstrap", "bootstrap", "()V"));
+        assertEquals(handle, cp.addMethodHandle(Const.REF_invokeStatic, cp.addMethodref("Bootstrap", "bootstrap", "()V")));
+        final int type = cp.addMethodType("()V");
+        assertEquals(type, cp.addMethodType("()V"));
+        assertEquals(0, cg.addBootstrapMethod(handle, type));
+        assertEquals(1, cg.addBootstrapMethod(handle));
+        assertEquals(0, cg.addBootstrapMethod(handle, type));
+        // Starts over once the attribute is gone
+        final Attribute bootstrapMethods = cg.getAttributes()[cg.getAttributes().length - 1];
+        cg.removeAttribute(bootstrapMethods);
+        assertEquals(0, cg.addBootstrapMethod(handle));
+        cg.removeAttribute(cg.getAttributes()[cg.getAttributes().length - 1]);
+        cg.addAttribute(bootstrapMethods);
+        assertEquals(1, cg.addBootstrapMethod(handle));
+        final int indy = cp.addInvokeDynamic(1, "run", "()V");
+        assertEquals(indy, cp.addInvokeDynamic(1, "run", "()V"));
+        // Found again in a pool read back, and copied to another one
+        final ConstantPoolGen copy = new ConstantPoolGen(cp.getFinalConstantPool());
+        assertEquals(handle, copy.lookupMethodHandle(Const.REF_invokeStatic, cp.lookupMethodref("Bootstrap", "bootstrap", "()V")));
+        assertEquals(type, copy.lookupMethodType("()V"));
+        assertEquals(indy, copy.lookupInvokeDynamic(1, "run", "()V"));
+        final ConstantPoolGen other = new ConstantPoolGen();
+        final int copied = other.addConstant(cp.getConstant(indy), cp);
+        assertEquals(copied, other.lookupInvokeDynamic(1, "run", "()V"));
+        final int copiedHandle = other.addConstant(cp.getConstant(handle), cp);
+        assertEquals(copiedHandle, other.lookupMethodHandle(Const.REF_invokeStatic, other.lookupMethodref("Bootstrap", "bootstrap", "()V")));
+    }
+
     @Test
     void testBCELComparator() throws Exception {
         final ClassGen obj = new ClassGen("", "", "", 0, null);
@@ -37,4 +83,149 @@ class ClassGenTest {
         assertFalse(ClassGen.getComparator().equals(obj, null));
         assertFalse(ClassGen.getComparator().equals(null, obj));
     }
+
+    private static Method method(final ClassGen cg, final String name, final Type... argumentTypes) {
+        final InstructionList il = new InstructionList();
+        il.append(InstructionConst.RETURN);
+        final MethodGen mg = new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, Type.VOID, argumentTypes, null, name, cg.getClassName(), il,
+            cg.getConstantPool());
+        mg.setMaxStack();
+        return mg.getMethod();
+    }
+
+    @Test
+    void testFieldLookup() {
+        final ClassGen cg = new ClassGen("Fields", "java.lang.Object", "<generated>", Const.ACC_PUBLIC, null);
+        final ConstantPoolGen cp = cg.getConstantPool();
+        final Field a = new FieldGen(Const.ACC_PRIVATE, Type.INT, "a", cp).getField();
+        final Field b = new FieldGen(Const.ACC_PRIVATE, Type.STRING, "b", cp).getField();
+        cg.addField(a);
+        assertSame(a, cg.containsField("a"));
+        assertNull(cg.containsField("b"));
+        cg.addField(b);
+        assertSame(b, cg.containsField("b"));
+        final Field c = new FieldGen(Const.ACC_PRIVATE, Type.LONG, "c", cp).getField();
+        cg.replaceField(a, c);
+        assertNull(cg.containsField("a"));
+        assertSame(c, cg.containsField("c"));
+        cg.removeField(b);
+        assertNull(cg.containsField("b"));
+    }
+
+    @Test
+    void testMethodLookup() {
+        final ClassGen cg = new ClassGen("Methods", "java.lang.Object", "<generated>", Const.ACC_PUBLIC, null);
+        final Method f = method(cg, "f");
+        final Method fInt = method(cg, "f", Type.INT);
+        cg.addMethod(f);
+        assertSame(f, cg.containsMethod("f", "()V"));
+        cg.addMethod(fInt);
+        assertSame(fInt, cg.containsMethod("f", "(I)V"));
+        assertNull(cg.containsMethod("f", "(J)V"));
+        // The first of two equal methods wins, the second one is found once the first is gone
+        final Method duplicate = method(cg, "f");
+        cg.addMethod(duplicate);
+        assertSame(f, cg.containsMethod("f", "()V"));
+        cg.removeMethod(f);
+        assertSame(duplicate, cg.containsMethod("f", "()V"));
+        final Method g = method(cg, "g");
+        cg.replaceMethod(fInt, g);
+        assertNull(cg.containsMethod("f", "(I)V"));
+        assertSame(g, cg.containsMethod("g", "()V"));
+        assertSame(g, cg.getMethodAt(0));
+        // A clone shares the methods
+        final ClassGen clone = (ClassGen) cg.clone();
+        clone.removeMethod(g);
+        assertNull(cg.containsMethod("g", "()V"));
+        // Renamed in place, noticed when the old entry is found
+        duplicate.setNameIndex(cg.getConstantPool().addUtf8("h"));
+        assertNull(cg.containsMethod("f", "()V"));
+        assertSame(duplicate, cg.containsMethod("h", "()V"));
+        cg.setMethods(new Method[] {fInt});
+        assertSame(fInt, cg.containsMethod("f", "(I)V"));
+        assertNull(cg.containsMethod("h", "()V"));
+        // Renamed in place to a name that is looked up before the old one
+        fInt.setNameIndex(cg.getConstantPool().addUtf8("k"));
+        assertSame(fInt, cg.containsMethod("k", "(I)V"));
+        assertNull(cg.containsMethod("f", "(I)V"));
+    }
+
+    private static ClassGen methods(final int count) {
+        final ClassGen cg = new ClassGen("Transformed", "java.lang.Object", "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+        for (int i = 0; i < count; i++) {
+            final InstructionList il = new InstructionList();
+            il.append(new PUSH(cg.getConstantPool(), "unchanged"));
+            il.append(InstructionConst.ARETURN);
+            final MethodGen mg = new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, Type.STRING, Type.NO_ARGS, null, "m" + i, cg.getClassName(), il,
+                cg.getConstantPool());
+            mg.setMaxStack();
+            cg.addMethod(mg.getMethod());
+        }
+        return cg;
+    }
+
+    private static void transform(final MethodGen mg) {
+        final ConstantPoolGen cp = mg.getConstantPool();
+        final InstructionList il = new InstructionList();
+        il.append(new PUSH(cp, mg.getName()));
+        il.append(new PUSH(cp, "unchanged"));
+        il.append(new InstructionFactory(cp).createInvoke("java.lang.String", "concat", Type.STRING, new Type[] {Type.STRING}, Const.INVOKEVIRTUAL));
+        il.append(InstructionConst.ARETURN);
+        mg.setInstructionList(il);
+        mg.setMaxStack();
+    }
+
+    @Test
+    void testTransformMethods() throws Exception {
+        final ClassGen serial = methods(40);
+        serial.transformMethods(ClassGenTest::transform, Runnable::run);
+        final ClassGen parallel = methods(40);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            parallel.transformMethods(ClassGenTest::transform, executor);
+        } finally {
+            executor.shutdown();
+        }
+        assertArrayEquals(serial.getJavaClass().getBytes(), parallel.getJavaClass().getBytes());
+        final Class<?> clazz = new ByteArrayClassLoader().defineClass(parallel.getJavaClass());
+        assertEquals("m0unchanged", clazz.getMethod("m0").invoke(null));
+        assertEquals("m39unchanged", clazz.getMethod("m39").invoke(null));
+    }
+
+    @Test
+    void testTransformMethodsFailure() {
+        final ClassGen cg = methods(3);
+        final Method[] methods = cg.getMethods();
+        final IllegalStateException e = new IllegalStateException();
+        assertSame(e, assertThrows(IllegalStateException.class, () -> cg.transformMethods(mg -> {
+            transform(mg);
+            if (mg.getName().equals("m1")) {
+                throw e;
+            }
+        }, Runnable::run)));
+        assertArrayEquals(methods, cg.getMethods());
+    }
+
+    @Test
+    void testTransformMethodsStagingPools() {
+        final ClassGen cg = methods(2);
+        final ConstantPoolGen cp = cg.getConstantPool();
+        final int size = cp.getSize();
+        final int unchanged = cp.lookupString("unchanged");
+        cg.transformMethods(mg -> {
+            final ConstantPoolGen staging = mg.getConstantPool();
+            assertNotSame(cp, staging);
+            // The constants of the class pool keep their indices
+            assertEquals(unchanged, staging.addString("unchanged"));
+            assertEquals(size, staging.getSize());
+            transform(mg);
+            assertTrue(staging.lookupString(mg.getName()) >= size);
+            // Added constants stay in the staging pool until the merge
+            assertEquals(size, cp.getSize());
+            assertNull(cp.getConstant(size));
+            assertEquals(-1, cp.lookupString(mg.getName()));
+        }, Runnable::run);
+        assertNotEquals(-1, cp.lookupString("m0"));
+        assertNotEquals(-1, cp.lookupString("m1"));
+    }
 }
@@ -0,0 +1,174 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.generic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.Method;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.classfile.Code;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link CodeWriter}.
+ */
+class CodeWriterTest {
+
+    private static final String CLASS_NAME = "CodeWriterGenerated";
+    private static final int ACC_PUBLIC_STATIC = Const.ACC_PUBLIC | Const.ACC_STATIC;
+
+    private static Class<?> load(final ClassGen cg) {
+        return new ByteArrayClassLoader().defineClass(cg.getJavaClass());
+    }
+
+    private static ClassGen newClassGen() {
+        return new ClassGen(CLASS_NAME, "java.lang.Object", "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+    }
+
+    @Test
+    void testExceptionHandler() throws Exception {
+        final ClassGen cg = newClassGen();
+        final CodeWriter w = new CodeWriter(cg.getConstantPool(), true, new Type[] {Type.INT, Type.INT});
+        final CodeWriter.Label start = w.createLabel();
+        final CodeWriter.Label end = w.createLabel();
+        final CodeWriter.Label handler = w.createLabel();
+        w.addExceptionHandler(start, end, handler, new ObjectType("java.lang.ArithmeticException"));
+        w.mark(start);
+        w.emitLocal(Const.ILOAD, 0);
+        w.emitLocal(Const.ILOAD, 1);
+        w.emit(Const.IDIV);
+        w.mark(end);
+        w.emit(Const.IRETURN);
+        w.mark(handler);
+        w.emit(Const.POP);
+        w.emitPush(-1);
+        w.emit(Const.IRETURN);
+        cg.addMethod(w.getMethod(ACC_PUBLIC_STATIC, "div", "(II)I"));
+        final Method div = load(cg).getMethod("div", int.class, int.class);
+        assertEquals(3, div.invoke(null, 7, 2));
+        assertEquals(-1, div.invoke(null, 7, 0));
+        assertEquals(2, w.getMaxStack());
+        assertEquals(2, w.getMaxLocals());
+    }
+
+    @Test
+    void testLoopWithBackwardBranch() throws Exception {
+        final ClassGen cg = newClassGen();
+        final CodeWriter w = new CodeWriter(cg.getConstantPool(), true, new Type[] {Type.INT});
+        final CodeWriter.Label loop = w.createLabel();
+        final CodeWriter.Label test = w.createLabel();
+        // long sum = 0; for (int i = 0; i < n; i++) sum += i; return sum;
+        w.emitPush(0L);
+        w.emitLocal(Const.LSTORE, 1);
+        w.emitPush(0);
+        w.emitLocal(Const.ISTORE, 3);
+        w.emitJump(Const.GOTO, test);
+        w.mark(loop);
+        w.emitLocal(Const.LLOAD, 1);
+        w.emitLocal(Const.ILOAD, 3);
+        w.emit(Const.I2L);
+        w.emit(Const.LADD);
+        w.emitLocal(Const.LSTORE, 1);
+        w.emitIinc(3, 1);
+        w.mark(test);
+        w.emitLocal(Const.ILOAD, 3);
+        w.emitLocal(Const.ILOAD, 0);
+        w.emitJump(Const.IF_ICMPLT, loop);
+        w.emitLocal(Const.LLOAD, 1);
+        w.emit(Const.LRETURN);
+        cg.addMethod(w.getMethod(ACC_PUBLIC_STATIC, "sum", "(I)J"));
+        assertEquals(4, w.getMaxStack());
+        assertEquals(4, w.getMaxLocals());
+        assertEquals(4950L, load(cg).getMethod("sum", int.class).invoke(null, 100));
+    }
+
+    @Test
+    void testResetReusesWriter() {
+        final CodeWriter w = new CodeWriter(new ConstantPoolGen(), 0);
+        w.emitPush(1);
+        w.emit(Const.IRETURN);
+        w.reset(1);
+        w.emitLocal(Const.ALOAD, 0);
+        w.emit(Const.ARETURN);
+        final Code code = w.getCode();
+        assertEquals(1, code.getMaxStack());
+        assertEquals(1, code.getMaxLocals());
+        assertEquals(2, code.getCode().length);
+        assertEquals(Const.ALOAD_0, code.getCode()[0] & 0xff);
+    }
+
+    @Test
+    void testSwitches() throws Exception {
+        final ClassGen cg = newClassGen();
+        final CodeWriter w = new CodeWriter(cg.getConstantPool(), true, new Type[] {Type.INT});
+        final CodeWriter.Label[] cases = {w.createLabel(), w.createLabel(), w.createLabel()};
+        final CodeWriter.Label lookup = w.createLabel();
+        final CodeWriter.Label big = w.createLabel();
+        w.emitLocal(Const.ILOAD, 0);
+        w.emitTableSwitch(1, 3, cases, lookup);
+        for (int i = 0; i < cases.length; i++) {
+            w.mark(cases[i]);
+            w.emitPush((i + 1) * 10);
+            w.emit(Const.IRETURN);
+        }
+        w.mark(lookup);
+        w.emitLocal(Const.ILOAD, 0);
+        w.emitLookupSwitch(new int[] {-100000, 100000}, new CodeWriter.Label[] {big, big}, cases[0]);
+        w.mark(big);
+        w.emitPush(100000);
+        w.emit(Const.IRETURN);
+        cg.addMethod(w.getMethod(ACC_PUBLIC_STATIC, "classify", "(I)I"));
+        final Method classify = load(cg).getMethod("classify", int.class);
+        assertEquals(10, classify.invoke(null, 1));
+        assertEquals(30, classify.invoke(null, 3));
+        assertEquals(100000, classify.invoke(null, -100000));
+        assertEquals(10, classify.invoke(null, 42));
+    }
+
+    @Test
+    void testUnmarkedLabel() {
+        final CodeWriter w = new CodeWriter(new ConstantPoolGen(), 0);
+        w.emitJump(Const.GOTO, w.createLabel());
+        assertThrows(ClassGenException.class, w::getCode);
+    }
+
+    @Test
+    void testWideLocalsAndInvoke() throws Exception {
+        final ClassGen cg = newClassGen();
+        final CodeWriter w = new CodeWriter(cg.getConstantPool(), true, new Type[] {Type.STRING});
+        w.emitLocal(Const.ALOAD, 0);
+        w.emitLocal(Const.ASTORE, 300);
+        w.emitPush(-1000);
+        w.emitLocal(Const.ISTORE, 400);
+        w.emitIinc(400, 1000);
+        w.emitLocal(Const.ALOAD, 300);
+        w.emitInvoke(Const.INVOKEVIRTUAL, "java.lang.String", "length", "()I");
+        w.emitField(Const.GETSTATIC, "java.lang.Integer", "MAX_VALUE", "I");
+        w.emit(Const.IADD);
+        w.emitLocal(Const.ILOAD, 400);
+        w.emit(Const.IADD);
+        w.emit(Const.IRETURN);
+        cg.addMethod(w.getMethod(ACC_PUBLIC_STATIC, "length", "(Ljava/lang/String;)I"));
+        assertEquals(401, w.getMaxLocals());
+        assertEquals(Integer.MIN_VALUE + 2, load(cg).getMethod("length", String.class).invoke(null, "abc"));
+    }
+}
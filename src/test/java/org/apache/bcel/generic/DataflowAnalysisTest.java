@@ -0,0 +1,219 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.generic;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.NullnessAnalysis.Nullness;
+import org.junit.jupiter.api.Test;
+
+class DataflowAnalysisTest {
+
+    private static BitSet bits(final int... indexes) {
+        final BitSet bits = new BitSet();
+        for (final int index : indexes) {
+            bits.set(index);
+        }
+        return bits;
+    }
+
+    private final ConstantPoolGen cp = new ConstantPoolGen();
+    private final MethodGen mg = TestMethods.create(cp);
+    private final InstructionList il = mg.getInstructionList();
+
+    @Test
+    void testConstantPropagation() {
+        // int y; if (x != 0) y = 3; else y = 1 + 2; int z = y * 2; while (x > 0) x--; return z + x;
+        il.append(new ILOAD(0));
+        final BranchHandle ifeq = il.append(new IFEQ(null));
+        il.append(InstructionConst.ICONST_3);
+        il.append(new ISTORE(1));
+        final BranchHandle toJoin = il.append(new GOTO(null));
+        final InstructionHandle orElse = il.append(InstructionConst.ICONST_1);
+        il.append(InstructionConst.ICONST_2);
+        il.append(InstructionConst.IADD);
+        il.append(new ISTORE(1));
+        final InstructionHandle join = il.append(new ILOAD(1));
+        il.append(InstructionConst.ICONST_2);
+        il.append(InstructionConst.IMUL);
+        final InstructionHandle storeZ = il.append(new ISTORE(2));
+        final InstructionHandle loop = il.append(new ILOAD(0));
+        final BranchHandle exit = il.append(new IFLE(null));
+        il.append(new IINC(0, -1));
+        il.append(new GOTO(loop));
+        final InstructionHandle done = il.append(new ILOAD(2));
+        il.append(new ILOAD(0));
+        final InstructionHandle add = il.append(InstructionConst.IADD);
+        il.append(InstructionConst.IRETURN);
+        ifeq.setTarget(orElse);
+        toJoin.setTarget(join);
+        exit.setTarget(done);
+
+        final DataflowAnalysis<ValueFrame<Integer>> analysis = new DataflowAnalysis<>(mg, new ConstantPropagation(mg));
+        assertEquals(6, analysis.getAfter(storeZ).getLocal(2));
+        assertEquals(3, analysis.getBefore(join).getLocal(1));
+        final ValueFrame<Integer> beforeAdd = analysis.getBefore(add);
+        assertEquals(2, beforeAdd.getStackSize());
+        assertEquals(6, beforeAdd.peek(1));
+        assertNull(beforeAdd.peek(0));
+        assertNull(analysis.getAfter(add).peek(0));
+    }
+
+    @Test
+    void testLiveness() {
+        // int s = 0; while (x > 0) { s += x; x--; } return s; with an unused store
+        il.append(InstructionConst.ICONST_0);
+        final InstructionHandle storeS = il.append(new ISTORE(1));
+        il.append(InstructionConst.ICONST_5);
+        final InstructionHandle deadStore = il.append(new ISTORE(2));
+        final InstructionHandle loop = il.append(new ILOAD(0));
+        final BranchHandle exit = il.append(new IFLE(null));
+        il.append(new ILOAD(1));
+        il.append(new ILOAD(0));
+        il.append(InstructionConst.IADD);
+        il.append(new ISTORE(1));
+        final InstructionHandle dec = il.append(new IINC(0, -1));
+        il.append(new GOTO(loop));
+        final InstructionHandle done = il.append(new ILOAD(1));
+        il.append(InstructionConst.IRETURN);
+        exit.setTarget(done);
+
+        final DataflowAnalysis<BitSet> analysis = new DataflowAnalysis<>(mg, new LivenessAnalysis());
+        final BasicBlockGraph graph = analysis.getGraph();
+        assertEquals(bits(0), analysis.getIn(graph.getEntry()));
+        assertEquals(bits(0), analysis.getBefore(storeS));
+        assertEquals(bits(0, 1), analysis.getAfter(storeS));
+        assertEquals(bits(0, 1), analysis.getAfter(deadStore));
+        assertEquals(bits(0, 1), analysis.getIn(graph.getBlock(loop)));
+        assertEquals(bits(0, 1), analysis.getAfter(dec));
+        assertEquals(bits(1), analysis.getIn(graph.getBlock(done)));
+        assertEquals(new BitSet(), analysis.getOut(graph.getBlock(done)));
+    }
+
+    @Test
+    void testLivenessAcrossHandler() {
+        // int a = 1; try { x = 10 / x; } catch (ArithmeticException e) { return a; } return x;
+        il.append(InstructionConst.ICONST_1);
+        final InstructionHandle storeA = il.append(new ISTORE(1));
+        final InstructionHandle tryStart = il.append(new BIPUSH((byte) 10));
+        il.append(new ILOAD(0));
+        il.append(InstructionConst.IDIV);
+        final InstructionHandle tryEnd = il.append(new ISTORE(0));
+        il.append(new ILOAD(0));
+        il.append(InstructionConst.IRETURN);
+        final InstructionHandle handler = il.append(InstructionConst.POP);
+        il.append(new ILOAD(1));
+        il.append(InstructionConst.IRETURN);
+        mg.addExceptionHandler(tryStart, tryEnd, handler, new ObjectType("java.lang.ArithmeticException"));
+
+        final DataflowAnalysis<BitSet> analysis = new DataflowAnalysis<>(mg, new LivenessAnalysis());
+        assertEquals(bits(0, 1), analysis.getAfter(storeA));
+        // a stays live until the end of the protected range
+        assertEquals(bits(0, 1), analysis.getAfter(tryEnd));
+    }
+
+    @Test
+    void testNullness() {
+        // Object o = null; if (x != 0) o = new Object(); if (o != null) return 1; return 0; with o in slot 1
+        il.append(InstructionConst.ACONST_NULL);
+        final InstructionHandle storeNull = il.append(new ASTORE(1));
+        il.append(new ILOAD(0));
+        final BranchHandle ifeq = il.append(new IFEQ(null));
+        il.append(new NEW(cp.addClass("java.lang.Object")));
+        il.append(InstructionConst.DUP);
+        il.append(new INVOKESPECIAL(cp.addMethodref("java.lang.Object", "<init>", "()V")));
+        final InstructionHandle storeNew = il.append(new ASTORE(1));
+        final InstructionHandle test = il.append(new ALOAD(1));
+        final BranchHandle ifnull = il.append(new IFNULL(null));
+        final InstructionHandle nonNull = il.append(InstructionConst.ICONST_1);
+        il.append(InstructionConst.IRETURN);
+        final InstructionHandle isNull = il.append(InstructionConst.ICONST_0);
+        il.append(InstructionConst.IRETURN);
+        ifeq.setTarget(test);
+        ifnull.setTarget(isNull);
+
+        final DataflowAnalysis<ValueFrame<Nullness>> analysis = new DataflowAnalysis<>(mg, new NullnessAnalysis(mg));
+        assertEquals(Nullness.NULL, analysis.getAfter(storeNull).getLocal(1));
+        assertEquals(Nullness.NON_NULL, analysis.getAfter(storeNew).getLocal(1));
+        assertEquals(Nullness.UNKNOWN, analysis.getBefore(test).getLocal(1));
+        assertEquals(Nullness.UNKNOWN, analysis.getBefore(test).getLocal(0));
+        assertEquals(Nullness.NON_NULL, analysis.getBefore(nonNull).getLocal(1));
+        assertEquals(Nullness.NULL, analysis.getBefore(isNull).getLocal(1));
+    }
+
+    @Test
+    void testParallelAnalysisOfCompiledMethods() throws ClassNotFoundException {
+        final JavaClass clazz = Repository.lookupClass(BasicBlockGraph.class);
+        final ConstantPoolGen classCp = new ConstantPoolGen(clazz.getConstantPool());
+        final List<MethodGen> methods = new ArrayList<>();
+        for (final Method method : clazz.getMethods()) {
+            if (method.getCode() != null) {
+                methods.add(new MethodGen(method, clazz.getClassName(), classCp));
+            }
+        }
+        final List<DataflowAnalysis<ValueFrame<Nullness>>> sequential = DataflowAnalysis.analyze(methods, NullnessAnalysis::new, false);
+        final List<DataflowAnalysis<ValueFrame<Nullness>>> parallel = DataflowAnalysis.analyze(methods, NullnessAnalysis::new, true);
+        final List<DataflowAnalysis<BitSet>> liveness = DataflowAnalysis.analyze(methods, m -> new LivenessAnalysis(), true);
+        assertEquals(methods.size(), parallel.size());
+        for (int m = 0; m < methods.size(); m++) {
+            for (final InstructionHandle ih : methods.get(m).getInstructionList()) {
+                assertEquals(sequential.get(m).getBefore(ih), parallel.get(m).getBefore(ih));
+                final Instruction i = ih.getInstruction();
+                if (i instanceof LoadInstruction && liveness.get(m).getBefore(ih) != null) {
+                    // Whatever is loaded is live
+                    assertTrue(liveness.get(m).getBefore(ih).get(((LoadInstruction) i).getIndex()));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testReachingDefinitions() {
+        // int y = 1; if (x != 0) y = 2; return y;
+        il.append(InstructionConst.ICONST_1);
+        final InstructionHandle first = il.append(new ISTORE(1));
+        il.append(new ILOAD(0));
+        final BranchHandle ifeq = il.append(new IFEQ(null));
+        il.append(InstructionConst.ICONST_2);
+        final InstructionHandle second = il.append(new ISTORE(1));
+        final InstructionHandle load = il.append(new ILOAD(1));
+        il.append(InstructionConst.IRETURN);
+        ifeq.setTarget(load);
+
+        final ReachingDefinitions problem = new ReachingDefinitions(mg);
+        final DataflowAnalysis<BitSet> analysis = new DataflowAnalysis<>(mg, problem);
+        assertSame(second, problem.getDefinition(1));
+        assertArrayEquals(new InstructionHandle[] {first, second}, problem.getDefinitions(analysis.getBefore(load), 1));
+        assertArrayEquals(new InstructionHandle[] {second}, problem.getDefinitions(analysis.getAfter(second), 1));
+        assertArrayEquals(new InstructionHandle[0], problem.getDefinitions(analysis.getBefore(load), 0));
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.generic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.util.ByteSequence;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link InstructionDecoder} through {@link Instruction#readInstruction(ByteSequence, boolean)}.
+ */
+class InstructionDecoderTest {
+
+    private static byte[] bytes(final int... code) {
+        final byte[] bytes = new byte[code.length];
+        for (int i = 0; i < code.length; i++) {
+            bytes[i] = (byte) code[i];
+        }
+        return bytes;
+    }
+
+    private static Instruction read(final int... code) throws IOException {
+        try (ByteSequence bytes = new ByteSequence(bytes(code))) {
+            return Instruction.readInstruction(bytes, true);
+        }
+    }
+
+    @Test
+    void testConstantPoolInstructionsAreInterned() throws IOException {
+        final Instruction getField = read(Const.GETFIELD, 0, 12);
+        assertSame(getField, read(Const.GETFIELD, 0, 12));
+        assertNotSame(getField, read(Const.GETFIELD, 0, 13));
+        assertNotSame(getField, read(Const.PUTFIELD, 0, 12));
+        assertEquals(12, ((GETFIELD) getField).getIndex());
+        assertEquals(3, getField.getLength());
+        // LDC_W keeps its wide form even when the index would fit in a byte
+        final Instruction ldcW = read(Const.LDC_W, 0, 7);
+        assertEquals(Const.LDC_W, ldcW.getOpcode());
+        assertEquals(3, ldcW.getLength());
+        final Instruction ldc = read(Const.LDC, 7);
+        assertEquals(Const.LDC, ldc.getOpcode());
+        assertEquals(2, ldc.getLength());
+        assertNotSame(ldc, ldcW);
+        assertSame(ldc, read(Const.LDC, 7));
+    }
+
+    @Test
+    void testIllegalOpcodes() {
+        assertThrows(ClassGenException.class, () -> read(0xcb));
+        assertThrows(ClassGenException.class, () -> read(Const.WIDE, Const.BIPUSH, 1));
+    }
+
+    @Test
+    void testInstructionListIsNotInternedByDefault() throws IOException {
+        final byte[] code = bytes(Const.ALOAD, 1, Const.ALOAD, 1, Const.GETFIELD, 0, 12, Const.POP2, Const.RETURN);
+        final InstructionList il = new InstructionList(code);
+        final InstructionHandle first = il.getStart();
+        final InstructionHandle second = first.getNext();
+        assertNotSame(first.getInstruction(), second.getInstruction());
+        assertNotSame(second.getNext().getInstruction(), new InstructionList(code).getStart().getNext().getNext().getInstruction());
+        ((LocalVariableInstruction) second.getInstruction()).setIndex(2);
+        ((CPInstruction) second.getNext().getInstruction()).setIndex(13);
+        assertEquals(1, ((ALOAD) first.getInstruction()).getIndex());
+        assertEquals(2, ((ALOAD) second.getInstruction()).getIndex());
+        assertEquals(12, ((GETFIELD) read(Const.GETFIELD, 0, 12)).getIndex());
+        // Instruction lookups find their own handle
+        assertSame(second, il.findHandle(second.getPosition()));
+        assertTrue(il.contains(second.getInstruction()));
+        final InstructionList interned = new InstructionList(code, true);
+        assertSame(interned.getStart().getInstruction(), interned.getStart().getNext().getInstruction());
+        assertSame(read(Const.ALOAD, 1), interned.getStart().getInstruction());
+    }
+
+    @Test
+    void testLocalVariableInstructionsAreInterned() throws IOException {
+        final Instruction aload = read(Const.ALOAD, 1);
+        assertSame(aload, read(Const.ALOAD, 1));
+        assertEquals(1, ((ALOAD) aload).getIndex());
+        // The explicit two byte encoding is preserved
+        assertEquals(Const.ALOAD, aload.getOpcode());
+        assertEquals(2, aload.getLength());
+        final Instruction iload = read(Const.ILOAD_2);
+        assertSame(iload, read(Const.ILOAD_2));
+        assertEquals(2, ((ILOAD) iload).getIndex());
+        assertEquals(1, iload.getLength());
+        assertNotSame(read(Const.ALOAD, 2), read(Const.ASTORE, 2));
+    }
+
+    @Test
+    void testReplaceConstantPoolLeavesSharedInstructionAlone() throws IOException {
+        final ConstantPoolGen oldCp = new ConstantPoolGen();
+        final int oldIndex = oldCp.addString("value");
+        final ConstantPoolGen newCp = new ConstantPoolGen();
+        newCp.addString("padding");
+        final int newIndex = newCp.addString("value");
+        final byte[] code = {(byte) Const.LDC_W, 0, (byte) oldIndex, (byte) Const.ARETURN};
+        final InstructionList il = new InstructionList(code, true);
+        final Instruction shared = il.getStart().getInstruction();
+        il.replaceConstantPool(oldCp, newCp);
+        assertEquals(newIndex, ((LDC) il.getStart().getInstruction()).getIndex());
+        assertEquals(oldIndex, ((LDC) shared).getIndex());
+        assertSame(shared, read(Const.LDC_W, 0, oldIndex));
+    }
+
+    @Test
+    void testSharedInstructionsAreImmutable() throws IOException {
+        final LocalVariableInstruction aload = (LocalVariableInstruction) read(Const.ALOAD, 4);
+        assertThrows(ClassGenException.class, () -> aload.setIndex(5));
+        final LocalVariableInstruction copy = (LocalVariableInstruction) aload.copy();
+        assertNotSame(aload, copy);
+        copy.setIndex(5);
+        assertEquals(5, copy.getIndex());
+        assertEquals(4, aload.getIndex());
+        final CPInstruction invoke = (CPInstruction) read(Const.INVOKESTATIC, 1, 2);
+        assertThrows(ClassGenException.class, () -> invoke.setIndex(3));
+        final CPInstruction invokeCopy = (CPInstruction) invoke.copy();
+        invokeCopy.setIndex(3);
+        assertEquals(258, invoke.getIndex());
+        assertEquals(3, invokeCopy.getIndex());
+    }
+
+    @Test
+    void testWideInstructionsAreNotShared() throws IOException {
+        final Instruction first = read(Const.WIDE, Const.ILOAD, 1, 0x2c);
+        assertNotSame(first, read(Const.WIDE, Const.ILOAD, 1, 0x2c));
+        ((ILOAD) first).setIndex(301);
+        assertEquals(301, ((ILOAD) first).getIndex());
+    }
+}
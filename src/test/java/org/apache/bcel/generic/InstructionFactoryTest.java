@@ -27,15 +27,60 @@ import static org.apache.bcel.generic.InstructionFactory.createNull;
 import static org.apache.bcel.generic.InstructionFactory.createReturn;
 import static org.apache.bcel.generic.InstructionFactory.createStore;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrowsExactly;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 
 import org.apache.bcel.AbstractTest;
 import org.apache.bcel.Const;
 import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.BootstrapMethods;
+import org.apache.bcel.classfile.JavaClass;
 import org.junit.jupiter.api.Test;
 
 class InstructionFactoryTest extends AbstractTest {
 
+    private static final Type[] CONCAT_TYPES = {Type.STRING, Type.INT, Type.CHAR, Type.DOUBLE, Type.OBJECT, Type.LONG, Type.BYTE, Type.BOOLEAN};
+
+    private static final String RECIPE = "s=\u0001, i=\u0001, c=\u0001, d=\u0001 \u0001/\u0001\u0001\u0001";
+
+    private static void addMethod(final ClassGen cg, final String name, final Type returnType, final Type[] argTypes, final InstructionList il) {
+        il.append(InstructionConst.ARETURN);
+        final MethodGen mg = new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, returnType, argTypes, null, name, cg.getClassName(), il,
+            cg.getConstantPool());
+        mg.setMaxStack();
+        cg.addMethod(mg.getMethod());
+    }
+
+    private static JavaClass concatClass(final int major) {
+        final ClassGen cg = new ClassGen("Concat" + major, "java.lang.Object", "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+        cg.setMajor(major);
+        final InstructionFactory factory = new InstructionFactory(cg);
+        for (final String name : new String[] {"concat", "again"}) {
+            final InstructionList[] args = new InstructionList[CONCAT_TYPES.length];
+            int slot = 0;
+            for (int i = 0; i < args.length; i++) {
+                args[i] = new InstructionList(createLoad(CONCAT_TYPES[i], slot));
+                slot += CONCAT_TYPES[i].getSize();
+            }
+            final InstructionList il = factory.createConcat(RECIPE, CONCAT_TYPES, args);
+            il.append(InstructionConst.ARETURN);
+            final MethodGen mg = new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, Type.STRING, CONCAT_TYPES, null, name, cg.getClassName(), il,
+                cg.getConstantPool());
+            mg.setMaxStack();
+            mg.setMaxLocals();
+            cg.addMethod(mg.getMethod());
+            assertEquals(major >= Const.MAJOR_9, Arrays.stream(il.getInstructions()).anyMatch(INVOKEDYNAMIC.class::isInstance));
+        }
+        return cg.getJavaClass();
+    }
+
     @Test
     void testArrayLoad() throws Exception {
         assertEquals(InstructionConst.BALOAD, createArrayLoad(Type.BOOLEAN));
@@ -64,12 +109,115 @@ class InstructionFactoryTest extends AbstractTest {
         assertEquals(InstructionConst.AASTORE, createArrayStore(Type.getType("[I")));
     }
 
+    @Test
+    void testCreateConcat() throws Exception {
+        final Object[] values = {"str", 42, 'c', 1.5, Arrays.asList(1, 2), 7L, (byte) -1, true};
+        final String expected = "s=str, i=42, c=c, d=1.5 [1, 2]/7-1true";
+        for (final int major : new int[] {Const.MAJOR_1_8, Const.MAJOR_11}) {
+            final JavaClass clazz = concatClass(major);
+            final Class<?>[] parameterTypes = {String.class, int.class, char.class, double.class, Object.class, long.class, byte.class, boolean.class};
+            final Class<?> loaded = new ByteArrayClassLoader().defineClass(clazz);
+            assertEquals(expected, loaded.getMethod("concat", parameterTypes).invoke(null, values));
+            assertEquals(expected, loaded.getMethod("again", parameterTypes).invoke(null, values));
+            final BootstrapMethods bootstrapMethods = (BootstrapMethods) Arrays.stream(clazz.getAttributes()).filter(BootstrapMethods.class::isInstance)
+                .findFirst().orElse(null);
+            if (major >= Const.MAJOR_9) {
+                // Both call sites share one bootstrap method
+                assertEquals(1, bootstrapMethods.getBootstrapMethods().length);
+            } else {
+                assertNull(bootstrapMethods);
+            }
+        }
+    }
+
+    @Test
+    void testCreateConcatWithoutClassGen() {
+        final InstructionFactory factory = new InstructionFactory(new ConstantPoolGen());
+        final InstructionList il = factory.createConcat("x=\u0001", new Type[] {Type.INT}, new InstructionList[] {new InstructionList(InstructionConst.ICONST_1)});
+        assertFalse(Arrays.stream(il.getInstructions()).anyMatch(INVOKEDYNAMIC.class::isInstance));
+        assertTrue(Arrays.stream(il.getInstructions()).anyMatch(NEW.class::isInstance));
+        assertThrowsExactly(IllegalArgumentException.class, () -> factory.createConcat("\u0001\u0001", new Type[] {Type.INT}, new InstructionList[1]));
+        assertThrowsExactly(IllegalArgumentException.class, () -> factory.createConcat("\u0002", Type.NO_ARGS, new InstructionList[0]));
+        assertThrowsExactly(IllegalArgumentException.class, () -> factory.createConcat("\u0001", new Type[] {Type.VOID}, new InstructionList[1]));
+    }
+
     @Test
     void testCreateInvokeNullArgTypes() throws Exception {
         final InstructionFactory factory = new InstructionFactory(new ClassGen(Repository.lookupClass(Object.class)));
         factory.createInvoke("", "", Type.VOID, null, Const.INVOKESPECIAL, false); // Mustn't throw an NPE
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    void testCreateLambda() throws Exception {
+        final ClassGen cg = new ClassGen("Lambdas", "java.lang.Object", "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+        cg.setMajor(Const.MAJOR_1_8);
+        cg.addEmptyConstructor(Const.ACC_PUBLIC);
+        final ConstantPoolGen cp = cg.getConstantPool();
+        final InstructionFactory factory = new InstructionFactory(cg);
+        // static String lambda$0(String prefix, String s) { return prefix.concat(s); }
+        InstructionList il = new InstructionList();
+        il.append(createLoad(Type.STRING, 0));
+        il.append(createLoad(Type.STRING, 1));
+        il.append(factory.createInvoke("java.lang.String", "concat", Type.STRING, new Type[] {Type.STRING}, Const.INVOKEVIRTUAL));
+        il.append(InstructionConst.ARETURN);
+        final MethodGen body = new MethodGen(Const.ACC_PRIVATE | Const.ACC_STATIC | Const.ACC_SYNTHETIC, Type.STRING, new Type[] {Type.STRING, Type.STRING},
+            null, "lambda$0", cg.getClassName(), il, cp);
+        body.setMaxStack();
+        cg.addMethod(body.getMethod());
+        final ObjectType function = ObjectType.getInstance("java.util.function.Function");
+        final String apply = "(Ljava/lang/Object;)Ljava/lang/Object;";
+        // static Function prefixer(String prefix) { return s -> prefix.concat(s); }
+        il = new InstructionList();
+        il.append(createLoad(Type.STRING, 0));
+        final INVOKEDYNAMIC prefixer = factory.createLambda(function, "apply", apply, body, 1);
+        il.append(prefixer);
+        addMethod(cg, "prefixer", function, new Type[] {Type.STRING}, il);
+        assertEquals(prefixer.getIndex(), factory.createLambda(function, "apply", apply, body, 1).getIndex());
+        // static Supplier supplier() { return Lambdas::new; }
+        final ObjectType supplier = ObjectType.getInstance("java.util.function.Supplier");
+        final MethodGen constructor = new MethodGen(cg.containsMethod(Const.CONSTRUCTOR_NAME, "()V"), cg.getClassName(), cp);
+        addMethod(cg, "supplier", supplier, Type.NO_ARGS, new InstructionList(factory.createLambda(supplier, "get", "()Ljava/lang/Object;", constructor, 0)));
+        // static ToIntFunction length() { return String::length; }
+        final ObjectType toIntFunction = ObjectType.getInstance("java.util.function.ToIntFunction");
+        final int length = cp.addMethodHandle(Const.REF_invokeVirtual, cp.addMethodref("java.lang.String", "length", "()I"));
+        addMethod(cg, "length", toIntFunction, Type.NO_ARGS,
+            new InstructionList(factory.createLambda(toIntFunction, "applyAsInt", "(Ljava/lang/Object;)I", "(Ljava/lang/String;)I", length, Type.NO_ARGS)));
+        final JavaClass clazz = cg.getJavaClass();
+        final Class<?> loaded = new ByteArrayClassLoader().defineClass(clazz);
+        assertEquals("ab", ((Function<Object, Object>) loaded.getMethod("prefixer", String.class).invoke(null, "a")).apply("b"));
+        assertEquals(loaded, ((Supplier<?>) loaded.getMethod("supplier").invoke(null)).get().getClass());
+        assertEquals(3, ((ToIntFunction<Object>) loaded.getMethod("length").invoke(null)).applyAsInt("abc"));
+        final BootstrapMethods bootstrapMethods = (BootstrapMethods) Arrays.stream(clazz.getAttributes()).filter(BootstrapMethods.class::isInstance)
+            .findFirst().get();
+        assertEquals(3, bootstrapMethods.getBootstrapMethods().length);
+        assertThrowsExactly(IllegalArgumentException.class, () -> factory.createLambda(function, "apply", apply, body, 3));
+        assertThrowsExactly(ClassGenException.class, () -> new InstructionFactory(cp).createLambda(function, "apply", apply, body, 1));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void testCreateLambdaBoxesPrimitives() throws Exception {
+        final ClassGen cg = new ClassGen("BoxingLambdas", "java.lang.Object", "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+        cg.setMajor(Const.MAJOR_1_8);
+        final InstructionFactory factory = new InstructionFactory(cg);
+        // static int twice(int x) { return x * 2; }
+        final InstructionList il = new InstructionList();
+        il.append(createLoad(Type.INT, 0));
+        il.append(InstructionConst.ICONST_2);
+        il.append(InstructionConst.IMUL);
+        il.append(InstructionConst.IRETURN);
+        final MethodGen twice = new MethodGen(Const.ACC_STATIC, Type.INT, new Type[] {Type.INT}, null, "twice", cg.getClassName(), il, cg.getConstantPool());
+        twice.setMaxStack();
+        cg.addMethod(twice.getMethod());
+        // static Function<Integer, Integer> doubler() { return BoxingLambdas::twice; }
+        final ObjectType function = ObjectType.getInstance("java.util.function.Function");
+        addMethod(cg, "doubler", function, Type.NO_ARGS,
+            new InstructionList(factory.createLambda(function, "apply", "(Ljava/lang/Object;)Ljava/lang/Object;", twice, 0)));
+        final Class<?> loaded = new ByteArrayClassLoader().defineClass(cg.getJavaClass());
+        assertEquals(42, ((Function<Object, Object>) loaded.getMethod("doubler").invoke(null)).apply(21));
+    }
+
     @Test
     void testExceptions() throws Exception {
         final InstructionFactory factory = new InstructionFactory(new ClassGen(Repository.lookupClass(Object.class)));
@@ -18,8 +18,20 @@
  */
 package org.apache.bcel.generic;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import org.junit.jupiter.api.Test;
 
@@ -27,6 +39,51 @@ class InstructionHandleTest {
 
     // Test that setInstruction only allows Instructions that are not BranchInstructions
 
+    @Test
+    void testAttributesGrowPastInlineLimit() {
+        final InstructionHandle ih = InstructionHandle.getInstructionHandle(new NOP());
+        assertTrue(ih.getAttributes().isEmpty());
+        for (int i = 0; i < 20; i++) {
+            ih.addAttribute("key" + i, i);
+            assertEquals(i, ih.getAttribute("key" + i));
+            assertEquals(i + 1, ih.getAttributes().size());
+        }
+        ih.addAttribute("key3", "replaced");
+        assertEquals("replaced", ih.getAttribute("key3"));
+        ih.removeAttribute("key3");
+        assertNull(ih.getAttribute("key3"));
+        assertEquals(19, ih.getAttributes().size());
+        final InstructionHandle small = InstructionHandle.getInstructionHandle(new NOP());
+        small.addAttribute("a", 1);
+        small.addAttribute("b", 2);
+        small.addAttribute("c", 3);
+        small.removeAttribute("b");
+        assertEquals(Arrays.asList(1, 3), small.getAttributes().stream().collect(Collectors.toList()));
+    }
+
+    @Test
+    void testAttributesAreLiveView() {
+        final InstructionHandle ih = InstructionHandle.getInstructionHandle(new NOP());
+        final Collection<Object> values = ih.getAttributes();
+        for (int i = 0; i < 20; i++) {
+            ih.addAttribute("key" + i, i);
+            assertEquals(i + 1, values.size());
+            assertTrue(values.contains(i));
+        }
+        final InstructionHandle small = InstructionHandle.getInstructionHandle(new NOP());
+        final Collection<Object> smallValues = small.getAttributes();
+        small.addAttribute("a", 1);
+        small.addAttribute("b", 2);
+        small.addAttribute("c", 3);
+        assertTrue(smallValues.remove(2));
+        assertNull(small.getAttribute("b"));
+        assertEquals(Arrays.asList(1, 3), new ArrayList<>(smallValues));
+        values.removeIf(v -> (Integer) v % 2 == 0);
+        assertEquals(10, values.size());
+        assertNull(ih.getAttribute("key4"));
+        assertEquals(5, ih.getAttribute("key5"));
+    }
+
     @Test
     void testBCEL195() {
         final InstructionList il = new InstructionList();
@@ -61,4 +118,35 @@ class InstructionHandleTest {
         assertNotNull(ih);
         assertThrows(ClassGenException.class, () -> ih.setInstruction(null));
     }
+
+    @Test
+    void testEqualLocalVariablesAreDistinctTargeters() {
+        final InstructionList il = new InstructionList();
+        final InstructionHandle target = il.append(InstructionConst.RETURN);
+        final LocalVariableGen first = new LocalVariableGen(0, "a", Type.INT, target, target);
+        final LocalVariableGen second = new LocalVariableGen(0, "a", Type.INT, target, target);
+        assertEquals(first, second);
+        assertEquals(2, target.getTargeters().length);
+        first.setStart(null);
+        first.setEnd(null);
+        assertArrayEquals(new InstructionTargeter[] {second}, target.getTargeters());
+        second.setStart(null);
+        second.setEnd(null);
+        assertFalse(target.hasTargeters());
+    }
+
+    @Test
+    void testTargetersGrowPastInlineLimit() {
+        final InstructionList il = new InstructionList();
+        final InstructionHandle target = il.append(InstructionConst.RETURN);
+        final List<GOTO> gotos = IntStream.range(0, 20).mapToObj(i -> new GOTO(target)).collect(Collectors.toList());
+        assertEquals(20, target.getTargeters().length);
+        target.addTargeter(gotos.get(0));
+        assertEquals(20, target.getTargeters().length);
+        gotos.forEach(g -> g.setTarget(null));
+        assertFalse(target.hasTargeters());
+        target.addTargeter(gotos.get(0));
+        target.removeAllTargeters();
+        assertEquals(0, target.getTargeters().length);
+    }
 }
@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.generic;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import org.apache.bcel.Const;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link InstructionList}.
+ */
+class InstructionListTest {
+
+    private static void appendNops(final InstructionList il, final int count) {
+        for (int i = 0; i < count; i++) {
+            il.append(InstructionConst.NOP);
+        }
+    }
+
+    @Test
+    void testGotoIsWidenedOnlyWhenNeeded() {
+        final InstructionList il = new InstructionList();
+        final BranchHandle gotoHandle = il.append(new GOTO(null));
+        appendNops(il, Short.MAX_VALUE - 4);
+        final InstructionHandle target = il.append(InstructionConst.NOP);
+        gotoHandle.setTarget(target);
+        il.setPositions();
+        // Offset 32766 fits in a short, so the GOTO stays narrow
+        assertEquals(Const.GOTO, gotoHandle.getInstruction().getOpcode());
+        assertEquals(Short.MAX_VALUE - 1, target.getPosition());
+        il.insert(target, InstructionConst.NOP);
+        il.insert(target, InstructionConst.NOP);
+        il.insert(target, InstructionConst.NOP);
+        il.insert(target, InstructionConst.NOP);
+        il.setPositions();
+        assertEquals(Const.GOTO_W, gotoHandle.getInstruction().getOpcode());
+        assertEquals(Short.MAX_VALUE + 5, target.getPosition());
+        assertEquals(target.getPosition() + 1, il.getByteCode().length);
+    }
+
+    @Test
+    void testRedirectBranchesAndLocalVariables() {
+        final InstructionList il = new InstructionList();
+        final InstructionHandle oldTarget = il.append(InstructionConst.NOP);
+        final InstructionHandle newTarget = il.append(InstructionConst.RETURN);
+        final BranchHandle gotoHandle = il.insert(new GOTO(oldTarget));
+        final BranchHandle switchHandle = il.insert(new LOOKUPSWITCH(new int[] {1, 2}, new InstructionHandle[] {oldTarget, newTarget}, oldTarget));
+        il.insert(InstructionConst.ICONST_0);
+        il.redirectBranches(oldTarget, newTarget);
+        assertSame(newTarget, gotoHandle.getTarget());
+        final Select select = (Select) switchHandle.getInstruction();
+        assertSame(newTarget, select.getTarget());
+        assertSame(newTarget, select.getTargets()[0]);
+        final LocalVariableGen local = new LocalVariableGen(0, "x", Type.INT, oldTarget, oldTarget);
+        final LocalVariableGen other = new LocalVariableGen(1, "y", Type.INT, oldTarget, newTarget);
+        il.redirectLocalVariables(new LocalVariableGen[] {local}, oldTarget, newTarget);
+        assertSame(newTarget, local.getStart());
+        assertSame(newTarget, local.getEnd());
+        // Not part of the given array
+        assertSame(oldTarget, other.getStart());
+        final CodeExceptionGen handler = new CodeExceptionGen(oldTarget, oldTarget, newTarget, null);
+        il.redirectExceptionHandlers(new CodeExceptionGen[] {handler}, oldTarget, newTarget);
+        assertSame(newTarget, handler.getStartPC());
+        assertSame(newTarget, handler.getEndPC());
+        other.setStart(newTarget);
+        assertFalse(oldTarget.hasTargeters());
+    }
+
+    @Test
+    void testSetPositionsAfterInsert() {
+        final InstructionList il = new InstructionList();
+        final InstructionHandle first = il.append(InstructionConst.ICONST_0);
+        final InstructionHandle second = il.append(InstructionConst.POP);
+        final InstructionHandle last = il.append(InstructionConst.RETURN);
+        il.setPositions();
+        assertArrayEquals(new int[] {0, 1, 2}, il.getInstructionPositions());
+        il.insert(second, new SIPUSH((short) 1000));
+        il.setPositions();
+        assertEquals(0, first.getPosition());
+        assertEquals(4, second.getPosition());
+        assertEquals(5, last.getPosition());
+        assertArrayEquals(new int[] {0, 1, 4, 5}, il.getInstructionPositions());
+    }
+
+    @Test
+    void testSetPositionsAfterReplacingInstruction() {
+        final InstructionList il = new InstructionList();
+        final InstructionHandle first = il.append(InstructionConst.ICONST_0);
+        final InstructionHandle last = il.append(InstructionConst.IRETURN);
+        il.setPositions();
+        final int[] positions = il.getInstructionPositions();
+        first.setInstruction(new SIPUSH((short) 1000));
+        il.setPositions();
+        assertEquals(3, last.getPosition());
+        assertArrayEquals(new int[] {0, 3}, il.getInstructionPositions());
+        // Positions handed out before are left alone
+        assertArrayEquals(new int[] {0, 1}, positions);
+    }
+
+    @Test
+    void testSwitchPaddingFollowsPosition() {
+        final InstructionList il = new InstructionList();
+        final InstructionHandle ret = il.append(InstructionConst.RETURN);
+        final BranchHandle sw = il.insert(new TABLESWITCH(new int[] {0}, new InstructionHandle[] {ret}, ret));
+        il.setPositions();
+        assertEquals(3, sw.getInstruction().getLength() - ((Select) sw.getInstruction()).getFixedLength());
+        il.insert(InstructionConst.NOP);
+        il.setPositions();
+        assertEquals(1, sw.getPosition());
+        assertEquals(2, sw.getInstruction().getLength() - ((Select) sw.getInstruction()).getFixedLength());
+        assertEquals(ret.getPosition() + 1, il.getByteCode().length);
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.generic;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Method;
+
+import org.apache.bcel.Const;
+import org.junit.jupiter.api.Test;
+
+class LocalSlotAllocatorTest {
+
+    private final ClassGen cg = new ClassGen("Slots", "java.lang.Object", "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+    private final ConstantPoolGen cp = cg.getConstantPool();
+    private final MethodGen mg = TestMethods.create(cg);
+    private final InstructionList il = mg.getInstructionList();
+
+    private Method load() throws NoSuchMethodException {
+        mg.setMaxStack();
+        cg.addMethod(mg.getMethod());
+        return new ByteArrayClassLoader().defineClass(cg.getJavaClass()).getMethod("test", int.class);
+    }
+
+    @Test
+    void testEncodedMethodIsUpdated() {
+        il.append(new ILOAD(0));
+        il.append(new ISTORE(2));
+        il.append(new ILOAD(2));
+        il.append(InstructionConst.IRETURN);
+        mg.setMaxStack();
+        // Already the number of locals after the allocation, so only instructions change
+        mg.setMaxLocals(2);
+        assertEquals(Const.ISTORE_2, mg.getMethod().getCode().getCode()[1]);
+        assertTrue(new LocalSlotAllocator().apply(mg));
+        assertArrayEquals(new byte[] {Const.ILOAD_0, Const.ISTORE_1, Const.ILOAD_1, (byte) Const.IRETURN}, mg.getMethod().getCode().getCode());
+    }
+
+    @Test
+    void testHandlerKeepsVariableAlive() throws Exception {
+        // int a = x; try { int b = 10 / x; return b; } catch (ArithmeticException e) { return a; }
+        il.append(new ILOAD(0));
+        final InstructionHandle storeA = il.append(new ISTORE(1));
+        final InstructionHandle tryStart = il.append(new BIPUSH((byte) 10));
+        il.append(new ILOAD(0));
+        il.append(InstructionConst.IDIV);
+        il.append(new ISTORE(2));
+        il.append(new ILOAD(2));
+        final InstructionHandle tryEnd = il.append(InstructionConst.IRETURN);
+        final InstructionHandle handler = il.append(InstructionConst.POP);
+        il.append(new ILOAD(1));
+        il.append(InstructionConst.IRETURN);
+        mg.addExceptionHandler(tryStart, tryEnd, handler, new ObjectType("java.lang.ArithmeticException"));
+        mg.setMaxLocals();
+        assertFalse(new LocalSlotAllocator().apply(mg));
+        assertEquals(1, ((ISTORE) storeA.getInstruction()).getIndex());
+        assertEquals(3, mg.getMaxLocals());
+        final Method test = load();
+        assertEquals(5, test.invoke(null, 2));
+        assertEquals(0, test.invoke(null, 0));
+    }
+
+    @Test
+    void testLongVariablesUseTwoSlots() throws Exception {
+        // long a = x; long b = a * 3; int c = (int) b; long d = c; return (int) (d + b);
+        il.append(new ILOAD(0));
+        il.append(InstructionConst.I2L);
+        il.append(new LSTORE(1));
+        il.append(new LLOAD(1));
+        il.append(new LDC2_W(cp.addLong(3)));
+        il.append(InstructionConst.LMUL);
+        il.append(new LSTORE(3));
+        il.append(new LLOAD(3));
+        il.append(InstructionConst.L2I);
+        il.append(new ISTORE(5));
+        il.append(new ILOAD(5));
+        il.append(InstructionConst.I2L);
+        il.append(new LSTORE(6));
+        il.append(new LLOAD(6));
+        il.append(new LLOAD(3));
+        il.append(InstructionConst.LADD);
+        il.append(InstructionConst.L2I);
+        il.append(InstructionConst.IRETURN);
+        mg.setMaxLocals();
+        assertEquals(8, mg.getMaxLocals());
+        assertTrue(new LocalSlotAllocator().apply(mg));
+        // b lives across c and d, a and c can share
+        assertEquals(5, mg.getMaxLocals());
+        assertEquals(42, load().invoke(null, 7));
+    }
+
+    @Test
+    void testTemporariesShareSlots() throws Exception {
+        // Each temporary in its own slot: t1 = x + 1; t2 = t1 * 2; t3 = t2 - x; return t3;
+        final InstructionHandle start = il.append(new ILOAD(0));
+        il.append(InstructionConst.ICONST_1);
+        il.append(InstructionConst.IADD);
+        il.append(new ISTORE(1));
+        il.append(new ILOAD(1));
+        il.append(InstructionConst.ICONST_2);
+        il.append(InstructionConst.IMUL);
+        il.append(new ISTORE(2));
+        il.append(new ILOAD(2));
+        il.append(new ILOAD(0));
+        il.append(InstructionConst.ISUB);
+        final InstructionHandle store3 = il.append(new ISTORE(3));
+        il.append(new ILOAD(3));
+        final InstructionHandle end = il.append(InstructionConst.IRETURN);
+        final LocalVariableGen t3 = mg.addLocalVariable("t3", Type.INT, 3, store3.getNext(), end);
+        mg.addLocalVariable("unused", Type.INT, 9, start, end);
+        assertEquals(10, mg.getMaxLocals());
+        assertTrue(new LocalSlotAllocator().apply(mg));
+        assertEquals(2, mg.getMaxLocals());
+        assertEquals(1, ((ISTORE) store3.getInstruction()).getIndex());
+        assertEquals(1, t3.getIndex());
+        assertEquals(2, mg.getLocalVariables().length); // x and t3
+        assertNotEquals(Const.ISTORE, store3.getInstruction().getOpcode());
+        assertFalse(new LocalSlotAllocator().apply(mg));
+        assertEquals(6, load().invoke(null, 4));
+    }
+}
@@ -19,10 +19,13 @@
 
 package org.apache.bcel.generic;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
@@ -30,7 +33,9 @@ import static org.junit.jupiter.api.Assertions.fail;
 import java.util.Arrays;
 import java.util.List;
 
+import org.apache.bcel.Const;
 import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.Code;
 import org.apache.bcel.classfile.JavaClass;
 import org.apache.bcel.classfile.Method;
 import org.junit.jupiter.api.Test;
@@ -100,6 +105,94 @@ class MethodGenTest {
         assertThrows(IllegalStateException.class, () -> testInvalidNullMethodBody("javax.mail.internet.MailDateFormat"));
     }
 
+    @Test
+    void testGetMethodReusesEncodingUntilChanged() {
+        final ConstantPoolGen cp = new ConstantPoolGen();
+        final InstructionList il = new InstructionList();
+        final MethodGen mg = new MethodGen(Const.ACC_STATIC, Type.INT, Type.NO_ARGS, null, "value", "Cached", il, cp);
+        final BranchHandle skip = il.append(new GOTO(null));
+        final InstructionHandle load = il.append(new ILOAD(0));
+        final InstructionHandle ret = il.append(InstructionConst.IRETURN);
+        skip.setTarget(load);
+        mg.addLocalVariable("x", Type.INT, load, null);
+        mg.addLineNumber(load, 3);
+        mg.setMaxStack();
+        final Code code = mg.getMethod().getCode();
+        assertArrayEquals(new byte[] {(byte) Const.GOTO, 0, 3, Const.ILOAD_0, (byte) Const.IRETURN}, code.getCode());
+        // An unchanged method reuses the encoding, but each method gets its own Code
+        mg.setMaxStack();
+        final Code again = mg.getMethod().getCode();
+        assertNotSame(code, again);
+        assertSame(code.getCode(), again.getCode());
+        assertSame(code.getAttributes()[0], again.getAttributes()[0]);
+        again.setMaxStack(7);
+        assertEquals(1, code.getMaxStack());
+        // Changes through the list and the method are picked up
+        il.insert(InstructionConst.NOP);
+        final Code inserted = mg.getMethod().getCode();
+        assertNotSame(code.getCode(), inserted.getCode());
+        assertEquals(6, inserted.getCode().length);
+        mg.setMaxLocals(5);
+        assertEquals(5, mg.getMethod().getCode().getMaxLocals());
+        mg.removeLineNumbers();
+        assertEquals(1, mg.getMethod().getCode().getAttributes().length);
+        // Changes made in place are announced with update()
+        ((ILOAD) load.getInstruction()).setIndex(4);
+        il.update();
+        assertEquals(Const.ILOAD, mg.getMethod().getCode().getCode()[4]);
+        skip.setTarget(ret);
+        mg.update();
+        assertEquals(5, mg.getMethod().getCode().getCode()[3]);
+        load.setInstruction(InstructionConst.ICONST_1);
+        il.update();
+        assertEquals(Const.ICONST_1, mg.getMethod().getCode().getCode()[4]);
+        assertArrayEquals(new byte[] {(byte) Const.GOTO, 0, 3, Const.ILOAD_0, (byte) Const.IRETURN}, code.getCode());
+        // Replacing the constant pool drops the encoding
+        final ConstantPoolGen other = new ConstantPoolGen();
+        other.addUtf8("padding");
+        final byte[] bytes = mg.getMethod().getCode().getCode();
+        mg.setConstantPool(other);
+        assertNotSame(bytes, mg.getMethod().getCode().getCode());
+    }
+
+    @Test
+    void testGetMaxStackMatchesCompiledCode() throws Exception {
+        for (final Class<?> cls : new Class<?>[] {InstructionList.class, MethodGen.class, String.class}) {
+            final JavaClass jc = Repository.lookupClass(cls);
+            final ConstantPoolGen cp = new ConstantPoolGen(jc.getConstantPool());
+            for (final Method method : jc.getMethods()) {
+                if (method.getCode() != null) {
+                    final MethodGen mg = new MethodGen(method, jc.getClassName(), cp);
+                    assertEquals(method.getCode().getMaxStack(), MethodGen.getMaxStack(cp, mg.getInstructionList(), mg.getExceptionHandlers()),
+                        () -> jc.getClassName() + "." + method);
+                }
+            }
+        }
+    }
+
+    @Test
+    void testGetMaxStackWithManyBranchesAndHandlers() {
+        final ConstantPoolGen cp = new ConstantPoolGen();
+        final InstructionList il = new InstructionList();
+        final MethodGen mg = new MethodGen(Const.ACC_STATIC, Type.INT, new Type[] {Type.INT}, null, "big", "Big", il, cp);
+        final InstructionFactory factory = new InstructionFactory(cp);
+        final InstructionHandle end = il.append(InstructionConst.ICONST_0);
+        il.append(InstructionConst.IRETURN);
+        // Every block branches over the rest of the method and is covered by its own handler
+        for (int i = 0; i < 2000; i++) {
+            il.insert(InstructionConst.POP);
+            final InstructionHandle start = il.insert(factory.createInvoke("java.lang.Math", "max", Type.INT, new Type[] {Type.INT, Type.INT}, Const.INVOKESTATIC));
+            il.insert(new ILOAD(0));
+            il.insert(new ILOAD(0));
+            il.insert(new IFNE(end));
+            il.insert(new ILOAD(0));
+            final InstructionHandle handler = il.append(InstructionConst.POP);
+            il.append(new GOTO(end));
+            mg.addExceptionHandler(start, start, handler, null);
+        }
+        assertEquals(2, MethodGen.getMaxStack(cp, il, mg.getExceptionHandlers()));
+    }
+
     @Test
     void testRemoveLocalVariable() throws Exception {
         final MethodGen mg = getMethod(Foo.class, "bar");
@@ -0,0 +1,247 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.generic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.ConstantMethodType;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.util.ClassPath;
+import org.apache.bcel.util.ClassPathRepository;
+import org.junit.jupiter.api.Test;
+
+class MethodInlinerTest {
+
+    public static class Initialized {
+
+        static final List<String> LOG = new ArrayList<>();
+
+        public static int twice(final int v) {
+            return v * 2;
+        }
+    }
+
+    public static class InheritsInitializer extends Initialized {
+
+        public static int thrice(final int v) {
+            return v * 3;
+        }
+    }
+
+    public static class Sample {
+
+        public static int negate(final int v) {
+            return -Math.abs(v);
+        }
+
+        private static int square(final int v) {
+            return v * v;
+        }
+
+        private final int factor = 3;
+
+        public int caller(final int x) {
+            final int guarded = guarded(x);
+            // The handler of guarded would empty the stack holding the partial sums
+            return square(x) + scaled(x) + guarded(x) + virtual(x) + guarded;
+        }
+
+        public final int guarded(final int v) {
+            try {
+                return 100 / v;
+            } catch (final ArithmeticException e) {
+                return -1;
+            }
+        }
+
+        public int peek() {
+            return factor;
+        }
+
+        public static int bucket(final int v) {
+            if (v < 10) {
+                return 0;
+            }
+            if (v < 20) {
+                return 1;
+            }
+            if (v < 30) {
+                return 2;
+            }
+            if (v < 40) {
+                return 3;
+            }
+            return 4;
+        }
+
+        private int scaled(final int v) {
+            return v * factor;
+        }
+
+        public int virtual(final int x) {
+            return x;
+        }
+    }
+
+    private static List<String> calls(final MethodGen mg) {
+        final List<String> calls = new ArrayList<>();
+        for (final InstructionHandle ih : mg.getInstructionList()) {
+            if (ih.getInstruction() instanceof InvokeInstruction) {
+                calls.add(((InvokeInstruction) ih.getInstruction()).getMethodName(mg.getConstantPool()));
+            }
+        }
+        return calls;
+    }
+
+    @Test
+    void testBudget() throws ClassNotFoundException {
+        final ClassGen cg = new ClassGen(Repository.lookupClass(Sample.class));
+        final Method caller = cg.containsMethod("caller", "(I)I");
+        final MethodGen mg = new MethodGen(caller, cg.getClassName(), cg.getConstantPool());
+        assertFalse(new MethodInliner(cg, 1, Const.MAX_CODE_SIZE).apply(mg));
+        assertFalse(new MethodInliner(cg, MethodInliner.DEFAULT_MAX_CALLEE_SIZE, caller.getCode().getCode().length).apply(mg));
+        assertEquals(5, calls(mg).size());
+    }
+
+    @Test
+    void testBudgetCountsRelocatedCode() {
+        boolean inlined = false;
+        for (int budget = 0; budget < 60; budget++) {
+            final InstructionList il = new InstructionList();
+            final ConstantPoolGen cp = new ConstantPoolGen();
+            // Moves the callee's locals above 3, where they need wider loads and stores, and its returns become jumps
+            final MethodGen mg = new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, Type.INT, new Type[] {Type.INT, Type.INT, Type.INT, Type.INT}, null,
+                "test", "Budget", il, cp);
+            il.append(new ILOAD(0));
+            il.append(new InstructionFactory(cp).createInvoke(Sample.class.getName(), "bucket", Type.INT, new Type[] {Type.INT}, Const.INVOKESTATIC));
+            il.append(InstructionConst.IRETURN);
+            mg.setMaxStack();
+            final boolean changed = new MethodInliner(null, MethodInliner.DEFAULT_MAX_CALLEE_SIZE, budget).apply(mg);
+            inlined |= changed;
+            if (changed) {
+                assertTrue(mg.getMethod().getCode().getCode().length <= budget, "Budget " + budget);
+            }
+        }
+        assertTrue(inlined);
+    }
+
+    @Test
+    void testClassInitialization() {
+        final ConstantPoolGen cp = new ConstantPoolGen();
+        final InstructionFactory factory = new InstructionFactory(cp);
+        final InstructionList il = new InstructionList();
+        final MethodGen mg = new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, Type.INT, new Type[] {Type.INT}, null, "test", "Initializing", il, cp);
+        il.append(new ILOAD(0));
+        il.append(factory.createInvoke(Initialized.class.getName(), "twice", Type.INT, new Type[] {Type.INT}, Const.INVOKESTATIC));
+        il.append(factory.createInvoke(InheritsInitializer.class.getName(), "thrice", Type.INT, new Type[] {Type.INT}, Const.INVOKESTATIC));
+        il.append(factory.createInvoke(Sample.class.getName(), "negate", Type.INT, new Type[] {Type.INT}, Const.INVOKESTATIC));
+        il.append(InstructionConst.IRETURN);
+        mg.setMaxStack();
+        // Only the class without static initializers can be left uninitialized
+        assertTrue(new MethodInliner().apply(mg));
+        assertEquals(Arrays.asList("twice", "thrice", "abs"), calls(mg));
+    }
+
+    @Test
+    void testConstantsOtherThanClasses() throws ClassNotFoundException {
+        final ClassGen callee = new ClassGen("Constants", "java.lang.Object", "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+        InstructionList il = new InstructionList();
+        il.append(new LDC(callee.getConstantPool().addMethodType("()V")));
+        il.append(InstructionConst.POP);
+        il.append(InstructionConst.ICONST_2);
+        il.append(InstructionConst.IRETURN);
+        final MethodGen value = new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, Type.INT, Type.NO_ARGS, null, "value", "Constants", il,
+            callee.getConstantPool());
+        value.setMaxStack();
+        callee.addMethod(value.getMethod());
+        final ClassPathRepository repository = new ClassPathRepository(ClassPath.SYSTEM_CLASS_PATH);
+        repository.storeClass(callee.getJavaClass());
+        final ConstantPoolGen cp = new ConstantPoolGen();
+        il = new InstructionList();
+        final MethodGen mg = new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, Type.INT, Type.NO_ARGS, null, "test", "Caller", il, cp);
+        il.append(new InstructionFactory(cp).createInvoke("Constants", "value", Type.INT, Type.NO_ARGS, Const.INVOKESTATIC));
+        il.append(InstructionConst.IRETURN);
+        mg.setMaxStack();
+        final MethodInliner inliner = new MethodInliner();
+        inliner.setRepository(repository);
+        assertTrue(inliner.apply(mg));
+        assertEquals(Const.LDC, il.getStart().getInstruction().getOpcode());
+        assertTrue(cp.getConstant(((LDC) il.getStart().getInstruction()).getIndex()) instanceof ConstantMethodType);
+    }
+
+    @Test
+    void testInlineAcrossClasses() throws Exception {
+        final ClassGen cg = new ClassGen("Inlined", "java.lang.Object", "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+        final ConstantPoolGen cp = cg.getConstantPool();
+        final InstructionFactory factory = new InstructionFactory(cg);
+        final InstructionList il = new InstructionList();
+        final MethodGen mg = new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, Type.INT, new Type[] {Type.INT}, new String[] {"x"}, "test", "Inlined", il,
+            cp);
+        final String sample = Sample.class.getName();
+        il.append(new ILOAD(0));
+        il.append(factory.createInvoke(sample, "negate", Type.INT, new Type[] {Type.INT}, Const.INVOKESTATIC));
+        il.append(factory.createNew(sample));
+        il.append(InstructionConst.DUP);
+        il.append(factory.createInvoke(sample, Const.CONSTRUCTOR_NAME, Type.VOID, Type.NO_ARGS, Const.INVOKESPECIAL));
+        // Reads a private field of another class
+        il.append(factory.createInvoke(sample, "peek", Type.INT, Type.NO_ARGS, Const.INVOKEVIRTUAL));
+        il.append(InstructionConst.IADD);
+        il.append(InstructionConst.IRETURN);
+        mg.setMaxLocals();
+        mg.setMaxStack();
+        assertTrue(new MethodInliner().apply(mg));
+        assertEquals(Arrays.asList("abs", Const.CONSTRUCTOR_NAME, "peek"), calls(mg));
+        cg.addMethod(mg.getMethod());
+        final java.lang.reflect.Method test = new ByteArrayClassLoader().defineClass(cg.getJavaClass()).getMethod("test", int.class);
+        assertEquals(-4, test.invoke(null, 7));
+    }
+
+    @Test
+    void testInlineWithinClass() throws Exception {
+        final JavaClass clazz = Repository.lookupClass(Sample.class);
+        final ClassGen cg = new ClassGen(clazz);
+        final Method caller = cg.containsMethod("caller", "(I)I");
+        final MethodGen mg = new MethodGen(caller, cg.getClassName(), cg.getConstantPool());
+        final int handlers = mg.getExceptionHandlers().length;
+        assertTrue(new MethodInliner(cg, MethodInliner.DEFAULT_MAX_CALLEE_SIZE, MethodInliner.DEFAULT_MAX_METHOD_SIZE).apply(mg));
+        // The virtual call can be overridden, getClass checks the receivers of instance calls
+        assertEquals(Arrays.asList("getClass", "getClass", "guarded", "virtual"), calls(mg));
+        assertEquals(handlers + 1, mg.getExceptionHandlers().length);
+        assertTrue(mg.getMaxLocals() > caller.getCode().getMaxLocals());
+        mg.setStackMap();
+        cg.replaceMethod(caller, mg.getMethod());
+
+        final Class<?> loaded = new ByteArrayClassLoader().defineClass(cg.getJavaClass());
+        final Object instance = loaded.getConstructor().newInstance();
+        final java.lang.reflect.Method test = loaded.getMethod("caller", int.class);
+        assertEquals(new Sample().caller(4), test.invoke(instance, 4));
+        assertEquals(new Sample().caller(0), test.invoke(instance, 0));
+        assertEquals(new Sample().caller(-7), test.invoke(instance, -7));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.generic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.Method;
+import org.junit.jupiter.api.Test;
+
+class MethodSplitterTest {
+
+    public static class Sample {
+
+        private int total;
+
+        public String describe(final int n) {
+            final StringBuilder sb = new StringBuilder();
+            int sum = 0;
+            for (int i = 0; i < n; i++) {
+                sum += i * i;
+                if (i % 3 == 0) {
+                    sb.append('a');
+                }
+            }
+            sb.append(sum);
+            try {
+                sum = 100 / (n - 5);
+            } catch (final ArithmeticException e) {
+                sb.append("div");
+            }
+            final long big = sum * 1000L;
+            final double half = big / 2.0;
+            switch (n) {
+            case 1:
+                sb.append("one");
+                break;
+            case 2:
+                sb.append("two");
+                break;
+            default:
+                sb.append(half);
+            }
+            total += sum;
+            String s = sb.toString();
+            if (s.length() > 12) {
+                s = s.substring(0, 12);
+            }
+            return s + total;
+        }
+    }
+
+    private static int codeLength(final Method method) {
+        return method.getCode().getCode().length;
+    }
+
+    /**
+     * Computes what the generated method of {@link #testSplitGeneratedMethod()} returns.
+     */
+    private static int expected(int x, final int steps) {
+        int acc = 1;
+        for (int k = 0; k < steps; k++) {
+            acc = acc * 31 + x ^ k;
+            if (k % 100 == 0) {
+                x = x + acc;
+            }
+        }
+        return acc;
+    }
+
+    @Test
+    void testSplitCompiledMethod() throws Exception {
+        final ClassGen cg = new ClassGen(Repository.lookupClass(Sample.class));
+        final Method describe = cg.containsMethod("describe", "(I)Ljava/lang/String;");
+        final int limit = codeLength(describe) / 2;
+        final MethodSplitter splitter = new MethodSplitter(cg, limit);
+        assertTrue(splitter.splitMethods() > 0);
+        for (final Method method : cg.getMethods()) {
+            assertTrue(codeLength(method) <= limit, method::toString);
+        }
+        cg.setStackMaps();
+
+        final Class<?> loaded = new ByteArrayClassLoader().defineClass(cg.getJavaClass());
+        final Object split = loaded.getConstructor().newInstance();
+        final java.lang.reflect.Method test = loaded.getMethod("describe", int.class);
+        final Sample sample = new Sample();
+        for (final int n : new int[] {0, 1, 2, 5, 9, 20}) {
+            assertEquals(sample.describe(n), test.invoke(split, n));
+        }
+    }
+
+    @Test
+    void testSplitGeneratedMethod() throws Exception {
+        // int acc = 1; for each k: acc = acc * 31 + x ^ k; with x += acc every 100 steps, unrolled beyond the default limit
+        final ClassGen cg = new ClassGen("Split", "java.lang.Object", "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+        final ConstantPoolGen cp = cg.getConstantPool();
+        final InstructionList il = new InstructionList();
+        final MethodGen mg = new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, Type.INT, new Type[] {Type.INT}, new String[] {"x"}, "test", "Split", il, cp);
+        final int steps = 1500;
+        il.append(InstructionConst.ICONST_1);
+        il.append(new ISTORE(1));
+        for (int k = 0; k < steps; k++) {
+            il.append(new ILOAD(1));
+            il.append(new BIPUSH((byte) 31));
+            il.append(InstructionConst.IMUL);
+            il.append(new ILOAD(0));
+            il.append(InstructionConst.IADD);
+            il.append(new SIPUSH((short) k));
+            il.append(InstructionConst.IXOR);
+            il.append(new ISTORE(1));
+            if (k % 100 == 0) {
+                il.append(new ILOAD(0));
+                il.append(new ILOAD(1));
+                il.append(InstructionConst.IADD);
+                il.append(new ISTORE(0));
+            }
+        }
+        il.append(new ILOAD(1));
+        il.append(InstructionConst.IRETURN);
+        mg.setMaxLocals();
+        mg.setMaxStack();
+        assertTrue(il.getByteCode().length > MethodSplitter.DEFAULT_MAX_METHOD_SIZE);
+
+        final MethodSplitter splitter = new MethodSplitter(cg);
+        final MethodGen[] helpers = splitter.split(mg);
+        assertTrue(helpers.length > 0);
+        assertTrue(il.getByteCode().length <= MethodSplitter.DEFAULT_MAX_METHOD_SIZE);
+        for (final MethodGen helper : helpers) {
+            assertTrue(helper.isStatic() && helper.isPrivate() && helper.isSynthetic());
+            assertTrue(helper.getInstructionList().getByteCode().length <= MethodSplitter.DEFAULT_MAX_METHOD_SIZE);
+        }
+        cg.addMethod(mg.getMethod());
+        cg.setStackMaps();
+
+        final java.lang.reflect.Method test = new ByteArrayClassLoader().defineClass(cg.getJavaClass()).getMethod("test", int.class);
+        assertEquals(expected(7, steps), test.invoke(null, 7));
+        assertEquals(expected(-3, steps), test.invoke(null, -3));
+    }
+
+    @Test
+    void testUnsplittable() throws ClassNotFoundException {
+        final ClassGen cg = new ClassGen(Repository.lookupClass(Sample.class));
+        final Method describe = cg.containsMethod("describe", "(I)Ljava/lang/String;");
+        final MethodGen mg = new MethodGen(describe, cg.getClassName(), cg.getConstantPool());
+        final int methods = cg.getMethods().length;
+        // No helper fits
+        assertFalse(new MethodSplitter(cg, 4).apply(mg));
+        // Nothing to do
+        assertFalse(new MethodSplitter(cg, codeLength(describe)).apply(mg));
+        assertEquals(methods, cg.getMethods().length);
+    }
+}
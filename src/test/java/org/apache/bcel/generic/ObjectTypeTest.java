@@ -20,6 +20,7 @@
 package org.apache.bcel.generic;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 
 import java.math.BigDecimal;
 
@@ -34,4 +35,13 @@ class ObjectTypeTest {
         assertEquals(className, objectType.getClassName());
     }
 
+    @Test
+    void testGetInstance() {
+        assertSame(Type.STRING, ObjectType.getInstance("java.lang.String"));
+        assertSame(Type.STRING, ObjectType.getInstance("java/lang/String"));
+        assertSame(Type.STRING, Type.getType("Ljava/lang/String;"));
+        assertSame(ObjectType.getInstance("p.Missing"), Type.getReturnType("()Lp/Missing;"));
+        assertEquals(new ObjectType("p.Missing"), ObjectType.getInstance("p.Missing"));
+    }
+
 }
@@ -0,0 +1,206 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.generic;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.lang.reflect.Method;
+
+import org.apache.bcel.Const;
+import org.junit.jupiter.api.Test;
+
+class PeepholeOptimizerTest {
+
+    private static short[] opcodes(final InstructionList il) {
+        final InstructionHandle[] handles = il.getInstructionHandles();
+        final short[] opcodes = new short[handles.length];
+        for (int i = 0; i < handles.length; i++) {
+            opcodes[i] = handles[i].getInstruction().getOpcode();
+        }
+        return opcodes;
+    }
+
+    private final ConstantPoolGen cp = new ConstantPoolGen();
+    private final MethodGen mg = TestMethods.create(cp);
+    private final InstructionList il = mg.getInstructionList();
+
+    @Test
+    void testBranchToNext() {
+        il.append(new ILOAD(0));
+        final BranchHandle ifeq = il.append(new IFEQ(null));
+        final BranchHandle gotoNext = il.append(new GOTO(null));
+        final InstructionHandle ret = il.append(InstructionConst.ICONST_0);
+        il.append(InstructionConst.IRETURN);
+        ifeq.setTarget(gotoNext);
+        gotoNext.setTarget(ret);
+        assertTrue(new PeepholeOptimizer(PeepholeOptimizer.BRANCH_TO_NEXT).optimize(mg));
+        assertArrayEquals(new short[] {Const.ILOAD_0, Const.POP, Const.ICONST_0, Const.IRETURN}, opcodes(il));
+    }
+
+    @Test
+    void testConstantFolding() {
+        il.append(InstructionConst.ICONST_2);
+        il.append(new BIPUSH((byte) 40));
+        il.append(InstructionConst.IADD);
+        il.append(new SIPUSH((short) 1000));
+        il.append(InstructionConst.IMUL);
+        il.append(InstructionConst.INEG);
+        il.append(InstructionConst.ICONST_0);
+        il.append(InstructionConst.IDIV); // Division by zero must still throw
+        il.append(InstructionConst.IRETURN);
+        mg.setMaxStack();
+        assertTrue(new PeepholeOptimizer(PeepholeOptimizer.CONSTANT_FOLDING).optimize(mg));
+        assertArrayEquals(new short[] {Const.LDC, Const.ICONST_0, Const.IDIV, Const.IRETURN}, opcodes(il));
+        assertEquals(-42000, ((LDC) il.getStart().getInstruction()).getValue(cp));
+        assertFalse(new PeepholeOptimizer(PeepholeOptimizer.CONSTANT_FOLDING).optimize(mg));
+    }
+
+    @Test
+    void testConstantFoldingSkipsOtherConstants() {
+        il.append(new LDC(cp.addMethodType("(I)I")));
+        il.append(InstructionConst.POP);
+        il.append(InstructionConst.ICONST_1);
+        il.append(InstructionConst.ICONST_2);
+        il.append(InstructionConst.IADD);
+        il.append(InstructionConst.IRETURN);
+        assertTrue(new PeepholeOptimizer(PeepholeOptimizer.CONSTANT_FOLDING).optimize(mg));
+        assertArrayEquals(new short[] {Const.LDC, Const.POP, Const.ICONST_3, Const.IRETURN}, opcodes(il));
+    }
+
+    @Test
+    void testDeadCode() {
+        final InstructionHandle start = il.append(new ILOAD(0));
+        final InstructionHandle ret = il.append(InstructionConst.IRETURN);
+        final InstructionHandle dead = il.append(InstructionConst.ICONST_1);
+        final InstructionHandle deadRet = il.append(InstructionConst.IRETURN);
+        final InstructionHandle deadHandler = il.append(InstructionConst.ATHROW);
+        mg.addExceptionHandler(dead, deadRet, deadHandler, null);
+        final CodeExceptionGen live = mg.addExceptionHandler(start, dead, deadHandler, null);
+        mg.addLineNumber(start, 1);
+        mg.addLineNumber(dead, 2);
+        mg.addLocalVariable("y", Type.INT, 1, ret, deadRet);
+        final PeepholeOptimizer optimizer = new PeepholeOptimizer(PeepholeOptimizer.DEAD_CODE);
+        assertTrue(optimizer.optimize(mg));
+        // The handler protecting live code keeps its handler code
+        assertArrayEquals(new short[] {Const.ILOAD_0, Const.IRETURN, Const.ATHROW}, opcodes(il));
+        assertArrayEquals(new CodeExceptionGen[] {live}, mg.getExceptionHandlers());
+        assertSame(ret, live.getEndPC());
+        assertEquals(2, mg.getLineNumbers().length);
+        assertSame(ret, mg.getLocalVariables()[1].getEnd());
+        mg.setMaxStack();
+        mg.getMethod();
+        mg.removeExceptionHandlers();
+        assertTrue(optimizer.optimize(mg));
+        assertArrayEquals(new short[] {Const.ILOAD_0, Const.IRETURN}, opcodes(il));
+    }
+
+    @Test
+    void testDefaultPassesPreserveBehavior() throws Exception {
+        final ClassGen cg = new ClassGen("Peephole", "java.lang.Object", "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+        final MethodGen mg = TestMethods.create(cg);
+        final InstructionList il = mg.getInstructionList();
+        // return x != 0 ? x * (3 + 4) : 10 - 1; with naive jumps and stores
+        il.append(new ILOAD(0));
+        il.append(new ISTORE(0));
+        il.append(new ILOAD(0));
+        final BranchHandle ifeq = il.append(new IFEQ(null));
+        il.append(new ILOAD(0));
+        il.append(InstructionConst.ICONST_3);
+        il.append(InstructionConst.ICONST_4);
+        il.append(InstructionConst.IADD);
+        il.append(InstructionConst.IMUL);
+        final BranchHandle toExit = il.append(new GOTO(null));
+        final InstructionHandle orElse = il.append(new BIPUSH((byte) 10));
+        il.append(InstructionConst.ICONST_1);
+        il.append(InstructionConst.ISUB);
+        final BranchHandle gotoGoto = il.append(new GOTO(null));
+        il.append(InstructionConst.ACONST_NULL);
+        il.append(InstructionConst.ATHROW);
+        final InstructionHandle exit = il.append(new GOTO(null));
+        final InstructionHandle ret = il.append(InstructionConst.IRETURN);
+        ((BranchHandle) exit).setTarget(ret);
+        ifeq.setTarget(orElse);
+        toExit.setTarget(exit);
+        gotoGoto.setTarget(exit);
+        mg.setMaxStack();
+        final int before = il.getByteCode().length;
+        assertTrue(new PeepholeOptimizer().optimize(mg));
+        assertTrue(il.getByteCode().length < before);
+        mg.setMaxStack();
+        cg.addMethod(mg.getMethod());
+        final Method test = new ByteArrayClassLoader().defineClass(cg.getJavaClass()).getMethod("test", int.class);
+        assertEquals(14, test.invoke(null, 2));
+        assertEquals(9, test.invoke(null, 0));
+    }
+
+    @Test
+    void testJumpThreading() {
+        final BranchHandle first = il.append(new GOTO(null));
+        final BranchHandle second = il.append(new GOTO(null));
+        final InstructionHandle ret = il.append(InstructionConst.ICONST_0);
+        il.append(InstructionConst.IRETURN);
+        final BranchHandle loop = il.append(new GOTO(null));
+        first.setTarget(second);
+        second.setTarget(ret);
+        loop.setTarget(loop);
+        assertTrue(new PeepholeOptimizer(PeepholeOptimizer.JUMP_THREADING).optimize(mg));
+        assertSame(ret, first.getTarget());
+        assertSame(loop, ((GOTO) loop.getInstruction()).getTarget());
+        assertFalse(new PeepholeOptimizer(PeepholeOptimizer.JUMP_THREADING).optimize(mg));
+    }
+
+    @Test
+    void testRedundantLoadStore() {
+        final InstructionHandle load = il.append(new ILOAD(0));
+        il.append(new ISTORE(0));
+        il.append(new ILOAD(0));
+        il.append(InstructionConst.POP);
+        il.append(InstructionConst.LCONST_1);
+        il.append(InstructionConst.POP2);
+        il.append(new ILOAD(0));
+        il.append(InstructionConst.DUP);
+        il.append(InstructionConst.POP);
+        il.append(InstructionConst.IRETURN);
+        mg.addLineNumber(load, 7);
+        assertTrue(new PeepholeOptimizer(PeepholeOptimizer.REDUNDANT_LOAD_STORE).optimize(mg));
+        assertArrayEquals(new short[] {Const.ILOAD_0, Const.IRETURN}, opcodes(il));
+        assertSame(il.getStart(), mg.getLineNumbers()[0].getInstruction());
+    }
+
+    @Test
+    void testUserPass() {
+        il.append(InstructionConst.NOP);
+        il.append(InstructionConst.ICONST_0);
+        il.append(InstructionConst.IRETURN);
+        final PeepholeOptimizer optimizer = new PeepholeOptimizer();
+        optimizer.addPass(m -> {
+            final int length = m.getInstructionList().getLength();
+            m.removeNOPs();
+            return m.getInstructionList().getLength() != length;
+        });
+        assertEquals(6, optimizer.getPasses().length);
+        assertTrue(optimizer.optimize(mg));
+        assertArrayEquals(new short[] {Const.ICONST_0, Const.IRETURN}, opcodes(il));
+    }
+}
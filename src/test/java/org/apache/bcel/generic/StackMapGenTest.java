@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.generic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.stream.Stream;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.Attribute;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.classfile.StackMap;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests {@link MethodGen#setStackMap()} and {@link ClassGen#setStackMaps()} by loading the generated classes, which
+ * makes the JVM run its type checking verifier over the computed frames.
+ */
+class StackMapGenTest {
+
+    /**
+     * Compiled by javac, then modified and re-framed by the tests.
+     */
+    public static class Sample {
+
+        public static String describe(final int value) {
+            final Object o = value > 0 ? "positive" : Integer.valueOf(value);
+            final StringBuilder sb = new StringBuilder(value % 2 == 0 ? "even " : "odd ");
+            switch (value) {
+            case 1:
+                sb.append("one ");
+                break;
+            case 2:
+                sb.append("two ");
+                break;
+            default:
+                break;
+            }
+            return sb.append(o).toString();
+        }
+
+        public static long sum(final int n) {
+            long total = 0;
+            double ignored = 0.5;
+            for (int i = 0; i < n; i++) {
+                try {
+                    if (i == 3) {
+                        throw new IllegalStateException();
+                    }
+                    total += i;
+                } catch (final IllegalStateException | IllegalArgumentException e) {
+                    total += 100;
+                    ignored *= 2;
+                }
+            }
+            return total + (long) ignored;
+        }
+
+        private final String name;
+
+        public Sample(final boolean flag) {
+            this(flag ? "yes" : "no");
+        }
+
+        public Sample(final String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    private static Class<?> load(final ClassGen cg) {
+        return new ByteArrayClassLoader().defineClass(cg.getJavaClass());
+    }
+
+    private static StackMap stackMapOf(final Method method) {
+        return (StackMap) Stream.of(method.getCode().getAttributes()).filter(StackMap.class::isInstance).findFirst().orElse(null);
+    }
+
+    @Test
+    void testBranchToFirstInstruction() throws Exception {
+        final ClassGen cg = new ClassGen("Countdown", "java.lang.Object", "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+        cg.setMajor(Const.MAJOR_1_8);
+        final InstructionList il = new InstructionList();
+        final MethodGen mg = new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, Type.INT, new Type[] {Type.INT}, new String[] {"n"}, "run", "Countdown", il,
+            cg.getConstantPool());
+        // while (n > 100) { n--; String s = "x"; } return n; with the loop head at offset 0
+        final InstructionHandle start = il.append(new ILOAD(0));
+        il.append(new PUSH(cg.getConstantPool(), 100));
+        final BranchHandle exit = il.append(new IF_ICMPLE(null));
+        il.append(new IINC(0, -1));
+        il.append(new PUSH(cg.getConstantPool(), "x"));
+        il.append(new ASTORE(1));
+        il.append(new GOTO(start));
+        exit.setTarget(il.append(new ILOAD(0)));
+        il.append(InstructionConst.IRETURN);
+        mg.setMaxStack();
+        mg.setMaxLocals();
+        mg.setStackMap();
+        final StackMap stackMap = stackMapOf(mg.getMethod());
+        assertEquals(0, stackMap.getStackMap()[0].getByteCodeOffset());
+        cg.addMethod(mg.getMethod());
+        assertEquals(100, load(cg).getMethod("run", int.class).invoke(null, 105));
+    }
+
+    @Test
+    void testClassGenRecomputesFramesAfterModification() throws Exception {
+        final JavaClass jc = Repository.lookupClass(Sample.class);
+        final ClassGen cg = new ClassGen(jc);
+        cg.setMajor(Const.MAJOR_1_8);
+        for (final Method m : cg.getMethods()) {
+            final MethodGen mg = new MethodGen(m, cg.getClassName(), cg.getConstantPool());
+            // Shifts every offset, so the frames javac emitted are stale
+            mg.getInstructionList().insert(new SIPUSH((short) 1000));
+            mg.getInstructionList().insert(mg.getInstructionList().getStart().getNext(), InstructionConst.POP);
+            mg.setMaxStack();
+            cg.replaceMethod(m, mg.getMethod());
+        }
+        cg.setStackMaps();
+        final Class<?> cls = load(cg);
+        assertEquals(Sample.describe(1), cls.getMethod("describe", int.class).invoke(null, 1));
+        assertEquals(Sample.describe(-4), cls.getMethod("describe", int.class).invoke(null, -4));
+        assertEquals(Sample.sum(10), cls.getMethod("sum", int.class).invoke(null, 10));
+        assertEquals("yes", cls.getConstructor(boolean.class).newInstance(true).toString());
+        assertNotNull(stackMapOf(cg.containsMethod("sum", "(I)J")));
+    }
+
+    @Test
+    void testGeneratedMethodWithLoopAndHandler() throws Exception {
+        final ClassGen cg = new ClassGen("Generated", "java.lang.Object", "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+        cg.setMajor(Const.MAJOR_1_8);
+        final ConstantPoolGen cp = cg.getConstantPool();
+        final InstructionFactory factory = new InstructionFactory(cg);
+        final InstructionList il = new InstructionList();
+        final MethodGen mg = new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, Type.INT, new Type[] {Type.INT}, new String[] {"n"}, "count", "Generated", il,
+            cp);
+        // int i = 0; while (i < n) { try { i = Integer.parseInt(String.valueOf(i + 1)); } catch (NumberFormatException e) { return -1; } } return i;
+        il.append(InstructionConst.ICONST_0);
+        il.append(new ISTORE(1));
+        final InstructionHandle loop = il.append(new ILOAD(1));
+        il.append(new ILOAD(0));
+        final BranchHandle exit = il.append(new IF_ICMPGE(null));
+        final InstructionHandle tryStart = il.append(new ILOAD(1));
+        il.append(InstructionConst.ICONST_1);
+        il.append(InstructionConst.IADD);
+        il.append(factory.createInvoke("java.lang.String", "valueOf", Type.STRING, new Type[] {Type.INT}, Const.INVOKESTATIC));
+        il.append(factory.createInvoke("java.lang.Integer", "parseInt", Type.INT, new Type[] {Type.STRING}, Const.INVOKESTATIC));
+        final InstructionHandle tryEnd = il.append(new ISTORE(1));
+        il.append(new GOTO(loop));
+        final InstructionHandle handler = il.append(InstructionConst.POP);
+        il.append(InstructionConst.ICONST_M1);
+        il.append(InstructionConst.IRETURN);
+        exit.setTarget(il.append(new ILOAD(1)));
+        il.append(InstructionConst.IRETURN);
+        mg.addExceptionHandler(tryStart, tryEnd, handler, new ObjectType("java.lang.NumberFormatException"));
+        mg.setMaxStack();
+        mg.setMaxLocals();
+        mg.setStackMap();
+        final StackMap stackMap = stackMapOf(mg.getMethod());
+        assertEquals(3, stackMap.getMapLength());
+        cg.addMethod(mg.getMethod());
+        assertEquals(5, load(cg).getMethod("count", int.class).invoke(null, 5));
+    }
+
+    @Test
+    void testStraightLineCodeNeedsNoFrames() {
+        final ConstantPoolGen cp = new ConstantPoolGen();
+        final InstructionList il = new InstructionList();
+        il.append(InstructionConst.ICONST_0);
+        il.append(InstructionConst.IRETURN);
+        final MethodGen mg = new MethodGen(Const.ACC_STATIC, Type.INT, Type.NO_ARGS, null, "zero", "Generated", il, cp);
+        mg.setMaxStack();
+        mg.setStackMap();
+        for (final Attribute attribute : mg.getCodeAttributes()) {
+            assertEquals(false, attribute instanceof StackMap);
+        }
+        assertNull(stackMapOf(mg.getMethod()));
+    }
+
+    @Test
+    void testUnreachableCodeIsReplaced() throws Exception {
+        final ClassGen cg = new ClassGen("Unreachable", "java.lang.Object", "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+        cg.setMajor(Const.MAJOR_1_8);
+        final ConstantPoolGen cp = cg.getConstantPool();
+        final InstructionList il = new InstructionList();
+        final MethodGen mg = new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, Type.INT, Type.NO_ARGS, null, "value", "Unreachable", il, cp);
+        il.append(InstructionConst.ICONST_2);
+        il.append(InstructionConst.IRETURN);
+        // Never executed and would not even be type correct
+        final InstructionHandle deadStart = il.append(InstructionConst.LCONST_0);
+        final BranchHandle deadBranch = il.append(new GOTO(deadStart));
+        final InstructionHandle deadEnd = il.append(InstructionConst.IRETURN);
+        mg.addExceptionHandler(deadStart, deadEnd, deadBranch, null);
+        mg.setMaxStack(2);
+        mg.setStackMap();
+        assertEquals(0, mg.getExceptionHandlers().length);
+        cg.addMethod(mg.getMethod());
+        assertEquals(2, load(cg).getMethod("value").invoke(null));
+    }
+
+    @Test
+    void testWithoutFramesClassIsRejected() throws ClassNotFoundException {
+        final ClassGen cg = new ClassGen(Repository.lookupClass(Sample.class));
+        cg.setMajor(Const.MAJOR_1_8);
+        final Method sum = cg.containsMethod("sum", "(I)J");
+        final MethodGen mg = new MethodGen(sum, cg.getClassName(), cg.getConstantPool());
+        mg.getInstructionList().insert(InstructionConst.NOP);
+        cg.replaceMethod(sum, mg.getMethod());
+        final VerifyError error = assertThrows(VerifyError.class, () -> {
+            try {
+                load(cg).getMethod("sum", int.class).invoke(null, 1);
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+        });
+        assertNotNull(error.getMessage());
+    }
+}
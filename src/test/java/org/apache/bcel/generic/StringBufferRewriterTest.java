@@ -0,0 +1,163 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.generic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.Method;
+import org.junit.jupiter.api.Test;
+
+class StringBufferRewriterTest {
+
+    /**
+     * Code using StringBuffer the way it was written before StringBuilder.
+     */
+    public static final class Legacy {
+
+        public static String concat(final int n) {
+            final StringBuffer sb = new StringBuffer("n=");
+            for (int i = 0; i < n; i++) {
+                sb.append(i).append(',');
+            }
+            return sb.reverse().reverse().toString();
+        }
+
+        static void fill(final StringBuffer sb) {
+            sb.append("filled");
+        }
+
+        public static String merged(final StringBuffer param, final boolean b) {
+            final StringBuffer sb = b ? new StringBuffer("new") : param;
+            return sb.append('!').toString();
+        }
+
+        public static String passed() {
+            final StringBuffer sb = new StringBuffer();
+            fill(sb);
+            return sb.toString();
+        }
+
+        public static StringBuffer returned() {
+            return new StringBuffer("returned");
+        }
+
+        public static String twoBuffers(final Object o) {
+            final StringBuffer kept = new StringBuffer();
+            final StringBuffer escaping = new StringBuffer();
+            fill(escaping);
+            return kept.append(o).append(kept.length()).append((CharSequence) escaping).toString();
+        }
+    }
+
+    private static boolean references(final MethodGen mg, final String className) {
+        final ConstantPoolGen cp = mg.getConstantPool();
+        for (final InstructionHandle ih : mg.getInstructionList()) {
+            final Instruction i = ih.getInstruction();
+            if (i instanceof NEW && ((NEW) i).getLoadClassType(cp).getClassName().equals(className)
+                || i instanceof InvokeInstruction && ((InvokeInstruction) i).getReferenceType(cp).toString().equals(className)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Test
+    void testBufferArgumentsEscape() {
+        // return new StringBuffer("a").compareTo(new StringBuffer("b")); (StringBuilder has no compareTo(StringBuffer))
+        final ClassGen cg = new ClassGen("Buffers", "java.lang.Object", "<generated>", 0, null);
+        final InstructionList il = new InstructionList();
+        final MethodGen mg = new MethodGen(Const.ACC_STATIC, Type.INT, Type.NO_ARGS, null, "test", "Buffers", il, cg.getConstantPool());
+        final InstructionFactory factory = new InstructionFactory(cg);
+        for (final String s : new String[] {"a", "b"}) {
+            il.append(factory.createNew(Type.STRINGBUFFER));
+            il.append(InstructionConst.DUP);
+            il.append(new PUSH(cg.getConstantPool(), s));
+            il.append(factory.createInvoke("java.lang.StringBuffer", "<init>", Type.VOID, new Type[] {Type.STRING}, Const.INVOKESPECIAL));
+        }
+        il.append(factory.createInvoke("java.lang.StringBuffer", "compareTo", Type.INT, new Type[] {Type.STRINGBUFFER}, Const.INVOKEVIRTUAL));
+        il.append(InstructionConst.IRETURN);
+        assertFalse(new StringBufferRewriter().apply(mg));
+        assertFalse(references(mg, "java.lang.StringBuilder"));
+    }
+
+    @Test
+    void testRewriteLegacyCode() throws Exception {
+        final ClassGen cg = new ClassGen(Repository.lookupClass(Legacy.class));
+        final Map<String, MethodGen> methods = new HashMap<>();
+        final Map<String, Boolean> changed = new HashMap<>();
+        final Method[] original = cg.getMethods();
+        for (int k = 0; k < original.length; k++) {
+            final MethodGen mg = new MethodGen(original[k], cg.getClassName(), cg.getConstantPool());
+            changed.put(mg.getName(), new StringBufferRewriter().apply(mg));
+            mg.setStackMap();
+            cg.setMethodAt(mg.getMethod(), k);
+            methods.put(mg.getName(), mg);
+        }
+        assertTrue(changed.get("concat"));
+        assertFalse(references(methods.get("concat"), "java.lang.StringBuffer"));
+        assertEquals("java.lang.StringBuilder", methods.get("concat").getLocalVariables()[1].getType().toString());
+        // Buffers that leave the method or meet one that does are kept
+        assertFalse(changed.get("fill"));
+        assertFalse(changed.get("merged"));
+        assertFalse(changed.get("passed"));
+        assertFalse(changed.get("returned"));
+        assertTrue(changed.get("twoBuffers"));
+        assertTrue(references(methods.get("twoBuffers"), "java.lang.StringBuffer"));
+        assertTrue(references(methods.get("twoBuffers"), "java.lang.StringBuilder"));
+        final Class<?> clazz = new ByteArrayClassLoader().defineClass(cg.getJavaClass());
+        assertEquals("n=0,1,2,", clazz.getMethod("concat", int.class).invoke(null, 3));
+        assertEquals("new!", clazz.getMethod("merged", StringBuffer.class, boolean.class).invoke(null, null, true));
+        assertEquals("param!", clazz.getMethod("merged", StringBuffer.class, boolean.class).invoke(null, new StringBuffer("param"), false));
+        assertEquals("filled", clazz.getMethod("passed").invoke(null));
+        assertEquals("x1filled", clazz.getMethod("twoBuffers", Object.class).invoke(null, "x"));
+    }
+
+    @Test
+    void testSharedValueEscapes() {
+        // StringBuffer sb = x == 0 ? new StringBuffer() : new StringBuffer("a"); return sb; (both escape)
+        final ClassGen cg = new ClassGen("Buffers", "java.lang.Object", "<generated>", 0, null);
+        final InstructionList il = new InstructionList();
+        final MethodGen mg = new MethodGen(0, Type.STRINGBUFFER, new Type[] {Type.INT}, null, "test", "Buffers", il, cg.getConstantPool());
+        final InstructionFactory factory = new InstructionFactory(cg);
+        il.append(new ILOAD(1));
+        final BranchHandle ifne = il.append(new IFNE(null));
+        il.append(factory.createNew(Type.STRINGBUFFER));
+        il.append(InstructionConst.DUP);
+        il.append(factory.createInvoke("java.lang.StringBuffer", "<init>", Type.VOID, Type.NO_ARGS, Const.INVOKESPECIAL));
+        final BranchHandle skip = il.append(new GOTO(null));
+        ifne.setTarget(il.append(factory.createNew(Type.STRINGBUFFER)));
+        il.append(InstructionConst.DUP);
+        il.append(factory.createInvoke("java.lang.StringBuffer", "<init>", Type.VOID, Type.NO_ARGS, Const.INVOKESPECIAL));
+        skip.setTarget(il.append(InstructionConst.ARETURN));
+        assertFalse(new StringBufferRewriter().apply(mg));
+        // Once it only calls toString(), both become StringBuilders
+        skip.setTarget(il.insert(skip.getTarget(), factory.createInvoke("java.lang.StringBuffer", "toString", Type.STRING, Type.NO_ARGS, Const.INVOKEVIRTUAL)));
+        mg.setReturnType(Type.STRING);
+        assertTrue(new StringBufferRewriter().apply(mg));
+        assertFalse(references(mg, "java.lang.StringBuffer"));
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.generic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.bcel.Const;
+import org.junit.jupiter.api.Test;
+
+class SubroutineInlinerTest {
+
+    private static final ObjectType ARITHMETIC_EXCEPTION = new ObjectType("java.lang.ArithmeticException");
+
+    /**
+     * What the method built by {@link #testNestedSubroutines()} computes.
+     */
+    private static int expected(int x) {
+        x *= 2;
+        final boolean failed = x == 0;
+        x += 1;
+        if (x == 7) {
+            x += 100;
+        }
+        x *= 3;
+        return failed ? -x : x;
+    }
+
+    private final ClassGen cg = new ClassGen("Subroutines", "java.lang.Object", "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, null);
+    private final MethodGen mg = TestMethods.create(cg);
+    private final InstructionList il = mg.getInstructionList();
+
+    @Test
+    void testNestedSubroutines() throws Exception {
+        // try { x *= 2; 100 / x; } catch (ArithmeticException e) { finally; return -x; } finally; return x;
+        final InstructionHandle tryStart = il.append(new ILOAD(0));
+        il.append(InstructionConst.ICONST_2);
+        il.append(InstructionConst.IMUL);
+        il.append(new ISTORE(0));
+        il.append(new BIPUSH((byte) 100));
+        il.append(new ILOAD(0));
+        il.append(InstructionConst.IDIV);
+        final InstructionHandle tryEnd = il.append(InstructionConst.POP);
+        final BranchHandle callFinally = il.append(new JSR(null));
+        il.append(new ILOAD(0));
+        il.append(InstructionConst.IRETURN);
+        final InstructionHandle handler = il.append(new ASTORE(1));
+        final BranchHandle callFinallyOnException = il.append(new JSR(null));
+        il.append(new ILOAD(0));
+        il.append(InstructionConst.INEG);
+        il.append(InstructionConst.IRETURN);
+        // finally: x += 1; inner
+        final InstructionHandle finallyEntry = il.append(new ASTORE(2));
+        il.append(new IINC(0, 1));
+        final BranchHandle callInner = il.append(new JSR(null));
+        il.append(new RET(2));
+        // inner: try { 1 / (x - 7); } catch (ArithmeticException e) { x += 100; } x *= 3;
+        final InstructionHandle innerEntry = il.append(new ASTORE(3));
+        final InstructionHandle innerTryStart = il.append(InstructionConst.ICONST_1);
+        il.append(new ILOAD(0));
+        il.append(new BIPUSH((byte) 7));
+        il.append(InstructionConst.ISUB);
+        il.append(InstructionConst.IDIV);
+        final InstructionHandle innerTryEnd = il.append(InstructionConst.POP);
+        final BranchHandle skipHandler = il.append(new GOTO(null));
+        final InstructionHandle innerHandler = il.append(InstructionConst.POP);
+        il.append(new IINC(0, 100));
+        final InstructionHandle innerEnd = il.append(new ILOAD(0));
+        il.append(InstructionConst.ICONST_3);
+        il.append(InstructionConst.IMUL);
+        il.append(new ISTORE(0));
+        il.append(new RET(3));
+        callFinally.setTarget(finallyEntry);
+        callFinallyOnException.setTarget(finallyEntry);
+        callInner.setTarget(innerEntry);
+        skipHandler.setTarget(innerEnd);
+        mg.addExceptionHandler(tryStart, tryEnd, handler, ARITHMETIC_EXCEPTION);
+        mg.addExceptionHandler(innerTryStart, innerTryEnd, innerHandler, ARITHMETIC_EXCEPTION);
+        mg.addLineNumber(innerEnd, 42);
+
+        assertTrue(new SubroutineInliner().apply(mg));
+        for (final InstructionHandle ih : mg.getInstructionList()) {
+            assertFalse(ih.getInstruction() instanceof JsrInstruction || ih.getInstruction() instanceof RET, ih::toString);
+        }
+        // The handler of the inner subroutine is copied for both calls of finally
+        assertEquals(3, mg.getExceptionHandlers().length);
+        assertEquals(2, mg.getLineNumbers().length);
+        cg.setMajor(Const.MAJOR_1_6);
+        mg.setStackMap();
+        cg.addMethod(mg.getMethod());
+
+        final java.lang.reflect.Method test = new ByteArrayClassLoader().defineClass(cg.getJavaClass()).getMethod("test", int.class);
+        for (final int x : new int[] {0, 3, 5, -4}) {
+            assertEquals(expected(x), test.invoke(null, x));
+        }
+    }
+
+    @Test
+    void testRecursiveSubroutine() {
+        final BranchHandle call = il.append(new JSR(null));
+        il.append(new ILOAD(0));
+        il.append(InstructionConst.IRETURN);
+        final InstructionHandle entry = il.append(new ASTORE(1));
+        il.append(new JSR(entry));
+        il.append(new RET(1));
+        call.setTarget(entry);
+        assertThrows(ClassGenException.class, () -> new SubroutineInliner().apply(mg));
+    }
+
+    @Test
+    void testWithoutSubroutines() {
+        il.append(new ILOAD(0));
+        il.append(InstructionConst.IRETURN);
+        assertFalse(new SubroutineInliner().apply(mg));
+        assertSame(il, mg.getInstructionList());
+    }
+}
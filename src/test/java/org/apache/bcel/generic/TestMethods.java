@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.generic;
+
+import org.apache.bcel.Const;
+
+/**
+ * Creates the empty {@code public static int test(int x)} methods the optimization tests generate their code in.
+ */
+final class TestMethods {
+
+    /**
+     * Creates a method of the given class, to be added to it and loaded.
+     */
+    static MethodGen create(final ClassGen cg) {
+        return create(cg.getClassName(), cg.getConstantPool());
+    }
+
+    /**
+     * Creates a method of a class named {@code Test}.
+     */
+    static MethodGen create(final ConstantPoolGen cp) {
+        return create("Test", cp);
+    }
+
+    private static MethodGen create(final String className, final ConstantPoolGen cp) {
+        return new MethodGen(Const.ACC_PUBLIC | Const.ACC_STATIC, Type.INT, new Type[] {Type.INT}, new String[] {"x"}, "test", className,
+            new InstructionList(), cp);
+    }
+
+    private TestMethods() {
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.bcel.generic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Parses the method descriptors of a few JDK classes, from several threads to show contention on the shared caches.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@Fork(value = 1, jvmArgs = "-server")
+@Threads(4)
+@Warmup(iterations = 10)
+@Measurement(iterations = 20)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class TypeBenchmark {
+
+    private String[] descriptors;
+
+    @Benchmark
+    public void argumentTypes(final Blackhole bh) {
+        for (final String descriptor : descriptors) {
+            bh.consume(Type.getArgumentTypes(descriptor));
+        }
+    }
+
+    @Benchmark
+    public void argumentTypesSize(final Blackhole bh) {
+        for (final String descriptor : descriptors) {
+            bh.consume(Type.getArgumentTypesSize(descriptor));
+        }
+    }
+
+    @Benchmark
+    public void returnType(final Blackhole bh) {
+        for (final String descriptor : descriptors) {
+            bh.consume(Type.getReturnType(descriptor));
+        }
+    }
+
+    @Setup
+    public void setup() {
+        final List<String> list = new ArrayList<>();
+        for (final Class<?> cls : new Class<?>[] {String.class, java.util.Arrays.class, java.util.Collections.class, java.util.concurrent.ConcurrentHashMap.class}) {
+            for (final java.lang.reflect.Method method : cls.getDeclaredMethods()) {
+                list.add(Type.getSignature(method));
+            }
+        }
+        descriptors = list.toArray(new String[0]);
+    }
+}
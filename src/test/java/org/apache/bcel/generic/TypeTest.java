@@ -20,9 +20,15 @@ package org.apache.bcel.generic;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.stream.IntStream;
 
 import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.ClassFormatException;
 import org.apache.bcel.classfile.Code;
 import org.apache.bcel.classfile.JavaClass;
 import org.apache.bcel.classfile.Method;
@@ -42,6 +48,59 @@ class TypeTest {
         assertEquals(expectedValue, actualValue, "Type.getType");
     }
 
+    @Test
+    void testArgumentTypesAreCopies() {
+        final String signature = "(I[[Ljava/lang/String;JLjava/util/Map$Entry;)V";
+        final Type[] types = Type.getArgumentTypes(signature);
+        assertEquals(4, types.length);
+        assertEquals(Type.INT, types[0]);
+        assertEquals(new ArrayType(Type.STRING, 2), types[1]);
+        assertEquals(Type.LONG, types[2]);
+        assertEquals(new ObjectType("java.util.Map$Entry"), types[3]);
+        types[0] = Type.VOID;
+        final Type[] again = Type.getArgumentTypes(signature);
+        assertNotSame(types, again);
+        assertEquals(Type.INT, again[0]);
+        assertSame(Type.NO_ARGS, Type.getArgumentTypes("()V"));
+    }
+
+    @Test
+    void testConcurrentParsing() {
+        // More descriptors than cache entries, so threads keep replacing each other's entries
+        IntStream.range(0, 20_000).parallel().forEach(i -> {
+            final String className = "p/C" + i % 3000;
+            final Type[] types = Type.getArgumentTypes("(J[L" + className + ";D)L" + className + ";");
+            assertEquals(3, types.length);
+            assertEquals(new ArrayType(new ObjectType(className.replace('/', '.')), 1), types[1]);
+            assertEquals(new ObjectType(className.replace('/', '.')), Type.getReturnType("(J[L" + className + ";D)L" + className + ";"));
+        });
+    }
+
+    @Test
+    void testGenericSignatures() {
+        assertEquals(new ObjectType("T"), Type.getArgumentTypes("(TT;I)V")[0]);
+        assertEquals(Type.INT, Type.getArgumentTypes("(TT;I)V")[1]);
+        assertEquals("[Ljava/util/List<java/lang/String>;", Type.getReturnType("()[Ljava/util/List<Ljava/lang/String;>;").getSignature());
+    }
+
+    @Test
+    void testInvalidSignatures() {
+        assertThrows(ClassFormatException.class, () -> Type.getArgumentTypes("I)V"));
+        assertThrows(ClassFormatException.class, () -> Type.getArgumentTypes("(I"));
+        assertThrows(ClassFormatException.class, () -> Type.getArgumentTypes("(Ljava/lang/String"));
+        assertThrows(ClassFormatException.class, () -> Type.getType("X"));
+        assertThrows(ClassFormatException.class, () -> Type.getType(""));
+    }
+
+    @Test
+    void testTypeSizes() {
+        assertEquals(7, Type.getArgumentTypesSize("(IJ[DLjava/lang/Object;D)V"));
+        assertEquals(0, Type.getArgumentTypesSize("()V"));
+        assertEquals(2, Type.getReturnTypeSize("()J"));
+        assertEquals(1, Type.getReturnTypeSize("()[J"));
+        assertEquals(0, Type.getReturnTypeSize("(I)V"));
+    }
+
     @Test
     void testInternalTypeNametoSignature() {
         assertNull(Type.internalTypeNameToSignature(null));
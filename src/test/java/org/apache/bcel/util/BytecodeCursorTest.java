@@ -0,0 +1,127 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.ClassFormatException;
+import org.apache.bcel.classfile.Code;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.classfile.Method;
+import org.apache.bcel.generic.BranchInstruction;
+import org.apache.bcel.generic.CPInstruction;
+import org.apache.bcel.generic.IINC;
+import org.apache.bcel.generic.Instruction;
+import org.apache.bcel.generic.InstructionHandle;
+import org.apache.bcel.generic.InstructionList;
+import org.apache.bcel.generic.LocalVariableInstruction;
+import org.apache.bcel.generic.RET;
+import org.apache.bcel.generic.Select;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Tests {@link BytecodeCursor} against {@link InstructionList}.
+ */
+class BytecodeCursorTest {
+
+    private static void assertSameInstructions(final BytecodeCursor cursor, final byte[] code) {
+        cursor.reset(code);
+        for (final InstructionHandle ih : new InstructionList(code)) {
+            assertTrue(cursor.next());
+            final Instruction i = ih.getInstruction();
+            assertEquals(ih.getPosition(), cursor.getPosition());
+            assertEquals(i.getOpcode(), cursor.getOpcode());
+            assertEquals(i.getLength(), cursor.getLength(), i::toString);
+            assertEquals(i instanceof CPInstruction ? ((CPInstruction) i).getIndex() : -1, cursor.getConstantPoolIndex(), i::toString);
+            if (i instanceof LocalVariableInstruction) {
+                assertEquals(((LocalVariableInstruction) i).getIndex(), cursor.getLocalIndex(), i::toString);
+            } else if (i instanceof RET) {
+                assertEquals(((RET) i).getIndex(), cursor.getLocalIndex(), i::toString);
+            } else {
+                assertEquals(-1, cursor.getLocalIndex(), i::toString);
+            }
+            if (i instanceof IINC) {
+                assertEquals(((IINC) i).getIncrement(), cursor.getIncrement());
+            }
+            if (i instanceof BranchInstruction) {
+                final BranchInstruction bi = (BranchInstruction) i;
+                assertEquals(bi.getTarget().getPosition(), cursor.getBranchTarget(), i::toString);
+                if (bi instanceof Select) {
+                    final Select s = (Select) bi;
+                    assertEquals(s.getMatchs().length, cursor.getSwitchCount());
+                    for (int k = 0; k < s.getMatchs().length; k++) {
+                        assertEquals(s.getMatchs()[k], cursor.getSwitchMatch(k));
+                        assertEquals(s.getTargets()[k].getPosition(), cursor.getSwitchTarget(k));
+                    }
+                }
+            } else {
+                assertEquals(-1, cursor.getBranchTarget(), i::toString);
+            }
+        }
+        assertFalse(cursor.next());
+    }
+
+    @ParameterizedTest
+    @ValueSource(classes = {java.util.HashMap.class, java.lang.Character.class, java.util.concurrent.ConcurrentHashMap.class, BCELifier.class,
+        org.apache.bcel.classfile.Utility.class})
+    void testMatchesInstructionList(final Class<?> clazz) throws ClassNotFoundException {
+        final JavaClass javaClass = Repository.lookupClass(clazz);
+        final BytecodeCursor cursor = new BytecodeCursor();
+        for (final Method m : javaClass.getMethods()) {
+            final Code code = m.getCode();
+            if (code != null) {
+                assertSameInstructions(cursor, code.getCode());
+            }
+        }
+    }
+
+    @Test
+    void testImmediateAndWide() {
+        final byte[] code = {Const.BIPUSH, -5, Const.SIPUSH, 0x12, 0x34, (byte) Const.WIDE, (byte) Const.IINC, 0x01, 0x2C, (byte) 0xFF, (byte) 0x9C, (byte) Const.RETURN};
+        final BytecodeCursor cursor = new BytecodeCursor(code);
+        assertTrue(cursor.next());
+        assertEquals(-5, cursor.getImmediate());
+        assertTrue(cursor.next());
+        assertEquals(0x1234, cursor.getImmediate());
+        assertTrue(cursor.next());
+        assertTrue(cursor.isWide());
+        assertEquals(Const.IINC, cursor.getOpcode());
+        assertEquals(6, cursor.getLength());
+        assertEquals(300, cursor.getLocalIndex());
+        assertEquals(-100, cursor.getIncrement());
+        assertTrue(cursor.next());
+        assertFalse(cursor.isWide());
+        assertEquals(Const.RETURN, cursor.getOpcode());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    void testTruncated() {
+        final BytecodeCursor cursor = new BytecodeCursor(new byte[] {Const.SIPUSH, 0x12});
+        assertThrows(ClassFormatException.class, cursor::next);
+    }
+}
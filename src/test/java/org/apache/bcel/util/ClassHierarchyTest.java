@@ -0,0 +1,134 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.bcel.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.bcel.Const;
+import org.apache.bcel.Repository;
+import org.apache.bcel.classfile.ClassFormatException;
+import org.apache.bcel.classfile.JavaClass;
+import org.apache.bcel.generic.ClassGen;
+import org.junit.jupiter.api.Test;
+
+class ClassHierarchyTest {
+
+    private static final String[] CLASSES = {"java.lang.Object", "java.lang.String", "java.lang.Integer", "java.lang.Long", "java.lang.Number",
+        "java.lang.Comparable", "java.lang.CharSequence", "java.io.Serializable", "java.util.ArrayList", "java.util.LinkedList", "java.util.AbstractList",
+        "java.util.List", "java.util.Collection", "java.util.Deque", "java.util.HashMap", "java.util.Map"};
+
+    private static JavaClass generate(final String className, final String superclassName, final String... interfaces) {
+        return new ClassGen(className, superclassName, "<generated>", Const.ACC_PUBLIC | Const.ACC_SUPER, interfaces).getJavaClass();
+    }
+
+    private final ClassHierarchy hierarchy = new ClassHierarchy(SyntheticRepository.getInstance());
+
+    @Test
+    void testAddClass() throws ClassNotFoundException {
+        hierarchy.addClass(generate("Generated", "java.util.ArrayList", "java.lang.Runnable"));
+        assertTrue(hierarchy.instanceOf("Generated", "java.util.AbstractList"));
+        assertTrue(hierarchy.instanceOf("Generated", "java.util.RandomAccess"));
+        assertTrue(hierarchy.implementationOf("Generated", "java.lang.Runnable"));
+        assertFalse(hierarchy.instanceOf("java.util.ArrayList", "Generated"));
+        assertEquals("java.util.AbstractList", hierarchy.getFirstCommonSuperclass("Generated", "java.util.LinkedList"));
+        hierarchy.clear();
+        assertThrows(ClassNotFoundException.class, () -> hierarchy.isInterface("Generated"));
+    }
+
+    @Test
+    void testCyclicInheritance() throws IOException {
+        try (ClassPath classPath = new ClassPath("")) {
+            final ClassPathRepository repository = new ClassPathRepository(classPath);
+            repository.storeClass(generate("CyclicA", "CyclicB"));
+            repository.storeClass(generate("CyclicB", "CyclicA"));
+            assertThrows(ClassFormatException.class, () -> new ClassHierarchy(repository).isInterface("CyclicA"));
+        }
+    }
+
+    @Test
+    void testFirstCommonSuperclass() throws ClassNotFoundException {
+        assertEquals("java.util.AbstractList", hierarchy.getFirstCommonSuperclass("java.util.ArrayList", "java.util.LinkedList"));
+        assertEquals("java.lang.Number", hierarchy.getFirstCommonSuperclass("java.lang.Integer", "java.lang.Long"));
+        assertEquals("java.lang.Object", hierarchy.getFirstCommonSuperclass("java.lang.String", "java.util.List"));
+        assertEquals("java.lang.Object", hierarchy.getFirstCommonSuperclass("java.lang.Object", "java.lang.Long"));
+        assertEquals("java.lang.Integer", hierarchy.getFirstCommonSuperclass("java.lang.Integer", "java.lang.Integer"));
+    }
+
+    @Test
+    void testMatchesJavaClass() throws ClassNotFoundException {
+        // Not the repository of org.apache.bcel.Repository, so JavaClass walks the supertypes
+        final ClassPathRepository repository = new ClassPathRepository(ClassPath.SYSTEM_CLASS_PATH);
+        for (final String className : CLASSES) {
+            final JavaClass clazz = repository.loadClass(className);
+            assertEquals(clazz.isInterface(), hierarchy.isInterface(className), className);
+            for (final String superName : CLASSES) {
+                final JavaClass superClass = repository.loadClass(superName);
+                assertEquals(clazz.instanceOf(superClass), hierarchy.instanceOf(className, superName), () -> className + " instanceof " + superName);
+                if (superClass.isInterface()) {
+                    assertEquals(clazz.implementationOf(superClass), hierarchy.implementationOf(className, superName), className);
+                } else {
+                    assertThrows(IllegalArgumentException.class, () -> hierarchy.implementationOf(className, superName));
+                }
+            }
+        }
+    }
+
+    @Test
+    void testMissingClass() {
+        assertThrows(ClassNotFoundException.class, () -> hierarchy.instanceOf("java.lang.String", "p.Missing"));
+    }
+
+    @Test
+    void testRepositoryChanges() throws ClassNotFoundException {
+        final ClassPathRepository repository = new ClassPathRepository(ClassPath.SYSTEM_CLASS_PATH);
+        final ClassHierarchy hierarchy = new ClassHierarchy(repository);
+        repository.storeClass(generate("Changed", "java.lang.Object"));
+        assertFalse(hierarchy.instanceOf("Changed", "java.lang.Number"));
+        repository.storeClass(generate("Changed", "java.lang.Number"));
+        assertTrue(hierarchy.instanceOf("Changed", "java.lang.Number"));
+        repository.removeClass(repository.findClass("Changed"));
+        assertThrows(ClassNotFoundException.class, () -> hierarchy.isInterface("Changed"));
+    }
+
+    @Test
+    void testStaticRepositoryChanges() throws ClassNotFoundException {
+        final org.apache.bcel.util.Repository repository = Repository.getRepository();
+        try {
+            repository.storeClass(generate("Changed", "java.lang.Object", "java.lang.Runnable"));
+            final JavaClass number = Repository.lookupClass("java.lang.Number");
+            assertFalse(Repository.instanceOf("Changed", "java.lang.Number"));
+            assertFalse(Repository.lookupClass("Changed").instanceOf(number));
+            assertTrue(Repository.implementationOf("Changed", "java.lang.Runnable"));
+            // Replaced behind the back of org.apache.bcel.Repository
+            repository.storeClass(generate("Changed", "java.lang.Number"));
+            assertTrue(Repository.instanceOf("Changed", "java.lang.Number"));
+            assertTrue(Repository.lookupClass("Changed").instanceOf(number));
+            assertFalse(Repository.lookupClass("Changed").implementationOf(Repository.lookupClass("java.lang.Runnable")));
+            assertTrue(Repository.getClassHierarchy().isInterface("java.lang.Runnable"));
+        } finally {
+            Repository.removeClass("Changed");
+        }
+    }
+}